@@ -25,9 +25,15 @@ package org.sakaiproject.announcement.impl;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 import lombok.Setter;
@@ -49,9 +55,13 @@ import org.sakaiproject.message.api.Message;
 import org.sakaiproject.message.api.MessageChannel;
 import org.sakaiproject.message.api.MessageChannelEdit;
 import org.sakaiproject.message.api.MessageEdit;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.site.api.ToolConfiguration;
 import org.sakaiproject.time.api.Time;
 import org.sakaiproject.util.BaseDbDoubleStorage;
 import org.sakaiproject.util.DoubleStorageUser;
+import org.sakaiproject.util.MergedList;
 import org.sakaiproject.util.Xml;
 import org.sakaiproject.javax.Filter;
 import org.sakaiproject.javax.PagingPosition;
@@ -345,6 +355,12 @@ public class DbAnnouncementService extends BaseAnnouncementService
 			return super.getResources(channel, afterDate, limitedToLatest, draftsForId, pubViewOnly);
 		}
 
+		public List getMessages(Map<String, MessageChannel> channels, Time afterDate, Time beforeDate, String beforeId, int limit, String draftsForId,
+				boolean pubViewOnly)
+		{
+			return super.getResources(channels, afterDate, beforeDate, beforeId, limit, draftsForId, pubViewOnly);
+		}
+
 	} // DbStorage
 
 	/**
@@ -609,23 +625,35 @@ public class DbAnnouncementService extends BaseAnnouncementService
 
 		Map<String, List<AnnouncementMessage>> allAnnouncements = new HashMap<>();
 
-		// First grab all the current user's sites
-		m_siteService.getUserSites().forEach(site -> {
-
-			String siteId = site.getId();
-			String channelRef = channelReference(siteId, "main");
-			try {
-				ViewableFilter viewableFilter = new ViewableFilter(null, null, Integer.MAX_VALUE, this);
-				if (maxAgeInDays != null) {
-					long now = Instant.now().toEpochMilli();
-					Time afterDate = m_timeService.newTime(now - (maxAgeInDays * 24 * 60 * 60 * 1000));
-					viewableFilter.setFilter(new MessageSelectionFilter(afterDate, null, false));
-				}
-				allAnnouncements.put(site.getId(), (List<AnnouncementMessage>) getMessages(channelRef, viewableFilter, true, true));
-			} catch (Exception e) {
-				log.warn("Failed to add announcements from site {}", siteId, e);
+		// The channels shown in each of the current user's sites, its own and any merged into it, keyed by the
+		// channel so that all of them are read in one query for just the latest announcements
+		Map<String, Set<String>> siteIdsByChannel = new LinkedHashMap<>();
+		MergedList mergedList = new MergedList();
+		for (Site site : m_siteService.getUserSites()) {
+			String mergedChannels = null;
+			ToolConfiguration tc = site.getToolForCommonId(SAKAI_ANNOUNCEMENT_TOOL_ID);
+			if (tc != null) {
+				mergedChannels = tc.getPlacementConfig().getProperty(PORTLET_CONFIG_PARM_MERGED_CHANNELS);
+			}
+			String channelRef = channelReference(site.getId(), SiteService.MAIN_CONTAINER);
+			for (String ref : mergedList.getChannelReferenceArrayFromDelimitedString(channelRef, mergedChannels)) {
+				siteIdsByChannel.computeIfAbsent(ref, k -> new HashSet<>()).add(site.getId());
 			}
-		});
+		}
+
+		Time afterDate = null;
+		if (maxAgeInDays != null) {
+			afterDate = m_timeService.newTime(Instant.now().minus(maxAgeInDays, ChronoUnit.DAYS).toEpochMilli());
+		}
+		int limit = m_serverConfigurationService.getInt("announcement.user.maxAnnouncements", 50);
+		Filter filter = new PrivacyFilter(new ViewableFilter(null, null, Integer.MAX_VALUE, this));
+
+		for (Message message : getLatestMessages(siteIdsByChannel.keySet(), afterDate, limit, filter)) {
+			Reference ref = m_entityManager.newReference(message.getReference());
+			for (String siteId : siteIdsByChannel.getOrDefault(channelReference(ref.getContext(), ref.getContainer()), Collections.emptySet())) {
+				allAnnouncements.computeIfAbsent(siteId, k -> new ArrayList<>()).add((AnnouncementMessage) message);
+			}
+		}
 
 		return	allAnnouncements;
 	}
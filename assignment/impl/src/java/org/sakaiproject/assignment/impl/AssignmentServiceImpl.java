@@ -53,6 +53,9 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.Stack;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -160,6 +163,7 @@ import org.sakaiproject.taggable.api.TaggingProvider;
 import org.sakaiproject.tasks.api.Priorities;
 import org.sakaiproject.tasks.api.Task;
 import org.sakaiproject.tasks.api.TaskService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
 import org.sakaiproject.time.api.TimeService;
 import org.sakaiproject.time.api.UserTimeService;
 import org.sakaiproject.timesheet.api.TimeSheetEntry;
@@ -235,6 +239,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
     @Setter private SiteService siteService;
     @Setter private TaggingManager taggingManager;
     @Setter private TaskService taskService;
+    @Setter private ThreadLocalManager threadLocalManager;
     @Setter private TimeService timeService;
     @Setter private ToolManager toolManager;
     @Setter private UserDirectoryService userDirectoryService;
@@ -246,6 +251,18 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
     private boolean exposeContentReviewErrorsToUI;
     private boolean createGroupsOnImport;
 
+    /** Reads the attachments of submission zips ahead of the zips being written */
+    private ExecutorService zipPrefetchExecutor;
+    private int zipPrefetchAhead;
+    private long zipPrefetchMaxBodySize;
+
+    /** Attachments already compressed, they are stored in submission zips rather than deflated again */
+    private static final Set<String> ZIP_STORED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar",
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            "mp3", "m4a", "aac", "ogg", "mp4", "m4v", "mov", "webm", "avi", "mkv",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "epub"));
+
     private static ResourceLoader rb = new ResourceLoader("assignment");
 
     public void init() {
@@ -259,6 +276,16 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
         exposeContentReviewErrorsToUI = serverConfigurationService.getBoolean("contentreview.expose.errors.to.ui", true);
         createGroupsOnImport = serverConfigurationService.getBoolean("assignment.create.groups.on.import", true);
 
+        int zipPrefetchThreads = Math.max(1, serverConfigurationService.getInt("assignment.zip.prefetch.threads", 4));
+        zipPrefetchAhead = Math.max(1, serverConfigurationService.getInt("assignment.zip.prefetch.ahead", 8));
+        zipPrefetchMaxBodySize = serverConfigurationService.getInt("assignment.zip.prefetch.maxsize", 10 * 1024 * 1024);
+        AtomicInteger zipPrefetchThreadCount = new AtomicInteger();
+        zipPrefetchExecutor = Executors.newFixedThreadPool(zipPrefetchThreads, r -> {
+            Thread t = new Thread(r, "assignment-zip-prefetch-" + zipPrefetchThreadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
         // register as an entity producer
         entityManager.registerEntityProducer(this, REFERENCE_ROOT);
 
@@ -282,6 +309,12 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
         userMessagingService.importTemplateFromResourceXmlFile("templates/dueReminder.xml", AssignmentConstants.TOOL_ID + ".duereminder");
     }
 
+    public void destroy() {
+        if (zipPrefetchExecutor != null) {
+            zipPrefetchExecutor.shutdownNow();
+        }
+    }
+
     @Override
     public boolean isTimeSheetEnabled(String siteId) {
        return timeSheetService.isTimeSheetEnabled(siteId);
@@ -3328,6 +3361,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
     // TODO zipSubmissions and zipGroupSubmissions should be combined
     private void zipSubmissions(String assignmentReference, String assignmentTitle, Assignment.GradeType gradeType, Assignment.SubmissionType typeOfSubmission, Iterator submissions, OutputStream outputStream, StringBuilder exceptionMessage, boolean withStudentSubmissionText, boolean withStudentSubmissionAttachment, boolean withGradeFile, boolean withFeedbackText, boolean withFeedbackComment, boolean withFeedbackAttachment, boolean withoutFolders, String gradeFileFormat, boolean includeNotSubmitted, String siteId) {
         ZipOutputStream out = null;
+        AttachmentPrefetcher prefetcher = null;
 
         boolean isAdditionalNotesEnabled = false;
         Site st = null;
@@ -3364,16 +3398,24 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
             }
 
             // allow add assignment members
-            final List<User> allowAddSubmissionUsers = allowAddSubmissionUsers(assignmentReference);
+            final Set<String> allowAddSubmissionUserIds = allowAddSubmissionUsers(assignmentReference).stream().map(User::getId).collect(Collectors.toSet());
+
+            final List<AssignmentSubmission> orderedSubmissions = new ArrayList<>();
+            submissions.forEachRemaining(o -> orderedSubmissions.add((AssignmentSubmission) o));
+            submissions = orderedSubmissions.iterator();
+            final Map<String, User> submitterUsers = getSubmitterUsers(orderedSubmissions);
+            prefetcher = prefetchZipAttachments(orderedSubmissions, typeOfSubmission, withStudentSubmissionAttachment, withFeedbackAttachment, includeNotSubmitted);
 
             // Create the ZIP file
             String caughtException = null;
             String caughtStackTrace = null;
             final StringBuilder submittersAdditionalNotesHtml = new StringBuilder();
+            int zipped = 0;
 
             while (submissions.hasNext()) {
             	final AssignmentSubmission s = (AssignmentSubmission) submissions.next();
                 boolean isAnon = assignmentUsesAnonymousGrading(s.getAssignment());
+                logZipProgress(assignmentReference, ++zipped, orderedSubmissions.size());
                 //SAK-29314 added a new value where it's by default submitted but is marked when the user submits
                 if ((s.getSubmitted() && s.getUserSubmission()) || includeNotSubmitted) {
                     // get the submitter who submitted the submission see if the user is still in site
@@ -3381,18 +3423,17 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                     try {
                         User u = null;
                         if (assignmentSubmitter.isPresent()) {
-                            u = userDirectoryService.getUser(assignmentSubmitter.get().getSubmitter());
+                            u = submitterUsers.get(assignmentSubmitter.get().getSubmitter());
                         }
-                        if (allowAddSubmissionUsers.contains(u)) {
+                        if (u != null && allowAddSubmissionUserIds.contains(u.getId())) {
                         	String submittersName = root;
 
                             final User[] submitters = s.getSubmitters().stream().map(p -> {
-                                try {
-                                    return userDirectoryService.getUser(p.getSubmitter());
-                                } catch (UserNotDefinedException e) {
-                                    log.warn("User not found {}, {}", p.getSubmitter(), e.getMessage());
+                                User user = submitterUsers.get(p.getSubmitter());
+                                if (user == null) {
+                                    log.warn("User not found {}", p.getSubmitter());
                                 }
-                                return null;
+                                return user;
                             }).filter(Objects::nonNull).toArray(User[]::new);
 
                             String submittersString = "";
@@ -3526,7 +3567,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                                     }
 
                                     // add all submission attachment into the submission attachment folder
-                                    zipAttachments(out, submittersName, sSubAttachmentFolder, s.getAttachments());
+                                    zipAttachments(out, prefetcher, submittersName, sSubAttachmentFolder, s.getAttachments());
                                     out.closeEntry();
                                 }
 
@@ -3549,7 +3590,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                                     }
 
                                     // add all feedback attachment folder
-                                    zipAttachments(out, submittersName, feedbackSubAttachmentFolder, s.getFeedbackAttachments());
+                                    zipAttachments(out, prefetcher, submittersName, feedbackSubAttachmentFolder, s.getFeedbackAttachments());
                                     out.closeEntry();
                                 }
                             } // if
@@ -3624,6 +3665,9 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
         } catch (IOException e) {
             exceptionMessage.append("IOException for creating submission zip file for assignment " + "\"" + assignmentTitle + "\" exception: " + e + "\n");
         } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
             // Complete the ZIP file
             if (out != null) {
                 try {
@@ -3644,6 +3688,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
     // TODO zipSubmissions and zipGroupSubmissions should be combined
     protected void zipGroupSubmissions(String assignmentReference, String assignmentTitle, String gradeTypeString, Assignment.SubmissionType typeOfSubmission, Iterator submissions, OutputStream outputStream, StringBuilder exceptionMessage, boolean withStudentSubmissionText, boolean withStudentSubmissionAttachment, boolean withGradeFile, boolean withFeedbackText, boolean withFeedbackComment, boolean withFeedbackAttachment, String gradeFileFormat, boolean includeNotSubmitted) {
         ZipOutputStream out = null;
+        AttachmentPrefetcher prefetcher = null;
         try {
             out = new ZipOutputStream(outputStream);
             out.setLevel(serverConfigurationService.getInt("zip.compression.level", 1));
@@ -3665,13 +3710,21 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
             // allow add assignment members
             allowAddSubmissionUsers(assignmentReference);
 
+            final List<AssignmentSubmission> orderedSubmissions = new ArrayList<>();
+            submissions.forEachRemaining(o -> orderedSubmissions.add((AssignmentSubmission) o));
+            submissions = orderedSubmissions.iterator();
+            final Map<String, User> submitterUsers = getSubmitterUsers(orderedSubmissions);
+            prefetcher = prefetchZipAttachments(orderedSubmissions, typeOfSubmission, withStudentSubmissionAttachment, withFeedbackAttachment, includeNotSubmitted);
+
             // Create the ZIP file
             String caughtException = null;
             String caughtStackTrace = null;
+            int zipped = 0;
             while (submissions.hasNext()) {
                 final AssignmentSubmission s = (AssignmentSubmission) submissions.next();
 
                 log.debug(this + " ZIPGROUP " + (s == null ? "null" : s.getId()));
+                logZipProgress(assignmentReference, ++zipped, orderedSubmissions.size());
 
                 //SAK-29314 added a new value where it's by default submitted but is marked when the user submits
                 if ((s.getSubmitted() && s.getUserSubmission()) || includeNotSubmitted) {
@@ -3679,12 +3732,11 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                     	final StringBuilder submittersName = new StringBuilder(root);
 
                         final User[] submitters = s.getSubmitters().stream().map(p -> {
-                            try {
-                                return userDirectoryService.getUser(p.getSubmitter());
-                            } catch (UserNotDefinedException e) {
+                            User user = submitterUsers.get(p.getSubmitter());
+                            if (user == null) {
                                 log.warn("User not found {}", p.getSubmitter());
-                                return null;
                             }
+                            return user;
                         }).filter(Objects::nonNull).toArray(User[]::new);
 
                         final String groupTitle = siteService.getSite(s.getAssignment().getContext()).getGroup(s.getGroupId()).getTitle();
@@ -3749,7 +3801,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                                 final ZipEntry sSubAttachmentFolderEntry = new ZipEntry(sSubAttachmentFolder);
                                 out.putNextEntry(sSubAttachmentFolderEntry);
                                 // add all submission attachment into the submission attachment folder
-                                zipAttachments(out, submittersName.toString(), sSubAttachmentFolder, s.getAttachments());
+                                zipAttachments(out, prefetcher, submittersName.toString(), sSubAttachmentFolder, s.getAttachments());
                                 out.closeEntry();
                             }
 
@@ -3766,7 +3818,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                             	final ZipEntry feedbackSubAttachmentFolderEntry = new ZipEntry(feedbackSubAttachmentFolder);
                                 out.putNextEntry(feedbackSubAttachmentFolderEntry);
                                 // add all feedback attachment folder
-                                zipAttachments(out, submittersName.toString(), feedbackSubAttachmentFolder, s.getFeedbackAttachments());
+                                zipAttachments(out, prefetcher, submittersName.toString(), feedbackSubAttachmentFolder, s.getFeedbackAttachments());
                                 out.closeEntry();
                             }
 
@@ -3807,6 +3859,9 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
         } catch (IOException e) {
             exceptionMessage.append("IOException for creating submission zip file for assignment " + "\"" + assignmentTitle + "\" exception: " + e + "\n");
         } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
             // Complete the ZIP file
             if (out != null) {
                 try {
@@ -3824,6 +3879,43 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
         }
     }
 
+    /**
+     * Look up all the submitters of the submissions in one go, rather than one user at a time
+     */
+    private Map<String, User> getSubmitterUsers(List<AssignmentSubmission> submissions) {
+        Set<String> submitterIds = submissions.stream()
+                .flatMap(s -> s.getSubmitters().stream())
+                .map(AssignmentSubmissionSubmitter::getSubmitter)
+                .collect(Collectors.toSet());
+        return userDirectoryService.getUsers(submitterIds).stream()
+                .collect(Collectors.toMap(User::getId, u -> u, (u1, u2) -> u1));
+    }
+
+    /**
+     * Start reading the attachments the zip of the submissions will hold, in the order they are written
+     */
+    private AttachmentPrefetcher prefetchZipAttachments(List<AssignmentSubmission> submissions, Assignment.SubmissionType typeOfSubmission, boolean withStudentSubmissionAttachment, boolean withFeedbackAttachment, boolean includeNotSubmitted) {
+        final boolean withAttachments = withStudentSubmissionAttachment
+                && typeOfSubmission != Assignment.SubmissionType.TEXT_ONLY_ASSIGNMENT_SUBMISSION
+                && typeOfSubmission != Assignment.SubmissionType.NON_ELECTRONIC_ASSIGNMENT_SUBMISSION;
+        final List<String> references = new ArrayList<>();
+        for (AssignmentSubmission s : submissions) {
+            if ((s.getSubmitted() && s.getUserSubmission()) || includeNotSubmitted) {
+                if (withAttachments) references.addAll(s.getAttachments());
+                if (withFeedbackAttachment) references.addAll(s.getFeedbackAttachments());
+            }
+        }
+        return new AttachmentPrefetcher(zipPrefetchExecutor, sessionManager, threadLocalManager,
+                r -> contentHostingService.getResource(removeReferencePrefix(r)),
+                references, zipPrefetchAhead, zipPrefetchMaxBodySize);
+    }
+
+    private void logZipProgress(String assignmentReference, int zipped, int total) {
+        if (zipped % 100 == 0 || zipped == total) {
+            log.debug("Zipped {} of {} submissions for {}", zipped, total, assignmentReference);
+        }
+    }
+
 	private void createTextZipEntry(ZipOutputStream out, final String zipEntryName, final String textEntryString)
 			throws IOException {
 		final ZipEntry textEntry = new ZipEntry(zipEntryName);
@@ -3852,14 +3944,14 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
     }
 
     // TODO refactor this
-    private void zipAttachments(ZipOutputStream out, String submittersName, String sSubAttachmentFolder, Collection<String> attachments) {
+    private void zipAttachments(ZipOutputStream out, AttachmentPrefetcher prefetcher, String submittersName, String sSubAttachmentFolder, Collection<String> attachments) {
         int attachedUrlCount = 0;
         InputStream content = null;
         Map<String, Integer> done = new HashMap<>();
         for (String r : attachments) {
             try {
-                String attachId = removeReferencePrefix(r);
-                ContentResource resource = contentHostingService.getResource(attachId);
+                AttachmentPrefetcher.Prefetched prefetched = prefetcher.next(r);
+                ContentResource resource = prefetched.getResource();
 
                 String contentType = resource.getContentType();
 
@@ -3878,6 +3970,42 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                     attachedUrlCount++;
                 }
 
+                String candidateName = sSubAttachmentFolder + displayName;
+                String realName = null;
+                Integer already = done.get(candidateName);
+                if (already == null) {
+                    realName = candidateName;
+                    done.put(candidateName, 1);
+                } else {
+                    String fileName = FilenameUtils.removeExtension(candidateName);
+                    String fileExt = FilenameUtils.getExtension(candidateName);
+                    if (!"".equals(fileExt.trim())) {
+                        fileExt = "." + fileExt;
+                    }
+                    realName = fileName + "+" + already + fileExt;
+                    done.put(candidateName, already + 1);
+                }
+
+                byte[] body = prefetched.getBody();
+                if (body != null) {
+                    // read ahead, written from memory
+                    ZipEntry attachmentEntry = new ZipEntry(realName);
+                    if (ZIP_STORED_EXTENSIONS.contains(FilenameUtils.getExtension(realName).toLowerCase())) {
+                        attachmentEntry.setMethod(ZipEntry.STORED);
+                        attachmentEntry.setSize(body.length);
+                        attachmentEntry.setCompressedSize(body.length);
+                        attachmentEntry.setCrc(prefetched.getCrc());
+                    }
+                    out.putNextEntry(attachmentEntry);
+                    out.write(body);
+                    try {
+                        out.closeEntry(); // The zip entry need to be closed
+                    } catch (IOException ioException) {
+                        log.warn(":zipAttachments: problem closing zip entry " + ioException);
+                    }
+                    continue;
+                }
+
                 // buffered stream input
                 content = resource.streamContent();
                 byte data[] = new byte[1024 * 10];
@@ -3885,22 +4013,6 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                 try {
                     bContent = new BufferedInputStream(content, data.length);
 
-                    String candidateName = sSubAttachmentFolder + displayName;
-                    String realName = null;
-                    Integer already = done.get(candidateName);
-                    if (already == null) {
-                        realName = candidateName;
-                        done.put(candidateName, 1);
-                    } else {
-                        String fileName = FilenameUtils.removeExtension(candidateName);
-                        String fileExt = FilenameUtils.getExtension(candidateName);
-                        if (!"".equals(fileExt.trim())) {
-                            fileExt = "." + fileExt;
-                        }
-                        realName = fileName + "+" + already + fileExt;
-                        done.put(candidateName, already + 1);
-                    }
-
                     ZipEntry attachmentEntry = new ZipEntry(realName);
                     out.putNextEntry(attachmentEntry);
                     int bCount = -1;
@@ -3946,6 +4058,7 @@ public class AssignmentServiceImpl implements AssignmentService, EntityTransferr
                     } catch (IOException ioException) {
                         log.warn(":zipAttachments: problem closing Inputstream content " + ioException);
                     }
+                    content = null;
                 }
             }
         } // for
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.assignment.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.sakaiproject.assignment.api.AssignmentConstants;
+import org.sakaiproject.content.api.ContentResource;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.exception.ServerOverloadException;
+import org.sakaiproject.exception.TypeException;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+import lombok.Getter;
+
+/**
+ * Reads the attachments of a submissions zip ahead of the zip being written. The zip is still written in
+ * order on the request thread, but the attachments it needs next are read on other threads meanwhile.
+ *
+ * At most a fixed number of attachments are read ahead, and only the bodies up to a maximum size are held
+ * in memory, bigger ones are streamed when their turn comes. Attachments are asked for in the order they
+ * were given, the ones skipped over are dropped.
+ */
+class AttachmentPrefetcher implements AutoCloseable {
+
+    @FunctionalInterface
+    interface Loader {
+        ContentResource load(String reference) throws PermissionException, IdUnusedException, TypeException;
+    }
+
+    /** An attachment read ahead, with its body when it is small enough to hold in memory */
+    static class Prefetched {
+        private final ContentResource resource;
+        private final Exception error;
+        /** The body, null when it wasn't read ahead */
+        @Getter private final byte[] body;
+        /** The CRC-32 of the body, zip entries that are stored rather than deflated need it up front */
+        @Getter private final long crc;
+
+        private Prefetched(ContentResource resource, byte[] body, long crc, Exception error) {
+            this.resource = resource;
+            this.body = body;
+            this.crc = crc;
+            this.error = error;
+        }
+
+        ContentResource getResource() throws PermissionException, IdUnusedException, TypeException, ServerOverloadException, IOException {
+            if (error instanceof PermissionException) throw (PermissionException) error;
+            if (error instanceof IdUnusedException) throw (IdUnusedException) error;
+            if (error instanceof TypeException) throw (TypeException) error;
+            if (error instanceof ServerOverloadException) throw (ServerOverloadException) error;
+            if (error instanceof IOException) throw (IOException) error;
+            if (error instanceof RuntimeException) throw (RuntimeException) error;
+            return resource;
+        }
+    }
+
+    private static class Pending {
+        private final String reference;
+        private final Future<Prefetched> future;
+
+        private Pending(String reference, Future<Prefetched> future) {
+            this.reference = reference;
+            this.future = future;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final SessionManager sessionManager;
+    private final ThreadLocalManager threadLocalManager;
+    private final Loader loader;
+    private final int ahead;
+    private final long maxBodySize;
+    private final Iterator<String> references;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private final Session session;
+
+    /**
+     * @param references the attachments in the order they will be asked for
+     * @param ahead how many attachments to read ahead
+     * @param maxBodySize the biggest body read into memory, in bytes
+     */
+    AttachmentPrefetcher(ExecutorService executor, SessionManager sessionManager, ThreadLocalManager threadLocalManager, Loader loader, List<String> references, int ahead, long maxBodySize) {
+        this.executor = executor;
+        this.sessionManager = sessionManager;
+        this.threadLocalManager = threadLocalManager;
+        this.loader = loader;
+        this.references = references.iterator();
+        this.ahead = ahead;
+        this.maxBodySize = maxBodySize;
+        // the attachments are read as the user downloading them
+        this.session = sessionManager.getCurrentSession();
+        fill();
+    }
+
+    /**
+     * Get the next attachment, dropping any read ahead before it that weren't asked for.
+     */
+    Prefetched next(String reference) {
+        Pending p;
+        while ((p = pending.poll()) != null) {
+            if (p.reference.equals(reference)) {
+                fill();
+                try {
+                    return p.future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return load(reference);
+                } catch (ExecutionException | CancellationException e) {
+                    return load(reference);
+                }
+            }
+            p.future.cancel(false);
+        }
+        // not in the list given, read it now
+        return load(reference);
+    }
+
+    private void fill() {
+        while (pending.size() < ahead && references.hasNext()) {
+            String reference = references.next();
+            pending.add(new Pending(reference, executor.submit(() -> {
+                sessionManager.setCurrentSession(session);
+                try {
+                    return load(reference);
+                } finally {
+                    // the pool threads are reused, don't leave this user's session or request state on them
+                    threadLocalManager.clear();
+                }
+            })));
+        }
+    }
+
+    private Prefetched load(String reference) {
+        ContentResource resource;
+        try {
+            resource = loader.load(reference);
+        } catch (PermissionException | IdUnusedException | TypeException | RuntimeException e) {
+            return new Prefetched(null, null, 0, e);
+        }
+        if ("true".equals(resource.getProperties().getProperty(AssignmentConstants.PROP_INLINE_SUBMISSION))
+                || resource.getContentLength() > maxBodySize) {
+            return new Prefetched(resource, null, 0, null);
+        }
+        try (InputStream in = resource.streamContent()) {
+            byte[] body = in != null ? IOUtils.toByteArray(in) : new byte[0];
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            return new Prefetched(resource, body, crc.getValue(), null);
+        } catch (ServerOverloadException | IOException e) {
+            return new Prefetched(resource, null, 0, e);
+        }
+    }
+
+    /**
+     * Drop the attachments read ahead that weren't asked for.
+     */
+    @Override
+    public void close() {
+        Pending p;
+        while ((p = pending.poll()) != null) {
+            p.future.cancel(false);
+        }
+    }
+}
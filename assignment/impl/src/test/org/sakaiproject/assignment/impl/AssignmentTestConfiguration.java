@@ -58,6 +58,7 @@ import org.sakaiproject.search.api.SearchService;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.springframework.orm.hibernate.AdditionalHibernateMappings;
 import org.sakaiproject.tasks.api.TaskService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
 import org.sakaiproject.taggable.api.TaggingManager;
 import org.sakaiproject.time.api.TimeService;
 import org.sakaiproject.time.api.UserTimeService;
@@ -320,6 +321,11 @@ public class AssignmentTestConfiguration {
         return mock(TaskService.class);
     }
 
+    @Bean(name = "org.sakaiproject.thread_local.api.ThreadLocalManager")
+    public ThreadLocalManager threadLocalManager() {
+        return mock(ThreadLocalManager.class);
+    }
+
     @Bean(name = "org.sakaiproject.messaging.api.UserMessagingService")
     public UserMessagingService userMessagingService() {
         return mock(UserMessagingService.class);
@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.assignment.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.content.api.ContentResource;
+import org.sakaiproject.entity.api.ResourceProperties;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.Session;
+import org.sakaiproject.tool.api.SessionManager;
+
+/**
+ * Unit tests of reading the attachments of a submissions zip ahead.
+ */
+public class AttachmentPrefetcherTest {
+
+    private ExecutorService executor;
+    private SessionManager sessionManager;
+    private ThreadLocalManager threadLocalManager;
+    private Session session;
+    private Map<String, ContentResource> resources;
+    private List<String> loaded;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        session = mock(Session.class);
+        sessionManager = mock(SessionManager.class);
+        when(sessionManager.getCurrentSession()).thenReturn(session);
+        threadLocalManager = mock(ThreadLocalManager.class);
+        resources = new HashMap<>();
+        for (String reference : Arrays.asList("a", "b", "c", "d")) {
+            resources.put(reference, resource(reference));
+        }
+        loaded = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private ContentResource resource(String content) throws Exception {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        ContentResource resource = mock(ContentResource.class);
+        when(resource.getProperties()).thenReturn(mock(ResourceProperties.class));
+        when(resource.getContentLength()).thenReturn((long) body.length);
+        when(resource.streamContent()).thenAnswer(i -> new ByteArrayInputStream(body));
+        return resource;
+    }
+
+    private AttachmentPrefetcher prefetcher(List<String> references, int ahead) {
+        return new AttachmentPrefetcher(executor, sessionManager, threadLocalManager, r -> {
+            loaded.add(r);
+            if ("denied".equals(r)) throw new PermissionException("user", "content.read", r);
+            return resources.get(r);
+        }, references, ahead, 1024);
+    }
+
+    @Test
+    public void testReadAheadInOrder() throws Exception {
+        List<String> references = Arrays.asList("a", "b", "c", "d");
+        try (AttachmentPrefetcher prefetcher = prefetcher(references, 2)) {
+            for (String reference : references) {
+                AttachmentPrefetcher.Prefetched prefetched = prefetcher.next(reference);
+                assertSame(resources.get(reference), prefetched.getResource());
+                byte[] body = reference.getBytes(StandardCharsets.UTF_8);
+                assertArrayEquals(body, prefetched.getBody());
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                assertEquals(crc.getValue(), prefetched.getCrc());
+            }
+        }
+        // each attachment is read once, in the order they are zipped
+        assertEquals(references, loaded);
+    }
+
+    @Test
+    public void testSkippedAndUnknownAttachments() throws Exception {
+        try (AttachmentPrefetcher prefetcher = prefetcher(Arrays.asList("a", "b", "c"), 1)) {
+            assertSame(resources.get("c"), prefetcher.next("c").getResource());
+            // not in the list, so it is read on the calling thread
+            assertSame(resources.get("d"), prefetcher.next("d").getResource());
+        }
+    }
+
+    @Test
+    public void testBigBodyNotHeld() throws Exception {
+        when(resources.get("a").getContentLength()).thenReturn(4096L);
+        try (AttachmentPrefetcher prefetcher = prefetcher(Arrays.asList("a"), 1)) {
+            AttachmentPrefetcher.Prefetched prefetched = prefetcher.next("a");
+            assertSame(resources.get("a"), prefetched.getResource());
+            assertNull(prefetched.getBody());
+        }
+    }
+
+    @Test
+    public void testLoadErrorRethrown() throws Exception {
+        try (AttachmentPrefetcher prefetcher = prefetcher(Arrays.asList("denied"), 1)) {
+            prefetcher.next("denied").getResource();
+            fail("Expected the permission exception of the read ahead");
+        } catch (PermissionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWorkerThreadCleanedUp() throws Exception {
+        List<String> references = Arrays.asList("a", "b", "c");
+        try (AttachmentPrefetcher prefetcher = prefetcher(references, 2)) {
+            for (String reference : references) {
+                prefetcher.next(reference);
+            }
+        }
+        // the attachments are read as the user, and nothing of the user is left on the pool thread
+        verify(sessionManager, times(3)).setCurrentSession(session);
+        verify(threadLocalManager, times(3)).clear();
+    }
+}
@@ -40,4 +40,19 @@ public interface SiteMembershipUpdater {
 
     public Site addOrUpdateSiteMembership(Map payload, boolean trustedConsumer, User user, Site site) throws LTIException;
 
+    /**
+     *  Like addOrUpdateSiteMembership but the site is not saved, so a whole
+     *  roster can be updated and then saved once with saveSiteMembership.
+     *
+     *  @return true if the user's membership changed and the site needs saving.
+     */
+    public boolean updateSiteMembership(Map payload, boolean trustedConsumer, User user, Site site) throws LTIException;
+
+    /**
+     *  Saves the membership of a site updated with updateSiteMembership.
+     *
+     *  @param site The site who's membership we have updated.
+     */
+    public void saveSiteMembership(Site site) throws LTIException;
+
 }
@@ -20,6 +20,7 @@ package org.sakaiproject.basiclti.util;
 
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.time.Instant;
 
 import org.apache.commons.lang3.StringUtils;
@@ -66,6 +67,10 @@ public class SakaiKeySetUtil {
 
     public static long expirePrevSeconds = LTI_ADVANTAGE_PREVIOUS_RETENTION_SECONDS;
 
+    // Parsing the keys is expensive and they rarely change, so the parsed keys are kept by their serialized form
+    private static final int KEY_PAIR_CACHE_MAX = 10;
+    private static final Map<String, KeyPair> keyPairCache = new ConcurrentHashMap<>();
+
     // These are used during unit testing
     private static Map<String, String> mockIgnite = null;
     public static long testExpireDays = 0;
@@ -163,9 +168,9 @@ public class SakaiKeySetUtil {
         Instant now = Instant.now();
         long nowSeconds = now.getEpochSecond();
 
-        KeyPair nextPair = LTI13Util.deSerializeKeyPair(getCacheKey("next"));
-        KeyPair prevPair = LTI13Util.deSerializeKeyPair(getCacheKey("prev"));
-        KeyPair currentPair = LTI13Util.deSerializeKeyPair(getCacheKey("current"));
+        KeyPair nextPair = deSerializeKeyPair(getCacheKey("next"));
+        KeyPair prevPair = deSerializeKeyPair(getCacheKey("prev"));
+        KeyPair currentPair = deSerializeKeyPair(getCacheKey("current"));
 
         String currentTime = getCacheKey("current_time");
         long currentSeconds = -1;
@@ -243,6 +248,20 @@ public class SakaiKeySetUtil {
         return new KeyPair[] {currentPair, nextPair, prevPair};
     }
 
+    private static KeyPair deSerializeKeyPair(String ser)
+    {
+        if ( ser == null ) return null;
+        KeyPair kp = keyPairCache.get(ser);
+        if ( kp != null ) return kp;
+
+        kp = LTI13Util.deSerializeKeyPair(ser);
+        if ( kp == null ) return null;
+        // Only the current, next and previous keys are in use, older ones can go
+        if ( keyPairCache.size() >= KEY_PAIR_CACHE_MAX ) keyPairCache.clear();
+        keyPairCache.put(ser, kp);
+        return kp;
+    }
+
     public static String getKeySet()
         throws NoSuchAlgorithmException
     {
@@ -28,6 +28,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import org.springframework.cache.Cache;
 
 import java.security.KeyPair;
@@ -112,6 +113,9 @@ public class SakaiKeySetUtilTest {
         assertEquals(pub, pub2);
         assertEquals(priv, priv2);
 
+        // Unchanged keys are not parsed again
+        assertSame(kp, SakaiKeySetUtil.getCurrent());
+
         // Go back in time
         Instant now = Instant.now();
         long nowSeconds = now.getEpochSecond();
@@ -407,6 +407,7 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 
 				String refId = ref.getId();
 				String [] retval = null;
+				long launchStart = System.currentTimeMillis();
 				if ( refId.startsWith("tool:") && refId.length() > 5 )
 				{
 					Map<String,Object> tool;
@@ -458,6 +459,7 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 					handleLTI112(req, res, tool);
 
 					retval = SakaiBLTIUtil.postContentItemSelectionRequest(toolKey, tool, state, nonce, rb, contentReturn, propData);
+					log.debug("Content item selection tool={} prepared in {} ms", toolKey, System.currentTimeMillis() - launchStart);
 
 				}
 				else if ( refId.startsWith("content:") && refId.length() > 8 )
@@ -550,6 +552,7 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 					if ( tool != null ) handleLTI112(req, res, tool);
 
 					retval = SakaiBLTIUtil.postLaunchHTML(content, tool, state, nonce, ltiService, rb);
+					log.debug("Launch content={} tool={} prepared in {} ms", contentKey, toolKey, System.currentTimeMillis() - launchStart);
 
 					// Once we are ready to do the actual launch, remove the assignments protection key
 					session.removeAttribute(launch_code_key);  // You get one try
@@ -33,6 +33,9 @@ import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.lti.api.LTISearchData;
 import org.sakaiproject.lti.api.LTIService;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.memory.api.SimpleConfiguration;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import lombok.extern.slf4j.Slf4j;
@@ -45,6 +48,18 @@ import lombok.extern.slf4j.Slf4j;
  */
 @Slf4j
 public class DBLTIService extends BaseLTIService implements LTIService {
+	/**
+	 * Configuration: how long tools and content items are cached in seconds, 0 turns the cache off.
+	 * Every launch loads its content item and tool, edits made on other servers are seen once this expires.
+	 */
+	public static final String LTI_CACHE_SECONDS = "lti.cache.seconds";
+	public static final int LTI_CACHE_SECONDS_DEFAULT = 60;
+
+	/**
+	 * Tool and content rows by table and key, as any site would see them
+	 */
+	private Cache<String, Map<String, Object>> thingCache = null;
+
 	/**
 	 * 
 	 */
@@ -108,6 +123,13 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 			foorm.autoDDL("lti_tools", LTIService.TOOL_MODEL, m_sql, m_autoDdl, doReset);
 			foorm.autoDDL("lti_memberships_jobs", LTIService.MEMBERSHIPS_JOBS_MODEL, m_sql, m_autoDdl, doReset);
 			super.init();
+
+			int cacheSeconds = serverConfigurationService.getInt(LTI_CACHE_SECONDS, LTI_CACHE_SECONDS_DEFAULT);
+			if (cacheSeconds > 0) {
+				MemoryService memoryService = ComponentManager.get(MemoryService.class);
+				thingCache = memoryService.createCache(getClass().getName() + ".thingCache",
+						new SimpleConfiguration<>(10000, cacheSeconds, 0));
+			}
 		} catch (Exception t) {
 			log.warn("init(): ", t);
 		}
@@ -494,6 +516,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		}
 
         int count = m_sql.dbWriteCount(sql, fields, null, null, false);
+        if (count > 0 && thingCache != null) thingCache.clear();
 
         log.debug("Count={} Update={}", count, sql);
         return new Long(count);
@@ -597,32 +620,34 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		if (siteId == null && !isAdminRole ) {
 			throw new IllegalArgumentException("siteId must be non-null for non-admins");
 		}
-		String statement = "SELECT " + foorm.formSelect(model) + " from " + table
-			+ " WHERE id = ?";
-		Object fields[] = null;
 		String[] columns = foorm.getFields(model);
+		String cacheKey = table + ":" + key;
+		Map<String, Object> thing = thingCache != null ? thingCache.get(cacheKey) : null;
+		if (thing == null) {
+			String statement = "SELECT " + foorm.formSelect(model) + " from " + table
+				+ " WHERE id = ?";
+			log.debug(statement);
+			List<Map<String, Object>> rv = getResultSet(statement, new Object[] { key }, columns);
+			if (rv == null || rv.isEmpty()) return null;
+			if ( rv.size() > 1 ) {
+				log.warn("Warning more than one row returned: {}", statement);
+			}
+			thing = rv.get(0);
+			if (thingCache != null) thingCache.put(cacheKey, thing);
+		}
 
 		// Non-admins only see global (SITE_ID IS NULL) or in their site
 		if (!isAdminRole && Arrays.asList(columns).indexOf(LTI_SITE_ID) >= 0 ) {
-			statement += " AND (SITE_ID = ? OR SITE_ID IS NULL)";
-			fields = new Object[2];
-			fields[0] = key;
-			fields[1] = siteId;
-		} else {
-			fields = new Object[1];
-			fields[0] = key;
+			Object thingSiteId = thing.get(LTI_SITE_ID);
+			if (thingSiteId != null && !thingSiteId.equals(siteId)) return null;
 		}
 
-		log.debug(statement);
-		List rv = getResultSet(statement, fields, columns);
+		// Callers add to what they get back, so they each get their own copy
+		return new HashMap<String, Object>(thing);
+	}
 
-		if ((rv != null) && (rv.size() > 0)) {
-			if ( rv.size() > 1 ) {
-				log.warn("Warning more than one row returned: {}", statement);
-			}
-			return (Map<String, Object>) rv.get(0);
-		}
-		return null;
+	private void uncacheThing(String table, Long key) {
+		if (thingCache != null) thingCache.remove(table + ":" + key);
 	}
 
 	public List<Map<String, Object>> getThingsDao(String table, String[] model,
@@ -802,6 +827,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		}
 
 		int count = m_sql.dbWriteCount(statement, fields, null, null, false);
+		uncacheThing(table, key);
 		log.debug("Count={} Delete={}", count, statement);
 		return count == 1;
 	}
@@ -879,6 +905,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		log.debug("Fields={}", Arrays.toString(fields));
 
 		int count = m_sql.dbWriteCount(sql, fields, null, null, false);
+		uncacheThing(table, key);
 
 		log.debug("Count={} Update={}", count, sql);
 		return count == 1;
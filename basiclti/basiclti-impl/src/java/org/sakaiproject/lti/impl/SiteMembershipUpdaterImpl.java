@@ -71,6 +71,28 @@ public class SiteMembershipUpdaterImpl implements SiteMembershipUpdater {
 
     public Site addOrUpdateSiteMembership(Map payload, boolean trustedConsumer, User user, Site site) throws LTIException {
 
+        if (updateSiteMembership(payload, trustedConsumer, user, site)) {
+            pushAdvisor();
+            String tool_id = (String) payload.get("tool_id");
+            try {
+                siteService.save(site);
+                log.info("Site saved user={} site={}", user.getId(), site.getId());
+
+            } catch (Exception e) {
+                log.warn("Could not add user to site user={} site={}", user.getId(), site.getId());
+                log.warn(e.getLocalizedMessage(), e);
+                throw new LTIException( "launch.join.site", "siteId="+site.getId(),
+                        new LTIException("launch.site.save", "siteId="+ site.getId() + " tool_id=" + tool_id, e));
+            } finally {
+                popAdvisor();
+            }
+        }
+
+        return site;
+    }
+
+    public boolean updateSiteMembership(Map payload, boolean trustedConsumer, User user, Site site) throws LTIException {
+
         String inboundMapStr =  site.getProperties().getProperty(Site.PROP_LTI_INBOUND_ROLE_MAP);
 
         Map.Entry<String, String> roleTuple = roleMapper.mapLTIRole(payload, user, site, trustedConsumer, inboundMapStr);
@@ -84,34 +106,34 @@ public class SiteMembershipUpdaterImpl implements SiteMembershipUpdater {
                 currentRole = currentRoleObject.getId();
             }
 
-            if (!newRole.equals(currentRole)) {
-                site.addMember(user.getId(), newRole, true, false);
-                if (currentRole == null) {
-                    log.info("Added role={} user={} site={} LMS Role={}", newRole, user.getId(), site.getId(), userrole);
-                } else {
-                    log.info("Old role={} New role={} user={} site={} LMS Role={}", currentRole, newRole, user.getId(), site.getId(), userrole);
-                }
-
-                pushAdvisor();
-                String tool_id = (String) payload.get("tool_id");
-                try {
-                    siteService.save(site);
-                    log.info("Site saved role={} user={} site={}", newRole, user.getId(), site.getId());
-
-                } catch (Exception e) {
-                    throw new LTIException("launch.site.save", "siteId="+ site.getId() + " tool_id=" + tool_id, e);
-                } finally {
-                    popAdvisor();
-                }
+            if (newRole.equals(currentRole)) {
+                return false;
+            }
 
+            site.addMember(user.getId(), newRole, true, false);
+            if (currentRole == null) {
+                log.info("Added role={} user={} site={} LMS Role={}", newRole, user.getId(), site.getId(), userrole);
+            } else {
+                log.info("Old role={} New role={} user={} site={} LMS Role={}", currentRole, newRole, user.getId(), site.getId(), userrole);
             }
+            return true;
         } catch (Exception e) {
             log.warn("Could not add user to site role={} user={} site={}", userrole, user.getId(), site.getId());
             log.warn(e.getLocalizedMessage(), e);
             throw new LTIException( "launch.join.site", "siteId="+site.getId(), e);
-
         }
+    }
 
-        return site;
+    public void saveSiteMembership(Site site) throws LTIException {
+
+        pushAdvisor();
+        try {
+            siteService.saveSiteMembership(site);
+            log.info("Site membership saved site={}", site.getId());
+        } catch (Exception e) {
+            throw new LTIException("launch.site.save", "siteId="+ site.getId(), e);
+        } finally {
+            popAdvisor();
+        }
     }
 }
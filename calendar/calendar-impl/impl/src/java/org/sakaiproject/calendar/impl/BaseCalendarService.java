@@ -31,6 +31,7 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
@@ -143,6 +144,13 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 	public static final String SAKAI = "Sakai";
 	
 	private Cache<String, Calendar> cache = null;
+
+	private Cache<String, UpcomingEvents> upcomingEventsCache = null;
+
+	private Cache<String, Long> siteEventsVersionCache = null;
+
+	/** The key of the version of all site and group memberships and permissions, kept with the sites' versions */
+	private static final String MEMBERSHIP_VERSION = "/membership";
 	
 	/**
 	 * Access this service from the inner classes.
@@ -346,64 +354,10 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 	 */
 	public CalendarEventVector getEvents(List references, TimeRange range, boolean reverseOrder) {
 
-		CalendarEventVector calendarEventVector = null;
-
-		if (references != null && range != null)
-		{
-			List allEvents = new ArrayList();
-
-			Iterator it = references.iterator();
-
-			// Add the events for each calendar in our list.
-			while (it.hasNext())
-			{
-				String calendarReference = (String) it.next();
-				Calendar calendarObj = null;
-
-				try
-				{
-					calendarObj = getCalendar(calendarReference);
-				}
-
-				catch (IdUnusedException e)
-				{
-					continue;
-				}
-
-				catch (PermissionException e)
-				{
-					continue;
-				}
-
-				if (calendarObj != null)
-				{
-					Iterator calEvent = null;
-
-					try
-					{
-						calEvent = calendarObj.getEvents(range, null).iterator();
-					}
-
-					catch (PermissionException e1)
-					{
-						continue;
-					}
-
-					allEvents.addAll(new CalendarEventVector(calEvent));
-				}
-			}
-
-			// Do a sort since each of the events implements the Comparable interface.
-			Collections.sort(allEvents);
-			if (reverseOrder) {
-				Collections.reverse(allEvents);
-			}
-
-			// Build up a CalendarEventVector and return it.
-			calendarEventVector = new CalendarEventVector(allEvents.iterator());
-		}
+		if (references == null || range == null) return null;
 
-		return calendarEventVector;
+		// Build up a CalendarEventVector and return it.
+		return new CalendarEventVector(getEvents((List<String>) references, range, reverseOrder, null).iterator());
 	}
 
 	public List<CalendarEvent> getEvents(List<String> references, TimeRange range, boolean reverseOrder, Integer limit) {
@@ -411,10 +365,17 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 		List<CalendarEvent> allEvents = new ArrayList();
 
 		if (references != null && range != null) {
+			// the calendars we store are read together, subscriptions to external calendars one at a time
+			Map<String, Calendar> storedCalendars = new LinkedHashMap<>();
 			for (String ref : references) {
 				try {
 					Calendar calendar = getCalendar(ref);
 
+					if (calendar instanceof BaseCalendarEdit) {
+						storedCalendars.put(calendar.getReference(), calendar);
+						continue;
+					}
+
 					try {
 						allEvents.addAll(calendar.getEvents(range, null, limit));
 					} catch (PermissionException e1) {
@@ -425,16 +386,51 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 				}
 			}
 
+			allEvents.addAll(getStoredEvents(storedCalendars, range, limit));
+
+			// Do a sort since each of the events implements the Comparable interface.
+			Collections.sort(allEvents);
 			if (reverseOrder) {
 				Collections.reverse(allEvents);
-			} else {
-				Collections.sort(allEvents);
 			}
 		}
 
 		return allEvents;
 	}
-	
+
+	/**
+	 * Read the events of several calendars in the range with one query for each batch of calendars, instead of one for each calendar.
+	 * 
+	 * @param calendars
+	 *        The calendars, keyed by reference, the current user can read.
+	 * @param limit
+	 *        The most events to return for each calendar, may be null.
+	 * @return The events in the range, with recurring events expanded.
+	 */
+	protected List<CalendarEvent> getStoredEvents(Map<String, Calendar> calendars, TimeRange range, Integer limit) {
+
+		List<CalendarEvent> rv = new ArrayList<>();
+
+		int batchSize = m_serverConfigurationService.getInt("calendar.merged.batchSize", 500);
+		List<String> refs = new ArrayList<>(calendars.keySet());
+		for (int first = 0; first < refs.size(); first += batchSize) {
+			Map<String, Calendar> batch = new HashMap<>();
+			refs.subList(first, Math.min(first + batchSize, refs.size())).forEach(ref -> batch.put(ref, calendars.get(ref)));
+
+			Map<String, List> eventsByCalendar = new HashMap<>();
+			for (CalendarEvent event : m_storage.getEvents(batch, range)) {
+				eventsByCalendar.computeIfAbsent(event.getCalendarReference(), k -> new ArrayList()).add(event);
+			}
+
+			eventsByCalendar.forEach((ref, events) -> {
+				List<CalendarEvent> filtered = ((BaseCalendarEdit) batch.get(ref)).filterEvents(events, range, null);
+				rv.addAll(limit == null || filtered.size() <= limit ? filtered : filtered.subList(0, limit));
+			});
+		}
+
+		return rv;
+	}
+
 	/**
 	 * Takes several calendar References and merges their events from within a given time range.
 	 * 
@@ -453,37 +449,98 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 
                 if (options == null) { options = Collections.emptyMap(); }
 
-		List<String> allRefs = new ArrayList<>();
+		String siteId = (String) options.get(EventFilterKey.SITE);
+		Integer eventsLimitPerCalendar = (Integer) options.get(EventFilterKey.LIMIT);
 
-		if (options.containsKey(EventFilterKey.SITE)) {
+		// The dashboard and home pages ask for these on every view, so they are kept for a few minutes per user,
+		// unless the calendar of one of the sites, or the sites and groups the user is in, change
+		String userId = m_sessionManager.getCurrentSessionUserId();
+		String cacheKey = userId + ":" + StringUtils.defaultString(siteId, "*") + ":" + eventsLimitPerCalendar;
+		UpcomingEvents upcoming = userId == null ? null : upcomingEventsCache.get(cacheKey);
+		if (upcoming != null && upcoming.isCurrent()) {
+			return upcoming.eventsAfter(Instant.now());
+		}
+
+		List<String> siteIds = new ArrayList<>();
+
+		if (siteId != null) {
 			// A single site has been requested
-			allRefs.add(calendarReference((String) options.get(EventFilterKey.SITE), SiteService.MAIN_CONTAINER));
+			siteIds.add(siteId);
 		} else {
-			// First, grab calendar references for all the project sites
-			allRefs = m_siteService.getSites(SiteService.SelectionType.ACCESS, "project", null, null, null, null)
+			// First, grab all the project sites
+			siteIds = m_siteService.getSites(SiteService.SelectionType.ACCESS, "project", null, null, null, null)
 				.stream()
-				.map(s -> calendarReference(s.getId(), SiteService.MAIN_CONTAINER))
+				.map(Site::getId)
 				.collect(Collectors.toList());
 
 			Map<String, String> propCrit = new HashMap<>();
 
-			// Now grab references of sites in the current academic sessions
-			allRefs.addAll(courseManagementService.getCurrentAcademicSessions().stream().map(as -> {
+			// Now grab the sites in the current academic sessions
+			siteIds.addAll(courseManagementService.getCurrentAcademicSessions().stream().map(as -> {
 
 					propCrit.put(Site.PROP_SITE_TERM, as.getTitle());
-					return m_siteService.getSiteIds(SiteService.SelectionType.ACCESS, "course", null, propCrit, null, null).stream()
-						.map(id -> calendarReference(id, SiteService.MAIN_CONTAINER))
-						.collect(Collectors.toList());
+					return m_siteService.getSiteIds(SiteService.SelectionType.ACCESS, "course", null, propCrit, null, null);
 				}).flatMap(Collection::stream).collect(Collectors.toList()));
 		}
 
+		// the versions are read first, a change while the events are read makes them stale right away
+		Map<String, Long> versions = new HashMap<>();
+		versions.put(MEMBERSHIP_VERSION, siteEventsVersion(MEMBERSHIP_VERSION));
+		siteIds.forEach(id -> versions.put(id, siteEventsVersion(id)));
+
+		List<String> allRefs = siteIds.stream().map(id -> calendarReference(id, SiteService.MAIN_CONTAINER)).collect(Collectors.toList());
+
 		int daysLimit = getUpcomingDaysLimit();
 		Instant now = Instant.now();
 		Instant end = now.plus(daysLimit, ChronoUnit.DAYS);
 		TimeRange range = m_timeService.newTimeRange(m_timeService.newTime(now.toEpochMilli()), m_timeService.newTime(end.toEpochMilli()), true, true);
 
-		Integer eventsLimitPerCalendar = (Integer) options.get(EventFilterKey.LIMIT);
-		return new ArrayList<>(getEvents(allRefs, range, false, eventsLimitPerCalendar));
+		List<CalendarEvent> events = getEvents(allRefs, range, false, eventsLimitPerCalendar);
+		if (userId != null) {
+			upcomingEventsCache.put(cacheKey, new UpcomingEvents(versions, events));
+		}
+		return new ArrayList<>(events);
+	}
+
+	/**
+	 * The upcoming events of a user, with the versions of the sites' calendars and of the memberships they were read at.
+	 */
+	private class UpcomingEvents {
+
+		private final Map<String, Long> versions;
+		private final List<CalendarEvent> events;
+
+		UpcomingEvents(Map<String, Long> versions, List<CalendarEvent> events) {
+			this.versions = versions;
+			this.events = events;
+		}
+
+		boolean isCurrent() {
+			return versions.entrySet().stream().allMatch(e -> e.getValue().equals(siteEventsVersion(e.getKey())));
+		}
+
+		/**
+		 * @return the events that have not ended by the given time, those that have were upcoming when they were read
+		 */
+		List<CalendarEvent> eventsAfter(Instant now) {
+			return events.stream()
+				.filter(e -> e.getRange() == null || e.getRange().lastTime().getTime() > now.toEpochMilli())
+				.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @return the version of the site's calendar events, which changes whenever one of them does
+	 */
+	protected Long siteEventsVersion(String siteId) {
+
+		Long version = siteEventsVersionCache.get(siteId);
+		if (version == null) {
+			// also covers an evicted version, nothing read before can match the new one
+			version = ThreadLocalRandom.current().nextLong();
+			siteEventsVersionCache.put(siteId, version);
+		}
+		return version;
 	}
 
 	public int getUpcomingDaysLimit() {
@@ -792,6 +849,9 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 		SimpleConfiguration cacheConfig = new SimpleConfiguration(0);
 		cacheConfig.setStatisticsEnabled(true);
 		cache = this.m_memoryService.createCache("org.sakaiproject.calendar.cache", cacheConfig);
+		upcomingEventsCache = m_memoryService.createCache("org.sakaiproject.calendar.upcomingEventsCache",
+				new SimpleConfiguration(10000, m_serverConfigurationService.getInt("calendar.upcoming.cacheSeconds", 300), 0));
+		siteEventsVersionCache = m_memoryService.getCache("org.sakaiproject.calendar.siteEventsVersionCache");
 		System.setProperty("net.fortuna.ical4j.timezone.cache.impl", MapTimeZoneCache.class.getName());
 
 		m_eventTrackingService.addObserver(this);
@@ -2229,6 +2289,18 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 			if (EVENT_MODIFY_CALENDAR.equals(event.getEvent())) {
 				cache.remove(event.getResource());
 			}
+			if (StringUtils.startsWithAny(event.getEvent(), EVENT_CREATE_CALENDAR, EVENT_ADD_CALENDAR, EVENT_REMOVE_CALENDAR, EVENT_MODIFY_CALENDAR)
+					&& event.getResource() != null) {
+				String context = m_entityManager.newReference(event.getResource()).getContext();
+				if (context != null) {
+					siteEventsVersionCache.put(context, ThreadLocalRandom.current().nextLong());
+				}
+			}
+			// the events don't say whose membership changed, so any change makes all the upcoming events stale
+			if (StringUtils.startsWithAny(event.getEvent(), SiteService.SECURE_ADD_SITE, SiteService.SECURE_UPDATE_SITE, SiteService.SECURE_REMOVE_SITE,
+					AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP, AuthzGroupService.SECURE_JOIN_AUTHZ_GROUP, AuthzGroupService.SECURE_UNJOIN_AUTHZ_GROUP)) {
+				siteEventsVersionCache.put(MEMBERSHIP_VERSION, ThreadLocalRandom.current().nextLong());
+			}
 		}
 	}
 
@@ -2503,6 +2575,23 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 
 			List events = m_storage.getEvents(this, range, limit);
 
+			return filterEvents(events, range, filter);
+
+		} // getEvents
+
+		/**
+		 * Expand the events read from storage to those in the time range, and keep those the filter accepts and the current user can see.
+		 * 
+		 * @param events
+		 *        The events of this calendar, as read from storage.
+		 * @param range
+		 *        The time range, or null to leave recurring events unexpanded.
+		 * @param filter
+		 *        A filtering object to accept events, or null if no filtering is desired.
+		 * @return The accepted events, in date ascending order.
+		 */
+		protected List filterEvents(List events, TimeRange range, Filter filter)
+		{
 			// now filter out the events to just those in the range
 			// Note: if no range, we won't filter, which means we don't expand recurring events, but just
 			// return it as a single event. This is very good for an archive... -ggolden
@@ -2552,7 +2641,7 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 
 			return allowedEvents;
 
-		} // getEvents
+		} // filterEvents
 
 		/**
 		 * Filter the events to only those in the time range.
@@ -4942,6 +5031,15 @@ public abstract class BaseCalendarService implements CalendarService, DoubleStor
 		 * @return A list of CalendarEvent
 		 */
 		public List<CalendarEvent> getEvents(Calendar calendar, TimeRange range, Integer limit);
+
+		/**
+		 * Get the events from several calendars in one query, within this time range
+		 *
+		 * @param calendars The calendars to query, keyed by reference
+		 * @param range The time range to query over
+		 * @return A list of CalendarEvent, recurring events are not expanded
+		 */
+		public List<CalendarEvent> getEvents(Map<String, Calendar> calendars, TimeRange range);
       
 		/**
 		 * Make and lock a new event.
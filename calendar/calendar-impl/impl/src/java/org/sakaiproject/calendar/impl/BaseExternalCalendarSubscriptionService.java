@@ -23,6 +23,7 @@ package org.sakaiproject.calendar.impl;
 
 import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
@@ -31,6 +32,12 @@ import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -99,6 +106,18 @@ public class BaseExternalCalendarSubscriptionService implements
 
 	private Clock clock;
 
+	/** How long a loaded calendar is used before it is refreshed, in seconds */
+	private long userRefreshSeconds;
+	private long instRefreshSeconds;
+
+	/** Refreshes stale calendars off the request threads */
+	private Executor refreshExecutor;
+
+	/** Urls being refreshed, so a feed is only fetched once however many requests find it stale */
+	private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+	private final Map<String, FeedStatistics> feedStatistics = new ConcurrentHashMap<>();
+
 	// ######################################################
 	// Spring services
 	// ######################################################
@@ -225,6 +244,10 @@ public class BaseExternalCalendarSubscriptionService implements
 		this.clock = clock;
 	}
 
+	void setRefreshExecutor(Executor refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+	}
+
 	public void init()
 	{
 		// external calendar subscriptions: enable?
@@ -235,12 +258,15 @@ public class BaseExternalCalendarSubscriptionService implements
 		if (enabled)
 		{
 			// INIT the caches
-			long userCacheRefreshRate = 60 * m_configurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_USER_CACHETIME, 120);
-			long instCacheRefreshRate = 60 * m_configurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_INST_CACHETIME, 120);
+			userRefreshSeconds = 60 * m_configurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_USER_CACHETIME, 120);
+			instRefreshSeconds = 60 * m_configurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_INST_CACHETIME, 120);
 			long userCacheMaxEntries = m_configurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_USER_CACHEENTRIES, 32);
 			long instCacheMaxEntries = m_configurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_INST_CACHEENTRIES, 32);
-			SimpleConfiguration<String, BaseExternalSubscriptionDetails> userCacheConfig = new SimpleConfiguration<>(userCacheMaxEntries, userCacheRefreshRate, 0);
-			SimpleConfiguration<String, BaseExternalSubscriptionDetails> instCacheConfig = new SimpleConfiguration<>(instCacheMaxEntries, instCacheRefreshRate, 0);
+			// Entries don't expire when they are due a refresh, the old copy is served while the refresh runs.
+			// Feeds nobody has looked at for a day are dropped.
+			long idleSeconds = 60 * m_configurationService.getInt("calendar.external.subscriptions.idletime", 1440);
+			SimpleConfiguration<String, BaseExternalSubscriptionDetails> userCacheConfig = new SimpleConfiguration<>(userCacheMaxEntries, 0, idleSeconds);
+			SimpleConfiguration<String, BaseExternalSubscriptionDetails> instCacheConfig = new SimpleConfiguration<>(instCacheMaxEntries, 0, idleSeconds);
 			userCacheConfig.setStatisticsEnabled(true);
 			instCacheConfig.setStatisticsEnabled(true);
 			institutionalSubscriptionCache = new SubscriptionCache(
@@ -249,10 +275,20 @@ public class BaseExternalCalendarSubscriptionService implements
 					m_memoryService.createCache("org.sakaiproject.calendar.impl.BaseExternalCacheSubscriptionService.userCache", userCacheConfig), clock);
 			// TODO replace this with a real solution for when the caches are distributed by disabling the timer and using jobscheduler
 			if (institutionalSubscriptionCache.getCache().isDistributed()) {
-				log.error(institutionalSubscriptionCache.getCache().getName()+" is distributed but calendar subscription caches have a local timer refresh which means they will cause cache replication storms once every "+instCacheRefreshRate+" seconds, do NOT distribute this cache");
+				log.error(institutionalSubscriptionCache.getCache().getName()+" is distributed but calendar subscription caches have a local timer refresh which means they will cause cache replication storms once every "+instRefreshSeconds+" seconds, do NOT distribute this cache");
 			}
 			if (usersSubscriptionCache.getCache().isDistributed()) {
-				log.error(usersSubscriptionCache.getCache().getName()+" is distributed but calendar subscription caches have a local timer refresh which means they will cause cache replication storms once every "+userCacheRefreshRate+" seconds, do NOT distribute this cache");
+				log.error(usersSubscriptionCache.getCache().getName()+" is distributed but calendar subscription caches have a local timer refresh which means they will cause cache replication storms once every "+userRefreshSeconds+" seconds, do NOT distribute this cache");
+			}
+
+			if (refreshExecutor == null)
+			{
+				int threads = Math.max(1, m_configurationService.getInt("calendar.external.subscriptions.refreshThreads", 2));
+				refreshExecutor = Executors.newFixedThreadPool(threads, r -> {
+					Thread thread = new Thread(r, "calendar-subscription-refresh");
+					thread.setDaemon(true);
+					return thread;
+				});
 			}
 
 			// iCal column map
@@ -272,7 +308,10 @@ public class BaseExternalCalendarSubscriptionService implements
 
 	public void destroy()
 	{
-		// Nothing to clean up for now.
+		if (refreshExecutor instanceof ExecutorService)
+		{
+			((ExecutorService) refreshExecutor).shutdownNow();
+		}
 	}
 
 	public boolean isEnabled()
@@ -353,9 +392,63 @@ public class BaseExternalCalendarSubscriptionService implements
 			subscription = loadCalendarSubscriptionFromUrl(subscriptionUrl, context, userId, tzid);
 			cache.put(subscription);
 		}
+		else if (isDueRefresh(subscription, cache))
+		{
+			// Serve the calendar we have, a slow feed shouldn't hold up the request
+			refreshInBackground(subscription, cache);
+		}
 		return subscription;
 	}
 
+	private boolean isDueRefresh(BaseExternalSubscriptionDetails subscription, SubscriptionCache cache) {
+		if (subscription.getState() != ExternalSubscriptionDetails.State.LOADED) return false;
+		long refreshSeconds = (cache == institutionalSubscriptionCache) ? instRefreshSeconds : userRefreshSeconds;
+		// A cache time of 0 has always meant loaded calendars are kept
+		return refreshSeconds > 0 && Instant.now(clock).isAfter(subscription.getRefreshed().plusSeconds(refreshSeconds));
+	}
+
+	/**
+	 * Fetch the feed again in the background, asking the server to only send it if it has changed.
+	 * If the refresh fails the calendar we have is kept and tried again after the next refresh interval.
+	 */
+	void refreshInBackground(final BaseExternalSubscriptionDetails current, final SubscriptionCache cache) {
+		final String url = current.getSubscriptionUrl();
+		if (!refreshing.add(url)) return;
+		try
+		{
+			refreshExecutor.execute(() -> {
+				try
+				{
+					InsitutionalSubscription sub = getInstitutionalSubscription(url);
+					BaseExternalSubscriptionDetails refreshed = loadCalendarSubscriptionFromUrl(url, current.getContext(), current.getUserId(),
+							current.getTzid(), current.getSubscriptionName(), (sub != null) ? sub.eventType : null, current);
+					if (refreshed.getState() != ExternalSubscriptionDetails.State.LOADED)
+					{
+						refreshed = new BaseExternalSubscriptionDetails(current);
+						refreshed.setStatus(true, "Refresh failed", Instant.now(clock));
+					}
+					cache.put(refreshed);
+				}
+				finally
+				{
+					refreshing.remove(url);
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			refreshing.remove(url);
+			log.debug("Not refreshing calendar subscription {}: {}", url, e.toString());
+		}
+	}
+
+	/**
+	 * @return the fetch statistics of a feed, or null if it hasn't been fetched
+	 */
+	FeedStatistics getFeedStatistics(String url) {
+		return feedStatistics.get(url);
+	}
+
 	public Set<ExternalSubscriptionDetails> getCalendarSubscriptionChannelsForChannels(
 			String primaryCalendarReference,
 			Collection<Object> channels)
@@ -710,14 +803,21 @@ public class BaseExternalCalendarSubscriptionService implements
 			name = sub.name;
 			forcedEventType = sub.eventType;
 		}
-		return loadCalendarSubscriptionFromUrl(url, context, userId, tzid, name, forcedEventType);
+		return loadCalendarSubscriptionFromUrl(url, context, userId, tzid, name, forcedEventType, null);
 	}
 
+	/**
+	 * @param previous
+	 *        the calendar already loaded from the url, if any. It is kept if the server says the feed hasn't changed.
+	 */
 	BaseExternalSubscriptionDetails loadCalendarSubscriptionFromUrl(String url,
-																	String context, String userId, String tzid, String calendarName, String forcedEventType)
+																	String context, String userId, String tzid, String calendarName, String forcedEventType,
+																	BaseExternalSubscriptionDetails previous)
 	{
 		boolean institutional = INSTITUTIONAL_CONTEXT.equals(context);
 		String error = null;
+		FeedStatistics statistics = feedStatistics.computeIfAbsent(url, k -> new FeedStatistics());
+		long start = System.currentTimeMillis();
 		try
 		{
 			ExternalCalendarSubscription calendar;
@@ -731,8 +831,22 @@ public class BaseExternalCalendarSubscriptionService implements
 			conn.addRequestProperty("User-Agent", m_calendarService.getUserAgent());
 			conn.setConnectTimeout(TIMEOUT);
 			conn.setReadTimeout(TIMEOUT);
+			if (previous != null && previous.getCalendar() != null)
+			{
+				if (previous.getETag() != null) conn.addRequestProperty("If-None-Match", previous.getETag());
+				if (previous.getLastModified() > 0) conn.setIfModifiedSince(previous.getLastModified());
+			}
 			// Now make the connection.
 			conn.connect();
+			if (conn instanceof HttpURLConnection && ((HttpURLConnection) conn).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED
+					&& previous != null && previous.getCalendar() != null)
+			{
+				BaseExternalSubscriptionDetails subscription = new BaseExternalSubscriptionDetails(previous);
+				subscription.setStatus(true, null, Instant.now(clock));
+				statistics.record(System.currentTimeMillis() - start, true, false);
+				log.debug("Calendar subscription not modified: {} in {}ms", url, System.currentTimeMillis() - start);
+				return subscription;
+			}
 			try (BufferedInputStream stream =  new BufferedInputStream(conn.getInputStream())) {
 				// import
 				events = m_importerService.doImport(CalendarImporterService.ICALENDAR_IMPORT,
@@ -752,7 +866,10 @@ public class BaseExternalCalendarSubscriptionService implements
 			}
 			calendar.setName(calendarName);
 			BaseExternalSubscriptionDetails subscription = new BaseExternalSubscriptionDetails(calendarName, url, context, calendar, institutional, userId, tzid, true, null, Instant.now(clock));
-			log.info("Loaded calendar subscription: " + subscription.toString());
+			subscription.setETag(conn.getHeaderField("ETag"));
+			subscription.setLastModified(conn.getLastModified());
+			statistics.record(System.currentTimeMillis() - start, false, false);
+			log.info("Loaded calendar subscription: {} in {}ms", subscription, System.currentTimeMillis() - start);
 			return subscription;
 		}
 		catch (ImportException e)
@@ -785,10 +902,44 @@ public class BaseExternalCalendarSubscriptionService implements
 					+ calendarName + "' from URL: " + url);
 			error = "Unknown";
 		}
+		statistics.record(System.currentTimeMillis() - start, false, true);
+		log.debug("Calendar subscription {} failed {} times after {}ms", url, statistics.getFailures(), statistics.getLastMillis());
 		BaseExternalSubscriptionDetails subscription = new BaseExternalSubscriptionDetails(calendarName,
 				url, context, null, institutional, userId, tzid, false, error, Instant.now(clock));
 		return subscription;
 	}
+
+	/**
+	 * How fetching a feed has gone since the server started.
+	 */
+	static class FeedStatistics {
+		private final AtomicLong fetches = new AtomicLong();
+		private final AtomicLong notModified = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong totalMillis = new AtomicLong();
+		private volatile long lastMillis;
+
+		void record(long millis, boolean unchanged, boolean failed) {
+			fetches.incrementAndGet();
+			if (unchanged) notModified.incrementAndGet();
+			if (failed) failures.incrementAndGet();
+			totalMillis.addAndGet(millis);
+			lastMillis = millis;
+		}
+
+		long getFetches() { return fetches.get(); }
+
+		long getNotModified() { return notModified.get(); }
+
+		long getFailures() { return failures.get(); }
+
+		long getLastMillis() { return lastMillis; }
+
+		long getAverageMillis() {
+			long count = fetches.get();
+			return count == 0 ? 0 : totalMillis.get() / count;
+		}
+	}
 	
 	/**
 	 * See if the current tab is the workspace tab (i.e. user site)
@@ -45,6 +45,11 @@ public class BaseExternalSubscriptionDetails implements ExternalSubscriptionDeta
 	
 	private String tzid;
 
+	/** Validators from the last response, sent back when refreshing so an unchanged feed isn't downloaded again. */
+	private String eTag;
+
+	private long lastModified;
+
 	public BaseExternalSubscriptionDetails() {
 	}
 
@@ -61,6 +66,8 @@ public class BaseExternalSubscriptionDetails implements ExternalSubscriptionDeta
 		this.status = other.status;
 		this.userId = other.userId;
 		this.tzid = other.tzid;
+		this.eTag = other.eTag;
+		this.lastModified = other.lastModified;
 	}
 
 	/**
@@ -151,6 +158,30 @@ public class BaseExternalSubscriptionDetails implements ExternalSubscriptionDeta
 	public Instant getRefreshed() {
 		return status != null? status.getRefreshed(): null;
 	}
+
+	public String getError() {
+		return status != null? status.getError(): null;
+	}
+
+	public void setStatus(boolean ok, String error, Instant refreshed) {
+		status = new Status(ok, error, refreshed);
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	public void setETag(String eTag) {
+		this.eTag = eTag;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public void setLastModified(long lastModified) {
+		this.lastModified = lastModified;
+	}
 	
 	public String getUserId() {
 		return userId;
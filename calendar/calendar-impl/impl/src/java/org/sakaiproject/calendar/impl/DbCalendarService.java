@@ -24,6 +24,7 @@ package org.sakaiproject.calendar.impl;
 import java.sql.Date;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -219,6 +220,11 @@ public class DbCalendarService
 			return super.getAllResources(calendar, null, rangeFilter, true, page, rangeValues);
 		}
 
+		public List getEvents(Map<String, Calendar> calendars, TimeRange range) {
+
+			return super.getAllResources(calendars, getRangeFilter(), getRangeValues(range));
+		}
+
 		private String getRangeFilter() {
 
 			return "((RANGE_START > ? and RANGE_START < ? ) " +
@@ -24,11 +24,16 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.sakaiproject.calendar.api.ExternalCalendarSubscriptionService.SAK_PROP_EXTSUBSCRIPTIONS_ENABLED;
+import static org.sakaiproject.calendar.api.ExternalCalendarSubscriptionService.SAK_PROP_EXTSUBSCRIPTIONS_INST_CACHETIME;
+import static org.sakaiproject.calendar.api.ExternalCalendarSubscriptionService.SAK_PROP_EXTSUBSCRIPTIONS_USER_CACHETIME;
 import static org.sakaiproject.calendar.api.ExternalCalendarSubscriptionService.SUBS_NAME_DELIMITER;
 import static org.sakaiproject.calendar.api.ExternalCalendarSubscriptionService.TC_PROP_SUBCRIPTIONS;
 import static org.sakaiproject.calendar.api.ExternalCalendarSubscriptionService.TC_PROP_SUBCRIPTIONS_WITH_TZ;
 import static org.sakaiproject.calendar.impl.BaseExternalCalendarSubscriptionService.SCHEDULE_TOOL_ID;
 
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
@@ -71,6 +76,8 @@ import org.sakaiproject.time.api.TimeService;
 import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.util.api.FormattedText;
 
+import com.sun.net.httpserver.HttpServer;
+
 import net.sf.ehcache.CacheManager;
 
 /**
@@ -79,7 +86,7 @@ import net.sf.ehcache.CacheManager;
  */
 @PrepareForTest(ComponentManager.class)
 @RunWith(PowerMockRunner.class)
-@PowerMockIgnore({"com.sun.org.apache.xerces.*", "javax.xml.*", "org.xml.*", "javax.management.*"})
+@PowerMockIgnore({"com.sun.org.apache.xerces.*", "com.sun.net.httpserver.*", "javax.xml.*", "org.xml.*", "javax.management.*"})
 public class BaseExternalCalendarSubscriptionTest {
 
 
@@ -139,6 +146,8 @@ public class BaseExternalCalendarSubscriptionTest {
 
         // Enable the service
         when(serverConfigurationService.getBoolean(SAK_PROP_EXTSUBSCRIPTIONS_ENABLED, true)).thenReturn(true);
+        when(serverConfigurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_USER_CACHETIME, 120)).thenReturn(120);
+        when(serverConfigurationService.getInt(SAK_PROP_EXTSUBSCRIPTIONS_INST_CACHETIME, 120)).thenReturn(120);
 
         cacheManager = new CacheManager();
         EhcacheMemoryService ehcacheMemoryService = new EhcacheMemoryService(cacheManager, serverConfigurationService);
@@ -208,6 +217,63 @@ public class BaseExternalCalendarSubscriptionTest {
         assertNull(service.getCalendarSubscription(referenceString));
     }
 
+    @Test
+    public void testRefreshCalendarSubscriptionNotModified() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/calendar.ics", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] body = "BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            String url = "http://localhost:" + server.getAddress().getPort() + "/calendar.ics";
+            String packedUrl = BaseExternalSubscriptionDetails.getIdFromSubscriptionUrl(url);
+            String referenceString = BaseExternalSubscriptionDetails.calendarSubscriptionReference("siteId", packedUrl);
+            {
+                Reference ref = mock(Reference.class);
+                when(ref.getContext()).thenReturn("siteId");
+                when(ref.getId()).thenReturn(packedUrl);
+                when(entityManager.newReference(referenceString)).thenReturn(ref);
+            }
+            TimeRange range = mock(TimeRange.class);
+            when(range.clone()).thenReturn(range);
+            CalendarEventEdit event = mock(CalendarEventEdit.class);
+            when(event.getRange()).thenReturn(range);
+            when(event.getDisplayName()).thenReturn("Display Name");
+            when(importer.doImport(any(), any(), any(),any(), any())).thenReturn(Collections.singletonList(event));
+            when(calendarService.getUserAgent()).thenReturn("Sakai");
+
+            // Refresh on the calling thread so the test can see it has finished
+            service.setRefreshExecutor(Runnable::run);
+            Clock clock = Clock.fixed(Instant.now(), ZoneId.systemDefault());
+            service.setClock(clock);
+            assertNotNull(service.getCalendarSubscription(referenceString));
+
+            // Due a refresh, the loaded calendar is still served and the server says it hasn't changed
+            service.setClock(Clock.offset(clock, Duration.ofMinutes(121)));
+            assertNotNull(service.getCalendarSubscription(referenceString));
+            // Refreshed so not fetched again
+            assertNotNull(service.getCalendarSubscription(referenceString));
+
+            verify(importer, times(1)).doImport(any(), any(), any(), any(), any());
+            BaseExternalCalendarSubscriptionService.FeedStatistics statistics = service.getFeedStatistics(url);
+            assertEquals(2, statistics.getFetches());
+            assertEquals(1, statistics.getNotModified());
+            assertEquals(0, statistics.getFailures());
+        } finally {
+            server.stop(0);
+        }
+    }
+
     @Test
     public void testGetCalendarSubscriptionChannelsForChannels() throws IdUnusedException {
         {
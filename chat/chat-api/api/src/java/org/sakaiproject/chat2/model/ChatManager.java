@@ -278,6 +278,20 @@ public interface ChatManager extends EntitySummary {
     * @return
     */
    public int getPollInterval();
+
+   /**
+    * Whether new messages and people joining are pushed to the rooms over the users' event streams.
+    * Rooms still poll for the data, but only when told to and every {@link #getPushHeartbeatInterval()}
+    * to keep their presence.
+    * @return
+    */
+   public boolean isPushEnabled();
+
+   /**
+    * Get how often (in milliseconds) a room polls when pushing is enabled
+    * @return
+    */
+   public int getPushHeartbeatInterval();
    
    /**
     * Get session key (ussage_session_id:session_user_id) from current session
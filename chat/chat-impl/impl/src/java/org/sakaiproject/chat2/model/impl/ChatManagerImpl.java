@@ -86,6 +86,8 @@ import org.sakaiproject.event.api.UsageSessionService;
 import org.sakaiproject.exception.IdInvalidException;
 import org.sakaiproject.exception.IdUsedException;
 import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.messaging.api.UserMessagingService;
+import org.sakaiproject.messaging.api.UserNotification;
 import org.sakaiproject.presence.api.PresenceService;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.time.api.TimeService;
@@ -124,6 +126,7 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
     @Setter private FunctionManager functionManager;
     @Setter private SiteService siteService;
     @Setter private EventTrackingService eventTrackingService;
+    @Setter private UserMessagingService userMessagingService;
 
     /** MAP[SESSION_KEY][CHANNEL_ID] -> List<TransferableChatMessage> */
     private Cache<String, Map<String, List<TransferableChatMessage>>> messageMap;
@@ -131,6 +134,9 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
     /** MAP[CHANNEL_ID][SESSION_ID] -> TransferableChatMessage */
     /** We store the session_id to allow login multiple times with different browsers */
     private Cache<String, Cache<String, TransferableChatMessage>> heartbeatMap;
+
+    /** CHANNEL_ID/SESSION_ID of the sessions whose latest heartbeat reached this server rather than another node */
+    private Cache<String, Boolean> localHeartbeats;
     
     // Used for fetching user's default language locale
     ResourceLoader rl = new ResourceLoader();
@@ -138,6 +144,8 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
     private Cache<String, String> timezoneCache;
 
     @Getter private int pollInterval = 5000; //5 sec
+    @Getter private boolean pushEnabled = false;
+    @Getter private int pushHeartbeatInterval = 30000; //30 sec
 
     /* JGroups channel for keeping the above maps in sync across nodes in a Sakai cluster */
     private JChannel clusterChannel = null;
@@ -187,6 +195,8 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
             }
 
             pollInterval = serverConfigurationService.getInt("chat.pollInterval", 5000);
+            pushEnabled = userMessagingService != null && serverConfigurationService.getBoolean("chat.push.enabled", true);
+            pushHeartbeatInterval = serverConfigurationService.getInt("chat.push.heartbeatInterval", 30000);
 
             messageMap = CacheBuilder.newBuilder()
                     //.recordStats()
@@ -196,6 +206,9 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
             		//.recordStats()
             		.expireAfterWrite(1, TimeUnit.HOURS)
             		.build();
+            localHeartbeats = CacheBuilder.newBuilder()
+                    .expireAfterWrite(1, TimeUnit.HOURS)
+                    .build();
             
             timezoneCache = CacheBuilder.newBuilder()
             		.maximumSize(1000)
@@ -1129,7 +1142,7 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
         
         if(StringUtils.isNotBlank(sessionKey)) {
             //current user is requesting data -> is online in that channel
-            TransferableChatMessage hb = addHeartBeat(channelId, sessionKey);
+            TransferableChatMessage hb = addHeartBeat(channelId, sessionKey, true);
     
             sendToCluster(hb);
     
@@ -1283,7 +1296,7 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
                 break;
             case HEARTBEAT :
                 log.debug("Received heartbeat {} - {} from cluster ...", id, channelId);
-                addHeartBeat(channelId, id);
+                addHeartBeat(channelId, id, false);
                 break;
             case CLEAR :
                 log.debug("Received clear message {} from cluster ...", id);
@@ -1315,6 +1328,7 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
             if(sessionsInChannel != null) {
                 for(String sessionId : sessionsInChannel.asMap().keySet()) {
                     TransferableChatMessage tcm = sessionsInChannel.getIfPresent(sessionId);
+                    if (tcm == null) continue;
                     String sessionKey = tcm.getId();
                     try {
                         Map<String, List<TransferableChatMessage>> channelMap = messageMap.get(sessionKey, () -> {
@@ -1333,26 +1347,75 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
                 }
             }
         }
+        // every server gets the message from the cluster, so each tells only the rooms polling it
+        pushToChannel(channelId, msg.getSiteId(), msg.getOwner(), "message");
+    }
+
+    /**
+     * Tell the rooms open in a channel on this server that there is new data for them. Only the
+     * channel is pushed, the rooms fetch the messages themselves as they are rendered for each user.
+     * Heartbeats are shared by the whole cluster, so only the sessions whose heartbeat reached this
+     * server are pushed to, otherwise every node would push the same event to each user.
+     */
+    private void pushToChannel(String channelId, String siteId, String fromUser, String kind) {
+        if (!pushEnabled) return;
+
+        Cache<String, TransferableChatMessage> sessionsInChannel = heartbeatMap.getIfPresent(channelId);
+        if (sessionsInChannel == null) return;
+
+        Set<String> userIds = new HashSet<>();
+        for (Map.Entry<String, TransferableChatMessage> entry : sessionsInChannel.asMap().entrySet()) {
+            if (isOnline(channelId, entry.getKey())
+                    && localHeartbeats.getIfPresent(channelId + "/" + entry.getKey()) != null) {
+                userIds.add(getUserIdFromSessionKey(entry.getValue().getId()));
+            }
+        }
+        for (String userId : userIds) {
+            UserNotification push = new UserNotification();
+            push.setEvent("chat");
+            push.setRef(channelId);
+            push.setTitle(kind);
+            push.setSiteId(siteId);
+            push.setFromUser(fromUser);
+            push.setToUser(userId);
+            try {
+                userMessagingService.push(userId, push);
+            } catch (Exception e) {
+                log.debug("Failed to push chat {} in channel {} to {}: {}", kind, channelId, userId, e.toString());
+            }
+        }
     }
     
     /**
      * Set/Update the heartbeat for given sessionKey (indexed by channelId and sessionId)
      * @param channelId
      * @param sessionKey
+     * @param local true if the heartbeat came from a room polling this server, false if from the cluster
      * @return
      */
-    private TransferableChatMessage addHeartBeat(String channelId, String sessionKey){
+    TransferableChatMessage addHeartBeat(String channelId, String sessionKey, boolean local){
         TransferableChatMessage ret = null;
         
         String sessionId = getSessionIdFromSessionKey(sessionKey);        
 
         try {
+            boolean joined = !isOnline(channelId, sessionId);
             ret = TransferableChatMessage.HeartBeat(channelId, sessionKey);
             heartbeatMap.get(channelId, () -> {
                 return CacheBuilder.newBuilder()
                         .expireAfterWrite(1, TimeUnit.HOURS)
                         .build();
             }).put(sessionId, ret);
+            // a session polls one server at a time, the one that saw its latest heartbeat pushes to it
+            if (local) {
+                localHeartbeats.put(channelId + "/" + sessionId, Boolean.TRUE);
+            } else {
+                localHeartbeats.invalidate(channelId + "/" + sessionId);
+            }
+            if (joined) {
+                // the others in the room get the new list of present users
+                pushToChannel(channelId, null, getUserIdFromSessionKey(sessionKey), "presence");
+            }
         } catch(Exception e){
             log.error("Error adding heartbet in channel : "+channelId+" and session_key : "+sessionKey);
         }
@@ -1377,9 +1440,10 @@ public class ChatManagerImpl extends HibernateDaoSupport implements ChatManager,
         }
 
         long timeDiff = ((new Date()).getTime()) - userHeartbeat.getTimestamp();
-        log.debug("Heartbeat diff for {} is {}; interval={}", sessionId, timeDiff, pollInterval*2);
+        int interval = pushEnabled ? Math.max(pollInterval, pushHeartbeatInterval) : pollInterval;
+        log.debug("Heartbeat diff for {} is {}; interval={}", sessionId, timeDiff, interval*2);
         // Safari seems to back off on setTimeout calls when in background for 60 seconds
-        return timeDiff <= 60000 + (pollInterval*2);
+        return timeDiff <= 60000 + (interval*2);
     }
     
     private void sendToCluster(TransferableChatMessage message){
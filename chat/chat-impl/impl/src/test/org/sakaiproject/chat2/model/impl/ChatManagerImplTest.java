@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.chat2.model.impl;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.jgroups.Message;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.authz.api.FunctionManager;
+import org.sakaiproject.chat2.model.TransferableChatMessage;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.messaging.api.UserMessagingService;
+import org.sakaiproject.messaging.api.UserNotification;
+
+/**
+ * Two chat servers sharing their heartbeats and messages the way the JGroups cluster does, checking that each
+ * message reaches every user in the room exactly once.
+ */
+public class ChatManagerImplTest {
+
+    private static final String CHANNEL_ID = "channel";
+    private static final String SITE_ID = "site";
+
+    private ChatManagerImpl nodeA;
+    private ChatManagerImpl nodeB;
+    private UserMessagingService messagingA;
+    private UserMessagingService messagingB;
+
+    @Before
+    public void setUp() throws Exception {
+        messagingA = mock(UserMessagingService.class);
+        messagingB = mock(UserMessagingService.class);
+        nodeA = createNode(messagingA);
+        nodeB = createNode(messagingB);
+    }
+
+    private ChatManagerImpl createNode(UserMessagingService userMessagingService) throws Exception {
+        ServerConfigurationService serverConfigurationService = mock(ServerConfigurationService.class);
+        when(serverConfigurationService.getInt(anyString(), anyInt())).thenAnswer(i -> i.getArgument(1));
+        when(serverConfigurationService.getBoolean(anyString(), anyBoolean())).thenAnswer(i -> i.getArgument(1));
+        when(serverConfigurationService.getString(anyString(), anyString())).thenAnswer(i -> i.getArgument(1));
+
+        ChatManagerImpl node = new ChatManagerImpl();
+        node.setServerConfigurationService(serverConfigurationService);
+        node.setFunctionManager(mock(FunctionManager.class));
+        node.setUserMessagingService(userMessagingService);
+        node.init();
+        return node;
+    }
+
+    /** A room polling the first node, its heartbeat replicated to the second one */
+    private void heartbeat(ChatManagerImpl local, ChatManagerImpl remote, String sessionKey) {
+        TransferableChatMessage hb = local.addHeartBeat(CHANNEL_ID, sessionKey, true);
+        remote.receive(new Message(null, hb));
+    }
+
+    /** Every node adds the message to its map, the origin from its transaction and the others from the cluster */
+    private void message(String owner) {
+        TransferableChatMessage msg = new TransferableChatMessage(TransferableChatMessage.MessageType.CHAT,
+                "msg-" + System.nanoTime(), owner, SITE_ID, CHANNEL_ID, "hello");
+        nodeA.receive(new Message(null, msg));
+        nodeB.receive(new Message(null, msg));
+    }
+
+    @Test
+    public void testMessagePushedOncePerUser() {
+        heartbeat(nodeA, nodeB, "session1:user1");
+        heartbeat(nodeB, nodeA, "session2:user2");
+        reset(messagingA, messagingB);
+
+        message("user1");
+
+        verify(messagingA, times(1)).push(eq("user1"), any(UserNotification.class));
+        verify(messagingA, never()).push(eq("user2"), any(UserNotification.class));
+        verify(messagingB, times(1)).push(eq("user2"), any(UserNotification.class));
+        verify(messagingB, never()).push(eq("user1"), any(UserNotification.class));
+    }
+
+    @Test
+    public void testPresencePushedOncePerUser() {
+        heartbeat(nodeA, nodeB, "session1:user1");
+        heartbeat(nodeB, nodeA, "session2:user2");
+        reset(messagingA, messagingB);
+
+        heartbeat(nodeA, nodeB, "session3:user3");
+
+        verify(messagingA, times(1)).push(eq("user1"), any(UserNotification.class));
+        verify(messagingA, times(1)).push(eq("user3"), any(UserNotification.class));
+        verify(messagingB, times(1)).push(eq("user2"), any(UserNotification.class));
+        verify(messagingA, never()).push(eq("user2"), any(UserNotification.class));
+        verify(messagingB, never()).push(eq("user1"), any(UserNotification.class));
+        verify(messagingB, never()).push(eq("user3"), any(UserNotification.class));
+    }
+
+    @Test
+    public void testSessionMovedToAnotherNode() {
+        heartbeat(nodeA, nodeB, "session1:user1");
+        heartbeat(nodeB, nodeA, "session2:user2");
+
+        // the load balancer sends the first room to the second node from now on
+        heartbeat(nodeB, nodeA, "session1:user1");
+        reset(messagingA, messagingB);
+
+        message("user2");
+
+        verify(messagingA, never()).push(anyString(), any(UserNotification.class));
+        verify(messagingB, times(1)).push(eq("user1"), any(UserNotification.class));
+        verify(messagingB, times(1)).push(eq("user2"), any(UserNotification.class));
+    }
+}
@@ -218,6 +218,14 @@ public class ChatTool {
    public int getPollInterval() {
 	   return getChatManager().getPollInterval();
    }
+
+   public boolean isPushEnabled() {
+	   return getChatManager().isPushEnabled();
+   }
+
+   public int getPushHeartbeatInterval() {
+	   return getChatManager().getPushHeartbeatInterval();
+   }
    
    //********************************************************************
    // Tool Process Actions
@@ -30,6 +30,10 @@ var chatscript = {
 	url_submit : "/direct/chat-message/",
 	keycode_enter : 13,
 	pollInterval : 5000,
+	pushEnabled : false,
+	pushHeartbeatInterval : 30000,
+	pushing : false,
+	pushTimeout : null,
 	currentChatChannelId : null,
 	timeoutVar : null,
 	pageVisibility : 'visible',
@@ -40,6 +44,7 @@ var chatscript = {
 		me.updateShownText();
 		me.scrollChat();
 		me.updateChatData();
+		me.setupPush();
 		
 		var textarea = $("#topForm\\:controlPanel\\:message");
 		var submitButton = $("#topForm\\:controlPanel\\:submit");
@@ -111,6 +116,35 @@ var chatscript = {
 			});
 		});
 	},
+	setupPush : function() {
+		var me = this;
+		if (!this.pushEnabled || !window.portal || !portal.notifications || !portal.notifications.setup) {
+			return;
+		}
+		// Keep polling until the event stream is set up, or if it can't be
+		portal.notifications.setup.then(function() {
+			portal.notifications.registerForMessages("chat", function(data) {
+				if (data.ref === me.currentChatChannelId) {
+					me.pushReceived(data.title);
+				}
+			});
+			me.pushing = true;
+		}).catch(function() {
+			me.pushing = false;
+		});
+	},
+	pushReceived : function(kind) {
+		var me = this;
+		if (this.pushTimeout != null || this.pageVisibility == 'hidden') {
+			return;
+		}
+		// Spread out the requests from everyone in a busy room, people joining can wait longer than messages
+		var delay = Math.floor(Math.random() * (kind == 'presence' ? 2000 : 500));
+		this.pushTimeout = setTimeout(function() {
+			me.pushTimeout = null;
+			me.updateChatData();
+		}, delay);
+	},
   changePageVisibility : function(newVisibility) {
     this.pageVisibility = newVisibility;
     if (newVisibility == 'visible') {
@@ -174,9 +208,10 @@ var chatscript = {
 		}
 		// If the tab is hidden, no use in firing AJAX requests for new chat data
 		if(this.pageVisibility != 'hidden') {
+			// When new data is pushed, polling only keeps us in the list of present users
 			this.timeoutVar = setTimeout(function() {
 				me.updateChatData();
-			}, this.pollInterval);
+			}, this.pushing ? this.pushHeartbeatInterval : this.pollInterval);
 		}
 	},
 	doUpdateChatData : function() {
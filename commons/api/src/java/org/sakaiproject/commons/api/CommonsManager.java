@@ -21,6 +21,7 @@ import java.util.Optional;
 import org.sakaiproject.commons.api.datamodel.Comment;
 import org.sakaiproject.commons.api.datamodel.Post;
 import org.sakaiproject.commons.api.datamodel.PostLike;
+import org.sakaiproject.commons.api.datamodel.PostsData;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.entity.api.EntityProducer;
 
@@ -38,6 +39,12 @@ public interface CommonsManager extends EntityProducer {
 
     public List<Post> getPosts(QueryBean query) throws Exception;
 
+    /**
+     * Gets a page of the timeline of a query, newest posts first. The page holds the posts after the query's
+     * before post that the current user can read, up to the query's limit, and where the next page starts.
+     */
+    public PostsData getPostsPage(QueryBean query) throws Exception;
+
     public Post savePost(Post post);
 
     public boolean deletePost(String postId);
@@ -36,4 +36,9 @@ public class QueryBean {
     @Builder.Default private boolean userSite = false;
     @Builder.Default private List<String> fromIds = new ArrayList<>();
     @Builder.Default private String callerId = "";
+    /** Only posts after this one in feed order, newest first. Zero for the newest posts */
+    @Builder.Default private long beforeDate = 0L;
+    @Builder.Default private String beforeId = "";
+    /** The most posts to read, zero for all of them */
+    @Builder.Default private int limit = 0;
 }
@@ -23,4 +23,6 @@ public class PostsData {
     public List<Post> posts = new ArrayList<>();
     public int postsTotal = 0;
     public String status = "MORE";
+    /** Where the next page starts, null at the end of the timeline */
+    public String next = null;
 }
@@ -20,6 +20,7 @@ import java.util.*;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import org.apache.commons.lang3.StringUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -29,6 +30,7 @@ import org.sakaiproject.commons.api.*;
 import org.sakaiproject.commons.api.datamodel.Comment;
 import org.sakaiproject.commons.api.datamodel.Post;
 import org.sakaiproject.commons.api.datamodel.PostLike;
+import org.sakaiproject.commons.api.datamodel.PostsData;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.entity.api.HttpAccess;
 import org.sakaiproject.entity.api.Reference;
@@ -87,26 +89,85 @@ public class CommonsManagerImpl implements CommonsManager, Observer {
     }
 
     public List<Post> getPosts(QueryBean query) throws Exception {
+        return commonsSecurityManager.filter(getUnfilteredPosts(query), query.getSiteId(), query.getEmbedder());
+    }
+
+    public PostsData getPostsPage(QueryBean query) throws Exception {
+
+        List<Post> unfilteredPosts = getUnfilteredPosts(query);
+
+        PostsData data = new PostsData();
+        data.posts = commonsSecurityManager.filter(unfilteredPosts, query.getSiteId(), query.getEmbedder());
+        data.postsTotal = data.posts.size();
+        // The next page starts after the last post read, whether or not the current user can see it
+        if (query.getLimit() > 0 && unfilteredPosts.size() >= query.getLimit()) {
+            Post last = unfilteredPosts.get(unfilteredPosts.size() - 1);
+            data.next = last.getCreatedDate() + ":" + last.getId();
+        } else {
+            data.status = "END";
+        }
+        return data;
+    }
+
+    /**
+     * Gets the posts of a query, in feed order. The newest posts of each commons are cached until a post or
+     * comment in it changes, older pages are read from the database each time.
+     */
+    private List<Post> getUnfilteredPosts(QueryBean query) throws Exception {
+
+        if (StringUtils.isNotBlank(query.getBeforeId())) {
+            addConnectionIds(query);
+            return persistenceManager.getAllPost(query, true);
+        }
 
         Cache cache = sakaiProxy.getCache(POST_CACHE);
 
         // Social commons caches are keyed on the owner's user id
         String key = (query.isUserSite()) ? query.getCallerId() : query.getCommonsId();
 
-        List<Post> posts = (List<Post>) cache.get(key);
-        if (posts == null) {
-            log.debug("Cache miss or expired on id: {}", key);
-            if (query.isUserSite()) {
-                log.debug("Getting posts for a user site ...");
-                query.getFromIds().add(query.getCallerId());
-                query.getFromIds().addAll(getConnectionUserIds(sakaiProxy.getCurrentUserId()));
-            }
-            List<Post> unfilteredPosts = persistenceManager.getAllPost(query, true);
-            cache.put(key, unfilteredPosts);
-            return commonsSecurityManager.filter(unfilteredPosts, query.getSiteId(), query.getEmbedder());
-        } else {
+        Object cached = cache.get(key);
+        if (cached instanceof FirstPage && ((FirstPage) cached).covers(query.getLimit())) {
             log.debug("Cache hit on id: {}", key);
-            return commonsSecurityManager.filter(posts, query.getSiteId(), query.getEmbedder());
+            return ((FirstPage) cached).get(query.getLimit());
+        }
+
+        log.debug("Cache miss or expired on id: {}", key);
+        addConnectionIds(query);
+        List<Post> posts = persistenceManager.getAllPost(query, true);
+        cache.put(key, new FirstPage(query.getLimit(), posts));
+        return posts;
+    }
+
+    private void addConnectionIds(QueryBean query) {
+
+        if (query.isUserSite()) {
+            log.debug("Getting posts for a user site ...");
+            query.getFromIds().add(query.getCallerId());
+            query.getFromIds().addAll(getConnectionUserIds(sakaiProxy.getCurrentUserId()));
+        }
+    }
+
+    /**
+     * The newest posts of a commons, as many as were asked for when they were read.
+     */
+    private static class FirstPage {
+
+        /** How many posts were asked for, zero for all of them */
+        private final int limit;
+        private final List<Post> posts;
+
+        private FirstPage(int limit, List<Post> posts) {
+            this.limit = limit;
+            this.posts = posts;
+        }
+
+        private boolean covers(int wanted) {
+            // A page shorter than it could have been holds the whole timeline
+            return limit == 0 || (wanted > 0 && wanted <= limit) || posts.size() < limit;
+        }
+
+        private List<Post> get(int wanted) {
+            return (wanted > 0 && wanted < posts.size()) ? posts.subList(0, wanted) : posts;
         }
     }
 
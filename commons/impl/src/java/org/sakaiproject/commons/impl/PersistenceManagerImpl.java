@@ -22,8 +22,13 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.TimeZone;
 import java.util.UUID;
@@ -33,6 +38,8 @@ import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.collections4.ListUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.sakaiproject.db.api.SqlReader;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.component.api.ServerConfigurationService;
@@ -58,14 +65,16 @@ public class PersistenceManagerImpl implements PersistenceManager {
     private static final String COMMONS_SELECT = "SELECT * FROM COMMONS_COMMONS WHERE ID = ?";
     private static final String COMMONS_POSTS_SELECT
         = "SELECT cw.ID as COMMONS_ID,cw.SITE_ID,cw.EMBEDDER,cp.* FROM COMMONS_COMMONS cw,COMMONS_COMMONS_POST cwp,COMMONS_POST cp "
-            + "WHERE cw.ID = ? AND cwp.COMMONS_ID = cw.ID AND cp.ID = cwp.POST_ID ORDER BY CREATED_DATE DESC";
+            + "WHERE cw.ID = ? AND cwp.COMMONS_ID = cw.ID AND cp.ID = cwp.POST_ID";
     private static final String SOCIAL_COMMONS_POSTS_SELECT
         = "SELECT cw.ID as COMMONS_ID,cw.SITE_ID,cw.EMBEDDER,cp.* FROM COMMONS_COMMONS cw,COMMONS_COMMONS_POST cwp,COMMONS_POST cp "
             + "WHERE cw.ID = ? AND cwp.COMMONS_ID = cw.ID AND cp.ID = cwp.POST_ID AND CREATOR_ID IN (";
+    private static final String POSTS_BEFORE = " AND (cp.CREATED_DATE < ? OR (cp.CREATED_DATE = ? AND cp.ID < ?))";
+    private static final String POSTS_ORDER = " ORDER BY cp.CREATED_DATE DESC, cp.ID DESC";
     private static final String COMMONS_POST_INSERT = "INSERT INTO COMMONS_COMMONS_POST VALUES(?,?)";
     private static final String COMMONS_INSERT = "INSERT INTO COMMONS_COMMONS VALUES(?,?,?)";
     private static final String COMMENT_SELECT = "SELECT * FROM COMMONS_COMMENT WHERE ID = ?";
-    private static final String COMMENTS_SELECT = "SELECT * FROM COMMONS_COMMENT WHERE POST_ID = ? ORDER BY CREATED_DATE ASC";
+    private static final String COMMENTS_SELECT = "SELECT * FROM COMMONS_COMMENT WHERE POST_ID IN (";
     private static final String COMMENT_INSERT = "INSERT INTO COMMONS_COMMENT VALUES(?,?,?,?,?,?)";
     private static final String COMMENT_UPDATE = "UPDATE COMMONS_COMMENT SET CONTENT = ?, MODIFIED_DATE = ? WHERE ID = ?";
     private static final String COMMENT_DELETE = "DELETE FROM COMMONS_COMMENT WHERE ID = ?";
@@ -78,9 +87,17 @@ public class PersistenceManagerImpl implements PersistenceManager {
     private static final String LIKE_COUNT = "SELECT COUNT(POST_ID) FROM COMMONS_LIKE WHERE POST_ID = ? AND VOTE = 1";
     private static final String LIKE_USER = "SELECT * FROM COMMONS_LIKE WHERE USER_ID = ? AND VOTE = 1";
     private static final String LIKES_FOR_POST = "SELECT * FROM COMMONS_LIKE WHERE POST_ID = ? AND VOTE = 1";
+    private static final String LIKE_COUNTS = "SELECT POST_ID, COUNT(POST_ID) AS LIKES FROM COMMONS_LIKE WHERE VOTE = 1 AND POST_ID IN (";
     private static final String COMMONS_POST_DELETE = "DELETE FROM COMMONS_COMMONS_POST WHERE POST_ID = ?";
     private static final String COMMENTS_DELETE = "DELETE FROM COMMONS_COMMENT WHERE POST_ID = ?";
 
+    /** The most ids bound into one IN clause, Oracle refuses more than 1000 */
+    private static final int IN_CLAUSE_SIZE = 500;
+
+    /** Newest first, the order of a commons timeline */
+    private static final Comparator<Post> FEED_ORDER
+        = Comparator.comparingLong(Post::getCreatedDate).thenComparing(Post::getId).reversed();
+
     private SakaiProxy sakaiProxy;
     private ServerConfigurationService serverConfigurationService;
     private SqlService sqlService;
@@ -115,34 +132,123 @@ public class PersistenceManagerImpl implements PersistenceManager {
 
         log.debug("getAllPost({})", query);
 
+        List<Post> posts;
         if (query.getEmbedder().equals(CommonsConstants.SOCIAL)) {
-            int numFromIds = query.getFromIds().size();
-            if (numFromIds > 0) {
-                String sql = SOCIAL_COMMONS_POSTS_SELECT;
-                for (int i = 0;i < numFromIds;i++) sql += "?,";
-                // Trim off the trailing comma
-                sql = sql.substring(0,sql.length() - 1);
-                sql += ") ORDER BY CREATED_DATE DESC"; 
-                List<String> params = new ArrayList<String>();
-                params.add(query.getCommonsId());
-                params.addAll(query.getFromIds());
-                return sqlService.dbRead(sql
-                        , params.toArray()
-                        , new SqlReader<Post>() {
-                            public Post readSqlResultRecord(ResultSet result) {
-                                return loadPostFromResult(result, populate);
-                            }
-                        });
+            // Dedupe the connection ids, the caller is often in there twice
+            List<String> fromIds = new ArrayList<>(new LinkedHashSet<>(query.getFromIds()));
+            if (fromIds.size() > 0) {
+                // Fan in the timelines of batches of connections, each already in feed order and no longer than a
+                // page, rather than binding every connection into one statement.
+                posts = new ArrayList<>();
+                for (List<String> batch : ListUtils.partition(fromIds, IN_CLAUSE_SIZE)) {
+                    String sql = SOCIAL_COMMONS_POSTS_SELECT + String.join(",", Collections.nCopies(batch.size(), "?")) + ")";
+                    List<Object> params = new ArrayList<>();
+                    params.add(query.getCommonsId());
+                    params.addAll(batch);
+                    posts.addAll(readPage(sql, params, query));
+                }
+                posts.sort(FEED_ORDER);
+                if (query.getLimit() > 0 && posts.size() > query.getLimit()) {
+                    posts = new ArrayList<>(posts.subList(0, query.getLimit()));
+                }
             } else {
                 log.warn("SOCIAL posts requested, but no connection ids supplies. Returning an empty list ...");
                 return new ArrayList<Post>();
             }
         } else {
-            return sqlService.dbRead(COMMONS_POSTS_SELECT
-                    , new Object[] {query.getCommonsId()}
-                    , new SqlReader<Post>() {
-                        public Post readSqlResultRecord(ResultSet result) {
-                            return loadPostFromResult(result, populate);
+            List<Object> params = new ArrayList<>();
+            params.add(query.getCommonsId());
+            posts = readPage(COMMONS_POSTS_SELECT, params, query);
+        }
+
+        if (populate) {
+            populatePosts(posts);
+        }
+        return posts;
+    }
+
+    /**
+     * Reads a page of posts in feed order, starting after the query's before post and no longer than its limit.
+     */
+    private List<Post> readPage(String sql, List<Object> params, QueryBean query) {
+
+        if (StringUtils.isNotBlank(query.getBeforeId())) {
+            sql += POSTS_BEFORE;
+            Timestamp before = new Timestamp(query.getBeforeDate());
+            params.add(before);
+            params.add(before);
+            params.add(query.getBeforeId());
+        }
+        sql += POSTS_ORDER;
+        if (query.getLimit() > 0) {
+            sql += "oracle".equals(sqlService.getVendor())
+                ? " FETCH FIRST " + query.getLimit() + " ROWS ONLY" : " LIMIT " + query.getLimit();
+        }
+
+        return sqlService.dbRead(sql, params.toArray(), new SqlReader<Post>() {
+                public Post readSqlResultRecord(ResultSet result) {
+                    return loadPostFromResult(result);
+                }
+            });
+    }
+
+    /**
+     * Loads the comments and like counts of a page of posts, a statement per batch of posts rather than per post.
+     */
+    private void populatePosts(List<Post> posts) {
+
+        if (posts.isEmpty()) {
+            return;
+        }
+
+        Map<String, Post> postsById = new HashMap<>();
+        posts.forEach(p -> {
+            p.setComments(new ArrayList<>());
+            postsById.put(p.getId(), p);
+        });
+
+        Map<String, Optional<User>> users = new HashMap<>();
+        Map<String, String> toolUrls = new HashMap<>();
+
+        for (List<String> batch : ListUtils.partition(new ArrayList<>(postsById.keySet()), IN_CLAUSE_SIZE)) {
+            String in = String.join(",", Collections.nCopies(batch.size(), "?")) + ")";
+
+            List<Comment> comments = sqlService.dbRead(COMMENTS_SELECT + in + " ORDER BY CREATED_DATE ASC"
+                    , batch.toArray()
+                    , new SqlReader<Comment>() {
+                        public Comment readSqlResultRecord(ResultSet commentResult) {
+                            try {
+                                return new Comment(commentResult);
+                            } catch (SQLException sqle) {
+                                log.error("Failed to read comment from DB.", sqle);
+                                return null;
+                            }
+                        }
+                    });
+
+            for (Comment comment : comments) {
+                Post post = postsById.get(comment.getPostId());
+                users.computeIfAbsent(comment.getCreatorId(), id -> Optional.ofNullable(sakaiProxy.getUser(id))).ifPresent(user -> {
+                    comment.setCreatorDisplayName(user.getDisplayName());
+                    comment.setCreatorUserName(user.getEid());
+                });
+                String toolUrl = toolUrls.computeIfAbsent(post.getSiteId()
+                    , siteId -> sakaiProxy.getPortalUrl() + "/directtool/" + sakaiProxy.getCommonsToolId(siteId));
+                comment.setUrl(toolUrl + "?state=post&postId=" + post.getId());
+                comment.setPost(post);
+                post.addComment(comment);
+            }
+
+            sqlService.dbRead(LIKE_COUNTS + in + " GROUP BY POST_ID"
+                    , batch.toArray()
+                    , new SqlReader<Void>() {
+                        public Void readSqlResultRecord(ResultSet result) {
+                            try {
+                                postsById.get(result.getString("POST_ID")).setNumberOfLikes(result.getInt("LIKES"));
+                            } catch (SQLException sqle) {
+                                log.error("Failed to read like count from DB.", sqle);
+                            }
+                            return null;
                         }
                     });
         }
@@ -327,13 +433,16 @@ public class PersistenceManagerImpl implements PersistenceManager {
 
         List<Post> posts = sqlService.dbRead(POST_SELECT, new Object[] { postId }, new SqlReader<Post>() {
                 public Post readSqlResultRecord(ResultSet result) {
-                    return loadPostFromResult(result, loadComments);
+                    return loadPostFromResult(result);
                 }
             });
 
         if (posts.size() < 1) {
             return null;
         } else {
+            if (loadComments) {
+                populatePosts(posts);
+            }
             return posts.get(0);
         }
     }
@@ -360,7 +469,7 @@ public class PersistenceManagerImpl implements PersistenceManager {
         }
     }
 
-    private Post loadPostFromResult(ResultSet result, boolean loadComments) {
+    private Post loadPostFromResult(ResultSet result) {
 
         try {
             Post post = new Post(result);
@@ -370,34 +479,6 @@ public class PersistenceManagerImpl implements PersistenceManager {
                 post.setCreatorDisplayName(user.getDisplayName());
                 post.setCreatorUserName(user.getEid());
             }
-
-            if (loadComments) {
-                List<Comment> comments = sqlService.dbRead(COMMENTS_SELECT
-                        , new Object[] {post.getId()}
-                        , new SqlReader<Comment>() {
-                            public Comment readSqlResultRecord(ResultSet commentResult) {
-
-                                try {
-                                    Comment comment = new Comment(commentResult);
-                                    User user = sakaiProxy.getUser(comment.getCreatorId());
-                                    if (user != null ) {
-                                        comment.setCreatorDisplayName(user.getDisplayName());
-                                        comment.setCreatorUserName(user.getEid());
-                                    }
-                                    String toolId = sakaiProxy.getCommonsToolId(post.getSiteId());
-                                    String url = sakaiProxy.getPortalUrl() + "/directtool/"
-                                                            + toolId + "?state=post&postId=" + post.getId();
-                                    comment.setUrl(url);
-                                    return comment;
-                                } catch (SQLException sqle) {
-                                    log.error("Failed to read comment from DB.", sqle);
-                                    return null;
-                                }
-                            }
-                        });
-                comments.forEach(c -> c.setPost(post));
-                post.setComments(comments);
-            }
             return post;
         } catch (SQLException sqle) {
             log.error("Failed to read post from DB.", sqle);
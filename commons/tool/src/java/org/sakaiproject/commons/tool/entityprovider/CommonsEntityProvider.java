@@ -41,6 +41,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.sakaiproject.commons.api.CommonsEvents;
 import org.sakaiproject.commons.api.CommonsManager;
 import org.sakaiproject.commons.api.CommonsSecurityManager;
@@ -85,6 +86,9 @@ public class CommonsEntityProvider extends AbstractEntityProvider implements Req
 
     public final static String ENTITY_PREFIX = "commons";
 
+    private final static int PAGE_SIZE = 20;
+    private final static int ALL_POSTS_LIMIT = 200;
+
     private final static String USER_AGENT
         = "Mozilla/5.0 (Macintosh; U; Intel Mac OS X 10.4; en-US; rv:1.9.2.2) Gecko/20100316 Firefox/3.6.2";
 
@@ -133,54 +137,39 @@ public class CommonsEntityProvider extends AbstractEntityProvider implements Req
                                             , "", HttpServletResponse.SC_BAD_REQUEST);
         }
 
-        List<Post> posts = new ArrayList();
-
         boolean isUserSite = sakaiProxy.isUserSite(siteId);
 
-
-        QueryBean query = QueryBean.builder()
+        QueryBean.QueryBeanBuilder query = QueryBean.builder()
             .commonsId(commonsId)
             .siteId(siteId)
             .embedder(embedder)
             .userSite(isUserSite)
-            .callerId(userId).build();
-
-        try {
-            posts = commonsManager.getPosts(query);
-
-            PostsData data = new PostsData();
-            data.postsTotal = posts.size();
-
-            int page = Integer.parseInt((String) params.get("page"));
-
-            if (page == -1) {
-                // This is a hack to support the multi tool pages. Infinite scroll does not work well
-                // in a frame.
-                data.status = "END";
-                if (posts.size() > 200) {
-                    posts = posts.subList(0, 200);
-                }
-                data.posts = posts;
-            } else {
-                int pageSize = 20;
-                int start  = page * pageSize;
+            .callerId(userId);
 
-                if (start >= data.postsTotal) {
-                    data.status = "END";
-                } else {
-                    int end = start + pageSize;
-
-                    log.debug("end: {}", end);
-
-                    if (end >= data.postsTotal) {
-                        end = data.postsTotal;
-                        data.status = "END";
-                    }
-
-                    data.posts = posts.subList(start, end);
+        if ("-1".equals(params.get("page"))) {
+            // This is a hack to support the multi tool pages. Infinite scroll does not work well
+            // in a frame.
+            query.limit(ALL_POSTS_LIMIT);
+        } else {
+            query.limit(PAGE_SIZE);
+            // The next page starts after the post given as millis:postId, the first page has no before
+            String before = (String) params.get("before");
+            if (StringUtils.isNotBlank(before)) {
+                String[] parts = before.split(":", 2);
+                if (parts.length != 2 || !NumberUtils.isDigits(parts[0])) {
+                    throw new EntityException("Bad request: before must be a created date and post id separated by a colon"
+                                                , "", HttpServletResponse.SC_BAD_REQUEST);
                 }
+                query.beforeDate(Long.parseLong(parts[0])).beforeId(parts[1]);
             }
+        }
 
+        try {
+            PostsData data = commonsManager.getPostsPage(query.build());
+            if ("-1".equals(params.get("page"))) {
+                data.status = "END";
+                data.next = null;
+            }
             return new ActionReturn(data);
         } catch (Exception e) {
             log.error("Caught exception whilst getting posts.", e);
@@ -4,6 +4,7 @@ commons.currentPost = null;
 commons.currentPosts = [];
 commons.currentState = null;
 commons.page = 0;
+commons.nextPage = null;
 commons.postsTotal = 0;
 commons.postsRendered = 0;
 commons.urlRegex = /(ftp|http|https):\/\/[^ "]+/;
@@ -48,6 +49,7 @@ commons.switchState = function (state, arg) {
 
         // renderPageOfPosts uses this. Set it to the start page
         commons.page = 0;
+        commons.nextPage = null;
         commons.postsRendered = 0;
 
         commons.currentPosts = [];
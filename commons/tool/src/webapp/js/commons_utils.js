@@ -426,8 +426,7 @@ commons.utils = {
             $('#commons-post-edit-link-' + post.id).click(self.editPostHandler);
             $('#commons-post-delete-link-' + post.id).click(self.deletePostHandler);
             $('#commons-like-link-' + post.id).click(self.likePostHandler);
-            var numberOfLikes = $('.commons-likes-count');
-            numberOfLikes.each(function(){commons.utils.addLikeCount(this)});
+            $('#commons-likes-count-' + post.id).each(function(){commons.utils.addLikeCount(this)});
             commons.utils.getUserLikes();
             document.querySelectorAll("[data-bs-toggle='popover']").forEach(t => {
               (new bootstrap.Popover(t));
@@ -518,6 +517,9 @@ commons.utils = {
         var url = '/direct/commons/posts/' + commons.commonsId + '.json?siteId='
                         + commons.siteId + '&embedder=' + commons.embedder + '&page=';
         url += (all) ? '-1' : commons.page;
+        if (!all && commons.nextPage) {
+            url += '&before=' + encodeURIComponent(commons.nextPage);
+        }
 
         $.ajax( { url : url, dataType: "json", cache: false, timeout: commons.AJAX_TIMEOUT })
             .done(function (data) {
@@ -530,6 +532,7 @@ commons.utils = {
                 }
 
                 commons.postsTotal = data.postsTotal;
+                commons.nextPage = data.next;
                 var posts = data.posts;
 
                 commons.currentPosts = commons.currentPosts.concat(posts);
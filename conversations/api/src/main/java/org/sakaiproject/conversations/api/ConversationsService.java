@@ -103,4 +103,11 @@ public interface ConversationsService {
     ConvStatus getConvStatusForSiteAndUser(String siteId, String userId) throws ConversationsPermissionsException;
     void saveConvStatus(ConvStatus convStatus) throws ConversationsPermissionsException;
     Map<String, Object> getSiteStats(String siteId, Instant from, Instant to, int page, String sort) throws ConversationsPermissionsException; 
+
+    /**
+     * Rebuild the daily user activity behind the site statistics from the site's topics, posts,
+     * comments and the reaction events recorded by sitestats. Meant for the backfill job, there is
+     * no permission check.
+     */
+    void rebuildUserActivity(String siteId);
 }
@@ -22,9 +22,11 @@ import lombok.Setter;
 @Setter
 public class ConversationsStat {
 
+    public String userId;
     public String name;
     public Long topicsCreated;
     public Long topicsViewed;
     public Long postsCreated;
+    public Long commentsCreated;
     public Long reactionsMade;
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.conversations.api.model;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import java.time.LocalDate;
+
+import org.sakaiproject.springframework.data.PersistableEntity;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A user's activity in a site's conversations on one day. The statistics view sums these over
+ * its date range rather than going back to the events.
+ */
+@Entity
+@Table(name = "CONV_USER_ACTIVITY",
+    indexes = { @Index(name = "conv_user_activity_site_date_idx", columnList = "SITE_ID, ACTIVITY_DATE") },
+    uniqueConstraints = { @UniqueConstraint(name = "UniqueUserActivity", columnNames = { "SITE_ID", "USER_ID", "ACTIVITY_DATE" }) })
+@Getter
+@Setter
+public class UserActivity implements PersistableEntity<Long> {
+
+    public static final String TOPICS_CREATED = "topicsCreated";
+    public static final String POSTS_CREATED = "postsCreated";
+    public static final String COMMENTS_CREATED = "commentsCreated";
+    public static final String REACTIONS_MADE = "reactionsMade";
+
+    @Id
+    @GeneratedValue
+    @Column(name = "ID")
+    private Long id;
+
+    @Column(name = "SITE_ID", length = 99, nullable = false)
+    private String siteId;
+
+    @Column(name = "USER_ID", length = 99, nullable = false)
+    private String userId;
+
+    @Column(name = "ACTIVITY_DATE", nullable = false)
+    private LocalDate activityDate;
+
+    @Column(name = "TOPICS_CREATED", nullable = false)
+    private Integer topicsCreated = 0;
+
+    @Column(name = "POSTS_CREATED", nullable = false)
+    private Integer postsCreated = 0;
+
+    @Column(name = "COMMENTS_CREATED", nullable = false)
+    private Integer commentsCreated = 0;
+
+    @Column(name = "REACTIONS_MADE", nullable = false)
+    private Integer reactionsMade = 0;
+
+    public UserActivity() {
+    }
+
+    public UserActivity(String siteId, String userId, LocalDate date) {
+
+        this.siteId = siteId;
+        this.userId = userId;
+        this.activityDate = date;
+    }
+}
@@ -23,6 +23,7 @@ import org.sakaiproject.springframework.data.SpringCrudRepository;
 public interface ConversationsCommentRepository extends SpringCrudRepository<ConversationsComment, String> {
 
     List<ConversationsComment> findByPostId(String postId);
+    List<ConversationsComment> findByTopicId(String topicId);
     List<ConversationsComment> findBySiteId(String siteId);
     Integer deleteByPostId(String postId);
     Integer deleteByTopicId(String topicId);
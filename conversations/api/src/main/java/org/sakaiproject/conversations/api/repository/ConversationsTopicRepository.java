@@ -23,6 +23,7 @@ import org.sakaiproject.springframework.data.SpringCrudRepository;
 public interface ConversationsTopicRepository extends SpringCrudRepository<ConversationsTopic, String> {
 
     List<ConversationsTopic> findBySiteId(String siteId);
+    List<String> findSiteIds();
     List<ConversationsTopic> findByTags_Id(Long tagId);
     Long countBySiteIdAndMetadata_Creator_Id(String siteId, String creatorId);
     Integer lockBySiteId(String siteId, Boolean locked);
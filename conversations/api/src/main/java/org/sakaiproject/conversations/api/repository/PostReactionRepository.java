@@ -23,5 +23,6 @@ import org.sakaiproject.springframework.data.SpringCrudRepository;
 public interface PostReactionRepository extends SpringCrudRepository<PostReaction, Long> {
 
     List<PostReaction> findByPostIdAndUserId(String postId, String userId);
+    List<PostReaction> findByTopicIdAndUserId(String topicId, String userId);
     Integer deleteByPostId(String postId);
 }
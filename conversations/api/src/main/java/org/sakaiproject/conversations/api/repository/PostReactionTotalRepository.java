@@ -25,6 +25,7 @@ import org.sakaiproject.springframework.data.SpringCrudRepository;
 public interface PostReactionTotalRepository extends SpringCrudRepository<PostReactionTotal, Long> {
 
     List<PostReactionTotal> findByPostId(String postId);
+    List<PostReactionTotal> findByTopicId(String topicId);
     Optional<PostReactionTotal> findByPostIdAndReaction(String postId, Reaction reaction);
     Integer deleteByPostId(String postId);
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.conversations.api.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.sakaiproject.conversations.api.model.UserActivity;
+import org.sakaiproject.springframework.data.SpringCrudRepository;
+
+public interface UserActivityRepository extends SpringCrudRepository<UserActivity, Long> {
+
+    /**
+     * Add one to a counter, one of the UserActivity counter names, creating the day's row if needed.
+     */
+    void incrementCount(String siteId, String userId, LocalDate date, String counter);
+
+    /**
+     * @return userId, topics created, posts created, comments created and reactions made, summed
+     *         per user over the range. Either end of the range can be null.
+     */
+    List<Object[]> sumBySiteIdAndDateBetween(String siteId, LocalDate from, LocalDate to);
+
+    Integer deleteBySiteId(String siteId);
+}
@@ -16,13 +16,14 @@
 package org.sakaiproject.conversations.impl;
 
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.FormatStyle;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -32,6 +33,7 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.sakaiproject.api.app.scheduler.ScheduledInvocationManager;
@@ -62,6 +64,7 @@ import org.sakaiproject.conversations.api.beans.PostTransferBean;
 import org.sakaiproject.conversations.api.model.ConversationsComment;
 import org.sakaiproject.conversations.api.model.ConvStatus;
 import org.sakaiproject.conversations.api.model.ConversationsPost;
+import org.sakaiproject.conversations.api.model.Metadata;
 import org.sakaiproject.conversations.api.model.PostReaction;
 import org.sakaiproject.conversations.api.model.PostReactionTotal;
 import org.sakaiproject.conversations.api.model.PostStatus;
@@ -71,6 +74,7 @@ import org.sakaiproject.conversations.api.model.ConversationsTopic;
 import org.sakaiproject.conversations.api.model.TopicReaction;
 import org.sakaiproject.conversations.api.model.TopicReactionTotal;
 import org.sakaiproject.conversations.api.model.TopicStatus;
+import org.sakaiproject.conversations.api.model.UserActivity;
 import org.sakaiproject.conversations.api.repository.ConversationsCommentRepository;
 import org.sakaiproject.conversations.api.repository.ConversationsTopicRepository;
 import org.sakaiproject.conversations.api.repository.ConvStatusRepository;
@@ -83,6 +87,7 @@ import org.sakaiproject.conversations.api.repository.TagRepository;
 import org.sakaiproject.conversations.api.repository.TopicReactionRepository;
 import org.sakaiproject.conversations.api.repository.TopicReactionTotalRepository;
 import org.sakaiproject.conversations.api.repository.TopicStatusRepository;
+import org.sakaiproject.conversations.api.repository.UserActivityRepository;
 import org.sakaiproject.entity.api.Entity;
 import org.sakaiproject.event.api.Event;
 import org.sakaiproject.event.api.EventTrackingService;
@@ -96,7 +101,6 @@ import org.sakaiproject.messaging.api.MessageMedium;
 import org.sakaiproject.messaging.api.UserMessagingService;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.api.SiteService;
-import org.sakaiproject.sitestats.api.Stat;
 import org.sakaiproject.sitestats.api.StatsManager;
 import org.sakaiproject.time.api.TimeService;
 import org.sakaiproject.time.api.UserTimeService;
@@ -177,6 +181,8 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
 
     private TopicStatusRepository topicStatusRepository;
 
+    private UserActivityRepository userActivityRepository;
+
     private UserDirectoryService userDirectoryService;
 
     private UserMessagingService userMessagingService;
@@ -186,16 +192,43 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
     private ResourceLoader resourceLoader;
 
     private Cache<String, List<ConversationsStat>> sortedStatsCache;
-    private Cache<String, Map<String, Map<String, Object>>> postsCache;
+    private Cache<String, TopicPostTree> postsCache;
 
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
+    // The events counted into the user activity rollup, and the counter each one adds to. Topics and
+    // posts are counted when they are published instead, their created events fire for drafts too.
+    private static final Map<String, String> ACTIVITY_COUNTERS = Map.of(
+        ConversationsEvents.COMMENT_CREATED.label, UserActivity.COMMENTS_CREATED,
+        ConversationsEvents.REACTED_TO_TOPIC.label, UserActivity.REACTIONS_MADE);
+
+    private static final Comparator<ConversationsStat> BY_NAME = Comparator.comparing(ConversationsStat::getName);
+
+    private static final Map<String, Comparator<ConversationsStat>> STAT_SORTS = Map.of(
+        SORT_NAME_ASCENDING, BY_NAME,
+        SORT_NAME_DESCENDING, BY_NAME.reversed(),
+        SORT_TOPICS_CREATED_ASCENDING, Comparator.comparing(ConversationsStat::getTopicsCreated),
+        SORT_TOPICS_CREATED_DESCENDING, Comparator.comparing(ConversationsStat::getTopicsCreated).reversed(),
+        SORT_TOPICS_VIEWED_ASCENDING, Comparator.comparing(ConversationsStat::getTopicsViewed),
+        SORT_TOPICS_VIEWED_DESCENDING, Comparator.comparing(ConversationsStat::getTopicsViewed).reversed(),
+        SORT_POSTS_CREATED_ASCENDING, Comparator.comparing(ConversationsStat::getPostsCreated),
+        SORT_POSTS_CREATED_DESCENDING, Comparator.comparing(ConversationsStat::getPostsCreated).reversed(),
+        SORT_REACTIONS_MADE_ASCENDING, Comparator.comparing(ConversationsStat::getReactionsMade),
+        SORT_REACTIONS_MADE_DESCENDING, Comparator.comparing(ConversationsStat::getReactionsMade).reversed());
+
+    // Local, so that each event is counted once, on the server it happened on
+    private final Observer activityObserver = (observable, arg) -> {
+
+        if (arg instanceof Event) countActivity((Event) arg);
+    };
+
     public void init() {
 
         Permissions.stream().forEach(p -> functionManager.registerFunction(p.label, true));
         this.sortedStatsCache = memoryService.<String, List<ConversationsStat>>getCache(STATS_CACHE_NAME);
-        this.postsCache = memoryService.<String, Map<String, Map<String, Object>>>getCache(POSTS_CACHE_NAME);
+        this.postsCache = memoryService.<String, TopicPostTree>getCache(POSTS_CACHE_NAME);
         eventTrackingService.addObserver(this);
+        eventTrackingService.addLocalObserver(activityObserver);
 
         userMessagingService.importTemplateFromResourceXmlFile("emailtemplates/new_question.xml", TOOL_ID + ".newquestion");
         userMessagingService.importTemplateFromResourceXmlFile("emailtemplates/new_discussion.xml", TOOL_ID + ".newdiscussion");
@@ -210,16 +243,8 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             Event e = (Event) arg;
             String event = e.getEvent();
             if (event.equals(AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP)) {
-                String baseCacheKey = e.getContext() + "/conversations/";
-                this.sortedStatsCache.remove(baseCacheKey + SORT_NAME_ASCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_NAME_DESCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_TOPICS_CREATED_ASCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_TOPICS_CREATED_DESCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_TOPICS_VIEWED_ASCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_TOPICS_VIEWED_DESCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_POSTS_CREATED_ASCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_POSTS_CREATED_DESCENDING);
-                this.sortedStatsCache.remove(baseCacheKey + SORT_REACTIONS_MADE_ASCENDING);
+                // The site's members are cached for the statistics, the counts aren't
+                this.sortedStatsCache.remove(e.getContext() + "/conversations/" + SORT_NAME_ASCENDING);
             }
         }
     }
@@ -521,6 +546,10 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
 
         boolean finalWasDraft = wasDraft;
 
+        if ((isNew || wasDraft) && !topic.getDraft()) {
+            this.afterCommit(() -> countPublished(finalTopic.getSiteId(), finalTopic.getMetadata(), UserActivity.TOPICS_CREATED));
+        }
+
         if (sendMessage) {
             this.afterCommit(() -> this.sendOrScheduleTopicMessages(finalTopic.getId(), isNew, finalWasDraft));
         }
@@ -905,11 +934,17 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
 
         final boolean finalWasDraft = wasDraft;
 
+        final ConversationsPost finalPost = post;
+
         this.afterCommit(() -> {
 
             ConversationsEvents event = isNew ? ConversationsEvents.POST_CREATED : ConversationsEvents.POST_UPDATED;
             eventTrackingService.post(eventTrackingService.newEvent(event.label, decoratedBean.reference, postBean.siteId, true, NotificationService.NOTI_OPTIONAL));
 
+            if ((isNew || finalWasDraft) && !finalPost.getDraft()) {
+                countPublished(postBean.siteId, finalPost.getMetadata(), UserActivity.POSTS_CREATED);
+            }
+
             if (sendMessage && (isNew || finalWasDraft) && !postBean.draft) {
                 try {
                     Site site = siteService.getSite(decoratedBean.siteId);
@@ -1071,11 +1106,8 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
 
     private boolean canUserViewPost(ConversationsPost post, String currentUserId) {
 
-        if (!post.getDraft() && securityService.isSuperUser()) return true;
-
-        if (post.getMetadata().getCreator().equals(currentUserId)) return true;
+        return canUserViewPost(post, currentUserId, () -> {
 
-        if (post.getPrivatePost()) {
             String parentPostId = post.getParentPostId();
             Optional<ConversationsPost> optParentPost = Optional.empty();
             if (parentPostId != null) {
@@ -1084,16 +1116,50 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             ConversationsPost parentPost = optParentPost.orElse(null);
             ConversationsTopic topic = topicRepository.findById(post.getTopicId())
                 .orElseThrow(() -> new IllegalArgumentException("No topic for id " + post.getTopicId()));
-            String parentCreator = parentPost != null
-                ? parentPost.getMetadata().getCreator() : topic.getMetadata().getCreator();
-            if (parentCreator.equals(currentUserId)) return true;
-        }
+            return parentPost != null ? parentPost.getMetadata().getCreator() : topic.getMetadata().getCreator();
+        });
+    }
+
+    private boolean canUserViewPost(ConversationsPost post, String currentUserId, ConversationsTopic topic, TopicPostTree tree) {
+
+        // The parent is already in the tree, no need to go back to the db for it
+        return canUserViewPost(post, currentUserId, () -> {
+
+            ConversationsPost parentPost = tree.getPost(post.getParentPostId());
+            return parentPost != null ? parentPost.getMetadata().getCreator() : topic.getMetadata().getCreator();
+        });
+    }
+
+    private boolean canUserViewPost(ConversationsPost post, String currentUserId, Supplier<String> parentCreator) {
+
+        if (!post.getDraft() && securityService.isSuperUser()) return true;
+
+        if (post.getMetadata().getCreator().equals(currentUserId)) return true;
+
+        if (post.getPrivatePost() && parentCreator.get().equals(currentUserId)) return true;
 
         if (!post.getPrivatePost() && !post.getDraft()) return true;
 
         return false;
     }
 
+    /**
+     * @return the shared, undecorated posts, comments and reaction totals for the topic. Anything
+     *         that changes them has to remove the topic from postsCache.
+     */
+    private TopicPostTree getTopicPostTree(String topicId) {
+
+        TopicPostTree tree = postsCache.get(topicId);
+        if (tree == null) {
+            log.debug("Cache miss on {}", topicId);
+            tree = new TopicPostTree(postRepository.findByTopicId(topicId),
+                                        commentRepository.findByTopicId(topicId),
+                                        postReactionTotalRepository.findByTopicId(topicId));
+            postsCache.put(topicId, tree);
+        }
+        return tree;
+    }
+
     @Transactional(readOnly = true)
     public int getNumberOfThreadPages(String siteId, String topicId) throws ConversationsPermissionsException {
 
@@ -1103,8 +1169,11 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             throw new ConversationsPermissionsException("Current user cannot view posts.");
         }
 
-        List<ConversationsPost> threads = postRepository.findByTopicIdAndParentPostIdIsNull(topicId)
-            .stream().filter(p -> canUserViewPost(p, currentUserId)).collect(Collectors.toList());
+        ConversationsTopic topic = topicRepository.findById(topicId).orElseThrow(() -> new IllegalArgumentException("No topic for id " + topicId));
+
+        TopicPostTree tree = getTopicPostTree(topicId);
+        List<ConversationsPost> threads = tree.getPosts().stream()
+            .filter(p -> p.getParentPostId() == null && canUserViewPost(p, currentUserId, topic, tree)).collect(Collectors.toList());
         int pageSize = serverConfigurationService.getInt(ConversationsService.PROP_THREADS_PAGE_SIZE, 10);
         return (int) Math.ceil(threads.size() / pageSize);
     }
@@ -1129,114 +1198,99 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             }
         }
 
-        List<PostTransferBean> fullList = null;
-        PostSort previousSort = null;
-        Map<String, Map<String, Object>> topicCache = postsCache.get(topicId);
-        if (topicCache == null) {
-            topicCache = new HashMap<>();
-            postsCache.put(topicId, topicCache);
-        } else {
-            Map<String, Object> userMap = topicCache.get(currentUserId);
-            fullList = userMap != null ? (List<PostTransferBean>) userMap.get("posts") : null;
-            previousSort = userMap != null ? (PostSort) userMap.get("sort") : null;
-        }
-
-        String requestedThreadId = null;
-
-        if (fullList == null || (previousSort != null && previousSort != postSort) || StringUtils.isNotBlank(requestedPostId)) {
-            log.debug("Cache miss on {} or post {} requested", topicId, requestedPostId);
+        // The tree is shared by everybody viewing the topic. What this user can see of it, what they
+        // have read and how they have reacted are applied to fresh beans on every request.
+        TopicPostTree tree = getTopicPostTree(topicId);
 
-            List<ConversationsPost> posts = new ArrayList<>();
+        List<ConversationsPost> threads = tree.getPosts().stream()
+            .filter(p -> p.getParentPostId() == null && canUserViewPost(p, currentUserId, topic, tree)).collect(Collectors.toList());
 
-            List<ConversationsPost> threads = postRepository.findByTopicIdAndParentPostIdIsNull(topicId)
-                .stream().filter(p -> canUserViewPost(p, currentUserId)).collect(Collectors.toList());
+        List<ConversationsPost> posts = new ArrayList<>(threads);
 
-            posts.addAll(threads);
-
-            if (topic.getType() == TopicType.DISCUSSION) {
-                for (ConversationsPost t : threads) {
-                    List<ConversationsPost> threadPosts = postRepository.findByParentThreadId(t.getId())
-                        .stream().filter(p -> canUserViewPost(p, currentUserId)).collect(Collectors.toList());
+        String requestedThreadId = null;
 
-                    if (requestedPostId != null && threadPosts.stream().anyMatch(p -> p.getId().equals(requestedPostId))) {
-                        requestedThreadId = t.getId();
-                    }
+        if (topic.getType() == TopicType.DISCUSSION) {
+            Set<String> threadIds = threads.stream().map(ConversationsPost::getId).collect(Collectors.toSet());
+            List<ConversationsPost> replies = tree.getPosts().stream()
+                .filter(p -> p.getParentPostId() != null && threadIds.contains(p.getParentThreadId()))
+                .filter(p -> canUserViewPost(p, currentUserId, topic, tree)).collect(Collectors.toList());
 
-                    posts.addAll(threadPosts);
-                }
-            } else {
-                requestedThreadId = requestedPostId;
+            if (requestedPostId != null) {
+                requestedThreadId = replies.stream().filter(p -> p.getId().equals(requestedPostId))
+                    .map(ConversationsPost::getParentThreadId).findAny().orElse(null);
             }
 
-            // Grab all the stati for this user and post, in one.
-            Map<String, PostStatus> postStati = postStatusRepository.findByUserId(currentUserId)
-                .stream().collect(Collectors.toMap(s -> s.getPostId(), s -> s));
+            posts.addAll(replies);
+        } else {
+            requestedThreadId = requestedPostId;
+        }
+
+        // Grab all the stati and reactions for this user and topic, in one each.
+        Map<String, PostStatus> postStati = postStatusRepository.findByTopicIdAndUserId(topicId, currentUserId)
+            .stream().collect(Collectors.toMap(s -> s.getPostId(), s -> s, (s1, s2) -> s1));
+        Map<String, List<PostReaction>> myReactions = postReactionRepository.findByTopicIdAndUserId(topicId, currentUserId)
+            .stream().collect(Collectors.groupingBy(PostReaction::getPostId));
 
-            Settings settings = getSettingsForSite(siteId);
+        Settings settings = getSettingsForSite(siteId);
 
-            List<PostTransferBean> postBeans
-                = posts.stream().map(p -> decoratePostBean(PostTransferBean.of(p), siteId, topic, currentUserId, settings, postStati))
-                    .collect(Collectors.toList());
+        List<PostTransferBean> postBeans
+            = posts.stream().map(p -> decoratePostBean(PostTransferBean.of(p), siteId, topic, currentUserId, settings, postStati, tree, myReactions))
+                .collect(Collectors.toList());
 
-            Map<String, PostTransferBean> postBeanMap = postBeans.stream().collect(Collectors.toMap(pb -> pb.id, pb -> pb));
+        Map<String, PostTransferBean> postBeanMap = postBeans.stream().collect(Collectors.toMap(pb -> pb.id, pb -> pb));
 
-            if (topic.getType() == TopicType.DISCUSSION) {
-                postBeans.forEach(pb -> {
+        if (topic.getType() == TopicType.DISCUSSION) {
+            postBeans.forEach(pb -> {
 
-                    if (StringUtils.isNotBlank(pb.parentPost)) {
-                        PostTransferBean parent = postBeanMap.get(pb.parentPost);
-                        if (parent != null) {
-                            parent.posts.add(pb);
-                        } else {
-                            log.error("No post for parent post id {}", pb.parentPost);
-                        }
+                if (StringUtils.isNotBlank(pb.parentPost)) {
+                    PostTransferBean parent = postBeanMap.get(pb.parentPost);
+                    if (parent != null) {
+                        parent.posts.add(pb);
+                    } else {
+                        log.error("No post for parent post id {}", pb.parentPost);
                     }
-                });
-                // Only leave the top level threads in the map
-                postBeanMap.entrySet().removeIf(e -> StringUtils.isNotBlank(e.getValue().parentPost));
-            }
+                }
+            });
+            // Only leave the top level threads in the map
+            postBeanMap.entrySet().removeIf(e -> StringUtils.isNotBlank(e.getValue().parentPost));
+        }
 
-            // Make sure we return the posts in the order the db returned them in. Maps don't order.
-            //List<PostTransferBean> fullList = threads.stream().map(t -> postBeanMap.get(t.getId())).collect(Collectors.toList());
-            fullList = topic.getType() == TopicType.DISCUSSION ?
-                threads.stream().map(t -> postBeanMap.get(t.getId())).collect(Collectors.toList())
-                : postBeans;
+        // Make sure we return the posts in the order the db returned them in. Maps don't order.
+        //List<PostTransferBean> fullList = threads.stream().map(t -> postBeanMap.get(t.getId())).collect(Collectors.toList());
+        List<PostTransferBean> fullList = topic.getType() == TopicType.DISCUSSION ?
+            threads.stream().map(t -> postBeanMap.get(t.getId())).collect(Collectors.toList())
+            : postBeans;
 
-            final PostSort pSort = postSort != null ? postSort : PostSort.NEWEST;
+        final PostSort pSort = postSort != null ? postSort : PostSort.NEWEST;
 
-            if (pSort != PostSort.OLDEST) {
-                // DB sorts by oldest already
+        if (pSort != PostSort.OLDEST) {
+            // DB sorts by oldest already
  
-                fullList.sort((t1, t2) -> {
-
-                    switch (pSort) {
-                        case OLDEST:
-                            if (t1.created.isBefore(t2.created)) return 1;
-                            if (t1.created.isAfter(t2.created)) return -1;
-                            break;
-                        case NEWEST:
-                            if (t1.created.isBefore(t2.created)) return 1;
-                            if (t1.created.isAfter(t2.created)) return -1;
-                            break;
-                        case ASC_CREATOR:
-                            return t1.creatorDisplayName.compareTo(t2.creatorDisplayName);
-                        case DESC_CREATOR:
-                            return -1 * t1.creatorDisplayName.compareTo(t2.creatorDisplayName);
-                        case MOST_ACTIVE:
-                            if (t1.howActive > t2.howActive) return -1;
-                            if (t1.howActive < t2.howActive) return 1;
-                        case LEAST_ACTIVE:
-                            if (t1.howActive < t2.howActive) return -1;
-                            if (t1.howActive > t2.howActive) return 1;
-                        default:
-                    }
-                    return 0;
-                });
-            }
-            Map<String, Object> userMap = new HashMap<>();
-            userMap.put("posts", fullList);
-            userMap.put("sort", pSort); 
-            topicCache.put(currentUserId, userMap);
+            fullList.sort((t1, t2) -> {
+
+                switch (pSort) {
+                    case OLDEST:
+                        if (t1.created.isBefore(t2.created)) return 1;
+                        if (t1.created.isAfter(t2.created)) return -1;
+                        break;
+                    case NEWEST:
+                        if (t1.created.isBefore(t2.created)) return 1;
+                        if (t1.created.isAfter(t2.created)) return -1;
+                        break;
+                    case ASC_CREATOR:
+                        return t1.creatorDisplayName.compareTo(t2.creatorDisplayName);
+                    case DESC_CREATOR:
+                        return -1 * t1.creatorDisplayName.compareTo(t2.creatorDisplayName);
+                    case MOST_ACTIVE:
+                        if (t1.howActive > t2.howActive) return -1;
+                        if (t1.howActive < t2.howActive) return 1;
+                    case LEAST_ACTIVE:
+                        if (t1.howActive < t2.howActive) return -1;
+                        if (t1.howActive > t2.howActive) return 1;
+                    default:
+                }
+                return 0;
+            });
         }
 
         int pageSize = serverConfigurationService.getInt(ConversationsService.PROP_THREADS_PAGE_SIZE, 10);
@@ -1457,9 +1511,6 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             log.debug("Caught a constraint exception while saving topic status. This can happen " +
                 "due to the way the client detects posts scrolling into view");
         }
-
-        Map<String, Map<String, Object>> topicCache = postsCache.get(topicId);
-        if (topicCache != null) topicCache.remove(currentUserId);
     }
 
     private void markPostViewed(String topicId, String postId, String currentUserId) {
@@ -1556,6 +1607,8 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             p.setNumberOfComments(p.getNumberOfComments() - 1);
             postRepository.save(p);
         });
+
+        postsCache.remove(comment.getTopicId());
     }
 
     private void setTopicResolved(ConversationsTopic topic) {
@@ -1694,6 +1747,17 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
     }
 
     private PostTransferBean decoratePostBean(PostTransferBean postBean, String siteId, ConversationsTopic topic, String currentUserId, Settings settings, Map<String, PostStatus> postStati) {
+        return decoratePostBean(postBean, siteId, topic, currentUserId, settings, postStati, null, null);
+    }
+
+    /**
+     * Decorate the bean for the current user. The tree and the user's reactions are optional, when
+     * they are supplied the comments, reaction totals and reactions are taken from them instead of
+     * being looked up for this post. If the stati are supplied they must hold all of the user's stati
+     * for the topic, a missing status means the post hasn't been viewed or upvoted.
+     */
+    private PostTransferBean decoratePostBean(PostTransferBean postBean, String siteId, ConversationsTopic topic, String currentUserId, Settings settings,
+                                                Map<String, PostStatus> postStati, TopicPostTree tree, Map<String, List<PostReaction>> myReactions) {
 
         try {
             User creator = userDirectoryService.getUser(postBean.creator);
@@ -1711,7 +1775,7 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
         if (!postBean.locked) {
             postBean.canEdit = securityService.unlock(Permissions.POST_UPDATE_ANY.label, siteRef)
                     || (postBean.isMine && securityService.unlock(Permissions.POST_UPDATE_OWN.label, siteRef));
-            boolean hasChildren = postRepository.countByParentPostId(postBean.id) > 0L;
+            boolean hasChildren = tree != null ? tree.hasChildren(postBean.id) : postRepository.countByParentPostId(postBean.id) > 0L;
             postBean.canDelete = !hasChildren &&
                 (securityService.unlock(Permissions.POST_DELETE_ANY.label, siteRef)
                     || (postBean.isMine && securityService.unlock(Permissions.POST_DELETE_OWN.label, siteRef)));
@@ -1733,16 +1797,19 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             postBean.late = true;
         }
 
-        postStatusRepository.findByPostIdAndUserId(postBean.id, currentUserId).ifPresent(s -> {
+        Optional<PostStatus> optStatus = postStati != null ? Optional.ofNullable(postStati.get(postBean.id))
+            : postStatusRepository.findByPostIdAndUserId(postBean.id, currentUserId);
+        optStatus.ifPresent(s -> {
 
             postBean.upvoted = s.getUpvoted();
             postBean.viewed = s.getViewed();
         });
 
-        postBean.comments = decorateComments(commentRepository.findByPostId(postBean.id), siteId, currentUserId);
+        postBean.comments = decorateComments(tree != null ? tree.getComments(postBean.id) : commentRepository.findByPostId(postBean.id), siteId, currentUserId);
 
-        postBean.myReactions = postReactionRepository.findByPostIdAndUserId(postBean.id, currentUserId)
-            .stream().collect(Collectors.toMap(pr -> pr.getReaction(), pr -> pr.getState()));
+        List<PostReaction> reactions = myReactions != null ? myReactions.getOrDefault(postBean.id, Collections.emptyList())
+            : postReactionRepository.findByPostIdAndUserId(postBean.id, currentUserId);
+        postBean.myReactions = reactions.stream().collect(Collectors.toMap(pr -> pr.getReaction(), pr -> pr.getState()));
 
         Reaction.stream().forEach(r -> {
             if (!postBean.myReactions.keySet().contains(r)) {
@@ -1750,21 +1817,15 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             }
         });
 
-        postBean.reactionTotals = postReactionTotalRepository.findByPostId(postBean.id)
+        postBean.reactionTotals = tree != null ? tree.getReactionTotals(postBean.id)
+            : postReactionTotalRepository.findByPostId(postBean.id)
                 .stream().collect(Collectors.toMap(rt -> rt.getReaction(), rt -> rt.getTotal()));
 
         if (postBean.hidden && !securityService.unlock(Permissions.MODERATE.label, siteRef)) {
             postBean.clear();
         }
 
-        if (postStati != null) {
-            PostStatus postStatus = postStati.get(postBean.id);
-            postBean.viewed = postStatus != null ? postStatus.getViewed() : false;
-        } else {
-            postStatusRepository.findByPostIdAndUserId(postBean.id, currentUserId).ifPresent(s -> {
-                postBean.viewed = s.getViewed();
-            });
-        }
+        optStatus.ifPresent(s -> postBean.viewed = s.getViewed());
 
         postBean.url = "/api/sites/" + siteId + "/topics/" + topic.getId() + "/posts/" + postBean.id;
         getPostPortalUrl(topic.getId(), postBean.id).ifPresent(portalUrl -> postBean.portalUrl = portalUrl);
@@ -1834,6 +1895,7 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
         if (!alreadyUpvoted) {
             post.setUpvotes(post.getUpvotes() + 1);
         }
+        postsCache.remove(topicId);
         return PostTransferBean.of(postRepository.save(post));
     }
 
@@ -1864,6 +1926,7 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
         status.setUpvoted(Boolean.FALSE);
         postStatusRepository.save(status);
         post.setUpvotes(post.getUpvotes() - 1);
+        postsCache.remove(post.getTopicId());
         return PostTransferBean.of(postRepository.save(post));
     }
 
@@ -2008,187 +2071,146 @@ public class ConversationsServiceImpl implements ConversationsService, Observer
             throw new ConversationsPermissionsException("Current user cannot view site statistics");
         }
 
-        AuthzGroup azGroup = null;
-        try {
-            azGroup = authzGroupService.getAuthzGroup(siteRef);
-        } catch (GroupNotDefinedException e) {
-            log.error("No group for {}", siteRef);
-            throw new IllegalArgumentException("No group for " + siteRef);
+        // The members, sorted by name, only change with the site's group
+        String membersKey = siteId + "/conversations/" + SORT_NAME_ASCENDING;
+        List<ConversationsStat> members = sortedStatsCache.get(membersKey);
+        if (members == null) {
+            AuthzGroup azGroup = null;
+            try {
+                azGroup = authzGroupService.getAuthzGroup(siteRef);
+            } catch (GroupNotDefinedException e) {
+                log.error("No group for {}", siteRef);
+                throw new IllegalArgumentException("No group for " + siteRef);
+            }
+
+            members = userDirectoryService.getUsers(new ArrayList<>(azGroup.getUsers())).stream().map(user -> {
+
+                ConversationsStat member = new ConversationsStat();
+                member.userId = user.getId();
+                member.name = user.getSortName();
+                return member;
+            }).sorted(BY_NAME).collect(Collectors.toList());
+            sortedStatsCache.put(membersKey, members);
         }
 
-        List<String> userIds = new ArrayList<>(azGroup.getUsers());
-        List<User> users = userDirectoryService.getUsers(userIds);
+        ZoneId zone = ZoneId.systemDefault();
+        Map<String, Object[]> activityByUser = userActivityRepository.sumBySiteIdAndDateBetween(siteId,
+                from != null ? from.atZone(zone).toLocalDate() : null,
+                to != null ? to.atZone(zone).toLocalDate() : null)
+            .stream().collect(Collectors.toMap(row -> (String) row[0], row -> row));
 
-        List<Stat> topicCreatedStats = statsManager.getEventStats(siteId,
-            Arrays.asList(new String[] { ConversationsEvents.TOPIC_CREATED.label }),
-            from != null ? Date.from(from) : null,
-            to != null ? Date.from(to) : null,
-            userIds,
-            false, null, null, null, false, 0);
+        Map<String, Long> topicViewedCounts
+            = topicStatusRepository.countBySiteIdAndViewed(siteId, Boolean.TRUE).stream().collect(Collectors.toMap(pair -> (String) pair[0], pair -> (Long) pair[1]));
 
-        Map<String, Long> topicCountsByUser = new HashMap<>();
-        topicCreatedStats.forEach(stat -> {
+        List<ConversationsStat> stats = members.stream().map(member -> {
 
-            Long current = topicCountsByUser.getOrDefault(stat.getUserId(), 0L);
-            current = current + stat.getCount();
-            topicCountsByUser.put(stat.getUserId(), current);
-        });
+            Object[] activity = activityByUser.get(member.userId);
+            ConversationsStat stat = new ConversationsStat();
+            stat.userId = member.userId;
+            stat.name = member.name;
+            stat.topicsCreated = sumOf(activity, 1);
+            stat.postsCreated = sumOf(activity, 2);
+            stat.commentsCreated = sumOf(activity, 3);
+            stat.reactionsMade = sumOf(activity, 4);
+            stat.topicsViewed = topicViewedCounts.getOrDefault(member.userId, 0L);
+            return stat;
+        }).collect(Collectors.toList());
 
-        List<Stat> postCreatedStats = statsManager.getEventStats(siteId,
-            Arrays.asList(new String[] { ConversationsEvents.POST_CREATED.label }),
-            from != null ? Date.from(from) : null,
-            to != null ? Date.from(to) : null,
-            userIds,
-            false, null, null, null, false, 0);
+        // The members are in name order already, so ties stay in name order
+        stats.sort(STAT_SORTS.getOrDefault(sort, BY_NAME));
 
-        Map<String, Long> postCountsByUser = new HashMap<>();
-        postCreatedStats.forEach(stat -> {
+        Map<String, Object> data = new HashMap<>();
+        data.put("total", stats.size());
+        data.put("pageSize", pageSize);
+        data.put("currentPage", page);
 
-            Long current = postCountsByUser.getOrDefault(stat.getUserId(), 0L);
-            current = current + stat.getCount();
-            postCountsByUser.put(stat.getUserId(), current);
-        });
+        int start = Math.min(pageSize * (page - 1), stats.size());
+        int end = Math.min(start + pageSize, stats.size());
 
-        List<Stat> reactedStats = statsManager.getEventStats(siteId,
-            Arrays.asList(new String[] { ConversationsEvents.REACTED_TO_TOPIC.label }),
-            from != null ? Date.from(from) : null,
-            to != null ? Date.from(to) : null,
-            userIds,
-            false, null, null, null, false, 0);
+        data.put("stats", stats.subList(start, end));
 
-        Map<String, Long> reactedCountsByUser = new HashMap<>();
-        reactedStats.forEach(stat -> {
+        return data;
+    }
 
-            Long current = reactedCountsByUser.getOrDefault(stat.getUserId(), 0L);
-            current = current + stat.getCount();
-            reactedCountsByUser.put(stat.getUserId(), current);
-        });
+    private long sumOf(Object[] activity, int column) {
+        return activity != null && activity[column] != null ? ((Number) activity[column]).longValue() : 0L;
+    }
 
-        Map<String, Object> data = new HashMap<>();
-        data.put("total", userIds.size());
-        data.put("pageSize", pageSize);
-        data.put("currentPage", page);
+    private void countActivity(Event event) {
 
-        Map<String, Long> topicViewedCounts
-            = topicStatusRepository.countBySiteIdAndViewed(siteId, Boolean.TRUE).stream().collect(Collectors.toMap(pair -> (String) pair[0], pair -> (Long) pair[1]));
+        String counter = ACTIVITY_COUNTERS.get(event.getEvent());
+        if (counter == null) return;
 
-        List<ConversationsStat> stats = users.stream().map(user -> {
+        countActivity(event.getContext(), event.getUserId(), event.getEventTime() != null ? event.getEventTime().toInstant() : null, counter);
+    }
 
-            ConversationsStat stat = new ConversationsStat();
-            stat.name = user.getSortName();
-            Long topicCount = topicCountsByUser.get(user.getId());
-            stat.topicsCreated = topicCount != null ? topicCount : 0;
-            stat.topicsViewed = topicViewedCounts.getOrDefault(user.getId(), 0L);
-            Long reactedCount = reactedCountsByUser.get(user.getId());
-            stat.reactionsMade = reactedCount != null ? reactedCount : 0;
-            Long postCount = postCountsByUser.get(user.getId());
-            stat.postsCreated = postCount != null ? postCount : 0;
-            return stat;
-        }).collect(Collectors.toList());
+    /**
+     * Count a topic or post as it is first published, for its creator on the day it was created,
+     * which is how rebuildUserActivity counts it
+     */
+    private void countPublished(String siteId, Metadata metadata, String counter) {
 
-        String baseCacheKey = siteId + "/conversations/";
-        String nameAscendingKey = baseCacheKey + SORT_NAME_ASCENDING;
+        countActivity(siteId, metadata.getCreator(), metadata.getCreated(), counter);
+    }
 
-        List<ConversationsStat> sortedStats = new ArrayList<>();
-        if (sort == null) {
-            sortedStats = sortedStatsCache.get(nameAscendingKey);
-            if (sortedStats == null) {
-                sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getName)).collect(Collectors.toList());
-                sortedStatsCache.put(nameAscendingKey, sortedStats);
-            }
-        } else {
-            switch (sort) {
-                case SORT_NAME_ASCENDING:
-                    sortedStats = sortedStatsCache.get(nameAscendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getName)).collect(Collectors.toList());
-                        sortedStatsCache.put(nameAscendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_NAME_DESCENDING:
-                    String nameDescendingKey = baseCacheKey + SORT_NAME_DESCENDING;
-                    sortedStats = sortedStatsCache.get(nameDescendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getName).reversed()).collect(Collectors.toList());
-                        sortedStatsCache.put(nameDescendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_TOPICS_CREATED_ASCENDING:
-                    String topicsCreatedAscendingKey = baseCacheKey + SORT_TOPICS_CREATED_ASCENDING;
-                    sortedStats = sortedStatsCache.get(topicsCreatedAscendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getTopicsCreated)).collect(Collectors.toList());
-                        sortedStatsCache.put(topicsCreatedAscendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_TOPICS_CREATED_DESCENDING:
-                    String topicsCreatedDescendingKey = baseCacheKey + SORT_TOPICS_CREATED_DESCENDING;
-                    sortedStats = sortedStatsCache.get(topicsCreatedDescendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getTopicsCreated).reversed()).collect(Collectors.toList());
-                        sortedStatsCache.put(topicsCreatedDescendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_TOPICS_VIEWED_ASCENDING:
-                    String topicsViewedAscendingKey = baseCacheKey + SORT_TOPICS_VIEWED_ASCENDING;
-                    sortedStats = sortedStatsCache.get(topicsViewedAscendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getTopicsViewed)).collect(Collectors.toList());
-                        sortedStatsCache.put(topicsViewedAscendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_TOPICS_VIEWED_DESCENDING:
-                    String topicsViewedDescendingKey = baseCacheKey + SORT_TOPICS_VIEWED_DESCENDING;
-                    sortedStats = sortedStatsCache.get(topicsViewedDescendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getTopicsViewed).reversed()).collect(Collectors.toList());
-                        sortedStatsCache.put(topicsViewedDescendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_POSTS_CREATED_ASCENDING:
-                    String postsCreatedAscendingKey = baseCacheKey + SORT_POSTS_CREATED_ASCENDING;
-                    sortedStats = sortedStatsCache.get(postsCreatedAscendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getPostsCreated)).collect(Collectors.toList());
-                        sortedStatsCache.put(postsCreatedAscendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_POSTS_CREATED_DESCENDING:
-                    String postsCreatedDescendingKey = baseCacheKey + SORT_POSTS_CREATED_DESCENDING;
-                    sortedStats = sortedStatsCache.get(postsCreatedDescendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getPostsCreated).reversed()).collect(Collectors.toList());
-                        sortedStatsCache.put(postsCreatedDescendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_REACTIONS_MADE_ASCENDING:
-                    String reactionsMadeAscendingKey = baseCacheKey + SORT_REACTIONS_MADE_ASCENDING;
-                    sortedStats = sortedStatsCache.get(reactionsMadeAscendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getReactionsMade)).collect(Collectors.toList());
-                        sortedStatsCache.put(reactionsMadeAscendingKey, sortedStats);
-                    }
-                    break;
-                case SORT_REACTIONS_MADE_DESCENDING:
-                    String reactionsMadeDescendingKey = baseCacheKey + SORT_REACTIONS_MADE_DESCENDING;
-                    sortedStats = sortedStatsCache.get(reactionsMadeDescendingKey);
-                    if (sortedStats == null) {
-                        sortedStats = stats.stream().sorted(Comparator.comparing(ConversationsStat::getReactionsMade).reversed()).collect(Collectors.toList());
-                        sortedStatsCache.put(reactionsMadeDescendingKey, sortedStats);
-                    }
-                    break;
-                default:
+    private void countActivity(String siteId, String userId, Instant when, String counter) {
+
+        if (StringUtils.isAnyBlank(siteId, userId)) return;
+
+        LocalDate date = (when != null ? when : Instant.now()).atZone(ZoneId.systemDefault()).toLocalDate();
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                userActivityRepository.incrementCount(siteId, userId, date, counter);
+                return;
+            } catch (Exception e) {
+                // Most likely another server created the day's row first, in which case it's there now
+                log.debug("Failed to count {} for user {}: {}", counter, userId, e.toString());
             }
         }
+        log.warn("Failed to count {} for user {} in site {}", counter, userId, siteId);
+    }
 
-        int start = pageSize * (page - 1);
-        int end = start + pageSize;
+    public void rebuildUserActivity(String siteId) {
 
-        if (end > sortedStats.size()) end = sortedStats.size();
+        Map<String, UserActivity> activities = new HashMap<>();
 
-        data.put("stats", sortedStats.subList(start, end));
+        topicRepository.findBySiteId(siteId).stream().filter(t -> !t.getDraft()).forEach(t -> {
 
-        return data;
+            UserActivity activity = getActivity(activities, siteId, t.getMetadata().getCreator(), t.getMetadata().getCreated());
+            activity.setTopicsCreated(activity.getTopicsCreated() + 1);
+        });
+
+        postRepository.findBySiteId(siteId).stream().filter(p -> !p.getDraft()).forEach(p -> {
+
+            UserActivity activity = getActivity(activities, siteId, p.getMetadata().getCreator(), p.getMetadata().getCreated());
+            activity.setPostsCreated(activity.getPostsCreated() + 1);
+        });
+
+        commentRepository.findBySiteId(siteId).forEach(c -> {
+
+            UserActivity activity = getActivity(activities, siteId, c.getMetadata().getCreator(), c.getMetadata().getCreated());
+            activity.setCommentsCreated(activity.getCommentsCreated() + 1);
+        });
+
+        // Topic reactions aren't dated, but sitestats has the events for them
+        statsManager.getEventStats(siteId, Arrays.asList(new String[] { ConversationsEvents.REACTED_TO_TOPIC.label }),
+                null, null, null, false, null, Arrays.asList(StatsManager.T_USER, StatsManager.T_DATE), null, false, 0)
+            .forEach(stat -> {
+
+                UserActivity activity = getActivity(activities, siteId, stat.getUserId(), stat.getDate().toInstant());
+                activity.setReactionsMade(activity.getReactionsMade() + (int) stat.getCount());
+            });
+
+        userActivityRepository.deleteBySiteId(siteId);
+        activities.values().forEach(userActivityRepository::save);
+        log.debug("Rebuilt {} days of user activity for site {}", activities.size(), siteId);
+    }
+
+    private UserActivity getActivity(Map<String, UserActivity> activities, String siteId, String userId, Instant when) {
+
+        LocalDate date = (when != null ? when : Instant.now()).atZone(ZoneId.systemDefault()).toLocalDate();
+        return activities.computeIfAbsent(userId + "/" + date, k -> new UserActivity(siteId, userId, date));
     }
 
     private void afterCommit(Runnable runnable) {
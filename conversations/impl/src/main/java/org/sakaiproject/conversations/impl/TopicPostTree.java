@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.conversations.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.sakaiproject.conversations.api.Reaction;
+import org.sakaiproject.conversations.api.model.ConversationsComment;
+import org.sakaiproject.conversations.api.model.ConversationsPost;
+import org.sakaiproject.conversations.api.model.PostReactionTotal;
+
+import lombok.Getter;
+
+/**
+ * Everything about a topic's posts that is the same for every user, loaded with one query per
+ * table and shared by all the users viewing the topic. Visibility, read status, the user's own
+ * reactions and permissions are applied on top of this per request.
+ *
+ * The entities held here are read only, the beans handed out are built from them per request.
+ */
+class TopicPostTree {
+
+    /** All the posts in the topic, oldest first */
+    @Getter
+    private final List<ConversationsPost> posts;
+
+    private final Map<String, ConversationsPost> postsById;
+    private final Set<String> parentPostIds = new HashSet<>();
+    private final Map<String, List<ConversationsComment>> comments;
+    private final Map<String, Map<Reaction, Integer>> reactionTotals = new HashMap<>();
+
+    TopicPostTree(List<ConversationsPost> posts, List<ConversationsComment> comments, List<PostReactionTotal> totals) {
+
+        this.posts = Collections.unmodifiableList(posts);
+        this.postsById = posts.stream().collect(Collectors.toMap(ConversationsPost::getId, p -> p));
+        posts.forEach(p -> {
+            if (p.getParentPostId() != null) parentPostIds.add(p.getParentPostId());
+        });
+        this.comments = comments.stream().collect(Collectors.groupingBy(ConversationsComment::getPostId));
+        totals.forEach(t -> reactionTotals.computeIfAbsent(t.getPostId(), k -> new HashMap<>()).put(t.getReaction(), t.getTotal()));
+    }
+
+    ConversationsPost getPost(String postId) {
+        return postId != null ? postsById.get(postId) : null;
+    }
+
+    boolean hasChildren(String postId) {
+        return parentPostIds.contains(postId);
+    }
+
+    List<ConversationsComment> getComments(String postId) {
+        return comments.getOrDefault(postId, Collections.emptyList());
+    }
+
+    /**
+     * @return a copy of the reaction totals for the post, callers are free to change it
+     */
+    Map<Reaction, Integer> getReactionTotals(String postId) {
+        return new HashMap<>(reactionTotals.getOrDefault(postId, Collections.emptyMap()));
+    }
+}
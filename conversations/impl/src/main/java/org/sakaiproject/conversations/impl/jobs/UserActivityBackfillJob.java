@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.conversations.impl.jobs;
+
+import java.util.List;
+
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import org.sakaiproject.conversations.api.ConversationsService;
+import org.sakaiproject.conversations.api.repository.ConversationsTopicRepository;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Populates the daily user activity behind the conversations statistics for every site with
+ * topics. Run it once after upgrading, activity from then on is counted as it happens. Running it
+ * again rebuilds each site from scratch.
+ */
+@Slf4j
+public class UserActivityBackfillJob implements Job {
+
+    @Setter private ConversationsService conversationsService;
+    @Setter private ConversationsTopicRepository topicRepository;
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+
+        List<String> siteIds = topicRepository.findSiteIds();
+        log.info("Rebuilding conversations user activity for {} sites", siteIds.size());
+
+        int failed = 0;
+        for (String siteId : siteIds) {
+            try {
+                // One transaction per site
+                conversationsService.rebuildUserActivity(siteId);
+            } catch (Exception e) {
+                failed++;
+                log.error("Failed to rebuild conversations user activity for site {}: {}", siteId, e.toString());
+            }
+        }
+        log.info("Rebuilt conversations user activity for {} sites, {} failed", siteIds.size() - failed, failed);
+    }
+}
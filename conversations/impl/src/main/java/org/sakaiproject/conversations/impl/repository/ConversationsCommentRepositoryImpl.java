@@ -49,6 +49,20 @@ public class ConversationsCommentRepositoryImpl extends SpringCrudRepositoryImpl
         return session.createQuery(query).list();
     }
 
+    @Transactional(readOnly = true)
+    public List<ConversationsComment> findByTopicId(String topicId) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaQuery<ConversationsComment> query = cb.createQuery(ConversationsComment.class);
+        Root<ConversationsComment> comment = query.from(ConversationsComment.class);
+        query.where(cb.equal(comment.get("topicId"), topicId))
+            .orderBy(cb.desc(comment.get("metadata").get("created")));
+
+        return session.createQuery(query).list();
+    }
+
     @Transactional(readOnly = true)
     public List<ConversationsComment> findBySiteId(String siteId) {
 
@@ -42,7 +42,9 @@ public class ConversationsPostRepositoryImpl extends SpringCrudRepositoryImpl<Co
 
         CriteriaBuilder cb = session.getCriteriaBuilder();
         CriteriaQuery<ConversationsPost> query = cb.createQuery(ConversationsPost.class);
-        query.where(cb.equal(query.from(ConversationsPost.class).get("topicId"), topicId));
+        Root<ConversationsPost> post = query.from(ConversationsPost.class);
+        query.where(cb.equal(post.get("topicId"), topicId))
+            .orderBy(cb.asc(post.get("metadata").get("created")));
 
         return session.createQuery(query).list();
     }
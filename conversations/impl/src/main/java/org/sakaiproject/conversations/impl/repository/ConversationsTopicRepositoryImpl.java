@@ -48,6 +48,19 @@ public class ConversationsTopicRepositoryImpl extends SpringCrudRepositoryImpl<C
         return session.createQuery(query).list();
     }
 
+    @Transactional(readOnly = true)
+    public List<String> findSiteIds() {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaQuery<String> query = cb.createQuery(String.class);
+        Root<ConversationsTopic> topic = query.from(ConversationsTopic.class);
+        query.select(topic.get("siteId")).distinct(true);
+
+        return session.createQuery(query).list();
+    }
+
     @Transactional(readOnly = true)
     public List<ConversationsTopic> findByTags_Id(Long tagId) {
 
@@ -26,6 +26,7 @@ import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Root;
 import javax.persistence.criteria.Subquery;
 
+import org.sakaiproject.conversations.api.model.ConversationsPost;
 import org.sakaiproject.conversations.api.model.PostReaction;
 import org.sakaiproject.conversations.api.repository.PostReactionRepository;
 import org.sakaiproject.springframework.data.SpringCrudRepositoryImpl;
@@ -48,6 +49,23 @@ public class PostReactionRepositoryImpl extends SpringCrudRepositoryImpl<PostRea
         return session.createQuery(query).list();
     }
 
+    @Transactional(readOnly = true)
+    public List<PostReaction> findByTopicIdAndUserId(String topicId, String userId) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaQuery<PostReaction> query = cb.createQuery(PostReaction.class);
+        Root<PostReaction> reaction = query.from(PostReaction.class);
+        Subquery<String> topicPosts = query.subquery(String.class);
+        Root<ConversationsPost> post = topicPosts.from(ConversationsPost.class);
+        topicPosts.select(post.get("id")).where(cb.equal(post.get("topicId"), topicId));
+        query.where(cb.and(cb.equal(reaction.get("userId"), userId),
+                            reaction.get("postId").in(topicPosts)));
+
+        return session.createQuery(query).list();
+    }
+
     @Transactional
     public Integer deleteByPostId(String postId) {
 
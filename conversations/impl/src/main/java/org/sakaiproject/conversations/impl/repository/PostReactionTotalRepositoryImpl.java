@@ -24,8 +24,10 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
 
 import org.sakaiproject.conversations.api.Reaction;
+import org.sakaiproject.conversations.api.model.ConversationsPost;
 import org.sakaiproject.conversations.api.model.PostReactionTotal;
 import org.sakaiproject.conversations.api.repository.PostReactionTotalRepository;
 import org.sakaiproject.springframework.data.SpringCrudRepositoryImpl;
@@ -47,6 +49,22 @@ public class PostReactionTotalRepositoryImpl extends SpringCrudRepositoryImpl<Po
         return session.createQuery(query).list();
     }
 
+    @Transactional(readOnly = true)
+    public List<PostReactionTotal> findByTopicId(String topicId) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaQuery<PostReactionTotal> query = cb.createQuery(PostReactionTotal.class);
+        Root<PostReactionTotal> total = query.from(PostReactionTotal.class);
+        Subquery<String> topicPosts = query.subquery(String.class);
+        Root<ConversationsPost> post = topicPosts.from(ConversationsPost.class);
+        topicPosts.select(post.get("id")).where(cb.equal(post.get("topicId"), topicId));
+        query.where(total.get("postId").in(topicPosts));
+
+        return session.createQuery(query).list();
+    }
+
     @Transactional(readOnly = true)
     public Optional<PostReactionTotal> findByPostIdAndReaction(String postId, Reaction reaction) {
 
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.conversations.impl.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.sakaiproject.conversations.api.model.UserActivity;
+import org.sakaiproject.conversations.api.repository.UserActivityRepository;
+import org.sakaiproject.springframework.data.SpringCrudRepositoryImpl;
+
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+public class UserActivityRepositoryImpl extends SpringCrudRepositoryImpl<UserActivity, Long>  implements UserActivityRepository {
+
+    // Counting happens from event observers, often after the transaction that posted the event has
+    // committed, so it always gets a transaction of its own
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void incrementCount(String siteId, String userId, LocalDate date, String counter) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        if (increment(session, siteId, userId, date, counter) == 0) {
+            // First activity of the day. Another server can get here at the same time, in which case
+            // one of the inserts fails on the unique constraint and the caller has to try again.
+            session.persist(new UserActivity(siteId, userId, date));
+            session.flush();
+            increment(session, siteId, userId, date, counter);
+        }
+    }
+
+    private int increment(Session session, String siteId, String userId, LocalDate date, String counter) {
+
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaUpdate<UserActivity> update = cb.createCriteriaUpdate(UserActivity.class);
+        Root<UserActivity> activity = update.from(UserActivity.class);
+        Path<Integer> count = activity.get(counter);
+        update.set(count, cb.sum(count, 1))
+            .where(cb.and(cb.equal(activity.get("siteId"), siteId),
+                            cb.equal(activity.get("userId"), userId),
+                            cb.equal(activity.get("activityDate"), date)));
+        return session.createQuery(update).executeUpdate();
+    }
+
+    @Transactional(readOnly = true)
+    public List<Object[]> sumBySiteIdAndDateBetween(String siteId, LocalDate from, LocalDate to) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = cb.createQuery(Object[].class);
+        Root<UserActivity> activity = query.from(UserActivity.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        predicates.add(cb.equal(activity.get("siteId"), siteId));
+        if (from != null) predicates.add(cb.greaterThanOrEqualTo(activity.<LocalDate>get("activityDate"), from));
+        if (to != null) predicates.add(cb.lessThanOrEqualTo(activity.<LocalDate>get("activityDate"), to));
+
+        query.multiselect(activity.get("userId"),
+                            cb.sumAsLong(activity.get(UserActivity.TOPICS_CREATED)),
+                            cb.sumAsLong(activity.get(UserActivity.POSTS_CREATED)),
+                            cb.sumAsLong(activity.get(UserActivity.COMMENTS_CREATED)),
+                            cb.sumAsLong(activity.get(UserActivity.REACTIONS_MADE)))
+            .where(predicates.toArray(new Predicate[0]))
+            .groupBy(activity.get("userId"));
+
+        return session.createQuery(query).list();
+    }
+
+    @Transactional
+    public Integer deleteBySiteId(String siteId) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaDelete<UserActivity> delete = cb.createCriteriaDelete(UserActivity.class);
+        Root<UserActivity> activity = delete.from(UserActivity.class);
+        delete.where(cb.equal(activity.get("siteId"), siteId));
+
+        return session.createQuery(delete).executeUpdate();
+    }
+}
@@ -1731,6 +1731,47 @@ public class ConversationsServiceTests extends AbstractTransactionalJUnit4Spring
         }
     }
 
+    @Test
+    public void rebuildUserActivity() {
+
+        switchToUser1();
+
+        TopicTransferBean topicBean = createTopic(true);
+
+        try {
+            PostTransferBean postBean = new PostTransferBean();
+            postBean.siteId = siteId;
+            postBean.topic = topicBean.id;
+            postBean.setMessage("Here is my message");
+            conversationsService.savePost(postBean, false);
+
+            switchToInstructor();
+            conversationsService.rebuildUserActivity(siteId);
+
+            Map<String, Object> data = conversationsService.getSiteStats(siteId, null, null, 1, ConversationsService.SORT_POSTS_CREATED_DESCENDING);
+            List<ConversationsStat> stats = (List<ConversationsStat>) data.get("stats");
+            assertEquals(3, stats.size());
+
+            ConversationsStat stat = stats.get(0);
+            assertEquals(user1SortName, stat.name);
+            assertEquals(1L, (long) stat.topicsCreated);
+            assertEquals(1L, (long) stat.postsCreated);
+
+            // Rebuilding again replaces the counts rather than adding to them
+            conversationsService.rebuildUserActivity(siteId);
+            data = conversationsService.getSiteStats(siteId, null, null, 1, ConversationsService.SORT_POSTS_CREATED_DESCENDING);
+            stat = ((List<ConversationsStat>) data.get("stats")).get(0);
+            assertEquals(1L, (long) stat.postsCreated);
+
+            // Nothing happened up to the day before yesterday
+            data = conversationsService.getSiteStats(siteId, null, Instant.now().minus(2, ChronoUnit.DAYS), 1, ConversationsService.SORT_POSTS_CREATED_DESCENDING);
+            ((List<ConversationsStat>) data.get("stats")).forEach(s -> assertEquals(0L, (long) s.postsCreated));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+
     private TopicTransferBean createTopic(boolean discussion) {
 
         topicBean.type = discussion ? TopicType.DISCUSSION.name() : TopicType.QUESTION.name();
@@ -33,6 +33,7 @@ import org.sakaiproject.hibernate.AssignableUUIDGenerator;
 import org.sakaiproject.springframework.orm.hibernate.AdditionalHibernateMappings;
 
 import org.sakaiproject.api.app.scheduler.ScheduledInvocationManager;
+import org.sakaiproject.api.app.scheduler.SchedulerManager;
 import org.sakaiproject.authz.api.AuthzGroupService;
 import org.sakaiproject.authz.api.FunctionManager;
 import org.sakaiproject.authz.api.SecurityService;
@@ -281,6 +282,11 @@ public class ConversationsTestConfiguration {
         return mock(SearchService.class);
     }
 
+    @Bean(name = "org.sakaiproject.api.app.scheduler.SchedulerManager")
+    public SchedulerManager schedulerManager() {
+        return mock(SchedulerManager.class);
+    }
+
     @Bean(name = "org.sakaiproject.api.app.scheduler.ScheduledInvocationManager")
     public ScheduledInvocationManager scheduledInvocationManager() {
         return mock(ScheduledInvocationManager.class);
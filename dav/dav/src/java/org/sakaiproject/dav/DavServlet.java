@@ -100,10 +100,12 @@ import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Stack;
 import java.util.TimeZone;
@@ -340,6 +342,11 @@ public class DavServlet extends HttpServlet
 	 */
 	private String[] nonDavUserAgent = null;
 
+	/**
+	 * The deepest a PROPFIND goes, Depth: infinity (or no Depth) goes this deep
+	 */
+	private int maxPropfindDepth = INFINITY;
+
 	@Setter private ContentHostingService contentHostingService;
 	private CitationService citationService;
 	private EntityManager entityManager;
@@ -647,6 +654,8 @@ public class DavServlet extends HttpServlet
 		// Check cookie configuration
 		useCookies = serverConfigurationService.getBoolean("webdav.cookies", false);
 
+		maxPropfindDepth = Math.max(1, serverConfigurationService.getInt("webdav.propfind.depth.max", INFINITY));
+
 		nonDavUserAgent = serverConfigurationService.getStrings("webdav.nonDavUserAgent");
 		if (nonDavUserAgent == null) {
 		    nonDavUserAgent = new String[] {  "Mozilla", "Opera", "BlackBerry" };
@@ -1520,26 +1529,13 @@ public class DavServlet extends HttpServlet
 				if (!collection)
 				{
 					mbr = contentHostingService.getResource(adjustId(path));
-					// Props for a file is OK from above
-					length = ((ContentResource) mbr).getContentLength();
-					MIMEType = ((ContentResource) mbr).getContentType();
-					eTag = ((ContentResource) mbr).getId();
 				}
 				else
 				{
 					mbr = contentHostingService.getCollection(adjustId(path));
 					props = mbr.getProperties();
-					eTag = our_path;
 				}
-				modificationDate = props.getTimeProperty(ResourceProperties.PROP_MODIFIED_DATE).getTime();
-				eTag = modificationDate + "+" + eTag;
-				// SAK-26593 if you don't clean the eTag you may send invalid XML to client
-				// SAK-29338 Cyberduck started to see our md5 etag as an AWS s3-like checksum so let's add a prefix
-				eTag = "sakai-" + MD5Encoder.encode(md5Helper.digest(eTag.getBytes()));
-				if (log.isDebugEnabled()) log.debug("Path=" + path + " eTag=" + eTag);
-				creationDate = props.getTimeProperty(ResourceProperties.PROP_CREATION_DATE).getTime();
-				resourceLink = mbr.getUrl();
-
+				setDates(our_path, mbr, props);
 			}
 			catch (PermissionException e)
 			{
@@ -1566,6 +1562,58 @@ public class DavServlet extends HttpServlet
 			if (creationDate == 0) creationDate = modificationDate;
 			date = modificationDate;
 		}
+
+		/**
+		 * Info for a member already loaded with its collection, the caller has checked it can be read.
+		 */
+		public ResourceInfoSAKAI(String our_path, ContentEntity mbr)
+		{
+			path = our_path;
+			ResourceProperties props = mbr.getProperties();
+			collection = mbr.isCollection();
+			resourceName = props.getProperty(ResourceProperties.PROP_DISPLAY_NAME);
+			displayName = props.getPropertyFormatted(ResourceProperties.PROP_DISPLAY_NAME);
+			exists = true;
+			try
+			{
+				setDates(our_path, mbr, props);
+			}
+			catch (EntityPropertyNotDefinedException e)
+			{
+				log.warn("ResourceInfoSAKAI - This resource is empty" + path);
+			}
+			catch (EntityPropertyTypeException e)
+			{
+				log.warn("ResourceInfoSAKAI - EntityPropertyType Exception " + path);
+			}
+
+			httpDate = getHttpDate(modificationDate);
+			if (creationDate == 0) creationDate = modificationDate;
+			date = modificationDate;
+		}
+
+		private void setDates(String our_path, Entity mbr, ResourceProperties props) throws EntityPropertyNotDefinedException, EntityPropertyTypeException
+		{
+			if (!collection)
+			{
+				// Props for a file is OK from above
+				length = ((ContentResource) mbr).getContentLength();
+				MIMEType = ((ContentResource) mbr).getContentType();
+				eTag = ((ContentResource) mbr).getId();
+			}
+			else
+			{
+				eTag = our_path;
+			}
+			modificationDate = props.getTimeProperty(ResourceProperties.PROP_MODIFIED_DATE).getTime();
+			eTag = modificationDate + "+" + eTag;
+			// SAK-26593 if you don't clean the eTag you may send invalid XML to client
+			// SAK-29338 Cyberduck started to see our md5 etag as an AWS s3-like checksum so let's add a prefix
+			eTag = "sakai-" + MD5Encoder.encode(md5Helper.digest(eTag.getBytes()));
+			if (log.isDebugEnabled()) log.debug("Path=" + path + " eTag=" + eTag);
+			creationDate = props.getTimeProperty(ResourceProperties.PROP_CREATION_DATE).getTime();
+			resourceLink = mbr.getUrl();
+		}
 	}
 
 	public DirContextSAKAI getResourcesSAKAI()
@@ -2048,6 +2096,7 @@ public class DavServlet extends HttpServlet
 				depth = INFINITY;
 			}
 		}
+		if (depth == INFINITY) depth = maxPropfindDepth;
 
 		Node propNode = null;
 
@@ -2252,37 +2301,58 @@ public class DavServlet extends HttpServlet
 			// Stack of the objects one level below
 			Stack<String> stackBelow = new Stack<String>();
 
+			// The members already loaded with their collection, by path, so they are not looked up again one by one
+			Map<String, ContentEntity> listed = new HashMap<String, ContentEntity>();
+
 			while ((!stack.isEmpty()) && (depth >= 0))
 			{
 
 				String currentPath = (String) stack.pop();
+				ContentEntity current = listed.remove(currentPath);
+				boolean isCollection;
 
-				try
+				if (current == null)
 				{
-					// if (log.isDebugEnabled()) log.debug("Lookup currentPath="+currentPath);
-					resources.lookup(currentPath);
+					try
+					{
+						// if (log.isDebugEnabled()) log.debug("Lookup currentPath="+currentPath);
+						resources.lookup(currentPath);
+					}
+					catch (NamingException e)
+					{
+						continue;
+					}
+
+					parseProperties(req, resources, generatedXML, currentPath, type, properties);
+					isCollection = resources.isCollection;
 				}
-				catch (NamingException e)
+				else
 				{
-					continue;
-				}
+					// same permission check as the lookup
+					if (!contentHostingService.allowGetResource(current.getId())) continue;
 
-				parseProperties(req, resources, generatedXML, currentPath, type, properties);
+					parseProperties(req, new ResourceInfoSAKAI(currentPath, current), generatedXML, currentPath, type, properties);
+					isCollection = current.isCollection();
+				}
 
-				if ((resources.isCollection) && (depth > 0))
+				if (isCollection && (depth > 0))
 				{
 
-					Iterator<ContentEntity> it = resources.list(currentPath);
+					Iterator<ContentEntity> it = (current == null) ? resources.list(currentPath)
+							: ((ContentCollection) current).getMemberResources().iterator();
 					while (it.hasNext())
 					{
-						Entity mbr = it.next();
+						ContentEntity mbr = it.next();
 						String resourceName = getResourceNameSAKAI(mbr);
 
 						String newPath = currentPath;
 						if (!(newPath.endsWith("/"))) newPath += "/";
 						newPath += resourceName;
 						if (!(newPath.toLowerCase().indexOf("/protected") >= 0 && !contentHostingService.allowAddCollection(newPath)))
-						stackBelow.push(newPath);
+						{
+							stackBelow.push(newPath);
+							listed.put(newPath, mbr);
+						}
 						// if (log.isDebugEnabled()) log.debug("SAKAI found resource " + newPath);
 					}
 
@@ -4304,7 +4374,18 @@ public class DavServlet extends HttpServlet
 		// (the "toUpperCase()" avoids problems on Windows systems)
 		if (path.toUpperCase().startsWith("/WEB-INF") || path.toUpperCase().startsWith("/META-INF")) return;
 
-		ResourceInfoSAKAI resourceInfo = new ResourceInfoSAKAI(path, resources);
+		parseProperties(req, new ResourceInfoSAKAI(path, resources), generatedXML, path, type, propertiesVector);
+	}
+
+	/**
+	 * Propfind helper method, for a resource already looked up.
+	 */
+	private void parseProperties(HttpServletRequest req, ResourceInfoSAKAI resourceInfo, XMLWriter generatedXML, String path, int type,
+			Vector<String> propertiesVector)
+	{
+		// Exclude any resource in the /WEB-INF and /META-INF subdirectories
+		// (the "toUpperCase()" avoids problems on Windows systems)
+		if (path.toUpperCase().startsWith("/WEB-INF") || path.toUpperCase().startsWith("/META-INF")) return;
 
 		generatedXML.writeElement("D", "response", XMLWriter.OPENING);
 		String status = new String("HTTP/1.1 " + SakaidavStatus.SC_OK + " " + SakaidavStatus.getStatusText(SakaidavStatus.SC_OK));
@@ -18,6 +18,8 @@ package org.sakaiproject.entitybroker.providers;
 
 import java.util.Map;
 
+import java.util.concurrent.Callable;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.sakaiproject.entitybroker.entityprovider.extension.LearningTrackingProvider;
@@ -115,4 +117,19 @@ public interface ExternalIntegrationProvider extends LearningTrackingProvider {
      */
     public <T> T getConfigurationSetting(String settingName, T defaultValue);
 
+    /**
+     * Allows the external system to carry the context of the current request (e.g. the current user session)
+     * over to another thread, this is used to handle batched requests in parallel <br/>
+     * The returned task should set up the context captured when this is called before running the task
+     * and clean it up again after, if it is run on the current thread then it should simply run the task <br/>
+     * By default there is no context to carry over and the task is returned unchanged
+     * 
+     * @param <T>
+     * @param task the task which will be run on another thread
+     * @return the task wrapped so that it runs with the context of the current request
+     */
+    public default <T> Callable<T> wrapForThread(Callable<T> task) {
+        return task;
+    }
+
 }
@@ -22,6 +22,7 @@ package org.sakaiproject.entitybroker.impl.external;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.concurrent.Callable;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -42,6 +43,7 @@ import org.sakaiproject.event.api.NotificationService;
 import org.sakaiproject.event.api.UsageSession;
 import org.sakaiproject.event.api.UsageSessionService;
 import org.sakaiproject.event.api.LearningResourceStoreService.LRS_Statement;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
 import org.sakaiproject.tool.api.Session;
 import org.sakaiproject.tool.api.SessionManager;
 
@@ -93,6 +95,11 @@ public class SakaiExternalIntegrationProvider implements ExternalIntegrationProv
         this.sessionManager = sessionManager;
     }
 
+    private ThreadLocalManager threadLocalManager;
+    public void setThreadLocalManager(ThreadLocalManager threadLocalManager) {
+        this.threadLocalManager = threadLocalManager;
+    }
+
     /* (non-Javadoc)
      * @see org.sakaiproject.entitybroker.providers.ExternalIntegrationProvider#findService(java.lang.Class)
      */
@@ -301,6 +308,28 @@ public class SakaiExternalIntegrationProvider implements ExternalIntegrationProv
         return returnValue;
     }
 
+    /* (non-Javadoc)
+     * @see org.sakaiproject.entitybroker.providers.ExternalIntegrationProvider#wrapForThread(java.util.concurrent.Callable)
+     */
+    public <T> Callable<T> wrapForThread(final Callable<T> task) {
+        // SAKAI - the other thread runs as the current session, everything else it sets up is cleared after
+        final Thread caller = Thread.currentThread();
+        final Session session = sessionManager.getCurrentSession();
+        return new Callable<T>() {
+            public T call() throws Exception {
+                if (Thread.currentThread() == caller) {
+                    return task.call();
+                }
+                sessionManager.setCurrentSession(session);
+                try {
+                    return task.call();
+                } finally {
+                    threadLocalManager.clear();
+                }
+            }
+        };
+    }
+
     /* (non-Javadoc)
      * @see org.sakaiproject.entitybroker.entityprovider.extension.LearningTrackingProvider#registerStatement(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.Boolean, java.lang.Float)
      */
@@ -24,10 +24,22 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -67,6 +79,16 @@ public class EntityBatchHandler {
 
     public static final String CONFIG_BATCH_ENABLE = "entitybroker.batch.enable";
     public static final boolean CONFIG_BATCH_DEFAULT = false;
+    /**
+     * The number of threads used to handle the internal GET requests of a batch in parallel, 0 handles them one by one
+     */
+    public static final String CONFIG_BATCH_THREADS = "entitybroker.batch.threads";
+    public static final int CONFIG_BATCH_THREADS_DEFAULT = 8;
+    /**
+     * How long in seconds the parallel requests of a batch may take, the ones still running after that fail
+     */
+    public static final String CONFIG_BATCH_TIMEOUT = "entitybroker.batch.timeout";
+    public static final int CONFIG_BATCH_TIMEOUT_DEFAULT = 30;
 
     private static final String HEADER_BATCH_STATUS = "batchStatus";
     private static final String HEADER_BATCH_ERRORS = "batchErrors";
@@ -104,6 +126,8 @@ public class EntityBatchHandler {
     }
 
     private EntityProvider batchEP = null;
+    private ThreadPoolExecutor batchExecutor = null;
+    private long batchTimeout = CONFIG_BATCH_TIMEOUT_DEFAULT * 1000L;
 
     public void init() {
         // register the batch EP handler
@@ -123,6 +147,22 @@ public class EntityBatchHandler {
                 }
             };
             this.entityBrokerManager.getEntityProviderManager().registerEntityProvider(batchEP);
+
+            int threads = this.externalIntegrationProvider.getConfigurationSetting(CONFIG_BATCH_THREADS, CONFIG_BATCH_THREADS_DEFAULT);
+            if (threads > 0) {
+                // bounded so a flood of batches cannot pile up, requests which do not fit are handled on the request thread
+                final AtomicInteger threadCount = new AtomicInteger();
+                batchExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(threads * 16), new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r, "entitybroker-batch-" + threadCount.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+                batchExecutor.allowCoreThreadTimeOut(true);
+            }
+            batchTimeout = this.externalIntegrationProvider.getConfigurationSetting(CONFIG_BATCH_TIMEOUT, CONFIG_BATCH_TIMEOUT_DEFAULT) * 1000L;
         } else {
             // batch provider is disabled so do not show the docs for it - this empty on purpose
         }
@@ -137,6 +177,10 @@ public class EntityBatchHandler {
                 log.warn("EntityBatchHandler: Unable to unregister the batch provider: " + e);
             }
         }
+        if (batchExecutor != null) {
+            batchExecutor.shutdownNow();
+            batchExecutor = null;
+        }
     }
 
 
@@ -219,10 +263,8 @@ public class EntityBatchHandler {
 
         // loop through all references
         HashSet<String> processedRefsAndURLs = new HashSet<String>(); // holds all refs which we processed in this batch
-        HashMap<String, String> dataMap = new ArrayOrderedMap<String, String>(); // the returned content data from each ref
-        Map<String, ResponseBase> results = new ArrayOrderedMap<String, ResponseBase>(); // the results of all valid refs
-        boolean successOverall = false; // true if all ok or partial ok, false if exception occurs or all fail
-        boolean failure = false;
+        List<BatchEntry> entries = new ArrayList<BatchEntry>(refs.length); // the refs to include in the response, in order
+        long deadline = System.currentTimeMillis() + batchTimeout; // for the requests handled in parallel
         for (int i = 0; i < refs.length; i++) {
             String refKey = "ref" + i;
             String reference = refs[i];
@@ -258,7 +300,8 @@ public class EntityBatchHandler {
             // in case there are external ones we will reuse this httpclient
             HttpClientWrapper clientWrapper = null;
 
-            // object will hold the results of this reference request
+            // object will hold the results of this reference request (or the request running to make it)
+            BatchEntry entry = new BatchEntry(refKey, reference);
             ResponseBase result = null;
 
             // parse the entityURL, should hopefully not cause a failure
@@ -311,7 +354,16 @@ public class EntityBatchHandler {
                         continue; // skip
                     }
 
-                    result = generateInternalResult(refKey, reference, entityURL, req, res, method, referencedParams);
+                    // the request and response are copied from the current ones here as they cannot be used by other threads
+                    EntityHttpServletRequest entityRequest = makeInternalRequest(refKey, entityURL, req, method, referencedParams);
+                    entry.entityResponse = new EntityHttpServletResponse(res);
+                    if (batchExecutor != null && Method.GET.equals(method)) {
+                        // GETs do not depend on each other so they are run in parallel
+                        entry.future = submitInternalRequest(reference, entityURL, entityRequest, entry.entityResponse);
+                    }
+                    if (entry.future == null) {
+                        result = generateInternalResult(reference, entityURL, entityRequest, entry.entityResponse);
+                    }
                 }
 
             } else {
@@ -327,6 +379,26 @@ public class EntityBatchHandler {
                 result = generateExternalResult(refKey, reference, entityURL, method, referencedParams, clientWrapper);
             }
 
+            // store the processed ref and url so we do not do them again
+            processedRefsAndURLs.add(reference);
+            processedRefsAndURLs.add(entityURL);
+            entry.entityURL = entityURL;
+            entry.result = result;
+            entries.add(entry);
+        }
+
+        // collect the results in the order of the refs, waiting for the ones still running
+        HashMap<String, String> dataMap = new ArrayOrderedMap<String, String>(); // the returned content data from each ref
+        Map<String, ResponseBase> results = new ArrayOrderedMap<String, ResponseBase>(); // the results of all valid refs
+        boolean successOverall = false; // true if all ok or partial ok, false if exception occurs or all fail
+        boolean failure = false;
+        for (BatchEntry entry : entries) {
+            String refKey = entry.refKey;
+            ResponseBase result = entry.result;
+            if (entry.future != null) {
+                result = waitForInternalResult(entry, deadline);
+            }
+
             // special handling for null result (should really not happen unless there was a logic error)
             if (result == null) {
                 successOverall = false;
@@ -340,6 +412,12 @@ public class EntityBatchHandler {
                 failure = true;
             } else {
                 // all ok, process data
+                if (entry.entityResponse != null) {
+                    // all cookies go into the main response
+                    for (Cookie cookie : entry.entityResponse.getCookies()) {
+                        res.addCookie(cookie);
+                    }
+                }
                 int status = result.getStatus();
                 if (status >= 200 && status < 300) {
                     successOverall = true;
@@ -356,9 +434,6 @@ public class EntityBatchHandler {
                 }
             }
 
-            // store the processed ref and url so we do not do them again
-            processedRefsAndURLs.add(reference);
-            processedRefsAndURLs.add(entityURL);
             results.put(refKey, result); // use an artificial key
         }
 
@@ -485,14 +560,73 @@ public class EntityBatchHandler {
 
 
     /**
-     * Processing internal (EB) requests
+     * Holds a reference of the batch along with its result,
+     * or the internal request which is still running to make it
+     */
+    private static class BatchEntry {
+        final String refKey;
+        final String reference;
+        String entityURL;
+        ResponseBase result;
+        EntityHttpServletResponse entityResponse;
+        Future<ResponseBase> future;
+        BatchEntry(String refKey, String reference) {
+            this.refKey = refKey;
+            this.reference = reference;
+        }
+    }
+
+    /**
+     * Starts an internal (EB) request on the batch executor, it runs with the context of the current request
+     * @return the running request OR null if the executor is full (the request should be handled on this thread)
+     */
+    private Future<ResponseBase> submitInternalRequest(final String reference, final String entityURL, 
+            final EntityHttpServletRequest entityRequest, final EntityHttpServletResponse entityResponse) {
+        Callable<ResponseBase> task = externalIntegrationProvider.wrapForThread(new Callable<ResponseBase>() {
+            public ResponseBase call() {
+                return generateInternalResult(reference, entityURL, entityRequest, entityResponse);
+            }
+        });
+        try {
+            return batchExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Waits for an internal (EB) request running on the batch executor, 
+     * requests still running once the batch is out of time are cancelled
      * @return the result from the request (may be an error)
      */
-    private ResponseBase generateInternalResult(String refKey, String reference, String entityURL, HttpServletRequest req, 
-            HttpServletResponse res, Method method, Map<String, Map<String, String[]>> referencedParams) {
-        ResponseBase result = null;
-        ResponseError error = null;
+    private ResponseBase waitForInternalResult(BatchEntry entry, long deadline) {
+        String errorMessage;
+        try {
+            return entry.future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            errorMessage = "Timed out after "+(batchTimeout / 1000)+" seconds processing reference ("+entry.reference+") for url ("+entry.entityURL+")";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            errorMessage = "Interrupted while processing reference ("+entry.reference+") for url ("+entry.entityURL+")";
+        } catch (ExecutionException e) {
+            // failures in the request itself are already results so this is the same as when run on this thread
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Failure processing reference ("+entry.reference+") for url ("+entry.entityURL+"): " + e.getCause(), e.getCause());
+        } finally {
+            entry.future.cancel(true);
+        }
+        log.warn("EntityBatchHandler: " + errorMessage);
+        return new ResponseError(entry.reference, entry.entityURL, errorMessage);
+    }
 
+    /**
+     * Makes the request for an internal (EB) request from the current request
+     * @return the request to pass to the entity request handler
+     */
+    private EntityHttpServletRequest makeInternalRequest(String refKey, String entityURL, HttpServletRequest req, 
+            Method method, Map<String, Map<String, String[]>> referencedParams) {
         /* WARNING: This is important to understand why this was done as is
          * First of all, forget the servlet forwarding, it is hopeless.
          * Why you ask? This is why, tomcat 5 has issues with calling forward using a set of custom
@@ -529,7 +663,17 @@ public class EntityBatchHandler {
             entityRequest.removeParameter(REFS_PARAM_NAME); // make sure this is not passed along
         }
         entityRequest.setUseRealDispatcher(false); // we do not want to actually have the container handle forwarding
-        EntityHttpServletResponse entityResponse = new EntityHttpServletResponse(res);
+        return entityRequest;
+    }
+
+    /**
+     * Processing internal (EB) requests
+     * @return the result from the request (may be an error)
+     */
+    private ResponseBase generateInternalResult(String reference, String entityURL, 
+            EntityHttpServletRequest entityRequest, EntityHttpServletResponse entityResponse) {
+        ResponseBase result = null;
+        ResponseError error = null;
 
         boolean redirected = false;
         do {
@@ -585,11 +729,6 @@ public class EntityBatchHandler {
         // create the result object to encode and place into the final response
         if (error == null && entityResponse != null) {
             // all ok, create the result for the response object
-            // all cookies go into the main response
-            Cookie[] cookies = entityResponse.getCookies();
-            for (Cookie cookie : cookies) {
-                res.addCookie(cookie);
-            }
             // status codes are compiled
             int status = entityResponse.getStatus();
             // create the result (with raw content)
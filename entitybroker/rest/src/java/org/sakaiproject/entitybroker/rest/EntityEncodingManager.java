@@ -20,10 +20,14 @@
 
 package org.sakaiproject.entitybroker.rest;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -96,6 +100,12 @@ public class EntityEncodingManager {
     public static final String JSON_CALLBACK_PARAM = "jsonCallback";
     public static final String JSON_DEFAULT_CALLBACK = "jsonEntityFeed";
 
+    /**
+     * Write the internally formatted output to the response as each entity is encoded instead of all at once
+     */
+    public static final String CONFIG_STREAMING_OUTPUT = "entitybroker.output.streaming";
+    public static final boolean CONFIG_STREAMING_OUTPUT_DEFAULT = true;
+
     protected static final String XML_HEADER_PREFIX = "<?";
     protected static final String XML_HEADER_SUFFIX = "?>";
     protected static final String XML_HEADER = XML_HEADER_PREFIX + "xml version=\"1.0\" encoding=\"UTF-8\" "+XML_HEADER_SUFFIX+"\n";
@@ -447,95 +457,118 @@ public class EntityEncodingManager {
             replacementEncoding = "<div style=\"font-weight:bold;color:red;\">"+msg+"</div>";
         }
 
-        String encoded = null;
-        if (EntityView.VIEW_LIST.equals(view.getViewKey()) 
-                || ref.getId() == null) {
-            // encoding a collection of entities
-            StringBuilder sb = new StringBuilder(40);
-
-            // make header
-            if (Formats.HTML.equals(format) 
-                    || Formats.FORM.equals(format)) {
-                sb.append("<h1>"+ref.getPrefix() + COLLECTION + "</h1>\n");
-            } else if (Formats.JSON.equals(format) || Formats.JSONP.equals(format)) {
-                sb.append("{\""+ENTITY_PREFIX+"\": \""+ref.getPrefix() + "\", \"" + ref.getPrefix() + COLLECTION + "\": [\n");
+        /* collections are written entity by entity as they are encoded so large collections
+         * do not have to be held in memory, unless streaming is disabled in which case the
+         * whole output is built first (the output is then never left half written on failures)
+         */
+        boolean streaming = entityBrokerManager.getExternalIntegrationProvider().getConfigurationSetting(CONFIG_STREAMING_OUTPUT, CONFIG_STREAMING_OUTPUT_DEFAULT);
+        StringWriter buffer = null;
+        Writer writer;
+        if (streaming) {
+            writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        } else {
+            buffer = new StringWriter(40);
+            writer = buffer;
+        }
+        try {
+            // add the HTML headers
+            String callback = null;
+            if (Formats.FORM.equals(format)) {
+                String title = view.getViewKey() + ":" + ref;
+                writer.write(XML_HEADER + XHTML_HEADER.replace("{title}", title));
             } else if (Formats.XML.equals(format)) {
-                sb.append("<" + ref.getPrefix() + COLLECTION + " " + ENTITY_PREFIX + "=\"" + ref.getPrefix() + "\">\n");
-            } else { // general case
-                sb.append(ref.getPrefix() + COLLECTION + "\n");
+                writer.write(XML_HEADER);
+            } else if (Formats.JSONP.equals(format)) {
+                callback = JSON_DEFAULT_CALLBACK;
+                if (params != null && params.containsKey(JSON_CALLBACK_PARAM)) {
+                    callback = sanitizeJsonCallback(params.get(JSON_CALLBACK_PARAM));
+                }
+                writer.write(callback + "(");
             }
 
-            int encodedEntities = 0;
-            if (replacementEncoding != null) {
-                sb.append(replacementEncoding);
-            } else {
-                // loop through and encode items
-                for (EntityData entity : entities) {
-                    try {
-                        String encode = encodeEntity(ref.getPrefix(), format, entity, view);
+            if (EntityView.VIEW_LIST.equals(view.getViewKey()) 
+                    || ref.getId() == null) {
+                // encoding a collection of entities
+
+                // make header
+                if (Formats.HTML.equals(format) 
+                        || Formats.FORM.equals(format)) {
+                    writer.write("<h1>"+ref.getPrefix() + COLLECTION + "</h1>\n");
+                } else if (Formats.JSON.equals(format) || Formats.JSONP.equals(format)) {
+                    writer.write("{\""+ENTITY_PREFIX+"\": \""+ref.getPrefix() + "\", \"" + ref.getPrefix() + COLLECTION + "\": [\n");
+                } else if (Formats.XML.equals(format)) {
+                    writer.write("<" + ref.getPrefix() + COLLECTION + " " + ENTITY_PREFIX + "=\"" + ref.getPrefix() + "\">\n");
+                } else { // general case
+                    writer.write(ref.getPrefix() + COLLECTION + "\n");
+                }
+
+                int encodedEntities = 0;
+                if (replacementEncoding != null) {
+                    writer.write(replacementEncoding);
+                } else {
+                    // loop through and encode items
+                    for (EntityData entity : entities) {
+                        String encode;
+                        try {
+                            encode = encodeEntity(ref.getPrefix(), format, entity, view);
+                        } catch (RuntimeException e) {
+                            throw new EntityEncodingException("Failure during internal output encoding of entity set on entity: " + ref, ref.toString(), e);
+                        }
                         if (encode.length() > 3) {
                             if ((Formats.JSON.equals(format) || Formats.JSONP.equals(format)) 
                                     && encodedEntities > 0) {
-                                sb.append(",");
+                                writer.write(",");
                             }
-                            sb.append(encode);
+                            writer.write(encode);
                             encodedEntities++;
                         }
-                    } catch (RuntimeException e) {
-                        throw new EntityEncodingException("Failure during internal output encoding of entity set on entity: " + ref, ref.toString(), e);
                     }
                 }
-            }
 
-            // make footer
-            if (Formats.HTML.equals(format)
-                    || Formats.FORM.equals(format)) {
-                sb.append("\n<b>Collection size:</b> "+encodedEntities+"\n");
-            } else if (Formats.JSON.equals(format) || Formats.JSONP.equals(format)) {
-                sb.append("\n]}");
-            } else if (Formats.XML.equals(format)) {
-                sb.append("</" + ref.getPrefix() + COLLECTION + ">");
-            } else { // general case
-                sb.append("\nSize: " + encodedEntities + "\n");
-            }
-            encoded = sb.toString();
-        } else {
-            // encoding a single entity
-            EntityData toEncode = entities.get(0);
-            if (replacementEncoding != null) {
-                encoded = replacementEncoding;
+                // make footer
+                if (Formats.HTML.equals(format)
+                        || Formats.FORM.equals(format)) {
+                    writer.write("\n<b>Collection size:</b> "+encodedEntities+"\n");
+                } else if (Formats.JSON.equals(format) || Formats.JSONP.equals(format)) {
+                    writer.write("\n]}");
+                } else if (Formats.XML.equals(format)) {
+                    writer.write("</" + ref.getPrefix() + COLLECTION + ">");
+                } else { // general case
+                    writer.write("\nSize: " + encodedEntities + "\n");
+                }
             } else {
-                if (toEncode == null) {
-                    throw new EntityEncodingException("Failed to encode data for entity (" + ref 
-                            + "), entity object to encode could not be found (null object in list)", ref.toString());
+                // encoding a single entity
+                EntityData toEncode = entities.get(0);
+                if (replacementEncoding != null) {
+                    writer.write(replacementEncoding);
                 } else {
-                    try {
-                        encoded = encodeEntity(ref.getPrefix(), format, toEncode, view);
-                    } catch (RuntimeException e) {
-                        throw new EntityEncodingException("Failure during internal output encoding of entity: " + ref, ref.toString(), e);
+                    if (toEncode == null) {
+                        throw new EntityEncodingException("Failed to encode data for entity (" + ref 
+                                + "), entity object to encode could not be found (null object in list)", ref.toString());
+                    } else {
+                        String encoded;
+                        try {
+                            encoded = encodeEntity(ref.getPrefix(), format, toEncode, view);
+                        } catch (RuntimeException e) {
+                            throw new EntityEncodingException("Failure during internal output encoding of entity: " + ref, ref.toString(), e);
+                        }
+                        writer.write(encoded);
                     }
                 }
             }
-        }
-        // add the HTML headers and footers
-        if (Formats.FORM.equals(format)) {
-            String title = view.getViewKey() + ":" + ref;
-            encoded = XML_HEADER + XHTML_HEADER.replace("{title}", title) + encoded + XHTML_FOOTER;
-        } else if (Formats.XML.equals(format)) {
-            encoded = XML_HEADER + encoded;
-        } else if (Formats.JSONP.equals(format)) {
-            String callback = JSON_DEFAULT_CALLBACK;
-            if (params != null && params.containsKey(JSON_CALLBACK_PARAM)) {
-                callback = sanitizeJsonCallback(params.get(JSON_CALLBACK_PARAM));
+
+            // add the HTML footers
+            if (Formats.FORM.equals(format)) {
+                writer.write(XHTML_FOOTER);
+            } else if (callback != null) {
+                writer.write(")");
+            }
+            // put the encoded data into the stream
+            if (streaming) {
+                writer.flush();
+            } else {
+                output.write(buffer.toString().getBytes(StandardCharsets.UTF_8));
             }
-            encoded = callback + "(" + encoded + ")";
-        }
-        // put the encoded data into the stream
-        try {
-            byte[] b = encoded.getBytes(Formats.UTF_8);
-            output.write(b);
-        } catch (UnsupportedEncodingException e) {
-            throw new EntityEncodingException("Failed to encode UTF-8: " + ref, ref.toString(), e);
         } catch (IOException e) {
             throw new EntityEncodingException("Failed to encode into output stream: " + ref, ref.toString(), e);
         }
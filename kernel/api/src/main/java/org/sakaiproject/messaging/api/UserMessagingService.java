@@ -56,8 +56,25 @@ public interface UserMessagingService {
     boolean importTemplateFromResourceXmlFile(String templateResource, String templateRegistrationKey);
 
     public void listen(String topic, MessageListener listener);
+
+    /**
+     * Stop a listener added with {@link #listen}, for example when the event stream it was
+     * feeding has been closed.
+     */
+    public void stopListening(String topic, MessageListener listener);
+
     public void send(String topic, UserNotification ba);
 
+    /**
+     * Push a transient event to the open event streams of a user on this server. The SSE event
+     * is named after the notification's event, so tools can push their own events without them
+     * showing up as alerts. Nothing is stored, a user who isn't connected just misses it.
+     *
+     * @param userId The user to push to
+     * @param notification The event, the site, the user it came from and any tool specific reference
+     */
+    public void push(String userId, UserNotification notification);
+
     /**
      * @param userId The user to retrieve alerts for
      * @return the list of current alerts for the specified user
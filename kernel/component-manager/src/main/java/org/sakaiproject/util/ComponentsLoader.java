@@ -29,13 +29,25 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessor;
+import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
 import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
 
@@ -47,6 +59,15 @@ import org.springframework.core.io.Resource;
 @Slf4j
 public class ComponentsLoader
 {
+	/** System property: the number of threads reading component packages, unset or 1 reads them one at a time */
+	public static final String LOAD_THREADS_PROP = "sakai.components.load.threads";
+
+	/** System property: set to true to log how long each bean took to create once the components are started */
+	public static final String TIMING_PROP = "sakai.components.timing";
+
+	/** How many of the slowest beans the timing report lists */
+	private static final int TIMING_REPORT_SIZE = 25;
+
 	/** Folder containing override definitions for beans */
 	private File overridesFolder;
 	
@@ -96,19 +117,34 @@ public class ComponentsLoader
  			}
 			log.info("load: loading components from: " + componentsRoot);
 
-			// process the packages
-			for (File packageDir : packages)
+			if (Boolean.getBoolean(TIMING_PROP))
 			{
-				// if a valid components directory
-				if (validComponentsPackage(packageDir))
-				{
-					loadComponentPackage(packageDir, ac);
-				}
-				else
+				addTimingReport(ac);
+			}
+
+			int threads = Integer.getInteger(LOAD_THREADS_PROP, 1);
+			long start = System.currentTimeMillis();
+			if (threads > 1)
+			{
+				loadComponentPackages(packages, ac, threads);
+			}
+			else
+			{
+				// process the packages
+				for (File packageDir : packages)
 				{
-					log.warn("load: skipping non-package entry: " + packageDir);
+					// if a valid components directory
+					if (validComponentsPackage(packageDir))
+					{
+						loadComponentPackage(packageDir, ac);
+					}
+					else
+					{
+						log.warn("load: skipping non-package entry: " + packageDir);
+					}
 				}
 			}
+			log.info("load: read {} bean definitions in {} ms", ac.getBeanFactory().getBeanDefinitionCount(), System.currentTimeMillis() - start);
 		}
 		catch (Exception e) {
 			log.error("load: exception: " + e, e);
@@ -125,6 +161,21 @@ public class ComponentsLoader
 	 */
 	protected void loadComponentPackage(File dir, ConfigurableApplicationContext ac)
 	{
+		loadComponentPackage(dir, (BeanDefinitionRegistry) ac.getBeanFactory());
+	}
+
+	/**
+	 * Load one component package's bean definitions into a registry
+	 * 
+	 * @param dir
+	 *        The file path to the component package
+	 * @param registry
+	 *        The registry to load into
+	 */
+	protected void loadComponentPackage(File dir, BeanDefinitionRegistry registry)
+	{
+		long start = System.currentTimeMillis();
+
 		// setup the classloader onto the thread
 		ClassLoader current = Thread.currentThread().getContextClassLoader();
 		ClassLoader loader = newPackageClassLoader(dir);
@@ -142,7 +193,7 @@ public class ComponentsLoader
 			xml = new File(webinf, "components.xml");
 
 			// make a reader
-			XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader((BeanDefinitionRegistry) ac.getBeanFactory());
+			XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader(registry);
 			
 			// In Spring 2, classes aren't loaded during bean parsing unless this
 			// classloader property is set.
@@ -177,7 +228,11 @@ public class ComponentsLoader
 					if(log.isInfoEnabled()) log.info("Overriding component definitions with "+ override);
 				}
 			}
-			reader.loadBeanDefinitions(beanDefList.toArray(new Resource[0]));
+			int count = reader.loadBeanDefinitions(beanDefList.toArray(new Resource[0]));
+			if (Boolean.getBoolean(TIMING_PROP))
+			{
+				log.info("Read {} bean definitions from {} in {} ms", count, dir.getName(), System.currentTimeMillis() - start);
+			}
 		}
 		catch (Exception e)
 		{
@@ -190,6 +245,148 @@ public class ComponentsLoader
 		}
 	}
 
+	/**
+	 * Read the component packages on several threads, each into its own registry, then register their
+	 * bean definitions in package order. The same definitions win as when the packages are read one at a time.
+	 * 
+	 * @param packages
+	 *        The component package directories in load order
+	 * @param ac
+	 *        The ApplicationContext to load into
+	 * @param threads
+	 *        The number of packages read at the same time
+	 */
+	protected void loadComponentPackages(List<File> packages, ConfigurableApplicationContext ac, int threads)
+	{
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "sakai-components-loader-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+
+		try
+		{
+			List<Future<DefaultListableBeanFactory>> loaded = new ArrayList<>();
+			for (File packageDir : packages)
+			{
+				// if a valid components directory
+				if (validComponentsPackage(packageDir))
+				{
+					loaded.add(executor.submit(() -> {
+						DefaultListableBeanFactory registry = new DefaultListableBeanFactory();
+						loadComponentPackage(packageDir, registry);
+						return registry;
+					}));
+				}
+				else
+				{
+					log.warn("load: skipping non-package entry: " + packageDir);
+				}
+			}
+
+			BeanDefinitionRegistry target = (BeanDefinitionRegistry) ac.getBeanFactory();
+			for (Future<DefaultListableBeanFactory> future : loaded)
+			{
+				try
+				{
+					registerBeanDefinitions(future.get(), target);
+				}
+				catch (ExecutionException e)
+				{
+					log.error("load: exception: " + e.getCause(), e.getCause());
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			log.error("load: interrupted loading components");
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Copy one package's bean definitions and aliases into the shared registry, as if the package had been read into it
+	 */
+	private void registerBeanDefinitions(DefaultListableBeanFactory source, BeanDefinitionRegistry target)
+	{
+		for (String beanName : source.getBeanDefinitionNames())
+		{
+			BeanDefinition definition = source.getBeanDefinition(beanName);
+
+			// Namespace handlers (tx, context ...) only register their infrastructure beans when they aren't there already
+			if (definition.getRole() == BeanDefinition.ROLE_INFRASTRUCTURE && target.containsBeanDefinition(beanName))
+			{
+				continue;
+			}
+
+			// Beans without an id are numbered, carry on the numbering from the packages before this one
+			String targetName = beanName;
+			boolean generated = beanName.contains(BeanDefinitionReaderUtils.GENERATED_BEAN_NAME_SEPARATOR);
+			if (generated && target.isBeanNameInUse(beanName))
+			{
+				targetName = BeanDefinitionReaderUtils.generateBeanName(definition, target);
+			}
+			target.registerBeanDefinition(targetName, definition);
+
+			for (String alias : source.getAliases(beanName))
+			{
+				// A bean without an id gets its class name as an alias only if nothing has that name yet
+				if (generated && alias.equals(definition.getBeanClassName()) && target.isBeanNameInUse(alias))
+				{
+					continue;
+				}
+				target.registerAlias(targetName, alias);
+			}
+		}
+	}
+
+	/**
+	 * Log the beans that took longest to create once the application context has started. The time for a bean
+	 * includes creating the beans it depends on that weren't created already.
+	 */
+	private void addTimingReport(ConfigurableApplicationContext ac)
+	{
+		Map<String, Long> started = new ConcurrentHashMap<>();
+		Map<String, Long> timings = new ConcurrentHashMap<>();
+
+		ac.getBeanFactory().addBeanPostProcessor(new InstantiationAwareBeanPostProcessor()
+		{
+			@Override
+			public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName)
+			{
+				started.putIfAbsent(beanName, System.nanoTime());
+				return null;
+			}
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName)
+			{
+				Long start = started.remove(beanName);
+				if (start != null)
+				{
+					timings.merge(beanName, (System.nanoTime() - start) / 1000000, Long::sum);
+				}
+				return bean;
+			}
+		});
+
+		ac.addApplicationListener(event -> {
+			if (!(event instanceof ContextRefreshedEvent) || ((ContextRefreshedEvent) event).getApplicationContext() != ac) return;
+
+			StringBuilder report = new StringBuilder();
+			timings.entrySet().stream()
+				.sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+				.limit(TIMING_REPORT_SIZE)
+				.forEach(e -> report.append("\n  ").append(e.getValue()).append(" ms ").append(e.getKey()));
+			log.info("Created {} beans, the slowest were:{}", timings.size(), report);
+		});
+	}
+
 	/**
 	 * Test if this File is a valid components package directory.
 	 * 
@@ -149,6 +149,31 @@ public class ComponentsLoaderTest {
 		Assert.assertNotNull(componentMgr.getApplicationContext().getBean(component2.getBeanId()));
 	}
 	
+	/**
+	 * Same as {@link #testLoadRegistersMultipleComponentsWithComponentManager()} but
+	 * with the component packages read on several threads.
+	 */
+	@Test
+	public void testParallelLoadRegistersMultipleComponentsWithComponentManager() {
+		if ( !(builder.isUseable()) ) {
+			sayUnusableBuilder("testParallelLoadRegistersMultipleComponentsWithComponentManager()");
+			return;
+		}
+		Component component1 = builder.buildComponent();
+		Component component2 = builder.buildComponent();
+		Component component3 = builder.buildComponent();
+		try {
+			System.setProperty(ComponentsLoader.LOAD_THREADS_PROP, "2");
+			loader.load(componentMgr.getApplicationContext(), builder.getComponentsRootDir().getAbsolutePath());
+		} finally {
+			System.clearProperty(ComponentsLoader.LOAD_THREADS_PROP);
+		}
+		componentMgr.getApplicationContext().refresh();
+		Assert.assertNotNull(componentMgr.getApplicationContext().getBean(component1.getBeanId()));
+		Assert.assertNotNull(componentMgr.getApplicationContext().getBean(component2.getBeanId()));
+		Assert.assertNotNull(componentMgr.getApplicationContext().getBean(component3.getBeanId()));
+	}
+
 	/**
 	 * Verifies that the current thread's context class loader 
 	 * ({@link Thread#getContextClassLoader()}) is only temporarily
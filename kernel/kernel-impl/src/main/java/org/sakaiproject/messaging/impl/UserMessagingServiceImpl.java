@@ -18,7 +18,9 @@ package org.sakaiproject.messaging.impl;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.ignite.IgniteMessaging;
+import org.apache.ignite.lang.IgniteBiPredicate;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -31,6 +33,8 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
@@ -112,6 +116,7 @@ public class UserMessagingServiceImpl implements UserMessagingService, Observer
     private IgniteMessaging messaging;
     private List<UserNotificationHandler> handlers = new ArrayList<>();
     private Map<String, UserNotificationHandler> handlerMap = new HashMap<>();
+    private Map<String, Map<MessageListener, IgniteBiPredicate<UUID, Object>>> listeners = new ConcurrentHashMap<>();
     private ExecutorService executor;
 
     public void init() {
@@ -465,14 +470,34 @@ public class UserMessagingServiceImpl implements UserMessagingService, Observer
 
     public void listen(String topic, MessageListener listener) {
 
-        messaging.localListen(topic, (nodeId, message) -> {
+        IgniteBiPredicate<UUID, Object> predicate = (nodeId, message) -> {
 
             listener.read(decorateAlert((UserNotification) message));
             return true;
-        });
+        };
+        listeners.computeIfAbsent(topic, t -> new ConcurrentHashMap<>()).put(listener, predicate);
+        messaging.localListen(topic, predicate);
+    }
+
+    public void stopListening(String topic, MessageListener listener) {
+
+        Map<MessageListener, IgniteBiPredicate<UUID, Object>> topicListeners = listeners.get(topic);
+        IgniteBiPredicate<UUID, Object> predicate = topicListeners != null ? topicListeners.remove(listener) : null;
+        if (predicate != null) {
+            messaging.stopLocalListen(topic, predicate);
+            listeners.computeIfPresent(topic, (t, l) -> l.isEmpty() ? null : l);
+        }
     }
 
     public void send(String topic, UserNotification un) {
         messaging.send(topic, un);
     }
+
+    public void push(String userId, UserNotification un) {
+
+        if (un.getEventDate() == null) {
+            un.setEventDate(Instant.now());
+        }
+        messaging.send("PUSH#" + userId, un);
+    }
 }
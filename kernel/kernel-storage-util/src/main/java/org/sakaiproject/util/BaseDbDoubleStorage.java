@@ -1045,6 +1045,61 @@ public class BaseDbDoubleStorage
 		return all;
 	}
     
+	/**
+	 * Get the Resources of several containers in one query.
+	 * 
+	 * @param containers
+	 *        The containers to read from, keyed by reference.
+	 * @param sqlFilter
+	 *        an optional conditional for select statement
+	 * @param bindVariables
+	 *        an optional list of bind variables for the sqlFilter
+	 * @return The list (Resource) of the Resources of all the containers, in ascending order.
+	 */
+	public List getAllResources(final Map<String, ? extends Entity> containers, String sqlFilter, List<Object> bindVariables)
+	{
+		if (containers.isEmpty()) return new Vector();
+
+		StringBuilder buf = new StringBuilder();
+		List<Object> fields = new Vector<Object>();
+
+		buf.append("select " + m_resourceTableContainerIdField + ", XML from " + m_resourceTableName + " where (" + m_resourceTableContainerIdField + " in (");
+		for (Iterator<String> i = containers.keySet().iterator(); i.hasNext();)
+		{
+			fields.add(i.next());
+			buf.append(i.hasNext() ? "?," : "?");
+		}
+		buf.append("))");
+
+		if (sqlFilter != null)
+		{
+			buf.append(" and " + sqlFilter);
+			if (bindVariables != null) fields.addAll(bindVariables);
+		}
+
+		if (m_resourceTableOrderField != null)
+		{
+			buf.append(" order by " + m_resourceTableOrderField + " asc");
+		}
+
+		List all = m_sql.dbRead(buf.toString(), fields.toArray(), new SqlReader()
+		{
+			public Object readSqlResultRecord(ResultSet result)
+			{
+				try
+				{
+					return readResource(containers.get(result.getString(1)), result.getString(2));
+				}
+				catch (SQLException ignore)
+				{
+					return null;
+				}
+			}
+		});
+
+		return all;
+	}
+
 	/** matchXml - Perform an optional pre-de-serialize match if desired
 	 *
 	 * This is just a dummy implementation - this wil be overridden in the
@@ -1743,6 +1798,125 @@ public class BaseDbDoubleStorage
 		return all;
 	}
 
+	/**
+	 * Get resources from several containers merged into one list, in descending (latest first) order, a page at a time. A page is continued by
+	 * passing the date and id of the last resource of the previous page, so later pages cost the same as the first.
+	 * 
+	 * @param containers
+	 *        The containers to read from, keyed by reference.
+	 * @param afterDate
+	 *        if null, no date limit, else limited to only resources after this date.
+	 * @param beforeDate
+	 *        if null, start with the latest resources, else only resources before this date, or at this date and before beforeId.
+	 * @param beforeId
+	 *        the id of the last resource of the previous page, used with beforeDate.
+	 * @param limit
+	 *        if 0, no count limit, else limited to this number of resources.
+	 * @param draftsForId
+	 *        how to handle drafts: null means no drafts, "*" means all, otherwise drafts only if created by this userId.
+	 * @param pubViewOnly
+	 *        if true, include only resources marked pubview, else include any.
+	 * @return A list of resources that meet the criteria; may be empty
+	 */
+	public List getResources(final Map<String, ? extends Entity> containers, Time afterDate, Time beforeDate, String beforeId, final int limit,
+			final String draftsForId, final boolean pubViewOnly)
+	{
+		if (containers.isEmpty()) return new Vector();
+
+		// without the draft and pubview fields, those are checked as the rows are read and the limit can't be left to the db
+		final boolean checkDrafts = ((m_resourceTableDraftField == null) || (m_resourceTableOwnerField == null)) && (!"*".equals(draftsForId));
+		final boolean checkPubView = (m_resourceTablePubViewField == null) && pubViewOnly;
+
+		StringBuilder buf = new StringBuilder();
+		List<Object> fields = new Vector<Object>();
+
+		buf.append("select " + m_resourceTableContainerIdField + ", XML from " + m_resourceTableName + " where (" + m_resourceTableContainerIdField + " in (");
+		for (Iterator<String> i = containers.keySet().iterator(); i.hasNext();)
+		{
+			fields.add(i.next());
+			buf.append(i.hasNext() ? "?," : "?");
+		}
+		buf.append(")");
+
+		if (afterDate != null)
+		{
+			buf.append(" and " + m_resourceTableOrderField + " > ?");
+			fields.add(afterDate);
+		}
+
+		// continue where the last page stopped, the id breaks ties between resources with the same date
+		if (beforeDate != null)
+		{
+			buf.append(" and (" + m_resourceTableOrderField + " < ? or (" + m_resourceTableOrderField + " = ? and " + m_resourceTableIdField + " < ?))");
+			fields.add(beforeDate);
+			fields.add(beforeDate);
+			fields.add(beforeId);
+		}
+
+		if ((m_resourceTableDraftField != null) && (m_resourceTableOwnerField != null))
+		{
+			if (draftsForId == null)
+			{
+				buf.append(" and " + m_resourceTableDraftField + " = '0'");
+			}
+			else if (!"*".equals(draftsForId))
+			{
+				buf.append(" and ( " + m_resourceTableDraftField + " = '0' or " + m_resourceTableOwnerField + " = ? )");
+				fields.add(draftsForId);
+			}
+		}
+
+		if ((m_resourceTablePubViewField != null) && pubViewOnly)
+		{
+			buf.append(" and " + m_resourceTablePubViewField + " = '1'");
+		}
+
+		buf.append(") order by " + m_resourceTableOrderField + " desc, " + m_resourceTableIdField + " desc");
+
+		String sql = buf.toString();
+		if ((limit > 0) && !checkDrafts && !checkPubView)
+		{
+			String limitedSql = doubleStorageSql.addLimitToQuery(sql, 0, limit - 1);
+			if (limitedSql == null) limitedSql = doubleStorageSql.addTopToQuery(sql, limit);
+			if (limitedSql != null) sql = limitedSql;
+		}
+
+		// the limit is also enforced here, for the databases that can't limit the query
+		List all = m_sql.dbRead(sql, fields.toArray(), new SqlReader()
+		{
+			private int count = 0;
+
+			public Object readSqlResultRecord(ResultSet result) throws SqlReaderFinishedException
+			{
+				if ((limit > 0) && (count >= limit)) throw new SqlReaderFinishedException();
+				try
+				{
+					Entity container = containers.get(result.getString(1));
+					Entity entry = readResource(container, result.getString(2));
+					if (entry == null) return null;
+
+					if (checkDrafts && m_user.isDraft(entry) && ((draftsForId == null) || (!draftsForId.equals(m_user.getOwnerId(entry)))))
+					{
+						return null;
+					}
+					if (checkPubView && (entry.getProperties().getProperty(ResourceProperties.PROP_PUBVIEW) == null))
+					{
+						return null;
+					}
+
+					count++;
+					return entry;
+				}
+				catch (SQLException ignore)
+				{
+					return null;
+				}
+			}
+		});
+
+		return all;
+	}
+
 	/**
 	 * Access a list of container ids match (start with) the root.
 	 * 
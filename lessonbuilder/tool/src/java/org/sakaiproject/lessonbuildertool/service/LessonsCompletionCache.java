@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.lessonbuildertool.service;
+
+import java.io.Serializable;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.apache.commons.lang3.StringUtils;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.lessonbuildertool.SimplePageItem;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.tool.assessment.facade.PublishedAssessmentFacadeQueriesAPI;
+
+/**
+ * Remembers whether a student has completed an assignment, quiz or forum item, across requests.
+ * <p>SimplePageBean is request scoped, so without this every page view asks the other tools
+ * about every required item on the page, and again for every item whose prerequisites
+ * include it. Those answers only change when the student submits or someone grades, so they
+ * are kept here until an event from those tools says otherwise.
+ * <p>Rather than finding every cached answer an event affects, each site and each student in a
+ * site has a version, cached answers remember the versions they were computed with and are
+ * ignored once either version changes. Events from students bump their own version, grading
+ * events bump the site version. Quizzes submitted by the auto submit job or the timer are posted
+ * as another user, so the student and site are taken from the event's resource.
+ * <p>Only answers from other tools are cached. Page completion is still computed per request,
+ * see the notes before isPageComplete in SimplePageBean.
+ */
+@Slf4j
+public class LessonsCompletionCache implements Observer {
+
+    // events from the student doing the work, they only affect that student
+    private static final String[] USER_EVENTS = {
+        "sam.assessment.submit", "sam.assessment.graded.auto", "forums.new", "forums.response"
+    };
+    // submissions made for the student by the auto submit job or the timer, the student is in the resource
+    private static final String[] SUBMITTED_FOR_EVENTS = {
+        "sam.assessment.submit.auto", "sam.assessment.submit.timer.thrd"
+    };
+    private static final Pattern AGENT_PATTERN = Pattern.compile("userID=([^,}]+)");
+    private static final Pattern PUBLISHED_ASSESSMENT_PATTERN = Pattern.compile("publishedAssessmentID=([^,}]+)");
+    // events from graders or affecting several students (group assignments), they affect everyone in the site
+    private static final String[] SITE_EVENTS = {
+        "asn.submit.submission", "asn.grade.submission", "asn.delete.submission", "asn.return.submission",
+        "sam.total.score.update", "sam.student.score.update", "sam.question.score.update",
+        "forums.grade", "forums.delete", "gradebook.updateItemScore"
+    };
+
+    @Setter private MemoryService memoryService;
+    @Setter private EventTrackingService eventTrackingService;
+    @Setter private PublishedAssessmentFacadeQueriesAPI publishedAssessmentFacadeQueries;
+
+    private Cache<String, Completion> completionCache;
+    private Cache<String, Long> versionCache;
+
+    private static class Completion implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final long siteVersion;
+        final long userVersion;
+        final boolean complete;
+
+        Completion(long siteVersion, long userVersion, boolean complete) {
+            this.siteVersion = siteVersion;
+            this.userVersion = userVersion;
+            this.complete = complete;
+        }
+    }
+
+    public void init() {
+        completionCache = memoryService.getCache("org.sakaiproject.lessonbuildertool.service.LessonsCompletionCache.completion");
+        versionCache = memoryService.getCache("org.sakaiproject.lessonbuildertool.service.LessonsCompletionCache.version");
+        // not a local observer, grading done on another server has to reach this one too
+        eventTrackingService.addObserver(this);
+        log.info("init()");
+    }
+
+    public void destroy() {
+        eventTrackingService.deleteObserver(this);
+        completionCache.close();
+        versionCache.close();
+        log.info("destroy()");
+    }
+
+    /**
+     * @return whether the student has completed the item, or null if that isn't known
+     */
+    public Boolean getItemComplete(String siteId, String userId, SimplePageItem item) {
+        if (siteId == null || userId == null) {
+            return null;
+        }
+        Completion completion = completionCache.get(key(userId, item));
+        if (completion == null
+                || completion.siteVersion != version(siteKey(siteId))
+                || completion.userVersion != version(userKey(siteId, userId))) {
+            return null;
+        }
+        return completion.complete;
+    }
+
+    public void putItemComplete(String siteId, String userId, SimplePageItem item, boolean complete) {
+        if (siteId == null || userId == null) {
+            return;
+        }
+        completionCache.put(key(userId, item), new Completion(version(siteKey(siteId)), version(userKey(siteId, userId)), complete));
+    }
+
+    public void invalidateUser(String siteId, String userId) {
+        versionCache.put(userKey(siteId, userId), newVersion());
+    }
+
+    public void invalidateSite(String siteId) {
+        versionCache.put(siteKey(siteId), newVersion());
+    }
+
+    @Override
+    public void update(Observable o, Object arg) {
+        if (!(arg instanceof Event)) {
+            return;
+        }
+        Event event = (Event) arg;
+        String siteId = event.getContext();
+        if (event.getEvent() == null) {
+            return;
+        }
+        if (StringUtils.startsWithAny(event.getEvent(), SUBMITTED_FOR_EVENTS)) {
+            submittedFor(siteId, event.getResource());
+            return;
+        }
+        if (StringUtils.isBlank(siteId)) {
+            return;
+        }
+        if (StringUtils.startsWithAny(event.getEvent(), SITE_EVENTS)) {
+            invalidateSite(siteId);
+        } else if (StringUtils.startsWithAny(event.getEvent(), USER_EVENTS) && event.getUserId() != null) {
+            invalidateUser(siteId, event.getUserId());
+        }
+    }
+
+    private void submittedFor(String siteId, String resource) {
+        if (StringUtils.isBlank(siteId)) {
+            // the auto submit job has no site, the quiz knows it
+            String publishedAssessmentId = resourceValue(resource, PUBLISHED_ASSESSMENT_PATTERN);
+            if (publishedAssessmentId == null) {
+                return;
+            }
+            try {
+                siteId = publishedAssessmentFacadeQueries.getPublishedAssessmentSiteId(publishedAssessmentId);
+            } catch (Exception e) {
+                log.debug("No site for published assessment {}: {}", publishedAssessmentId, e.toString());
+            }
+            if (StringUtils.isBlank(siteId)) {
+                return;
+            }
+        }
+        String agentId = resourceValue(resource, AGENT_PATTERN);
+        if (agentId != null) {
+            invalidateUser(siteId, agentId);
+        } else {
+            invalidateSite(siteId);
+        }
+    }
+
+    // the resource of the submitted events is a map of the submission's values, {publishedAssessmentID=1, userID=...}
+    private String resourceValue(String resource, Pattern pattern) {
+        if (resource == null) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(resource);
+        return matcher.find() ? StringUtils.trimToNull(matcher.group(1)) : null;
+    }
+
+    // the requirement settings are part of the key, so editing the item doesn't need an invalidation
+    private String key(String userId, SimplePageItem item) {
+        return userId + ":" + item.getId() + ":" + item.getSakaiId() + ":" + item.getSubrequirement() + ":" + item.getRequirementText();
+    }
+
+    private String siteKey(String siteId) {
+        return "site:" + siteId;
+    }
+
+    private String userKey(String siteId, String userId) {
+        return "user:" + siteId + ":" + userId;
+    }
+
+    private long version(String key) {
+        Long version = versionCache.get(key);
+        if (version == null) {
+            // also covers an evicted version, nothing cached before can match the new one
+            version = newVersion();
+            versionCache.put(key, version);
+        }
+        return version;
+    }
+
+    private long newVersion() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+}
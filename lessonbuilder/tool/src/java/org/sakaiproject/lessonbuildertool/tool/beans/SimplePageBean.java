@@ -88,6 +88,7 @@ import org.sakaiproject.lessonbuildertool.service.LessonBuilderEntityProducer;
 import org.sakaiproject.lessonbuildertool.service.LessonEntity;
 import org.sakaiproject.lessonbuildertool.service.LessonSubmission;
 import org.sakaiproject.lessonbuildertool.service.LessonsAccess;
+import org.sakaiproject.lessonbuildertool.service.LessonsCompletionCache;
 import org.sakaiproject.lessonbuildertool.tool.beans.helpers.ResourceHelper;
 import org.sakaiproject.lessonbuildertool.tool.beans.helpers.SubpageBulkEditHelper;
 import org.sakaiproject.lessonbuildertool.tool.producers.PagePickerProducer;
@@ -460,6 +461,7 @@ public class SimplePageBean {
     @Setter private AuthzGroupService authzGroupService;
     @Getter @Setter private SimplePageToolDao simplePageToolDao;
     @Setter private LessonsAccess lessonsAccess;
+    @Setter private LessonsCompletionCache lessonsCompletionCache;
     @Setter private LessonBuilderAccessService lessonBuilderAccessService;
     @Getter @Setter private MessageLocator messageLocator;
     @Setter private HttpServletResponse httpServletResponse;
@@ -5678,104 +5680,20 @@ public class SimplePageBean {
 				completeCache.put(itemId, apic);
 				return apic;
 			}
-		} else if (item.getType() == SimplePageItem.ASSIGNMENT) {
-			try {
-				if (item.getSakaiId().equals(SimplePageItem.DUMMY)) {
-				    completeCache.put(itemId, false);
-				    return false;
-				}
-				LessonEntity assignment = assignmentEntity.getEntity(item.getSakaiId());
-				if (assignment == null) {
-				    completeCache.put(itemId, false);
-				    return false;
-				}
-				LessonSubmission submission = assignment.getSubmission(getCurrentUserId());
-
-				if (submission == null || !submission.getUserSubmission()) {
-				    completeCache.put(itemId, false);
-				    return false;
-				}
-
-				int type = assignment.getTypeOfGrade();
-
-				if (!item.getSubrequirement()) {
-					completeCache.put(itemId, true);
-					return true;
-				} else if (submission.getGradeString() != null) {
-				    // assume that assignments always use string grade. this may change
-					boolean ret = isAssignmentComplete(type, assignment, submission, item.getRequirementText());
-					completeCache.put(itemId, ret);
-					return ret;
-				} else {
-					completeCache.put(itemId, false);
-					return false;
-				}
-			} catch (Exception e) {
-				log.error(e.getMessage(), e);
-				completeCache.put(itemId, false);
-				return false;
-			}
-		} else if (item.getType() == SimplePageItem.FORUM) {
-			try {
-				if (item.getSakaiId().equals(SimplePageItem.DUMMY)) {
-					completeCache.put(itemId, false);
-					return false;
-				}
-				User user = userDirectoryService.getUser(getCurrentUserId());
-				LessonEntity forum = forumEntity.getEntity(item.getSakaiId());
-				if (forum == null)
-					return false;
-				// for the moment don't find grade. just see if they submitted
-				if (forum.getSubmissionCount(user.getId()) > 0) {
-					completeCache.put(itemId, true);
-					return true;
-				} else {
-					completeCache.put(itemId, false);
-					return false;
+		} else if (item.getType() == SimplePageItem.ASSIGNMENT || item.getType() == SimplePageItem.FORUM || item.getType() == SimplePageItem.ASSESSMENT) {
+			// these ask other tools, so the answer is shared between requests until one of them changes it
+			String siteId = getCurrentSiteId();
+			String userId = getCurrentUserId();
+			Boolean complete = lessonsCompletionCache == null ? null : lessonsCompletionCache.getItemComplete(siteId, userId, item);
+			if (complete == null) {
+				complete = isToolItemComplete(item, userId);
+				if (complete != null && lessonsCompletionCache != null) {
+					lessonsCompletionCache.putItemComplete(siteId, userId, item, complete);
 				}
-			} catch (Exception e) {
-			    log.error(e.getMessage(), e);
-			    completeCache.put(itemId, false);
-			    return false;
-			}
-		} else if (item.getType() == SimplePageItem.ASSESSMENT) {
-			if (item.getSakaiId().equals(SimplePageItem.DUMMY)) {
-			    completeCache.put(itemId, false);
-			    return false;
-			}
-			LessonEntity quiz = quizEntity.getEntity(item.getSakaiId(),this);
-			if (quiz == null) {
-			    completeCache.put(itemId, false);
-			    return false;
-			}
-			User user;
-			try {
-			    user = userDirectoryService.getUser(getCurrentUserId());
-			} catch (Exception ignore) {
-			    completeCache.put(itemId, false);
-			    return false;
-			}
-
-			LessonSubmission submission = quiz.getSubmission(user.getId());
-
-			if (submission == null) {
-				completeCache.put(itemId, false);
-				return false;
-			} else if (!item.getSubrequirement()) {
-				// All that was required was that the user submit the test
-				completeCache.put(itemId, true);
-				return true;
-			} else {
-				Double grade = submission.getGrade();
-			    // 1.99999 should match 2, so do a bit of rounding up
-			    if ((grade + 0.0001d) >= Double.valueOf(item.getRequirementText())) {
-			    	completeCache.put(itemId, true);
-			    	return true;
-			    } else {
-			    	completeCache.put(itemId, false);
-			    	return false;
-			    }
 			}
+			boolean ret = complete != null && complete;
+			completeCache.put(itemId, ret);
+			return ret;
 		} else if (item.getType() == SimplePageItem.COMMENTS) {
 			List<SimplePageComment>comments = simplePageToolDao.findCommentsOnItemByAuthor((long)itemId, getCurrentUserId());
 			boolean found = false;
@@ -5837,6 +5755,77 @@ public class SimplePageBean {
 		}
 	}
 
+	// completion of an assignment, forum or quiz item. null if it couldn't be determined,
+	// so an error isn't remembered past this request
+	private Boolean isToolItemComplete(SimplePageItem item, String userId) {
+		if (item.getSakaiId().equals(SimplePageItem.DUMMY)) {
+			return false;
+		}
+		if (item.getType() == SimplePageItem.ASSIGNMENT) {
+			try {
+				LessonEntity assignment = assignmentEntity.getEntity(item.getSakaiId());
+				if (assignment == null) {
+				    return false;
+				}
+				LessonSubmission submission = assignment.getSubmission(userId);
+
+				if (submission == null || !submission.getUserSubmission()) {
+				    return false;
+				}
+
+				int type = assignment.getTypeOfGrade();
+
+				if (!item.getSubrequirement()) {
+					return true;
+				} else if (submission.getGradeString() != null) {
+				    // assume that assignments always use string grade. this may change
+					return isAssignmentComplete(type, assignment, submission, item.getRequirementText());
+				} else {
+					return false;
+				}
+			} catch (Exception e) {
+				log.error(e.getMessage(), e);
+				return null;
+			}
+		} else if (item.getType() == SimplePageItem.FORUM) {
+			try {
+				User user = userDirectoryService.getUser(userId);
+				LessonEntity forum = forumEntity.getEntity(item.getSakaiId());
+				if (forum == null)
+					return false;
+				// for the moment don't find grade. just see if they submitted
+				return forum.getSubmissionCount(user.getId()) > 0;
+			} catch (Exception e) {
+			    log.error(e.getMessage(), e);
+			    return null;
+			}
+		} else {
+			LessonEntity quiz = quizEntity.getEntity(item.getSakaiId(),this);
+			if (quiz == null) {
+			    return false;
+			}
+			User user;
+			try {
+			    user = userDirectoryService.getUser(userId);
+			} catch (Exception ignore) {
+			    return null;
+			}
+
+			LessonSubmission submission = quiz.getSubmission(user.getId());
+
+			if (submission == null) {
+				return false;
+			} else if (!item.getSubrequirement()) {
+				// All that was required was that the user submit the test
+				return true;
+			} else {
+				Double grade = submission.getGrade();
+			    // 1.99999 should match 2, so do a bit of rounding up
+			    return (grade + 0.0001d) >= Double.valueOf(item.getRequirementText());
+			}
+		}
+	}
+
 	private boolean isAssignmentComplete(int type, LessonEntity assEntity, LessonSubmission submission, String requirementString) {
 		String grade = submission.getGradeString();
 
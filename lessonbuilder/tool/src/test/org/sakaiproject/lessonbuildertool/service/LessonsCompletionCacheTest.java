@@ -0,0 +1,139 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.lessonbuildertool.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.event.api.Event;
+import org.sakaiproject.event.api.EventTrackingService;
+import org.sakaiproject.lessonbuildertool.SimplePageItem;
+import org.sakaiproject.lessonbuildertool.SimplePageItemImpl;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
+import org.sakaiproject.tool.assessment.facade.PublishedAssessmentFacadeQueriesAPI;
+
+public class LessonsCompletionCacheTest {
+
+    private LessonsCompletionCache completionCache;
+    private SimplePageItem item;
+
+    @Before
+    public void before() {
+        MemoryService memoryService = mock(MemoryService.class);
+        when(memoryService.getCache(anyString())).thenAnswer(invocation -> mapCache());
+
+        completionCache = new LessonsCompletionCache();
+        completionCache.setMemoryService(memoryService);
+        completionCache.setEventTrackingService(mock(EventTrackingService.class));
+        PublishedAssessmentFacadeQueriesAPI publishedAssessmentFacadeQueries = mock(PublishedAssessmentFacadeQueriesAPI.class);
+        when(publishedAssessmentFacadeQueries.getPublishedAssessmentSiteId("5")).thenReturn("site");
+        completionCache.setPublishedAssessmentFacadeQueries(publishedAssessmentFacadeQueries);
+        completionCache.init();
+
+        item = new SimplePageItemImpl(10, 1, 1, SimplePageItem.ASSIGNMENT, "/assignment/a1", "Essay");
+    }
+
+    @Test
+    public void rememberedUntilStudentSubmits() {
+        Assert.assertNull(completionCache.getItemComplete("site", "student", item));
+        completionCache.putItemComplete("site", "student", item, false);
+        Assert.assertEquals(Boolean.FALSE, completionCache.getItemComplete("site", "student", item));
+
+        // another student's submission doesn't matter
+        completionCache.update(null, event("sam.assessment.submit.click_sub", "site", "other"));
+        Assert.assertEquals(Boolean.FALSE, completionCache.getItemComplete("site", "student", item));
+
+        completionCache.update(null, event("sam.assessment.submit", "site", "student"));
+        Assert.assertNull(completionCache.getItemComplete("site", "student", item));
+    }
+
+    @Test
+    public void autoSubmitInvalidatesTheStudent() {
+        completionCache.putItemComplete("site", "student", item, false);
+        completionCache.putItemComplete("site", "other", item, false);
+
+        // posted by the job, without a site, the student and quiz are in the resource
+        completionCache.update(null, event("sam.assessment.submit.auto",
+                "{publishedAssessmentID=5, assessmentGradingID=7, userID=student, confirmationNumber=7-5-student-1}", null, "admin"));
+        Assert.assertNull(completionCache.getItemComplete("site", "student", item));
+        Assert.assertEquals(Boolean.FALSE, completionCache.getItemComplete("site", "other", item));
+    }
+
+    @Test
+    public void timerSubmitInvalidatesTheStudent() {
+        completionCache.putItemComplete("site", "student", item, false);
+        completionCache.putItemComplete("site", "other", item, false);
+
+        completionCache.update(null, event("sam.assessment.submit.timer.thrd",
+                "{assessmentGradingID=7, userID=student, publishedAssessmentID=5}", "site", null));
+        Assert.assertNull(completionCache.getItemComplete("site", "student", item));
+        Assert.assertEquals(Boolean.FALSE, completionCache.getItemComplete("site", "other", item));
+
+        // without the student the whole site is invalidated
+        completionCache.update(null, event("sam.assessment.submit.timer.thrd", "{assessmentGradingID=7}", "site", "admin"));
+        Assert.assertNull(completionCache.getItemComplete("site", "other", item));
+    }
+
+    @Test
+    public void gradingInvalidatesTheSite() {
+        completionCache.putItemComplete("site", "student", item, true);
+        completionCache.putItemComplete("other-site", "student", item, true);
+
+        completionCache.update(null, event("asn.grade.submission", "site", "instructor"));
+        Assert.assertNull(completionCache.getItemComplete("site", "student", item));
+        Assert.assertEquals(Boolean.TRUE, completionCache.getItemComplete("other-site", "student", item));
+    }
+
+    @Test
+    public void editedRequirementIsNotReused() {
+        completionCache.putItemComplete("site", "student", item, true);
+        item.setSubrequirement(true);
+        item.setRequirementText("8");
+        Assert.assertNull(completionCache.getItemComplete("site", "student", item));
+    }
+
+    private Event event(String name, String context, String userId) {
+        return event(name, null, context, userId);
+    }
+
+    private Event event(String name, String resource, String context, String userId) {
+        Event event = mock(Event.class);
+        when(event.getResource()).thenReturn(resource);
+        when(event.getEvent()).thenReturn(name);
+        when(event.getContext()).thenReturn(context);
+        when(event.getUserId()).thenReturn(userId);
+        return event;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<String, Object> mapCache() {
+        Map<String, Object> map = new HashMap<>();
+        Cache<String, Object> cache = mock(Cache.class);
+        when(cache.get(anyString())).thenAnswer(invocation -> map.get(invocation.getArgument(0)));
+        doAnswer(invocation -> map.put(invocation.getArgument(0), invocation.getArgument(1))).when(cache).put(anyString(), any());
+        return cache;
+    }
+}
@@ -24,6 +24,7 @@ package org.sakaiproject.mailarchive.impl;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.util.List;
+import java.util.Map;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -375,6 +376,12 @@ public class DbMailArchiveService extends BaseMailArchiveService
 		{
 			return super.getResources(channel, afterDate, limitedToLatest, draftsForId, pubViewOnly);
 		}
+
+		public List getMessages(Map<String, MessageChannel> channels, Time afterDate, Time beforeDate, String beforeId, int limit, String draftsForId,
+				boolean pubViewOnly)
+		{
+			return super.getResources(channels, afterDate, beforeDate, beforeId, limit, draftsForId, pubViewOnly);
+		}
  
 		public List getMessages(MessageChannel channel, Filter filter,boolean asc, PagingPosition pager) 
 		{
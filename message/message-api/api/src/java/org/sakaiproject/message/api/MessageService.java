@@ -25,8 +25,10 @@ import org.sakaiproject.entity.api.EntityProducer;
 import org.sakaiproject.entity.api.EntitySummary;
 import org.sakaiproject.entity.api.Reference;
 import org.sakaiproject.exception.*;
+import org.sakaiproject.javax.Filter;
 import org.sakaiproject.time.api.Time;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -277,6 +279,22 @@ public interface MessageService extends EntityProducer, EntitySummary
 	public List<Message> getMessages(String channelRef, Time afterDate, int limitedToLatest, boolean ascending, boolean includeDrafts,
 			boolean pubViewOnly) throws PermissionException;
 
+	/**
+	 * Access the latest messages of several channels merged into one list, latest first. Channels the current user can't read are left out,
+	 * as are drafts and messages in groups the user can't read. Only as many messages as needed are read from storage.
+	 * 
+	 * @param channelRefs
+	 *        The channels to read.
+	 * @param afterDate
+	 *        if null, no date limit, else limited to only messages after this date.
+	 * @param limit
+	 *        The most messages to return.
+	 * @param filter
+	 *        if not null, only messages accepted by this filter are returned.
+	 * @return A list of Message objects that meet the criteria; may be empty
+	 */
+	public List<Message> getLatestMessages(Collection<String> channelRefs, Time afterDate, int limit, Filter filter);
+
 	/**
 	 * Access a list of channel ids that are defined related to the context.
 	 * 
@@ -25,11 +25,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
@@ -982,6 +984,96 @@ public abstract class BaseMessage implements MessageService, DoubleStorageUser
 		return filterGroupAccess(msgs, c.getContext(), c.getReference());
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<Message> getLatestMessages(Collection<String> channelRefs, Time afterDate, int limit, Filter filter)
+	{
+		List<Message> rv = new ArrayList<Message>();
+		if (limit <= 0) return rv;
+
+		// the channels the user can read, keyed by reference
+		Map<String, MessageChannel> channels = new LinkedHashMap<String, MessageChannel>();
+		for (String channelRef : channelRefs)
+		{
+			if (channels.containsKey(channelRef) || !unlockCheck(SECURE_READ, channelRef)) continue;
+			MessageChannel c = findChannel(channelRef);
+			if (c != null) channels.put(c.getReference(), c);
+		}
+
+		// keep the IN lists of the storage query to a size every database accepts
+		int batchSize = m_serverConfigurationService.getInt("message.merged.channelBatchSize", 500);
+		List<String> refs = new ArrayList<String>(channels.keySet());
+		for (int first = 0; first < refs.size(); first += batchSize)
+		{
+			Map<String, MessageChannel> batch = new HashMap<String, MessageChannel>();
+			for (String ref : refs.subList(first, Math.min(first + batchSize, refs.size())))
+			{
+				batch.put(ref, channels.get(ref));
+			}
+			rv.addAll(findLatestMessages(batch, afterDate, limit, filter));
+		}
+
+		// merge the batches
+		if (refs.size() > batchSize)
+		{
+			Collections.sort(rv);
+			Collections.reverse(rv);
+			if (rv.size() > limit) rv = new ArrayList<Message>(rv.subList(0, limit));
+		}
+
+		return rv;
+	}
+
+	/**
+	 * Read the latest messages of the channels a page at a time, until there are enough that pass the group access and filter checks.
+	 * 
+	 * @param channels
+	 *        The channels to read, keyed by reference.
+	 * @return Up to limit messages, latest first.
+	 */
+	protected List<Message> findLatestMessages(Map<String, MessageChannel> channels, Time afterDate, int limit, Filter filter)
+	{
+		List<Message> rv = new ArrayList<Message>();
+		Time beforeDate = null;
+		String beforeId = null;
+
+		while (rv.size() < limit)
+		{
+			List<Message> page = m_storage.getMessages(channels, afterDate, beforeDate, beforeId, limit, null, false);
+			if (page.isEmpty()) break;
+
+			// check group access a channel at a time, so the allowed groups are looked up once per channel
+			Map<String, List<Message>> byChannel = new HashMap<String, List<Message>>();
+			for (Message msg : page)
+			{
+				String channelRef = ((BaseMessageEdit) msg).m_channel.getReference();
+				byChannel.computeIfAbsent(channelRef, k -> new ArrayList<Message>()).add(msg);
+			}
+			Set<Message> allowed = new HashSet<Message>();
+			for (Map.Entry<String, List<Message>> entry : byChannel.entrySet())
+			{
+				allowed.addAll(filterGroupAccess(entry.getValue(), channels.get(entry.getKey()).getContext(), entry.getKey()));
+			}
+
+			for (Message msg : page)
+			{
+				if (!allowed.contains(msg) || ((filter != null) && !filter.accept(msg))) continue;
+				rv.add(msg);
+				if (rv.size() >= limit) break;
+			}
+
+			// a short page is the last one
+			if (page.size() < limit) break;
+
+			Message last = page.get(page.size() - 1);
+			beforeDate = last.getHeader().getDate();
+			beforeId = last.getId();
+		}
+
+		return rv;
+	}
+
 	/**
 	 * Filter messages based on group access
 	 * @param msgs Messages to filter
@@ -4339,6 +4431,26 @@ public abstract class BaseMessage implements MessageService, DoubleStorageUser
 		 */
 		public List getMessages(MessageChannel channel, Time afterDate, int limitedToLatest, String draftsForId, boolean pubViewOnly);
 
+		/**
+		 * Get messages from several channels merged, in descending (latest first) order, a page at a time
+		 * 
+		 * @param channels
+		 *        The channels, keyed by reference.
+		 * @param afterDate
+		 *        if null, no date limit, else limited to only messages after this date.
+		 * @param beforeDate
+		 *        if null, the first page, else only messages after the last message of the previous page, which had this date and beforeId.
+		 * @param limit
+		 *        if 0, no count limit, else limited to this number of messages.
+		 * @param draftsForId
+		 *        how to handle drafts: null means no drafts, "*" means all, otherwise drafts only if created by this userId.
+		 * @param pubViewOnly
+		 *        if true, include only messages marked pubview, else include any.
+		 * @return A list of Message objects that meet the criteria; may be empty
+		 */
+		public List getMessages(Map<String, MessageChannel> channels, Time afterDate, Time beforeDate, String beforeId, int limit, String draftsForId,
+				boolean pubViewOnly);
+
 		/**
 		 * Access a list of channel ids from channels with refs that start with (match) context.
 		 * 
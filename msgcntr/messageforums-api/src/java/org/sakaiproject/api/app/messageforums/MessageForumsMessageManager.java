@@ -167,7 +167,22 @@ public interface MessageForumsMessageManager {
     public int findReadMessageCountByTopicIdByUserId(Long topicId, String userId);
     
     public int findReadMessageCountByTopicId(Long topicId);
-    
+
+    /**
+     * Drop the stored read counts of every user for a topic, they are recalculated
+     * the next time they are needed. Call this when messages are removed from or moved
+     * between topics outside of the normal message save and delete paths.
+     * @param topicId
+     */
+    public void invalidateTopicReadCounts(Long topicId);
+
+    /**
+     * Drop the stored read counts so they are recalculated from the read status table.
+     * @param contextId the site to rebuild, null for all sites
+     * @return the number of stored counts removed
+     */
+    public int rebuildTopicReadCounts(String contextId);
+
     public int findReadMessageCountForStudent(final String userId);
     
     /**
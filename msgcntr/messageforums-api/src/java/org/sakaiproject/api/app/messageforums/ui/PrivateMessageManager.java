@@ -126,7 +126,25 @@ public interface PrivateMessageManager {
      */
     public void sendPrivateMessage(PrivateMessage message, Map<User, Boolean> recipients, boolean asEmail);
     public void sendPrivateMessage(PrivateMessage message, Map<User, Boolean> recipients, boolean asEmail, List<MembershipItem> draftRecipients, List<MembershipItem> draftBccRecipients);
-    
+
+    /**
+     * Send the email copies of a message that has already been sent.
+     * Messages with many recipients are saved by sendPrivateMessage and their delivery is queued,
+     * a range of recipients at a time, the copies first and then the auto forwards.
+     * @param messageId the sent message
+     * @param asEmail whether a copy goes to every recipient, nothing is sent if not
+     * @param toolPlacementId placement of the messages tool the message was sent from, used for the link in the footer
+     * @param first index of the first recipient to deliver to
+     * @param last index after the last recipient to deliver to
+     */
+    public void deliverPrivateMessageCopies(Long messageId, boolean asEmail, String toolPlacementId, int first, int last);
+
+    /**
+     * Send the auto forwards of a message that has already been sent, see deliverPrivateMessageCopies.
+     * @param asEmail whether a copy went to every recipient, those don't get a forward to the same address
+     */
+    public void deliverPrivateMessageForwards(Long messageId, boolean asEmail, String toolPlacementId, int first, int last);
+
     
     /**
      * mark message as deleted for user
@@ -36,12 +36,15 @@ import lombok.extern.slf4j.Slf4j;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
+import org.hibernate.FlushMode;
 import org.hibernate.Hibernate;
+import org.hibernate.exception.ConstraintViolationException;
 import org.hibernate.query.Query;
 import org.hibernate.type.LongType;
 import org.hibernate.type.StringType;
 import org.sakaiproject.api.app.messageforums.PermissionLevel;
 import org.sakaiproject.api.app.messageforums.PermissionLevelManager;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.orm.hibernate5.HibernateCallback;
 import org.springframework.orm.hibernate5.HibernateOptimisticLockingFailureException;
 import org.springframework.orm.hibernate5.support.HibernateDaoSupport;
@@ -100,6 +103,14 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     private static final String QUERY_UNDELETED_MSG_BY_TOPIC_ID = "findUndeletedMessagesByTopicId";
     private static final String QUERY_MOVED_MESSAGES_BY_TOPICID = "findMovedMessagesByTopicId";
     private static final String QUERY_MOVED_HISTORY_BY_MESSAGEID = "findMovedHistoryByMessageId";
+    private static final String QUERY_TOPIC_READ_COUNTS = "findTopicReadCountsByUserAndTopics";
+    private static final String QUERY_COUNT_TOPIC_READ_MESSAGES = "countTopicReadMessagesByUserAndTopics";
+    private static final String QUERY_MESSAGE_DRAFT_AND_DELETED = "findMessageDraftAndDeleted";
+    private static final String QUERY_INSERT_TOPIC_READ_COUNT = "insertTopicReadCount";
+    private static final String QUERY_UPDATE_TOPIC_READ_COUNT = "updateTopicReadCount";
+    private static final String QUERY_DELETE_TOPIC_READ_COUNTS_BY_TOPIC = "deleteTopicReadCountsByTopic";
+    private static final String QUERY_DELETE_TOPIC_READ_COUNTS_BY_CONTEXT = "deleteTopicReadCountsByContext";
+    private static final String QUERY_DELETE_ALL_TOPIC_READ_COUNTS = "deleteAllTopicReadCounts";
     //private static final String ID = "id";
 
     // Oracle's 1000 'in' clause limit
@@ -603,14 +614,7 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         log.debug("findReadMessageCountByTopicIdByUserId executing with topicId: " + topicId + 
         				" and userId: " + userId);
 
-        HibernateCallback<Number> hcb = session -> {
-            Query q = session.getNamedQuery(QUERY_COUNT_BY_READ);
-            q.setParameter("topicId", topicId, LongType.INSTANCE);
-            q.setParameter("userId", userId, StringType.INSTANCE);
-            return (Number) q.uniqueResult();
-        };
-
-        return getHibernateTemplate().execute(hcb).intValue();
+        return findTopicReadCounts(Collections.singletonList(topicId), userId).get(topicId).intValue();
     }
     
     public int findReadMessageCountForStudent(final String userId) {
@@ -1037,37 +1041,169 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
     public List<Object[]> findReadMessageCountsForMainPage(final Collection<Long> topicIds) {
     	if (topicIds.isEmpty()) return new ArrayList<>();
 
-    	HibernateCallback<List<Object[]>> hcb = session -> {
-            // would use the normal 'subList' approach to deal with Oracle's 1000 limit, but we're dealing with a Collection
-            Iterator<Long> itTopicIds = topicIds.iterator();
-            int numTopics = topicIds.size();
-            String userId = getCurrentUser();
+    	List<Object[]> retrievedCounts = new ArrayList<>(topicIds.size());
+    	for (Map.Entry<Long, Long> count : findTopicReadCounts(topicIds, getCurrentUser()).entrySet()) {
+    		retrievedCounts.add(new Object[] {count.getKey(), count.getValue()});
+    	}
+    	return retrievedCounts;
+    }
 
-            List<Object[]> retrievedCounts = new ArrayList<Object[]>(numTopics);
+    /**
+     * Read counts for a user come from MFR_TOPIC_READ_COUNT_T, topics that have no count yet
+     * are counted from MFR_UNREAD_STATUS_T and the result is stored for the next time.
+     * @return a map of topic id to the number of messages the user has read in it
+     */
+    private Map<Long, Long> findTopicReadCounts(final Collection<Long> topicIds, final String userId) {
+        Map<Long, Long> counts = findStoredTopicReadCounts(topicIds, userId);
 
-            List<Long> queryTopics = new ArrayList<Long>(Math.min(numTopics, MAX_IN_CLAUSE_SIZE));
-            int querySize = 0;
-            while (itTopicIds.hasNext())
-            {
-                while (itTopicIds.hasNext() && querySize < MAX_IN_CLAUSE_SIZE)
-                {
-                    queryTopics.add(itTopicIds.next());
-                    querySize++;
+        List<Long> missingTopics = new ArrayList<>();
+        for (Long topicId : topicIds) {
+            if (!counts.containsKey(topicId)) {
+                missingTopics.add(topicId);
+            }
+        }
+        if (missingTopics.isEmpty()) {
+            return counts;
+        }
+
+        HibernateCallback<Map<Long, Long>> hcb = session -> {
+            Map<Long, Long> calculated = new HashMap<>(missingTopics.size());
+            for (int i = 0; i < missingTopics.size(); i += MAX_IN_CLAUSE_SIZE) {
+                Query q = session.getNamedQuery(QUERY_COUNT_TOPIC_READ_MESSAGES);
+                q.setParameterList("topicIds", missingTopics.subList(i, Math.min(missingTopics.size(), i + MAX_IN_CLAUSE_SIZE)));
+                q.setParameter("userId", userId, StringType.INSTANCE);
+                for (Object[] row : (List<Object[]>) q.list()) {
+                    calculated.put((Long) row[0], (Long) row[1]);
                 }
+            }
+            return calculated;
+        };
+        Map<Long, Long> calculated = getHibernateTemplate().execute(hcb);
+
+        /*
+         * Two requests for the same user can both find a topic without a count and both try to store it.
+         * The second one gets a constraint violation, and uses the count the first one stored, which may
+         * already have been moved up or down since.
+         */
+        List<Long> constraintViolationTopics = new ArrayList<>();
+        for (Long topicId : missingTopics) {
+            Long count = calculated.getOrDefault(topicId, 0L);
+            counts.put(topicId, count);
+            try {
+                insertTopicReadCount(topicId, userId, count);
+            } catch (DataIntegrityViolationException e) {
+                if (e.getCause() instanceof ConstraintViolationException) {
+                    log.debug("Read count of topic {} for user {} was stored by another request", topicId, userId);
+                    constraintViolationTopics.add(topicId);
+                } else {
+                    throw e;
+                }
+            }
+        }
+        if (!constraintViolationTopics.isEmpty()) {
+            counts.putAll(findStoredTopicReadCounts(constraintViolationTopics, userId));
+        }
+        return counts;
+    }
 
-                Query q = session.getNamedQuery(QUERY_READ_MESSAGE_COUNTS_FOR_MAIN_PAGE);
-                q.setParameterList("topicIds", queryTopics);
-                q.setParameter("userId", userId);
-                retrievedCounts.addAll(q.list());
+    private Map<Long, Long> findStoredTopicReadCounts(final Collection<Long> topicIds, final String userId) {
+        HibernateCallback<Map<Long, Long>> hcb = session -> {
+            List<Long> allTopics = new ArrayList<>(topicIds);
+            Map<Long, Long> counts = new HashMap<>(allTopics.size());
 
-                queryTopics.clear();
-                querySize = 0;
+            for (int i = 0; i < allTopics.size(); i += MAX_IN_CLAUSE_SIZE) {
+                Query q = session.getNamedQuery(QUERY_TOPIC_READ_COUNTS);
+                q.setParameterList("topicIds", allTopics.subList(i, Math.min(allTopics.size(), i + MAX_IN_CLAUSE_SIZE)));
+                q.setParameter("userId", userId, StringType.INSTANCE);
+                for (Object[] row : (List<Object[]>) q.list()) {
+                    counts.put((Long) row[0], (Long) row[1]);
+                }
             }
+            return counts;
+        };
 
-            return retrievedCounts;
+        return getHibernateTemplate().execute(hcb);
+    }
+
+    /**
+     * Stores a user's read count for a topic with a plain insert, so that a duplicate fails here
+     * rather than leaving an entity in the session that fails again on every later flush.
+     */
+    private void insertTopicReadCount(final Long topicId, final String userId, final long readCount) {
+        HibernateCallback<Integer> hcb = session -> {
+            Query q = session.getNamedQuery(QUERY_INSERT_TOPIC_READ_COUNT);
+            q.setParameter("topicId", topicId, LongType.INSTANCE);
+            q.setParameter("userId", userId, StringType.INSTANCE);
+            q.setParameter("readCount", readCount, LongType.INSTANCE);
+            return q.executeUpdate();
         };
+        getHibernateTemplate().execute(hcb);
+    }
 
-    	return getHibernateTemplate().execute(hcb);
+    /**
+     * Moves a user's stored read count for a topic up or down by one, if there is a stored count
+     */
+    private void updateTopicReadCount(final Long topicId, final String userId, final long delta) {
+        HibernateCallback<Integer> hcb = session -> {
+            Query q = session.getNamedQuery(QUERY_UPDATE_TOPIC_READ_COUNT);
+            q.setParameter("delta", delta, LongType.INSTANCE);
+            q.setParameter("topicId", topicId, LongType.INSTANCE);
+            q.setParameter("userId", userId, StringType.INSTANCE);
+            return q.executeUpdate();
+        };
+        getHibernateTemplate().execute(hcb);
+    }
+
+    /**
+     * Drafts and deleted messages are left out of the read counts
+     */
+    private boolean isReadCounted(Message message) {
+        return !Boolean.TRUE.equals(message.getDraft()) && !Boolean.TRUE.equals(message.getDeleted());
+    }
+
+    /**
+     * Whether the message as it is stored, without the changes about to be saved, is part of the read counts
+     */
+    private boolean isStoredMessageReadCounted(final Long messageId) {
+        HibernateCallback<Object[]> hcb = session -> {
+            Query q = session.getNamedQuery(QUERY_MESSAGE_DRAFT_AND_DELETED);
+            q.setParameter("id", messageId, LongType.INSTANCE);
+            // flushing would store the changes to the message first
+            q.setHibernateFlushMode(FlushMode.MANUAL);
+            return (Object[]) q.uniqueResult();
+        };
+        Object[] stored = getHibernateTemplate().execute(hcb);
+        return stored != null && !Boolean.TRUE.equals(stored[0]) && !Boolean.TRUE.equals(stored[1]);
+    }
+
+    public void invalidateTopicReadCounts(final Long topicId) {
+        if (topicId == null) {
+            return;
+        }
+        log.debug("invalidateTopicReadCounts executing with topicId: {}", topicId);
+
+        HibernateCallback<Integer> hcb = session -> {
+            Query q = session.getNamedQuery(QUERY_DELETE_TOPIC_READ_COUNTS_BY_TOPIC);
+            q.setParameter("topicId", topicId, LongType.INSTANCE);
+            return q.executeUpdate();
+        };
+        getHibernateTemplate().execute(hcb);
+    }
+
+    public int rebuildTopicReadCounts(final String contextId) {
+        HibernateCallback<Integer> hcb = session -> {
+            Query q;
+            if (contextId == null) {
+                q = session.getNamedQuery(QUERY_DELETE_ALL_TOPIC_READ_COUNTS);
+            } else {
+                q = session.getNamedQuery(QUERY_DELETE_TOPIC_READ_COUNTS_BY_CONTEXT);
+                q.setParameter("contextId", contextId, StringType.INSTANCE);
+            }
+            return q.executeUpdate();
+        };
+        int cleared = getHibernateTemplate().execute(hcb);
+        log.info("Cleared {} forum topic read counts for {}, they will be recalculated on next use", cleared, contextId == null ? "all sites" : contextId);
+        return cleared;
     }
 
 
@@ -1210,6 +1346,10 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         
         	
         	if (isMessageFromForums){
+        		// drafts and deleted messages are not part of the read counts
+        		if (originalReadStatus != read && isReadCounted(message)) {
+        			updateTopicReadCount(topicId, userId, read ? 1 : -1);
+        		}
         		if(!originalReadStatus && read){
         			//status is changing from Unread to Read, so decrement unread number for Synoptic Messages
         			decrementForumSynopticToolInfo(userId, context, SynopticMsgcntrManager.NUM_OF_ATTEMPTS);
@@ -1438,8 +1578,15 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
         manageThreadId(message, logEvent, isNew);
 
+        boolean wasReadCounted = !isNew && isMessageFromForums(message) && isStoredMessageReadCounted(message.getId());
+
         final Message persistedMessage = (Message) getSessionFactory().getCurrentSession().merge(message);
 
+        // a published or restored message joins the read counts of everyone who read it, a deleted one drops out
+        if (!isNew && isMessageFromForums(persistedMessage) && wasReadCounted != isReadCounted(persistedMessage)) {
+            invalidateTopicReadCounts(persistedMessage.getTopic().getId());
+        }
+
         handleEvent(message, logEvent, toolId, userId, contextId, isNew, persistedMessage);
 
         log.debug("message " + persistedMessage.getId() + " saved successfully");
@@ -1581,6 +1728,9 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
         }
         
         Topic topic = message.getTopic();        
+        if (isMessageFromForums(message)) {
+            invalidateTopicReadCounts(topic.getId());
+        }
         topic.removeMessage(message);
         getHibernateTemplate().saveOrUpdate(topic);
 		//getHibernateTemplate().delete(message);
@@ -2149,7 +2299,9 @@ public class MessageForumsMessageManagerImpl extends HibernateDaoSupport impleme
 
 		getHibernateTemplate().saveOrUpdate(mhist);
 
-
+		// the read message now counts towards the destination topic
+		invalidateTopicReadCounts(sourceTopicId);
+		invalidateTopicReadCounts(desttopicId);
 	}
 
 	public List findMovedMessagesByTopicId(final Long topicId) {
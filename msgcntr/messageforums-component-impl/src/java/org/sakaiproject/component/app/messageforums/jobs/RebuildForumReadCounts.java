@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2005-2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.component.app.messageforums.jobs;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import org.sakaiproject.api.app.messageforums.MessageForumsMessageManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+/**
+ * Clears the stored per user topic read counts so they are recalculated from
+ * MFR_UNREAD_STATUS_T the next time they are read. Use it after bulk changes made
+ * directly in the database, or if the counts are suspected to have drifted.
+ * Set msgcntr.forums.readCounts.rebuildSiteFilter to a comma separated list of
+ * site ids to limit the rebuild to those sites.
+ */
+@Slf4j
+public class RebuildForumReadCounts implements Job {
+
+	@Setter private MessageForumsMessageManager messageManager;
+	@Setter private ServerConfigurationService serverConfigurationService;
+
+	public void execute(JobExecutionContext context) throws JobExecutionException {
+		long start = System.currentTimeMillis();
+		int removed = 0;
+		String siteFilter = serverConfigurationService.getString("msgcntr.forums.readCounts.rebuildSiteFilter", "");
+		if (StringUtils.isBlank(siteFilter)) {
+			removed = messageManager.rebuildTopicReadCounts(null);
+		} else {
+			for (String siteId : StringUtils.split(siteFilter, ',')) {
+				if (StringUtils.isNotBlank(siteId)) {
+					removed += messageManager.rebuildTopicReadCounts(siteId.trim());
+				}
+			}
+		}
+		log.info("RebuildForumReadCounts removed {} stored read counts in {} ms", removed, System.currentTimeMillis() - start);
+	}
+}
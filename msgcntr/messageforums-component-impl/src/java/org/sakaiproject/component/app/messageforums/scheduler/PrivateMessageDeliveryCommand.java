@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2003-2022 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.component.app.messageforums.scheduler;
+
+import java.time.Instant;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.sakaiproject.api.app.messageforums.ui.PrivateMessageManager;
+import org.sakaiproject.api.app.scheduler.ScheduledInvocationCommand;
+import org.sakaiproject.api.app.scheduler.ScheduledInvocationManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+/**
+ * Delivers the email copies and auto forwards of a private message for a range of its recipients.
+ * The invocations are queued by PrivateMessageManagerImpl.sendPrivateMessage for large sends, they are
+ * stored by the ScheduledInvocationManager so they survive a restart and they run on the quartz thread
+ * pool, which bounds how many deliveries run at once. The copies are sent first and then the forwards,
+ * the step is kept in the context so a failed step is queued again on its own, with a delay, until
+ * msgcntr.messages.delivery.maxAttempts is reached.
+ */
+@Slf4j
+public class PrivateMessageDeliveryCommand implements ScheduledInvocationCommand {
+
+	public static final String COMPONENT_ID = "org.sakaiproject.component.app.messageforums.scheduler.PrivateMessageDeliveryCommand";
+
+	public static final String STEP_COPIES = "copies";
+	public static final String STEP_FORWARDS = "forwards";
+
+	private static final String SEPARATOR = ",";
+
+	@Setter
+	private PrivateMessageManager prtMsgManager;
+	@Setter
+	private ScheduledInvocationManager scheduledInvocationManager;
+	@Setter
+	private ServerConfigurationService serverConfigurationService;
+
+	/**
+	 * @return the opaque context of a delivery invocation, the placement goes last as it is free text
+	 */
+	public static String toContext(Long messageId, boolean asEmail, String step, int first, int last, int attempt, String toolPlacementId) {
+		return StringUtils.joinWith(SEPARATOR, messageId, asEmail, step, first, last, attempt, StringUtils.defaultString(toolPlacementId));
+	}
+
+	@Override
+	public void execute(String opaqueContext) {
+		String[] parts = StringUtils.splitPreserveAllTokens(opaqueContext, SEPARATOR, 7);
+		if (parts == null || parts.length != 7 || !StringUtils.equalsAny(parts[2], STEP_COPIES, STEP_FORWARDS)) {
+			log.warn("Ignoring private message delivery with invalid context {}", opaqueContext);
+			return;
+		}
+		Long messageId = Long.valueOf(parts[0]);
+		boolean asEmail = Boolean.parseBoolean(parts[1]);
+		String step = parts[2];
+		int first = Integer.parseInt(parts[3]);
+		int last = Integer.parseInt(parts[4]);
+		int attempt = Integer.parseInt(parts[5]);
+		String toolPlacementId = parts[6];
+
+		if (STEP_COPIES.equals(step)) {
+			if (!deliver(messageId, asEmail, STEP_COPIES, first, last, attempt, toolPlacementId)) {
+				// the retry goes on to the forwards once the copies are sent
+				return;
+			}
+			attempt = 1;
+		}
+		deliver(messageId, asEmail, STEP_FORWARDS, first, last, attempt, toolPlacementId);
+	}
+
+	/**
+	 * @return false if the step failed and has been queued again, true once it is done or given up on
+	 */
+	private boolean deliver(Long messageId, boolean asEmail, String step, int first, int last, int attempt, String toolPlacementId) {
+		try {
+			if (STEP_COPIES.equals(step)) {
+				prtMsgManager.deliverPrivateMessageCopies(messageId, asEmail, toolPlacementId, first, last);
+			} else {
+				prtMsgManager.deliverPrivateMessageForwards(messageId, asEmail, toolPlacementId, first, last);
+			}
+			return true;
+		} catch (Exception e) {
+			int maxAttempts = serverConfigurationService.getInt("msgcntr.messages.delivery.maxAttempts", 5);
+			if (attempt >= maxAttempts) {
+				log.error("Giving up delivering the {} of private message {} to recipients {}-{} after {} attempts", step, messageId, first, last, attempt, e);
+				return true;
+			}
+			int retryDelay = serverConfigurationService.getInt("msgcntr.messages.delivery.retrySeconds", 60) * attempt;
+			log.warn("Delivering the {} of private message {} to recipients {}-{} failed, retrying in {}s: {}", step, messageId, first, last, retryDelay, e.toString());
+			scheduledInvocationManager.createDelayedInvocation(Instant.now().plusSeconds(retryDelay), COMPONENT_ID,
+					toContext(messageId, asEmail, step, first, last, attempt + 1, toolPlacementId));
+			return false;
+		}
+	}
+}
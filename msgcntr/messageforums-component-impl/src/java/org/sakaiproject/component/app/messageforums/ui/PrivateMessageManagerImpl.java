@@ -21,8 +21,10 @@
 package org.sakaiproject.component.app.messageforums.ui;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -46,6 +48,7 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.LockMode;
+import org.hibernate.Session;
 import org.hibernate.query.Query;
 import org.hibernate.type.LongType;
 import org.hibernate.type.StringType;
@@ -73,11 +76,13 @@ import org.sakaiproject.api.app.messageforums.Topic;
 import org.sakaiproject.api.app.messageforums.UniqueArrayList;
 import org.sakaiproject.api.app.messageforums.cover.SynopticMsgcntrManagerCover;
 import org.sakaiproject.api.app.messageforums.ui.PrivateMessageManager;
+import org.sakaiproject.api.app.scheduler.ScheduledInvocationManager;
 import org.sakaiproject.authz.api.SecurityService;
 import org.sakaiproject.component.app.messageforums.TestUtil;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.PrivateForumImpl;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.PrivateMessageImpl;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.PrivateMessageRecipientImpl;
+import org.sakaiproject.component.app.messageforums.scheduler.PrivateMessageDeliveryCommand;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.content.api.ContentHostingService;
 import org.sakaiproject.content.api.ContentResource;
@@ -127,6 +132,16 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
   private static final String FROM_ADDRESS = "msgcntr.notification.from.address";
   private static final String USER_NOT_DEFINED = "cannot find user with id ";
 
+  private static final String RECIPIENT_BATCH_SIZE = "msgcntr.messages.recipients.batchSize";
+  private static final int DEFAULT_RECIPIENT_BATCH_SIZE = 50;
+  // sends to at least this many recipients deliver their email copies and forwards from a queue, 0 to always send them right away
+  private static final String DELIVERY_QUEUE_THRESHOLD = "msgcntr.messages.delivery.queueThreshold";
+  private static final int DEFAULT_DELIVERY_QUEUE_THRESHOLD = 100;
+  private static final String DELIVERY_BATCH_SIZE = "msgcntr.messages.delivery.batchSize";
+  private static final int DEFAULT_DELIVERY_BATCH_SIZE = 500;
+  private static final String DELIVERY_DELAY = "msgcntr.messages.delivery.delaySeconds";
+  private static final int DEFAULT_DELIVERY_DELAY = 10;
+
 
   private AreaManager areaManager;
   private MessageForumsMessageManager messageManager;
@@ -145,6 +160,7 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
   @Setter private PreferencesService preferencesService;
   @Setter private ServerConfigurationService serverConfigurationService;
   @Setter private FormattedText formattedText;
+  @Setter private ScheduledInvocationManager scheduledInvocationManager;
 
   private static final String MESSAGES_TITLE = "pvt_message_nav";// Mensajes-->Messages/need to be modified to support internationalization
   
@@ -1143,15 +1159,12 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
       return pmessage;
   }
 
-  private boolean getForwardingEnabled(Map<User, Boolean> recipients, Map<String, PrivateForum> pfMap, String currentUserAsString, String contextId, List recipientList, List<InternetAddress> fAddresses, boolean asEmail) throws MessagingException{
+  private boolean getForwardingEnabled(Collection<User> recipients, Map<String, PrivateForum> pfMap, List<InternetAddress> fAddresses, boolean asEmail) throws MessagingException{
 	  boolean forwardingEnabled = false;
 	  //this only needs to be done if the message is not being sent
 	  int submitterEmailReceiptPref;
-	  for (Iterator<Entry<User, Boolean>> i = recipients.entrySet().iterator(); i.hasNext();)
+	  for (User u : recipients)
 		  {
-		  Entry<User, Boolean> entrySet = i.next();
-		  User u = entrySet.getKey();
-		  Boolean bcc = entrySet.getValue();
 		  String userId = u.getId();
 		  String mailAFoward = u.getEmail();
 
@@ -1189,17 +1202,37 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
 			  forwardingEnabled = true;
 			  fAddresses.add(new InternetAddress(oldPf.getAutoForwardEmail()));
 		  }
+		  }
+	  return forwardingEnabled;
+  }
+
+  private void addReceivers(Map<User, Boolean> recipients, String currentUserAsString, String contextId, List recipientList) {
+	  String receivedType = typeManager.getReceivedPrivateMessageType();
+	  for (Entry<User, Boolean> entrySet : recipients.entrySet()) {
+		  String userId = entrySet.getKey().getId();
 
 		  /** determine if current user is equal to recipient */
 		  Boolean isRecipientCurrentUser =
 				  (currentUserAsString.equals(userId) ? Boolean.TRUE : Boolean.FALSE);
 
 		  PrivateMessageRecipientImpl receiver = new PrivateMessageRecipientImpl(
-				  userId, typeManager.getReceivedPrivateMessageType(), contextId,
-				  isRecipientCurrentUser, bcc);
+				  userId, receivedType, contextId,
+				  isRecipientCurrentUser, entrySet.getValue());
 		  recipientList.add(receiver);
-		  }
-	  return forwardingEnabled;
+	  }
+  }
+
+  private Map<String, PrivateForum> getPrivateForumsByOwner(Area area) {
+	  //this is fairly inneficient and should realy be a convenience method to lookup
+	  // the users who want to forward their messages
+	  List<PrivateForum> privateForums = area.getPrivateForums();
+
+	  //create a map for efficient lookup for large sites
+	  Map<String, PrivateForum> pfMap = new HashMap<>();
+	  for (PrivateForum pf : privateForums) {
+		  pfMap.put(pf.getOwner(), pf);
+	  }
+	  return pfMap;
   }
 
   private String getSystemAndReplyEmail(String defaultEmail, User currentUser, Message savedMessage, List replyEmail, String contextId) throws MessagingException{
@@ -1277,44 +1310,31 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
         return;
     }
 
-    //build the message body
-    List additionalHeaders = new ArrayList(1);
-    additionalHeaders.add("Content-Type: text/html; charset=utf-8");
-    
-
     /** determines if default in sakai.properties is set, if not will make a reasonable default */
     String defaultEmail = serverConfigurationService.getString("setup.request","postmaster@" + serverConfigurationService.getServerName());
     
-    Area currentArea = null;
-    List<PrivateForum> privateForums = null;
-    Map<String, PrivateForum> pfMap = null;
-    
-    	currentArea = getAreaByContextIdAndTypeId(typeManager.getPrivateMessageAreaType(), contextId);
-
-    	// make sure the site-wide email copy preference is respected in case an invalid
-    	// value slipped in
-    	if (currentArea.getSendToEmail() == Area.EMAIL_COPY_ALWAYS) {
-    	    asEmail = true;
-    	} else if (currentArea.getSendToEmail() == Area.EMAIL_COPY_NEVER) {
-    	    asEmail = false;
-    	}
-    	
-        //this is fairly inneficient and should realy be a convenience method to lookup
-        // the users who want to forward their messages
-        privateForums = currentArea.getPrivateForums();
-
-    	//create a map for efficient lookup for large sites
-    	pfMap = new HashMap<String, PrivateForum>();
-    	for (int i = 0; i < privateForums.size(); i++) {
-    		PrivateForum pf1 = (PrivateForum)privateForums.get(i);
-    		pfMap.put(pf1.getOwner(), pf1);
-    	}
+    Area currentArea = getAreaByContextIdAndTypeId(typeManager.getPrivateMessageAreaType(), contextId);
+
+    // make sure the site-wide email copy preference is respected in case an invalid
+    // value slipped in
+    if (currentArea.getSendToEmail() == Area.EMAIL_COPY_ALWAYS) {
+        asEmail = true;
+    } else if (currentArea.getSendToEmail() == Area.EMAIL_COPY_NEVER) {
+        asEmail = false;
+    }
+
+    // large sends only save the message here, the copies and forwards are delivered by the queue
+    int queueThreshold = serverConfigurationService.getInt(DELIVERY_QUEUE_THRESHOLD, DEFAULT_DELIVERY_QUEUE_THRESHOLD);
+    boolean queueDelivery = queueThreshold > 0 && recipients.size() >= queueThreshold;
 
 		List<InternetAddress> fAddresses = new ArrayList();
-		boolean forwardingEnabled = getForwardingEnabled(recipients, pfMap, currentUserAsString, contextId, recipientList, fAddresses, asEmail);
-		//this only needs to be done if the message is not being sent
+		boolean forwardingEnabled = false;
+		if (!queueDelivery) {
+			forwardingEnabled = getForwardingEnabled(recipients.keySet(), getPrivateForumsByOwner(currentArea), fAddresses, asEmail);
+		}
+		addReceivers(recipients, currentUserAsString, contextId, recipientList);
     
-    /** add sender as a saved recipient */
+    /** add sender as a saved recipient, it has to stay after the receivers, see deliverPrivateMessageCopies */
     PrivateMessageRecipientImpl sender = new PrivateMessageRecipientImpl(
     		currentUserAsString, typeManager.getSentPrivateMessageType(),
     		contextId, Boolean.TRUE, false);
@@ -1323,17 +1343,49 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
 
     message.setRecipients(recipientList);
 
-	Message savedMessage = saveMessage(message, isMailArchive, contextId, currentUserAsString);
+	// one insert per recipient, let hibernate send them to the database in batches. The session is shared
+	// with the rest of the request, so the inserts are flushed here and it goes back to its own batch size
+	Session session = currentSession();
+	Integer jdbcBatchSize = session.getJdbcBatchSize();
+	Message savedMessage;
+	session.setJdbcBatchSize(serverConfigurationService.getInt(RECIPIENT_BATCH_SIZE, DEFAULT_RECIPIENT_BATCH_SIZE));
+	try {
+		savedMessage = saveMessage(message, isMailArchive, contextId, currentUserAsString);
+		session.flush();
+	} finally {
+		session.setJdbcBatchSize(jdbcBatchSize);
+	}
 
     message.setId(savedMessage.getId());
 
     // clean up anything in the draftrecipients table since the message has now been sent
     messageManager.deleteDraftRecipientsByMessageId(message.getId());
 
+    if (queueDelivery) {
+    	if (!asEmail && isEmailForwardDisabled()) {
+    		return;
+    	}
+    	queuePrivateMessageDelivery(savedMessage.getId(), asEmail, isMailArchive ? null : getCurrentToolPlacementId(), recipients.size());
+    	return;
+    }
+
     String bodyString = buildMessageBody(message);
     List<InternetAddress> replyEmail  = new ArrayList<>();
     String systemEmail = getSystemAndReplyEmail(defaultEmail, currentUser, savedMessage, replyEmail, contextId);
 
+    sendEmailCopies(message, recipients.keySet(), asEmail, forwardingEnabled, fAddresses, systemEmail, replyEmail, bodyString);
+  }
+    catch (MessagingException e) 
+    {
+    	log.warn("PrivateMessageManagerImpl.sendPrivateMessage: exception: " + e.getMessage(), e);
+	}
+  }
+
+  private void sendEmailCopies(PrivateMessage message, Collection<User> recipients, boolean asEmail, boolean forwardingEnabled,
+		  List<InternetAddress> fAddresses, String systemEmail, List<InternetAddress> replyEmail, String bodyString) throws MessagingException {
+	List additionalHeaders = new ArrayList(1);
+	additionalHeaders.add("Content-Type: text/html; charset=utf-8");
+
 	if (asEmail)
 	{
 	//send as 1 action to all recipients
@@ -1343,7 +1395,7 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
 	if (!replyEmail.isEmpty()) {
 		additionalHeaders.add("Reply-To: " + replyEmail.get(0));
 	}
-	emailService.sendToUsers(recipients.keySet(), additionalHeaders, bodyString);
+	emailService.sendToUsers(recipients, additionalHeaders, bodyString);
 	}   	
 
 	if (!isEmailForwardDisabled() && forwardingEnabled)
@@ -1353,13 +1405,91 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
 		emailService.sendMail(new InternetAddress(systemEmail), fAddressesArr, message.getTitle(), 
 				bodyString, null, replyEmail.toArray(new InternetAddress[replyEmail.size()]), additionalHeaders);
 	}
+  }
 
+  /**
+   * Queue the delivery of a sent message, one delayed invocation per range of recipients
+   */
+  private void queuePrivateMessageDelivery(Long messageId, boolean asEmail, String toolPlacementId, int recipientCount) {
+	  int batchSize = Math.max(1, serverConfigurationService.getInt(DELIVERY_BATCH_SIZE, DEFAULT_DELIVERY_BATCH_SIZE));
+	  // give the sending transaction time to commit before the first attempt
+	  Instant start = Instant.now().plusSeconds(serverConfigurationService.getInt(DELIVERY_DELAY, DEFAULT_DELIVERY_DELAY));
+	  for (int first = 0; first < recipientCount; first += batchSize) {
+		  int last = Math.min(recipientCount, first + batchSize);
+		  scheduledInvocationManager.createDelayedInvocation(start, PrivateMessageDeliveryCommand.COMPONENT_ID,
+				  PrivateMessageDeliveryCommand.toContext(messageId, asEmail, PrivateMessageDeliveryCommand.STEP_COPIES, first, last, 1, toolPlacementId));
+	  }
+	  log.debug("Queued delivery of private message {} to {} recipients", messageId, recipientCount);
+  }
 
+  @Override
+  public void deliverPrivateMessageCopies(Long messageId, boolean asEmail, String toolPlacementId, int first, int last) {
+	  if (asEmail) {
+		  deliverPrivateMessage(messageId, asEmail, false, toolPlacementId, first, last);
+	  }
   }
-    catch (MessagingException e) 
-    {
-    	log.warn("PrivateMessageManagerImpl.sendPrivateMessage: exception: " + e.getMessage(), e);
-	}
+
+  @Override
+  public void deliverPrivateMessageForwards(Long messageId, boolean asEmail, String toolPlacementId, int first, int last) {
+	  if (!isEmailForwardDisabled()) {
+		  deliverPrivateMessage(messageId, asEmail, true, toolPlacementId, first, last);
+	  }
+  }
+
+  /**
+   * Send either the email copies or the auto forwards of a sent message to a range of its recipients,
+   * so a failure in one of them can be retried without sending the other again
+   */
+  private void deliverPrivateMessage(Long messageId, boolean asEmail, boolean forwards, String toolPlacementId, int first, int last) {
+	  PrivateMessage message = (PrivateMessage) messageManager.getMessageByIdWithAttachments(messageId);
+	  if (message == null) {
+		  throw new IllegalStateException("Cannot deliver private message " + messageId + ", it does not exist (yet)");
+	  }
+	  getHibernateTemplate().initialize(message.getRecipients());
+	  List<PrivateMessageRecipient> allRecipients = message.getRecipients();
+	  if (allRecipients.isEmpty()) {
+		  return;
+	  }
+	  String contextId = allRecipients.get(0).getContextId();
+
+	  // the receivers come first in the list, the sender is after them
+	  List<String> userIds = new ArrayList<>(last - first);
+	  for (int i = first; i < last && i < allRecipients.size(); i++) {
+		  userIds.add(allRecipients.get(i).getUserId());
+	  }
+	  List<User> users = userDirectoryService.getUsers(userIds);
+
+	  User author;
+	  try {
+		  author = userDirectoryService.getUser(message.getCreatedBy());
+	  } catch (UserNotDefinedException e) {
+		  log.warn("Not delivering private message {}, " + USER_NOT_DEFINED + "{}", messageId, message.getCreatedBy());
+		  return;
+	  }
+
+	  try {
+		  List<InternetAddress> fAddresses = new ArrayList<>();
+		  boolean forwardingEnabled = false;
+		  if (forwards) {
+			  // the copies decide who still needs a forward
+			  Area area = getAreaByContextIdAndTypeId(typeManager.getPrivateMessageAreaType(), contextId);
+			  forwardingEnabled = getForwardingEnabled(users, getPrivateForumsByOwner(area), fAddresses, asEmail);
+			  if (!forwardingEnabled) {
+				  return;
+			  }
+		  }
+
+		  String defaultEmail = serverConfigurationService.getString("setup.request","postmaster@" + serverConfigurationService.getServerName());
+		  List<InternetAddress> replyEmail = new ArrayList<>();
+		  String systemEmail = getSystemAndReplyEmail(defaultEmail, author, message, replyEmail, contextId);
+		  String thisToolId = StringUtils.defaultIfBlank(toolPlacementId, DiscussionForumService.MESSAGES_TOOL_ID);
+		  String bodyString = buildMessageBody(message, contextId, author, contextId, thisToolId);
+
+		  sendEmailCopies(message, users, !forwards, forwardingEnabled, fAddresses, systemEmail, replyEmail, bodyString);
+	  } catch (MessagingException e) {
+		  // a bad address won't get better by trying again
+		  log.warn("Could not deliver private message {}: {}", messageId, e.toString());
+	  }
   }
 
   public boolean isEmailForwardDisabled(){
@@ -1394,6 +1524,31 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
 			  throw new IllegalArgumentException(USER_NOT_DEFINED + message.getCreatedBy());
 		  }
 	  }
+
+	  String contextTool;
+	  String thisToolId;
+	  if (isMailArchive) {
+		  contextTool = contextId;
+		  thisToolId = DiscussionForumService.MESSAGES_TOOL_ID;
+	  } else {
+		  contextTool = toolManager.getCurrentPlacement().getContext();
+		  thisToolId = getCurrentToolPlacementId();
+	  }
+	  return buildMessageBody(message, contextId, currentUser, contextTool, thisToolId);
+  }
+
+  private String getCurrentToolPlacementId() {
+	  ToolSession ts = sessionManager.getCurrentToolSession();
+	  if (ts != null) {
+		  ToolConfiguration tool = siteService.findTool(ts.getPlacementId());
+		  if (tool != null) {
+			  return tool.getId();
+		  }
+	  }
+	  return "";
+  }
+
+  private String buildMessageBody(PrivateMessage message, String contextId, User currentUser, String contextTool, String thisToolId) {
 	  StringBuilder body = new StringBuilder(message.getBody());
 	  
 	  StringBuilder fromString = new StringBuilder();
@@ -1470,31 +1625,12 @@ public class PrivateMessageManagerImpl extends HibernateDaoSupport implements Pr
 		  }
 	  }
 
-	  String contextTool = StringUtils.EMPTY;
 	  String siteTitle = null;
 	  try{
-		  if (isMailArchive) {
-			  contextTool = contextId;
-			  siteTitle = siteService.getSite(contextId).getTitle();
-		  } else {
-			  contextTool = toolManager.getCurrentPlacement().getContext();
-			  siteTitle = siteService.getSite(getContextId()).getTitle();  
-		  }
+		  siteTitle = siteService.getSite(contextId).getTitle();
 	  } catch (IdUnusedException e){
 		  log.error(e.getMessage(), e);
 	  }
-	  String thisToolId = "";
-	  if (isMailArchive) {
-		  thisToolId = DiscussionForumService.MESSAGES_TOOL_ID;
-	  } else {
-		  ToolSession ts = sessionManager.getCurrentToolSession();
-		  if (ts != null) {
-			  ToolConfiguration tool = siteService.findTool(ts.getPlacementId());
-			  if (tool != null) {
-				  thisToolId = tool.getId();
-			  }
-		  }
-	  }
 
 	  String footer = "<p>----------------------<br>" +
 	      getResourceBundleString(EMAIL_FOOTER1) + " " + serverConfigurationService.getString("ui.service","Sakai") +
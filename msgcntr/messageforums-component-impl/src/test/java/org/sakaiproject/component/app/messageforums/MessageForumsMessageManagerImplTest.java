@@ -21,6 +21,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.SessionFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -29,8 +30,12 @@ import org.sakaiproject.api.app.messageforums.Message;
 import org.sakaiproject.api.app.messageforums.MessageForumsMessageManager;
 import org.sakaiproject.api.app.messageforums.PrivateMessage;
 import org.sakaiproject.api.common.type.Type;
+import org.sakaiproject.api.app.messageforums.Topic;
 import org.sakaiproject.api.common.type.TypeManager;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.DiscussionForumImpl;
+import org.sakaiproject.component.app.messageforums.dao.hibernate.DiscussionTopicImpl;
 import org.sakaiproject.component.app.messageforums.dao.hibernate.PrivateMessageRecipientImpl;
+import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.id.api.IdManager;
 import org.sakaiproject.tool.api.Placement;
 import org.sakaiproject.tool.api.SessionManager;
@@ -78,6 +83,10 @@ public class MessageForumsMessageManagerImplTest extends AbstractTransactionalJU
     @Autowired
     private IdManager idManager;
 
+    @Autowired
+    @Qualifier("org.sakaiproject.springframework.orm.hibernate.GlobalSessionFactory")
+    private SessionFactory sessionFactory;
+
     private static final String TYPE_ID = "ASDF";
     private static final String USER_ID = "test-user";
     private static final String CONTEXT_ID = "12345";
@@ -93,6 +102,8 @@ public class MessageForumsMessageManagerImplTest extends AbstractTransactionalJU
     @Before
     public void setUp() throws Exception {
         TestUtil.setRunningTests(true);
+        // the synoptic tool counts are updated through a cover, which finds nothing in testing mode
+        ComponentManager.testingMode = true;
 
         //Setup type manager stuff
         Type type = mock(Type.class);
@@ -233,6 +244,133 @@ public class MessageForumsMessageManagerImplTest extends AbstractTransactionalJU
         Assert.assertEquals("High Test Message October", results.get(1).getTitle());
     }
 
+    @Test
+    public void testTopicReadCountFollowsReadStatus() {
+        Topic topic = createDiscussionTopic();
+        Message m1 = createDiscussionMessage(topic, false);
+        Message m2 = createDiscussionMessage(topic, false);
+        Message m3 = createDiscussionMessage(topic, false);
+        Message draft = createDiscussionMessage(topic, true);
+
+        // read before there is a stored count, so the first count is calculated
+        markRead(topic, m1, true);
+        markRead(topic, m2, true);
+        markRead(topic, draft, true);
+        Assert.assertEquals(2, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+
+        // the stored count is moved up and down, drafts are not counted
+        markRead(topic, m2, false);
+        markRead(topic, draft, false);
+        markRead(topic, draft, true);
+        Assert.assertEquals(1, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+        markRead(topic, m1, true);
+        Assert.assertEquals(1, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+
+        // a recalculated count agrees with the stored one, the unread m2 and the draft are left out of both
+        messageForumsMessageManager.invalidateTopicReadCounts(topic.getId());
+        Assert.assertEquals(1, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+        List<Object[]> mainPageCounts = messageForumsMessageManager.findReadMessageCountsForMainPage(Collections.singletonList(topic.getId()));
+        Assert.assertEquals(1, mainPageCounts.size());
+        Assert.assertEquals(1L, ((Number) mainPageCounts.get(0)[1]).longValue());
+
+        markRead(topic, m3, true);
+        markRead(topic, m2, true);
+        Assert.assertEquals(3, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+        messageForumsMessageManager.invalidateTopicReadCounts(topic.getId());
+        Assert.assertEquals(3, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+    }
+
+    @Test
+    public void testTopicReadCountFollowsPublishing() {
+        Topic topic = createDiscussionTopic();
+        Message m1 = createDiscussionMessage(topic, false);
+        Message draft = createDiscussionMessage(topic, true);
+
+        // the author reads their own draft, it is not counted yet
+        markRead(topic, m1, true);
+        markRead(topic, draft, true);
+        Assert.assertEquals(1, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+
+        // publishing counts the read draft, as a recalculated count would
+        draft.setDraft(false);
+        draft = save(draft);
+        Assert.assertEquals(2, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+
+        m1.setDeleted(true);
+        m1 = save(m1);
+        Assert.assertEquals(1, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+
+        // restoring a deleted message counts it again
+        m1.setDeleted(false);
+        save(m1);
+        Assert.assertEquals(2, messageForumsMessageManager.findReadMessageCountByTopicIdByUserId(topic.getId(), USER_ID));
+    }
+
+    private Message save(Message message) {
+        return messageForumsMessageManager.saveOrUpdateMessage(message, false, "sakai.forums", USER_ID, CONTEXT_ID);
+    }
+
+    private void markRead(Topic topic, Message message, boolean read) {
+        messageForumsMessageManager.markMessageReadForUser(topic.getId(), message.getId(), read, USER_ID, CONTEXT_ID, "sakai.forums");
+    }
+
+    private Topic createDiscussionTopic() {
+        Date now = new Date();
+        DiscussionForumImpl forum = new DiscussionForumImpl();
+        forum.setUuid(UUID.randomUUID().toString());
+        forum.setCreated(now);
+        forum.setCreatedBy(USER_ID);
+        forum.setModified(now);
+        forum.setModifiedBy(USER_ID);
+        forum.setTitle("Read Count Forum");
+        forum.setTypeUuid(TYPE_ID);
+        forum.setSortIndex(0);
+        forum.setLocked(false);
+        forum.setDraft(false);
+        forum.setModerated(false);
+        forum.setPostFirst(false);
+        forum.setAutoMarkThreadsRead(false);
+        forum.setRestrictPermissionsForGroups(false);
+        sessionFactory.getCurrentSession().save(forum);
+
+        DiscussionTopicImpl topic = new DiscussionTopicImpl();
+        topic.setUuid(UUID.randomUUID().toString());
+        topic.setCreated(now);
+        topic.setCreatedBy(USER_ID);
+        topic.setModified(now);
+        topic.setModifiedBy(USER_ID);
+        topic.setTitle("Read Count Topic");
+        topic.setTypeUuid(TYPE_ID);
+        topic.setSortIndex(0);
+        topic.setMutable(true);
+        topic.setLocked(false);
+        topic.setDraft(false);
+        topic.setModerated(false);
+        topic.setPostFirst(false);
+        topic.setAutoMarkThreadsRead(false);
+        topic.setRestrictPermissionsForGroups(false);
+        topic.setOpenForum(forum);
+        topic.setBaseForum(forum);
+        sessionFactory.getCurrentSession().save(topic);
+        return topic;
+    }
+
+    private Message createDiscussionMessage(Topic topic, boolean draft) {
+        Message message = messageForumsMessageManager.createDiscussionMessage();
+        message.setUuid(UUID.randomUUID().toString());
+        message.setTypeUuid(TYPE_ID);
+        message.setCreatedBy(USER_ID);
+        message.setModified(new Date());
+        message.setModifiedBy(USER_ID);
+        message.setTitle("Read Count Message");
+        message.setAuthor(USER_ID);
+        message.setDraft(draft);
+        message.setDeleted(false);
+        message.setTopic(topic);
+        sessionFactory.getCurrentSession().save(message);
+        return message;
+    }
+
     private List<PrivateMessage> validateResults(SearchData sd) {
         List list = messageForumsMessageManager.findPvtMsgsBySearchText(TYPE_ID, sd.getSearchText(), sd.getSearchFromDate(),
                 sd.getSearchToDate(), sd.getSelectedLabel(), sd.isSearchByText(), sd.isSearchByAuthor(), sd.isSearchByBody(),
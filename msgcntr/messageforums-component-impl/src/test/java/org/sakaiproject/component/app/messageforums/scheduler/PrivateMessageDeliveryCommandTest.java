@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.component.app.messageforums.scheduler;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.api.app.messageforums.ui.PrivateMessageManager;
+import org.sakaiproject.api.app.scheduler.ScheduledInvocationManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+
+public class PrivateMessageDeliveryCommandTest {
+
+	private PrivateMessageDeliveryCommand command;
+	private PrivateMessageManager prtMsgManager;
+	private ScheduledInvocationManager scheduledInvocationManager;
+
+	@Before
+	public void setUp() {
+		prtMsgManager = mock(PrivateMessageManager.class);
+		scheduledInvocationManager = mock(ScheduledInvocationManager.class);
+		ServerConfigurationService serverConfigurationService = mock(ServerConfigurationService.class);
+		when(serverConfigurationService.getInt(anyString(), anyInt())).thenAnswer(i -> i.getArgument(1));
+
+		command = new PrivateMessageDeliveryCommand();
+		command.setPrtMsgManager(prtMsgManager);
+		command.setScheduledInvocationManager(scheduledInvocationManager);
+		command.setServerConfigurationService(serverConfigurationService);
+	}
+
+	@Test
+	public void testCopiesThenForwards() {
+		command.execute(PrivateMessageDeliveryCommand.toContext(1L, true, PrivateMessageDeliveryCommand.STEP_COPIES, 0, 50, 1, "placement"));
+
+		verify(prtMsgManager).deliverPrivateMessageCopies(1L, true, "placement", 0, 50);
+		verify(prtMsgManager).deliverPrivateMessageForwards(1L, true, "placement", 0, 50);
+		verify(scheduledInvocationManager, never()).createDelayedInvocation(any(Instant.class), anyString(), anyString());
+	}
+
+	@Test
+	public void testFailedCopiesRetriedBeforeForwards() {
+		doThrow(new RuntimeException("mail down")).when(prtMsgManager).deliverPrivateMessageCopies(1L, true, "placement", 0, 50);
+
+		command.execute(PrivateMessageDeliveryCommand.toContext(1L, true, PrivateMessageDeliveryCommand.STEP_COPIES, 0, 50, 1, "placement"));
+
+		verify(prtMsgManager, never()).deliverPrivateMessageForwards(anyLong(), anyBoolean(), anyString(), anyInt(), anyInt());
+		verify(scheduledInvocationManager).createDelayedInvocation(any(Instant.class), eq(PrivateMessageDeliveryCommand.COMPONENT_ID),
+				eq(PrivateMessageDeliveryCommand.toContext(1L, true, PrivateMessageDeliveryCommand.STEP_COPIES, 0, 50, 2, "placement")));
+	}
+
+	@Test
+	public void testFailedForwardsRetriedWithoutTheCopies() {
+		doThrow(new RuntimeException("mail down")).when(prtMsgManager).deliverPrivateMessageForwards(1L, true, "placement", 0, 50);
+
+		command.execute(PrivateMessageDeliveryCommand.toContext(1L, true, PrivateMessageDeliveryCommand.STEP_COPIES, 0, 50, 1, "placement"));
+		verify(prtMsgManager).deliverPrivateMessageCopies(1L, true, "placement", 0, 50);
+		String retry = PrivateMessageDeliveryCommand.toContext(1L, true, PrivateMessageDeliveryCommand.STEP_FORWARDS, 0, 50, 2, "placement");
+		verify(scheduledInvocationManager).createDelayedInvocation(any(Instant.class), eq(PrivateMessageDeliveryCommand.COMPONENT_ID), eq(retry));
+
+		// the retry only sends the forwards
+		command.execute(retry);
+		verify(prtMsgManager).deliverPrivateMessageCopies(1L, true, "placement", 0, 50);
+		verify(prtMsgManager, times(2)).deliverPrivateMessageForwards(1L, true, "placement", 0, 50);
+	}
+
+	@Test
+	public void testGivenUpCopiesStillForwarded() {
+		doThrow(new RuntimeException("mail down")).when(prtMsgManager).deliverPrivateMessageCopies(1L, false, "", 0, 50);
+
+		command.execute(PrivateMessageDeliveryCommand.toContext(1L, false, PrivateMessageDeliveryCommand.STEP_COPIES, 0, 50, 5, null));
+
+		verify(prtMsgManager).deliverPrivateMessageForwards(1L, false, "", 0, 50);
+		verify(scheduledInvocationManager, never()).createDelayedInvocation(any(Instant.class), anyString(), anyString());
+	}
+}
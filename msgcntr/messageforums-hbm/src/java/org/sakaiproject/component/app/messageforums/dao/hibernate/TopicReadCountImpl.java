@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2005-2015 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.component.app.messageforums.dao.hibernate;
+
+import java.io.Serializable;
+
+/**
+ * The number of messages a user has read in a topic, kept up to date as messages are
+ * marked read or unread so the main page and the synoptic tool don't have to count
+ * rows in MFR_UNREAD_STATUS_T for every topic. Only non draft, non deleted messages are
+ * counted, the same as the findReadMessageCountByTopicId query.
+ * A missing row means the count is unknown and has to be calculated.
+ */
+public class TopicReadCountImpl implements Serializable
+{
+	private Long topicId;
+	private String userId;
+	private Long readCount;
+
+	public TopicReadCountImpl()
+	{
+
+	}
+
+	/**
+	 * CTOR
+	 * @param topicId the topic id
+	 * @param userId the user id
+	 * @param readCount the number of messages the user has read in the topic
+	 */
+	public TopicReadCountImpl(Long topicId, String userId, Long readCount)
+	{
+		this.topicId = topicId;
+		this.userId = userId;
+		this.readCount = readCount;
+	}
+
+	public Long getTopicId()
+	{
+		return topicId;
+	}
+
+	public void setTopicId(Long topicId)
+	{
+		this.topicId = topicId;
+	}
+
+	public String getUserId()
+	{
+		return userId;
+	}
+
+	public void setUserId(String userId)
+	{
+		this.userId = userId;
+	}
+
+	public Long getReadCount()
+	{
+		return readCount;
+	}
+
+	public void setReadCount(Long readCount)
+	{
+		this.readCount = readCount;
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (obj instanceof TopicReadCountImpl)
+		{
+			TopicReadCountImpl rc = (TopicReadCountImpl) obj;
+			return isEqual(getTopicId(), rc.getTopicId())
+				&& isEqual(getUserId(), rc.getUserId());
+		}
+
+		return false;
+	}
+
+	private boolean isEqual(Object o1, Object o2)
+	{
+		return o1 == o2 || (o1 != null && o1.equals(o2));
+	}
+
+	@Override
+	public int hashCode()
+	{
+		int hash = 5;
+		hash = 37 * hash + (this.topicId != null ? this.topicId.hashCode() : 0);
+		hash = 37 * hash + (this.userId != null ? this.userId.hashCode() : 0);
+		return hash;
+	}
+}
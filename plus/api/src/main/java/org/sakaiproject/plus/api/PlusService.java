@@ -41,6 +41,10 @@ public interface PlusService {
 	public static final boolean PLUS_DEBUG_VERBOSE_DEFAULT = false;
 	public static final String PLUS_ROSTER_SYCHRONIZATION = "plus.roster.synchronization";
 	public static final boolean PLUS_ROSTER_SYCHRONIZATION_DEFAULT = true;
+	public static final String PLUS_ROSTER_BATCH_SIZE = "plus.roster.synchronization.batch";
+	public static final int PLUS_ROSTER_BATCH_SIZE_DEFAULT = 50;
+	public static final String PLUS_ROSTER_MAX_PAGES = "plus.roster.synchronization.pages.max";
+	public static final int PLUS_ROSTER_MAX_PAGES_DEFAULT = 100;
 
 	public static final String PLUS_DEEPLINK_ENABLED = "plus.deeplink.enabled";
 	public static final boolean PLUS_DEEPLINK_ENABLED_DEFAULT = true;
@@ -19,10 +19,15 @@ package org.sakaiproject.plus.impl;
 import java.lang.StringBuffer;
 
 import java.util.Date;
+import java.util.List;
 
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import java.io.InputStream;
 
@@ -117,6 +122,13 @@ public class PlusServiceImpl implements PlusService {
 	@Autowired private SiteEmailPreferenceSetter siteEmailPreferenceSetter;
 	@Autowired private UserFinderOrCreator userFinderOrCreator;
 	@Autowired private ServerConfigurationService serverConfigurationService;
+	@Autowired private ScorePassbackQueue scorePassbackQueue;
+
+	// The link to the next page of a paged NRPS response - <url>; rel="next"
+	private static final Pattern LINK_NEXT_PATTERN = Pattern.compile("<([^>]*)>\\s*;[^,<]*rel\\s*=\\s*\"?([^\",;]*)");
+
+	// The contexts with a memberships synchronization under way
+	private final Set<String> syncsRunning = ConcurrentHashMap.newKeySet();
 
 	/*
 	 * Indicate if plus is enabled on this system
@@ -514,6 +526,21 @@ public class PlusServiceImpl implements PlusService {
 			return;
 		}
 
+		// Launches close together can each ask for a sync, only one runs per context at a time
+		if ( ! syncsRunning.add(contextGuid) ) {
+			log.info("Memberships synchronization already running context={}", contextGuid);
+			return;
+		}
+
+		try {
+			syncContextMemberships(contextGuid, site);
+		} finally {
+			syncsRunning.remove(contextGuid);
+		}
+	}
+
+	private void syncContextMemberships(String contextGuid, Site site) throws LTIException {
+
 		Optional<Context> optContext = contextRepository.findById(contextGuid);
 		Context context = null;
 		if ( optContext.isPresent() ) {
@@ -612,29 +639,11 @@ public class PlusServiceImpl implements PlusService {
 		context.setNrpsStatus("Started");
 		contextRepository.save(context);
 
-		dbs = new StringBuffer();
-		dbs.append("Loading Context Memberships...\n");
-		InputStream is;
-		 try {
-			HttpResponse<InputStream> response = HttpClientUtil.sendGetStream(contextMemberships, null, headers, dbs);
-			if ( verbose(tenant) ) {
-				log.info("Debug Log:\n{}", dbs.toString());
-			} else {
-				log.debug("Debug Log:\n{}", dbs.toString());
-			}
-			is = response.body();
-		} catch (Exception e) {
-			log.error("Error retrieving NRPS (Names and Roles) data from {}", contextMemberships);
-			cLog.setStatus("Error retrieving NRPS (Names and Roles) data");
-			cLog.setDebugLog(dbs.toString());
-			contextLogRepository.save(cLog);
-			return;
-		}
-
 		// https://cassiomolin.com/2019/08/19/combining-jackson-streaming-api-with-objectmapper-for-parsing-json/
 		// Create and configure an ObjectMapper instance
 		ObjectMapper mapper = JacksonUtil.getLaxObjectMapper();
 
+		ContextLog tokenLog = cLog;
 		cLog = new ContextLog();
 		cLog.setContext(context);
 		cLog.setType(ContextLog.LOG_TYPE.NRPS_LIST);
@@ -642,88 +651,160 @@ public class PlusServiceImpl implements PlusService {
 		cLog.setSuccess(Boolean.TRUE);
 		dbs = new StringBuffer();
 
+		int batchSize = serverConfigurationService.getInt(PlusService.PLUS_ROSTER_BATCH_SIZE, PlusService.PLUS_ROSTER_BATCH_SIZE_DEFAULT);
+		int maxPages = serverConfigurationService.getInt(PlusService.PLUS_ROSTER_MAX_PAGES, PlusService.PLUS_ROSTER_MAX_PAGES_DEFAULT);
+		long start = System.currentTimeMillis();
 		Long count = Long.valueOf(0);
-		// Create a JsonParser instance
+		int pages = 0;
+		int changed = 0;
+		int unsaved = 0;
+		int saves = 0;
+		String pageUrl = contextMemberships;
 		try {
-			JsonParser jsonParser = mapper.getFactory().createParser(is);
-
-			// Check the first token
-			String lastText = null;
-			JsonToken nextToken = null;
-			while (true) {
-				nextToken =  jsonParser.nextToken();
-				if ( nextToken == null ) break;
-				if ( nextToken == JsonToken.START_ARRAY && "members".equals(lastText) ) break;
-				lastText = jsonParser.getText();
-			}
-
-			while (true) {
-				nextToken =  jsonParser.nextToken();
-				if ( nextToken == null ) break;
-				if ( nextToken == JsonToken.END_ARRAY ) break;
-				Member member = mapper.readValue(jsonParser, Member.class);
-
-				if ( verbose(tenant) ) {
-					log.info("processing member={}",member.email);
-				} else {
-					log.debug("processing member={}",member.email);
-				}
-
-				count = count + 1;
-
-				if ( count < 200 ) {
-					dbs.append("processing member="+member.email+" user_id="+member.user_id+" count="+count+"\n");
-				}
-
-				SakaiLaunchJWT launchJWT = new SakaiLaunchJWT();
-				launchJWT.subject = member.user_id;
-				launchJWT.email = member.email;
-				launchJWT.given_name = member.given_name;
-				launchJWT.family_name = member.family_name;
-				launchJWT.roles = member.roles;
-
-				Subject subject = createOrUpdateSubject(tenant, member.user_id, launchJWT);
-				if ( subject == null ) {
-					log.error("Failed createOrUpdateSubject subject={}", member.user_id);
-					dbs.append("Failed createOrUpdateSubject subject="+member.user_id);
+			// NRPS pages a big roster, the next page is in the Link header
+			while ( pageUrl != null && pages < maxPages ) {
+				StringBuffer pageDbs = new StringBuffer();
+				pageDbs.append("Loading Context Memberships "+pageUrl+"...\n");
+				InputStream is;
+				List<String> linkHeaders;
+				try {
+					HttpResponse<InputStream> response = HttpClientUtil.sendGetStream(pageUrl, null, headers, pageDbs);
+					if ( verbose(tenant) ) {
+						log.info("Debug Log:\n{}", pageDbs.toString());
+					} else {
+						log.debug("Debug Log:\n{}", pageDbs.toString());
+					}
+					is = response.body();
+					linkHeaders = response.headers().allValues("Link");
+				} catch (Exception e) {
+					log.error("Error retrieving NRPS (Names and Roles) data from {}", pageUrl);
+					if ( pages == 0 ) {
+						tokenLog.setStatus("Error retrieving NRPS (Names and Roles) data");
+						tokenLog.setDebugLog(pageDbs.toString());
+						contextLogRepository.save(tokenLog);
+						return;
+					}
 					cLog.setSuccess(Boolean.FALSE);
-					continue;
+					cLog.setStatus("Error retrieving NRPS (Names and Roles) page="+pages);
+					break;
 				}
-
-				// Upsert the roles
-				Membership membership = new Membership();
-				membership.setSubject(subject);
-				membership.setContext(context);
-				String ltiRoles = launchJWT.getLTI11Roles();
-				if ( StringUtils.isNotBlank(ltiRoles) ) membership.setLtiRoles(ltiRoles);
-				membership = membershipRepository.upsert(membership);
-
-				Map<String, String> payload = getPayloadFromLaunchJWT(tenant, launchJWT);
-				payload.put("tenant_guid", contextGuid);
-				payload.put("subject_guid", subject.getId());
-
-				User user = userFinderOrCreator.findOrCreateUser(payload, false, isEmailTrustedConsumer);
-				if ( user == null ) {
-					log.error("Failed findOrCreateUser subject={}", member.user_id);
-					dbs.append("Failed findOrCreateUser subject="+member.user_id);
-					cLog.setSuccess(Boolean.FALSE);
-					continue;
+				pages++;
+
+				// Create a JsonParser instance
+				try (JsonParser jsonParser = mapper.getFactory().createParser(is)) {
+
+					// Check the first token
+					String lastText = null;
+					JsonToken nextToken = null;
+					while (true) {
+						nextToken =  jsonParser.nextToken();
+						if ( nextToken == null ) break;
+						if ( nextToken == JsonToken.START_ARRAY && "members".equals(lastText) ) break;
+						lastText = jsonParser.getText();
+					}
+
+					while (true) {
+						nextToken =  jsonParser.nextToken();
+						if ( nextToken == null ) break;
+						if ( nextToken == JsonToken.END_ARRAY ) break;
+						Member member = mapper.readValue(jsonParser, Member.class);
+
+						if ( verbose(tenant) ) {
+							log.info("processing member={}",member.email);
+						} else {
+							log.debug("processing member={}",member.email);
+						}
+
+						count = count + 1;
+
+						if ( count < 200 ) {
+							dbs.append("processing member="+member.email+" user_id="+member.user_id+" count="+count+"\n");
+						}
+
+						SakaiLaunchJWT launchJWT = new SakaiLaunchJWT();
+						launchJWT.subject = member.user_id;
+						launchJWT.email = member.email;
+						launchJWT.given_name = member.given_name;
+						launchJWT.family_name = member.family_name;
+						launchJWT.roles = member.roles;
+
+						Subject subject = createOrUpdateSubject(tenant, member.user_id, launchJWT);
+						if ( subject == null ) {
+							log.error("Failed createOrUpdateSubject subject={}", member.user_id);
+							dbs.append("Failed createOrUpdateSubject subject="+member.user_id);
+							cLog.setSuccess(Boolean.FALSE);
+							continue;
+						}
+
+						// Upsert the roles
+						Membership membership = new Membership();
+						membership.setSubject(subject);
+						membership.setContext(context);
+						String ltiRoles = launchJWT.getLTI11Roles();
+						if ( StringUtils.isNotBlank(ltiRoles) ) membership.setLtiRoles(ltiRoles);
+						membership = membershipRepository.upsert(membership);
+
+						Map<String, String> payload = getPayloadFromLaunchJWT(tenant, launchJWT);
+						payload.put("tenant_guid", contextGuid);
+						payload.put("subject_guid", subject.getId());
+
+						User user = userFinderOrCreator.findOrCreateUser(payload, false, isEmailTrustedConsumer);
+						if ( user == null ) {
+							log.error("Failed findOrCreateUser subject={}", member.user_id);
+							dbs.append("Failed findOrCreateUser subject="+member.user_id);
+							cLog.setSuccess(Boolean.FALSE);
+							continue;
+						}
+
+						connectSubjectAndUser(subject, user);
+
+						siteEmailPreferenceSetter.setupUserEmailPreferenceForSite(payload, user, site, false);
+
+						// Only members whose role changed touch the realm, and it is saved once per batch
+						if ( siteMembershipUpdater.updateSiteMembership(payload, false, user, site) ) {
+							changed++;
+							unsaved++;
+						}
+						if ( unsaved >= batchSize ) {
+							siteMembershipUpdater.saveSiteMembership(site);
+							saves++;
+							unsaved = 0;
+						}
+
+						cLog.setStatus("Completed syncSiteMemberships count="+count+" at="+Instant.now());
+					}
 				}
 
-				connectSubjectAndUser(subject, user);
-
-				siteEmailPreferenceSetter.setupUserEmailPreferenceForSite(payload, user, site, false);
-
-				site = siteMembershipUpdater.addOrUpdateSiteMembership(payload, false, user, site);
+				pageUrl = getNextPageUrl(linkHeaders);
+			}
 
-				cLog.setStatus("Completed syncSiteMemberships count="+count+" at="+Instant.now());
+			if ( pageUrl != null ) {
+				log.warn("Stopped memberships synchronization after {} pages context={}", pages, contextGuid);
+				dbs.append("Stopped after "+pages+" pages, next="+pageUrl+"\n");
 			}
 		} catch (IOException | LTIException e) {
 			log.error("Error processing contextMemberships stream context={}", contextGuid, e);
 			cLog.setSuccess(Boolean.FALSE);
 			cLog.setStatus("Exception processing Names and Roles data="+e.getMessage());
+		} finally {
+			// Keep the changes made before anything went wrong
+			if ( unsaved > 0 ) {
+				try {
+					siteMembershipUpdater.saveSiteMembership(site);
+					saves++;
+				} catch (LTIException e) {
+					log.error("Error saving memberships context={} site={}", contextGuid, site.getId(), e);
+					cLog.setSuccess(Boolean.FALSE);
+					cLog.setStatus("Exception saving site memberships="+e.getMessage());
+				}
+			}
 		}
 
+		long duration = System.currentTimeMillis() - start;
+		log.info("Memberships synchronized context={} site={} members={} changed={} pages={} saves={} in {} ms",
+				contextGuid, site.getId(), count, changed, pages, saves, duration);
+		dbs.append("members="+count+" changed="+changed+" pages="+pages+" saves="+saves+" duration="+duration+"ms\n");
+
 		// Update the job status
 		context.setNrpsFinish(Instant.now());
 		context.setNrpsCount(count);
@@ -735,6 +816,22 @@ public class PlusServiceImpl implements PlusService {
 		contextLogRepository.save(cLog);
 	}
 
+	/*
+	 * Find the next page of a paged NRPS response in its Link headers, null when it is the last page
+	 */
+	static String getNextPageUrl(List<String> linkHeaders) {
+		if ( linkHeaders == null ) return null;
+		for (String linkHeader : linkHeaders) {
+			Matcher m = LINK_NEXT_PATTERN.matcher(linkHeader);
+			while ( m.find() ) {
+				for (String rel : m.group(2).trim().split("\\s+")) {
+					if ( "next".equalsIgnoreCase(rel) && isNotEmpty(m.group(1).trim()) ) return m.group(1).trim();
+				}
+			}
+		}
+		return null;
+	}
+
 /*
 {
   "id" : "https://lms.example.com/sections/2923/memberships",
@@ -1309,86 +1406,27 @@ public class PlusServiceImpl implements PlusService {
 		dbsc.setScoreMaximum(score.scoreMaximum);
 		dbsc.setComment(score.comment);
 		dbsc.setUpdatedAt(Instant.now());
-		dbsc.setSentAt(Instant.now());
+		dbsc.setSentAt(null);
 		dbsc.setSuccess(Boolean.FALSE);
-		dbsc.setStatus(null);
+		dbsc.setStatus(ScorePassbackQueue.STATUS_QUEUED);
 		dbsc.setDebugLog(null);
-
-		// Prepare for Per-Context log
-		ContextLog cLog = new ContextLog();
-		cLog.setContext(context);
-		cLog.setSubject(subject);
-		cLog.setType(ContextLog.LOG_TYPE.Score_TOKEN);
-		cLog.setAction("processGradeEvent siteId="+siteId+" itemId="+itemId+" studentId="+studentId+" scoreGiven="+score.scoreGiven);
-		cLog.setSuccess(Boolean.FALSE);
-
-		// Lets get an access token if we can so we can send the score
-		KeyPair keyPair = SakaiKeySetUtil.getCurrent();
-		StringBuffer dbs = new StringBuffer();
-		AccessToken scoreAccessToken = LTI13AccessTokenUtil.getScoreToken(oidcTokenUrl, keyPair, clientId, deploymentId, oidcAudience, dbs);
-		if ( scoreAccessToken == null || isEmpty(scoreAccessToken.access_token) ) {
-			log.info("Could not retrieve score token from {}.  Scores will NOT be synchronized.", oidcTokenUrl);
-			dbsc.setStatus("Could not get score token from "+oidcTokenUrl);
-			dbsc.setSuccess(Boolean.FALSE);
-			dbsc.setDebugLog(dbs.toString());
-			scoreRepository.save(dbsc);
-
-			cLog.setStatus(dbsc.getStatus());
-			cLog.setDebugLog(dbsc.getDebugLog());
-			contextLogRepository.save(cLog);
-			return;
-		}
-		if ( verbose(tenant) ) {
-			log.info("Debug Log:\n{}", dbs.toString());
-		} else {
-			log.debug("Debug Log:\n{}", dbs.toString());
-		}
-
-		// Lets send a score
-		// https://www.imsglobal.org/spec/lti-ags/v2p0#score-publish-service
-		// https://www.imsglobal.org/spec/lti-ags/v2p0#comment-0
-		Map<String, String> headers = new TreeMap<String, String>();
-		headers.put("Authorization", "Bearer "+scoreAccessToken.access_token);
-		headers.put("Content-Type", Score.MIME_TYPE);
-
-		String body = score.prettyPrintLog();
-		String scoreUrl = LTI13Util.getScoreUrlForLineItem(lineItem);
-		dbs = new StringBuffer();
-		dbs.append("Sending score\n");
-
-		 try {
-			HttpResponse<String> response = HttpClientUtil.sendBody("POST", scoreUrl, body, headers, dbs);
-			body = response.body();
-			log.debug("GRADEEVENT RESPONSE BODY={}", body);
-			dbs.append("response body\n");
-			dbs.append(StringUtils.truncate(body, 1000));
-			dbsc.setDebugLog(dbs.toString());
-			if ( verbose(tenant) ) {
-				log.info("Debug Log:\n{}", dbs.toString());
-			} else {
-				log.debug("Debug Log:\n{}", dbs.toString());
-			}
-			dbsc.setSuccess(Boolean.TRUE);
-			scoreRepository.save(dbsc);
-
-			cLog.setStatus(dbsc.getStatus());
-			cLog.setDebugLog(dbsc.getDebugLog());
-			cLog.setSuccess(Boolean.TRUE);
-			cLog.setType(ContextLog.LOG_TYPE.Score_SEND);
-			contextLogRepository.save(cLog);
-		} catch (Exception e) {
-			log.error("Error setting score at {}", scoreUrl);
-			dbsc.setStatus("Error setting score at url="+oidcTokenUrl+" message="+e.getMessage());
-			dbsc.setSuccess(Boolean.FALSE);
-			dbsc.setDebugLog(dbs.toString());
-			scoreRepository.save(dbsc);
-
-			cLog.setStatus(dbsc.getStatus());
-			cLog.setType(ContextLog.LOG_TYPE.Score_SEND);
-			cLog.setDebugLog(dbsc.getDebugLog());
-			contextLogRepository.save(cLog);
-		}
-
+		dbsc = scoreRepository.save(dbsc);
+
+		// Bulk grading changes many scores at once, so they are sent in the background a few at a time
+		ScorePassbackQueue.Passback passback = new ScorePassbackQueue.Passback();
+		passback.scoreId = dbsc.getId();
+		passback.tenantId = tenant.getId();
+		passback.oidcTokenUrl = oidcTokenUrl;
+		passback.clientId = clientId;
+		passback.deploymentId = deploymentId;
+		passback.oidcAudience = oidcAudience;
+		passback.scoreUrl = LTI13Util.getScoreUrlForLineItem(lineItem);
+		passback.score = score;
+		passback.context = context;
+		passback.subject = subject;
+		passback.action = "processGradeEvent siteId="+siteId+" itemId="+itemId+" studentId="+studentId+" scoreGiven="+score.scoreGiven;
+		passback.verbose = verbose(tenant);
+		scorePassbackQueue.add(passback);
 	}
 
 /*
@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.plus.impl;
+
+import java.net.http.HttpResponse;
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.commons.lang3.StringUtils.isEmpty;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.sakaiproject.basiclti.util.SakaiKeySetUtil;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.plus.api.model.Context;
+import org.sakaiproject.plus.api.model.ContextLog;
+import org.sakaiproject.plus.api.model.Subject;
+import org.sakaiproject.plus.api.repository.ContextLogRepository;
+import org.sakaiproject.plus.api.repository.ScoreRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import org.tsugi.http.HttpClientUtil;
+import org.tsugi.lti13.LTI13AccessTokenUtil;
+import org.tsugi.oauth2.objects.AccessToken;
+import org.tsugi.ags2.objects.Score;
+
+import lombok.extern.slf4j.Slf4j;
+
+/*
+ * Sends scores to the calling LMS in the background.
+ *
+ * Scores are queued per line item and subject, when a score is changed again before it is sent
+ * only the latest one is sent.  Each platform only gets a few scores at a time, the others wait
+ * their turn in order and are sent as the earlier ones finish.  Score tokens are reused until they
+ * expire, and scores that fail are retried with a growing delay.  Scores that still fail are left
+ * in PLUS_SCORE and the context log as failures.
+ */
+@Slf4j
+public class ScorePassbackQueue {
+
+	public static final String PLUS_PASSBACK_THREADS = "plus.passback.threads";
+	public static final int PLUS_PASSBACK_THREADS_DEFAULT = 4;
+	public static final String PLUS_PASSBACK_PLATFORM_CONCURRENCY = "plus.passback.platform.concurrency";
+	public static final int PLUS_PASSBACK_PLATFORM_CONCURRENCY_DEFAULT = 2;
+	public static final String PLUS_PASSBACK_RETRIES = "plus.passback.retries";
+	public static final int PLUS_PASSBACK_RETRIES_DEFAULT = 5;
+	public static final String PLUS_PASSBACK_BACKOFF = "plus.passback.backoff";
+	public static final int PLUS_PASSBACK_BACKOFF_DEFAULT = 30;
+
+	public static final String STATUS_QUEUED = "Queued";
+
+	// Get a new token this long before the old one expires
+	private static final long TOKEN_MARGIN_MS = 60 * 1000;
+
+	@Autowired private ScoreRepository scoreRepository;
+	@Autowired private ContextLogRepository contextLogRepository;
+	@Autowired private ServerConfigurationService serverConfigurationService;
+
+	/*
+	 * Everything needed to send one score
+	 */
+	static class Passback {
+		String scoreId;
+		String tenantId;
+		String oidcTokenUrl;
+		String clientId;
+		String deploymentId;
+		String oidcAudience;
+		String scoreUrl;
+		Score score;
+		Context context;
+		Subject subject;
+		String action;
+		boolean verbose;
+		int attempt;
+
+		String getKey() {
+			return scoreUrl + "|" + subject.getId();
+		}
+	}
+
+	/*
+	 * The scores being sent to a platform, and the ones waiting for a turn in the order they became due
+	 */
+	private static class Platform {
+		final Semaphore permits;
+		final Queue<String> waiting = new ConcurrentLinkedQueue<>();
+
+		Platform(int concurrency) {
+			permits = new Semaphore(concurrency);
+		}
+	}
+
+	private static class CachedToken {
+		final String accessToken;
+		final long expires;
+
+		CachedToken(String accessToken, long expires) {
+			this.accessToken = accessToken;
+			this.expires = expires;
+		}
+	}
+
+	// The latest score waiting to be sent for each line item and subject
+	private final Map<String, Passback> pending = new ConcurrentHashMap<>();
+	private final Map<String, Platform> platforms = new ConcurrentHashMap<>();
+	private final Map<String, CachedToken> tokens = new ConcurrentHashMap<>();
+
+	private ScheduledThreadPoolExecutor executor;
+	private int platformConcurrency;
+	private int retries;
+	private long backoff;
+
+	public void init() {
+		int threads = Math.max(1, serverConfigurationService.getInt(PLUS_PASSBACK_THREADS, PLUS_PASSBACK_THREADS_DEFAULT));
+		platformConcurrency = Math.max(1, serverConfigurationService.getInt(PLUS_PASSBACK_PLATFORM_CONCURRENCY, PLUS_PASSBACK_PLATFORM_CONCURRENCY_DEFAULT));
+		retries = Math.max(0, serverConfigurationService.getInt(PLUS_PASSBACK_RETRIES, PLUS_PASSBACK_RETRIES_DEFAULT));
+		backoff = Math.max(1, serverConfigurationService.getInt(PLUS_PASSBACK_BACKOFF, PLUS_PASSBACK_BACKOFF_DEFAULT)) * 1000L;
+
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = new ScheduledThreadPoolExecutor(threads, r -> {
+			Thread t = new Thread(r, "plus-passback-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+	}
+
+	public void destroy() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		if ( ! pending.isEmpty() ) {
+			log.warn("{} scores were not sent before shutdown", pending.size());
+		}
+	}
+
+	/*
+	 * Queue a score once the current transaction has committed the PLUS_SCORE row for it
+	 */
+	public void add(Passback passback) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					queue(passback, 0);
+				}
+			});
+		} else {
+			queue(passback, 0);
+		}
+	}
+
+	private void queue(Passback passback, long delay) {
+		String key = passback.getKey();
+		// When a score is already waiting for this line item and subject it is replaced and its send picks up this one
+		if (pending.put(key, passback) == null) {
+			schedule(key, delay);
+		}
+	}
+
+	private void requeue(Passback passback, long delay) {
+		String key = passback.getKey();
+		// A newer score arrived while this one was being sent, it is already scheduled and replaces this one
+		if (pending.putIfAbsent(key, passback) == null) {
+			schedule(key, delay);
+		}
+	}
+
+	private void schedule(String key, long delay) {
+		executor.schedule(() -> send(key), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void send(String key) {
+		Passback passback = pending.get(key);
+		if (passback == null) return;
+
+		Platform platform = platforms.computeIfAbsent(passback.tenantId, k -> new Platform(platformConcurrency));
+		if ( ! platform.permits.tryAcquire() ) {
+			// The score stays pending while it waits, so a newer one for the same subject still replaces it
+			platform.waiting.add(key);
+			// A score may have finished between the tryAcquire and the add
+			sendWaiting(platform);
+			return;
+		}
+		sendWithPermit(platform, key);
+	}
+
+	/*
+	 * Send a score the caller has taken a permit for, then hand the permit to the next waiting score
+	 */
+	private void sendWithPermit(Platform platform, String key) {
+		Passback passback = pending.remove(key);
+		try {
+			if (passback != null) sendScore(passback);
+		} catch (Exception e) {
+			log.error("Error sending score {}: {}", passback.scoreId, e.toString());
+		} finally {
+			platform.permits.release();
+			sendWaiting(platform);
+		}
+	}
+
+	private void sendWaiting(Platform platform) {
+		while ( ! platform.waiting.isEmpty() && platform.permits.tryAcquire() ) {
+			String key = platform.waiting.poll();
+			if (key == null) {
+				platform.permits.release();
+				continue;
+			}
+			executor.execute(() -> sendWithPermit(platform, key));
+		}
+	}
+
+	private void sendScore(Passback passback) {
+
+		passback.attempt++;
+
+		// Prepare for Per-Context log
+		ContextLog cLog = new ContextLog();
+		cLog.setContext(passback.context);
+		cLog.setSubject(passback.subject);
+		cLog.setType(ContextLog.LOG_TYPE.Score_TOKEN);
+		cLog.setAction(passback.action);
+		cLog.setSuccess(Boolean.FALSE);
+
+		StringBuffer dbs = new StringBuffer();
+		String accessToken = getAccessToken(passback, dbs);
+		if ( isEmpty(accessToken) ) {
+			log.info("Could not retrieve score token from {}.  Scores will NOT be synchronized.", passback.oidcTokenUrl);
+			failed(passback, cLog, "Could not get score token from "+passback.oidcTokenUrl, dbs, true);
+			return;
+		}
+		if ( passback.verbose ) {
+			log.info("Debug Log:\n{}", dbs.toString());
+		} else {
+			log.debug("Debug Log:\n{}", dbs.toString());
+		}
+
+		// Lets send a score
+		// https://www.imsglobal.org/spec/lti-ags/v2p0#score-publish-service
+		// https://www.imsglobal.org/spec/lti-ags/v2p0#comment-0
+		Map<String, String> headers = new TreeMap<String, String>();
+		headers.put("Authorization", "Bearer "+accessToken);
+		headers.put("Content-Type", Score.MIME_TYPE);
+
+		String body = passback.score.prettyPrintLog();
+		dbs = new StringBuffer();
+		dbs.append("Sending score attempt="+passback.attempt+"\n");
+
+		cLog.setType(ContextLog.LOG_TYPE.Score_SEND);
+		try {
+			HttpResponse<String> response = HttpClientUtil.sendBody("POST", passback.scoreUrl, body, headers, dbs);
+			body = response.body();
+			log.debug("GRADEEVENT RESPONSE BODY={}", body);
+			dbs.append("response body\n");
+			dbs.append(StringUtils.truncate(body, 1000));
+			if ( passback.verbose ) {
+				log.info("Debug Log:\n{}", dbs.toString());
+			} else {
+				log.debug("Debug Log:\n{}", dbs.toString());
+			}
+
+			int status = response.statusCode();
+			if ( status == 401 ) {
+				// The platform may have dropped the token before it expired
+				tokens.remove(getTokenKey(passback));
+			}
+			if ( status == 401 || status == 429 || status >= 500 ) {
+				failed(passback, cLog, "Error setting score at url="+passback.scoreUrl+" status="+status, dbs, true);
+				return;
+			}
+			if ( status >= 400 ) {
+				failed(passback, cLog, "Score rejected at url="+passback.scoreUrl+" status="+status, dbs, false);
+				return;
+			}
+
+			updateScore(passback, Boolean.TRUE, null, dbs);
+			cLog.setSuccess(Boolean.TRUE);
+			cLog.setDebugLog(dbs.toString());
+			contextLogRepository.save(cLog);
+		} catch (Exception e) {
+			log.error("Error setting score at {}", passback.scoreUrl);
+			failed(passback, cLog, "Error setting score at url="+passback.scoreUrl+" message="+e.getMessage(), dbs, true);
+		}
+	}
+
+	/*
+	 * Retry the score later if it may work then, otherwise leave it as a failure
+	 */
+	private void failed(Passback passback, ContextLog cLog, String status, StringBuffer dbs, boolean retry) {
+		if ( retry && passback.attempt <= retries ) {
+			// 1, 2, 4, 8 ... times the backoff
+			long delay = backoff << Math.min(passback.attempt - 1, 10);
+			log.debug("Retrying score {} in {} ms: {}", passback.scoreId, delay, status);
+			updateScore(passback, Boolean.FALSE, "Retrying attempt="+passback.attempt+" "+status, dbs);
+			requeue(passback, delay);
+			return;
+		}
+
+		if ( retry ) {
+			log.warn("Giving up sending score {} after {} attempts: {}", passback.scoreId, passback.attempt, status);
+			status = "Gave up after "+passback.attempt+" attempts "+status;
+		}
+		updateScore(passback, Boolean.FALSE, status, dbs);
+		cLog.setStatus(status);
+		cLog.setDebugLog(dbs.toString());
+		contextLogRepository.save(cLog);
+	}
+
+	private void updateScore(Passback passback, Boolean success, String status, StringBuffer dbs) {
+		// A newer score for this subject and column replaces the row, so there is nothing to record
+		Optional<org.sakaiproject.plus.api.model.Score> optScore = scoreRepository.findById(passback.scoreId);
+		if ( ! optScore.isPresent() ) return;
+
+		org.sakaiproject.plus.api.model.Score dbsc = optScore.get();
+		dbsc.setSentAt(Instant.now());
+		dbsc.setSuccess(success);
+		dbsc.setStatus(StringUtils.truncate(status, 200));
+		dbsc.setDebugLog(dbs.toString());
+		scoreRepository.save(dbsc);
+	}
+
+	private String getAccessToken(Passback passback, StringBuffer dbs) {
+		String key = getTokenKey(passback);
+		CachedToken cached = tokens.get(key);
+		if ( cached != null && cached.expires > System.currentTimeMillis() ) {
+			dbs.append("Using cached score token\n");
+			return cached.accessToken;
+		}
+
+		KeyPair keyPair = SakaiKeySetUtil.getCurrent();
+		AccessToken scoreAccessToken = LTI13AccessTokenUtil.getScoreToken(passback.oidcTokenUrl, keyPair,
+				passback.clientId, passback.deploymentId, passback.oidcAudience, dbs);
+		if ( scoreAccessToken == null || isEmpty(scoreAccessToken.access_token) ) {
+			tokens.remove(key);
+			return null;
+		}
+
+		long expiresIn = scoreAccessToken.expires_in != null ? scoreAccessToken.expires_in * 1000L : 0;
+		if ( expiresIn > TOKEN_MARGIN_MS ) {
+			tokens.put(key, new CachedToken(scoreAccessToken.access_token, System.currentTimeMillis() + expiresIn - TOKEN_MARGIN_MS));
+		}
+		return scoreAccessToken.access_token;
+	}
+
+	private String getTokenKey(Passback passback) {
+		return passback.oidcTokenUrl + "|" + passback.clientId + "|" + passback.deploymentId;
+	}
+}
@@ -25,6 +25,9 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 import org.apache.commons.lang3.StringUtils;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -52,4 +55,19 @@ public class PlusServiceImplTests extends AbstractTransactionalJUnit4SpringConte
 		assertEquals(parts.length, 7);
 	}
 
+	@Test
+	public void testNextPageUrl() {
+		String next = "https://lms.example.com/sections/2923/memberships?p=3";
+		assertEquals(next, PlusServiceImpl.getNextPageUrl(Collections.singletonList("<"+next+">; rel=\"next\"")));
+		assertEquals(next, PlusServiceImpl.getNextPageUrl(Collections.singletonList(
+				"<https://lms.example.com/sections/2923/memberships?p=1>; rel=\"prev\", <"+next+">; rel=\"next\"")));
+		assertEquals(next, PlusServiceImpl.getNextPageUrl(Arrays.asList(
+				"<https://lms.example.com/sections/2923/memberships?since=1>; rel=\"differences\"", "<"+next+">; rel=next")));
+
+		// The last page has no next link
+		assertNull(PlusServiceImpl.getNextPageUrl(Collections.singletonList("<https://lms.example.com/sections/2923/memberships?since=1>; rel=\"differences\"")));
+		assertNull(PlusServiceImpl.getNextPageUrl(Collections.emptyList()));
+		assertNull(PlusServiceImpl.getNextPageUrl(null));
+	}
+
 }
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.plus.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import org.sakaiproject.basiclti.util.SakaiKeySetUtil;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.plus.api.model.Context;
+import org.sakaiproject.plus.api.model.ContextLog;
+import org.sakaiproject.plus.api.model.Subject;
+import org.sakaiproject.plus.api.repository.ContextLogRepository;
+import org.sakaiproject.plus.api.repository.ScoreRepository;
+
+import org.tsugi.ags2.objects.Score;
+import org.tsugi.jackson.JacksonUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Sends scores to a stand-in for the platform's token and AGS score endpoints
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class ScorePassbackQueueTests {
+
+	@Mock private ScoreRepository scoreRepository;
+	@Mock private ContextLogRepository contextLogRepository;
+	@Mock private ServerConfigurationService serverConfigurationService;
+	@InjectMocks private ScorePassbackQueue queue;
+
+	private HttpServer server;
+	private String baseUrl;
+	private final Map<String, Integer> config = new HashMap<>();
+	private final AtomicInteger tokenRequests = new AtomicInteger();
+	// The line item, score given and token of each score posted, in the order they arrived
+	private final List<String> scoresReceived = Collections.synchronizedList(new ArrayList<>());
+	// The status the score endpoint answers each post with, 200 once these run out
+	private final List<Integer> scoreStatuses = Collections.synchronizedList(new ArrayList<>());
+	private volatile CountDownLatch firstScoreReceived = new CountDownLatch(1);
+	private volatile CountDownLatch releaseFirstScore = new CountDownLatch(0);
+
+	@Before
+	public void setup() throws IOException {
+		SakaiKeySetUtil.mockIgnite();
+		SakaiKeySetUtil.testExpireDays = 30;
+
+		when(serverConfigurationService.getInt(anyString(), anyInt()))
+				.thenAnswer(i -> config.getOrDefault(i.getArgument(0), i.getArgument(1)));
+		when(scoreRepository.findById(anyString()))
+				.thenAnswer(i -> Optional.of(new org.sakaiproject.plus.api.model.Score()));
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/token", exchange -> {
+			drain(exchange);
+			String body = "{\"access_token\":\"token-" + tokenRequests.incrementAndGet() + "\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+			respond(exchange, 200, body);
+		});
+		server.createContext("/lineitems", exchange -> {
+			String body = drain(exchange);
+			String token = exchange.getRequestHeaders().getFirst("Authorization");
+			Score score = JacksonUtil.getLaxObjectMapper().readValue(body, Score.class);
+			scoresReceived.add(exchange.getRequestURI().getPath() + " " + score.scoreGiven + " " + token);
+			firstScoreReceived.countDown();
+			try {
+				releaseFirstScore.await(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			Integer status = scoreStatuses.isEmpty() ? 200 : scoreStatuses.remove(0);
+			respond(exchange, status, "{}");
+		});
+		server.start();
+		baseUrl = "http://localhost:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void tearDown() {
+		queue.destroy();
+		server.stop(0);
+	}
+
+	private String drain(HttpExchange exchange) throws IOException {
+		try (InputStream in = exchange.getRequestBody()) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+		exchange.close();
+	}
+
+	private ScorePassbackQueue.Passback passback(String lineItem, String subjectId, double scoreGiven) {
+		Subject subject = new Subject();
+		subject.setId(subjectId);
+		Score score = new Score();
+		score.userId = subjectId;
+		score.scoreGiven = scoreGiven;
+		score.scoreMaximum = 10.0;
+
+		ScorePassbackQueue.Passback passback = new ScorePassbackQueue.Passback();
+		passback.scoreId = lineItem + "-" + subjectId;
+		passback.tenantId = "tenant";
+		passback.oidcTokenUrl = baseUrl + "/token";
+		passback.clientId = "client";
+		passback.deploymentId = "deployment";
+		passback.scoreUrl = baseUrl + "/lineitems/" + lineItem + "/scores";
+		passback.score = score;
+		passback.context = new Context();
+		passback.subject = subject;
+		passback.action = "test";
+		return passback;
+	}
+
+	private void awaitScores(int count) throws InterruptedException {
+		long end = System.currentTimeMillis() + 10000;
+		while (scoresReceived.size() < count && System.currentTimeMillis() < end) {
+			Thread.sleep(20);
+		}
+		assertTrue("Expected " + count + " scores, got " + scoresReceived, scoresReceived.size() >= count);
+	}
+
+	private ContextLog lastContextLog() {
+		ArgumentCaptor<ContextLog> captor = ArgumentCaptor.forClass(ContextLog.class);
+		verify(contextLogRepository, timeout(10000)).save(captor.capture());
+		return captor.getValue();
+	}
+
+	@Test
+	public void testCoalescedAndSentInOrder() throws Exception {
+		config.put(ScorePassbackQueue.PLUS_PASSBACK_THREADS, 2);
+		config.put(ScorePassbackQueue.PLUS_PASSBACK_PLATFORM_CONCURRENCY, 1);
+		queue.init();
+
+		// the first score holds the platform's only permit until it is released
+		releaseFirstScore = new CountDownLatch(1);
+		queue.add(passback("first", "student", 1));
+		assertTrue(firstScoreReceived.await(10, TimeUnit.SECONDS));
+
+		// these wait for the permit, the second score for the same subject replaces the first one
+		queue.add(passback("second", "student", 2));
+		queue.add(passback("second", "student", 3));
+		queue.add(passback("third", "student", 4));
+		releaseFirstScore.countDown();
+
+		awaitScores(3);
+		Thread.sleep(200);
+		assertEquals(3, scoresReceived.size());
+		assertTrue(scoresReceived.get(0).startsWith("/lineitems/first/scores 1.0"));
+		assertTrue(scoresReceived.get(1).startsWith("/lineitems/second/scores 3.0"));
+		assertTrue(scoresReceived.get(2).startsWith("/lineitems/third/scores 4.0"));
+		// the token is reused for all of them
+		assertEquals(1, tokenRequests.get());
+	}
+
+	@Test
+	public void testUnauthorizedDropsToken() throws Exception {
+		config.put(ScorePassbackQueue.PLUS_PASSBACK_BACKOFF, 1);
+		queue.init();
+
+		scoreStatuses.add(401);
+		queue.add(passback("item", "student", 5));
+
+		awaitScores(2);
+		assertTrue(scoresReceived.get(0).endsWith("Bearer token-1"));
+		assertTrue(scoresReceived.get(1).endsWith("Bearer token-2"));
+		assertEquals(2, tokenRequests.get());
+		assertTrue(lastContextLog().getSuccess());
+	}
+
+	@Test
+	public void testServerErrorRetried() throws Exception {
+		config.put(ScorePassbackQueue.PLUS_PASSBACK_BACKOFF, 1);
+		queue.init();
+
+		scoreStatuses.add(503);
+		queue.add(passback("item", "student", 6));
+
+		awaitScores(2);
+		ContextLog cLog = lastContextLog();
+		assertTrue(cLog.getSuccess());
+		assertEquals(2, scoresReceived.size());
+		// the token was still good
+		assertEquals(1, tokenRequests.get());
+	}
+
+	@Test
+	public void testGivesUp() throws Exception {
+		config.put(ScorePassbackQueue.PLUS_PASSBACK_BACKOFF, 1);
+		config.put(ScorePassbackQueue.PLUS_PASSBACK_RETRIES, 1);
+		queue.init();
+
+		scoreStatuses.add(500);
+		scoreStatuses.add(500);
+		scoreStatuses.add(500);
+		queue.add(passback("item", "student", 7));
+
+		ContextLog cLog = lastContextLog();
+		assertFalse(cLog.getSuccess());
+		assertTrue(cLog.getStatus(), cLog.getStatus().startsWith("Gave up after 2 attempts"));
+		// the first try and the one retry
+		Thread.sleep(200);
+		assertEquals(2, scoresReceived.size());
+	}
+
+	@Test
+	public void testRejectedNotRetried() throws Exception {
+		queue.init();
+
+		scoreStatuses.add(400);
+		queue.add(passback("item", "student", 8));
+
+		ContextLog cLog = lastContextLog();
+		assertFalse(cLog.getSuccess());
+		assertTrue(cLog.getStatus(), cLog.getStatus().startsWith("Score rejected"));
+		assertEquals(1, scoresReceived.size());
+		verify(scoreRepository, timeout(10000)).save(any());
+	}
+}
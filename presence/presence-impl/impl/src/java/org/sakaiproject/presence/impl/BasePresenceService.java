@@ -21,13 +21,15 @@
 
 package org.sakaiproject.presence.impl;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Enumeration;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Observer;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import lombok.extern.slf4j.Slf4j;
 import org.w3c.dom.Element;
@@ -77,6 +79,40 @@ public abstract class BasePresenceService implements PresenceService
 	/** The maintenance. */
 	protected Maintenance m_maintenance = null;
 
+	/** The presence of the sessions on this server. */
+	protected PresenceRegistry m_registry = new PresenceRegistry();
+
+	/** The sessions present at a location as last read from storage, and when they are read again. */
+	protected static class CachedSessions
+	{
+		final List<UsageSession> sessions;
+
+		final long expireTime;
+
+		CachedSessions(List<UsageSession> sessions, long expireTime)
+		{
+			this.sessions = sessions;
+			this.expireTime = expireTime;
+		}
+	}
+
+	/**
+	 * The sessions present at each location, across the cluster. Cleared by the presence events from any server. Kept on this server only,
+	 * a UsageSession can't be serialized into a distributed cache.
+	 */
+	protected Map<String, CachedSessions> m_locationCache = new ConcurrentHashMap<>();
+
+	/** Clears the sessions cached for a location when someone arrives or leaves it. */
+	protected Observer m_presenceObserver = (o, arg) ->
+	{
+		if (!(arg instanceof Event)) return;
+		Event event = (Event) arg;
+		if (EVENT_PRESENCE.equals(event.getEvent()) || EVENT_ABSENCE.equals(event.getEvent()))
+		{
+			m_locationCache.remove(presenceId(event.getResource()));
+		}
+	};
+
 
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Constructors, Dependencies and their setter methods
@@ -154,6 +190,9 @@ public abstract class BasePresenceService implements PresenceService
 	/** Configuration: default value in seconds till a non-refreshed presence entry times out. */
 	protected int m_timeout = 60;
 
+	/** Configuration: seconds the sessions at a location are cached, in case a presence event from another server is missed. */
+	protected int m_cacheSeconds = 15;
+
 	private NotificationEdit notification;
 
 	private NotificationService notificationService;
@@ -175,6 +214,23 @@ public abstract class BasePresenceService implements PresenceService
 		}
 	}
 
+	/**
+	 * Configuration: SECONDS the sessions present at a location are cached.
+	 * 
+	 * @param value
+	 *        cache seconds.
+	 */
+	public void setCacheSeconds(String value)
+	{
+		try
+		{
+			m_cacheSeconds = Integer.parseInt(value);
+		}
+		catch (Exception ignore)
+		{
+		}
+	}
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Init and Destroy
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -189,6 +245,9 @@ public abstract class BasePresenceService implements PresenceService
 			// storage
 			m_storage = newStorage();
 
+			// not a local observer, people arriving at a location on another server have to clear it here too
+			m_eventTrackingService.addObserver(m_presenceObserver);
+
 			// start the maintenance thread
 			m_maintenance = new Maintenance();
 			m_maintenance.start();
@@ -243,6 +302,8 @@ public abstract class BasePresenceService implements PresenceService
 	 */
 	public void destroy()
 	{
+		if (m_eventTrackingService != null) m_eventTrackingService.deleteObserver(m_presenceObserver);
+		m_locationCache.clear();
 		m_storage = null;
 		log.info("destroy()");
 	}
@@ -288,14 +349,19 @@ public abstract class BasePresenceService implements PresenceService
 	{
 		if (locationId == null) return;
 
-		if (!checkPresence(locationId, true))
+		// presence relates a usage session (the current one) with a location
+		UsageSession curSession = m_usageSessionService.getSession();
+		if (curSession == null) return;
+
+		long expireTime = System.currentTimeMillis() + timeout * 1000L;
+		if (!m_registry.refresh(curSession.getId(), locationId, expireTime))
 		{
-			// presence relates a usage session (the current one) with a location
-			UsageSession curSession = m_usageSessionService.getSession();
-			if (curSession == null) return;
+			Session session = m_sessionManager.getCurrentSession();
+			m_registry.join(curSession.getId(), session.getId(), locationId, expireTime);
 
 			// update the storage
 			m_storage.setPresence(curSession.getId(), locationId);
+			m_locationCache.remove(locationId);
 
 			// generate the event
 			Event event = m_eventTrackingService.newEvent(EVENT_PRESENCE, presenceReference(locationId), true);
@@ -304,15 +370,11 @@ public abstract class BasePresenceService implements PresenceService
 			// create a presence for tracking
 
 			// bind a presence tracking object to the sakai session for auto-cleanup when logout or inactivity invalidates the sakai session
-			Session session = m_sessionManager.getCurrentSession();
 			ToolSession ts = session.getToolSession(SESSION_KEY);
-			Presence p = new Presence(curSession, locationId, timeout);
+			Presence p = new Presence(curSession, locationId);
 			ts.setAttribute(locationId, p);
 		}
 
-		// retire any expired presence
-		checkPresenceForExpiration();
-
 	} // setPresence
 
 	/**
@@ -322,12 +384,14 @@ public abstract class BasePresenceService implements PresenceService
 	{
 		if (locationId == null) return;
 
-		if (checkPresence(locationId, false))
-		{
-			UsageSession curSession = m_usageSessionService.getSession();
+		UsageSession curSession = m_usageSessionService.getSession();
+		if (curSession == null) return;
 
+		if (m_registry.leave(curSession.getId(), locationId) != null)
+		{
 			// tell maintenance
 			m_storage.removePresence(curSession.getId(), locationId);
+			m_locationCache.remove(locationId);
 
 			// generate the event
 			Event event = m_eventTrackingService.newEvent(EVENT_ABSENCE, presenceReference(locationId), true);
@@ -351,6 +415,7 @@ public abstract class BasePresenceService implements PresenceService
 	 */
 	public void removeSessionPresence(String sessionId)
 	{
+		m_registry.leaveAll(sessionId);
 		List<String> presence = m_storage.removeSessionPresence(sessionId); 
 		
 		// get the session
@@ -359,6 +424,7 @@ public abstract class BasePresenceService implements PresenceService
 		// send presence end events for these
 		for (String locationId  : presence)
 		{
+			m_locationCache.remove(locationId);
 			Event event = m_eventTrackingService.newEvent(PresenceService.EVENT_ABSENCE, 
 					presenceReference(locationId), true);
 			m_eventTrackingService.post(event, session);
@@ -374,7 +440,7 @@ public abstract class BasePresenceService implements PresenceService
 	public List<UsageSession> getPresence(String locationId)
 	{
 		// get the sessions at this location
-		List<UsageSession> sessions = m_storage.getSessions(locationId);
+		List<UsageSession> sessions = getSessions(locationId);
 
 		// sort
 		Collections.sort(sessions);
@@ -390,7 +456,7 @@ public abstract class BasePresenceService implements PresenceService
 	public List<User> getPresentUsers(String locationId)
 	{
 		// get the sessions
-		List<UsageSession> sessions = m_storage.getSessions(locationId);
+		List<UsageSession> sessions = getSessions(locationId);
 
 		// form a list of user ids
 		List<String> userIds = new Vector<String>();
@@ -419,7 +485,7 @@ public abstract class BasePresenceService implements PresenceService
 	public List<User> getPresentUsers(String locationId, String siteId)
 	{
 		// get the sessions
-		List<UsageSession> sessions = m_storage.getSessions(locationId);
+		List<UsageSession> sessions = getSessions(locationId);
 
 		// form a list of user ids
 		List<String> userIds = new Vector<String>();
@@ -482,6 +548,25 @@ public abstract class BasePresenceService implements PresenceService
 		return m_timeout;
 	}
 
+	/**
+	 * Access the sessions present at a location, across the cluster.
+	 * 
+	 * @param locationId
+	 *        The location.
+	 * @return A List of the sessions, which the caller can change.
+	 */
+	protected List<UsageSession> getSessions(String locationId)
+	{
+		long now = System.currentTimeMillis();
+		CachedSessions cached = m_locationCache.get(locationId);
+		if (cached == null || cached.expireTime <= now)
+		{
+			cached = new CachedSessions(m_storage.getSessions(locationId), now + m_cacheSeconds * 1000L);
+			m_locationCache.put(locationId, cached);
+		}
+		return new ArrayList<>(cached.sessions);
+	}
+
 	/**
 	 * Check if the current session is present at the location - optionally refreshing it
 	 * 
@@ -493,68 +578,42 @@ public abstract class BasePresenceService implements PresenceService
 	 */
 	protected boolean checkPresence(String locationId, boolean refresh)
 	{
-		Session session = m_sessionManager.getCurrentSession();
-		ToolSession ts = session.getToolSession(SESSION_KEY);
-		Presence p = (Presence) ts.getAttribute(locationId);
+		UsageSession curSession = m_usageSessionService.getSession();
+		if (curSession == null) return false;
 
-		if ((p != null) && refresh)
+		if (refresh)
 		{
-			p.setActive();
+			return m_registry.refresh(curSession.getId(), locationId, System.currentTimeMillis() + m_timeout * 1000L);
 		}
-
-		return (p != null);
+		return m_registry.isPresent(curSession.getId(), locationId);
 	}
 
 	/**
-	 * Check current session presences and remove any expired ones
+	 * Remove the presences on this server that have expired. Only the presences that are due are looked at.
 	 */
-	@SuppressWarnings("unchecked")
-	protected void checkPresenceForExpiration()
+	protected void checkAllPresenceForExpiration()
 	{
-		Session session = m_sessionManager.getCurrentSession();
-		ToolSession ts = session.getToolSession(SESSION_KEY);
-		Enumeration locations = ts.getAttributeNames();
-		while (locations.hasMoreElements())
+		long now = System.currentTimeMillis();
+		m_locationCache.values().removeIf(cached -> cached.expireTime <= now);
+
+		for (PresenceRegistry.Entry entry : m_registry.expire(now))
 		{
-			String location = (String) locations.nextElement();
+			if (log.isDebugEnabled()) log.debug("expiring presence of session " + entry.sessionId + " in location " + entry.locationId);
 
-			Presence p = (Presence) ts.getAttribute(location);
-			if (p != null && p.isExpired())
+			Session session = m_sessionManager.getSession(entry.sakaiSessionId);
+			if (session != null)
 			{
-				ts.removeAttribute(location);
+				// the presence is told it is unbound, which removes it from storage
+				session.getToolSession(SESSION_KEY).removeAttribute(entry.locationId);
 			}
-		}
-	}
-
-	/**
-	 * Check all session presences and remove any expired ones
-	 */
-	@SuppressWarnings("unchecked")
-	protected void checkAllPresenceForExpiration()
-	{
-		List<Session> sessions = m_sessionManager.getSessions();
-		
-		for (Iterator<Session> i = sessions.iterator(); i.hasNext();)
-		{
-			Session session = (Session) i.next();
-			ToolSession ts = session.getToolSession(SESSION_KEY);
-			Enumeration locations = ts.getAttributeNames();
-			while (locations.hasMoreElements())
+			else
 			{
-				String location = (String) locations.nextElement();
-
-				Presence p = (Presence) ts.getAttribute(location);
-
-				if (log.isDebugEnabled()) log.debug("checking expiry of session " + session.getId() + " in location " + location);
-				
-				if (p != null && p.isExpired())
-				{
-					ts.removeAttribute(location);
-				}
+				m_storage.removePresence(entry.sessionId, entry.locationId);
+				m_locationCache.remove(entry.locationId);
+				Event event = m_eventTrackingService.newEvent(EVENT_ABSENCE, presenceReference(entry.locationId), true);
+				m_eventTrackingService.post(event, m_usageSessionService.getSession(entry.sessionId));
 			}
-		
 		}
-
 	}
 
 		
@@ -626,18 +685,11 @@ public abstract class BasePresenceService implements PresenceService
 		/** If true, process the unbound. */
 		protected boolean m_active = true;
 
-		/** Time in seconds before expiry. */
-		protected long m_presence_timeout = 0;
-
-		/** Timestamp in milliseconds to expire. */
-		protected long m_expireTime = 0;
-
-		public Presence(UsageSession session, String locationId, int timeout)
+		// when it expires is kept in the registry
+		public Presence(UsageSession session, String locationId)
 		{
 			m_session = session;
 			m_locationId = locationId;
-			m_presence_timeout = timeout;
-			m_expireTime = System.currentTimeMillis() + m_presence_timeout * 1000;
 		}
 
 		public void deactivate()
@@ -645,24 +697,6 @@ public abstract class BasePresenceService implements PresenceService
 			m_active = false;
 		}
 
-		/**
-		 * Reset the timeout based on current activity
-		 */
-		public void setActive()
-		{
-			m_expireTime = System.currentTimeMillis() + m_presence_timeout * 1000;
-		}
-
-		/**
-		 * Has this presence timed out?
-		 * 
-		 * @return true if expired, false if not.
-		 */
-		public boolean isExpired()
-		{
-			return System.currentTimeMillis() > m_expireTime;
-		}
-
 		/**
 		 * {@inheritDoc}
 		 */
@@ -677,7 +711,9 @@ public abstract class BasePresenceService implements PresenceService
 		{
 			if (m_active)
 			{
+				m_registry.leave(m_session.getId(), m_locationId);
 				m_storage.removePresence(m_session.getId(), m_locationId);
+				m_locationCache.remove(m_locationId);
 
 				// generate the event
 				Event event = m_eventTrackingService.newEvent(EVENT_ABSENCE, presenceReference(m_locationId), true);
@@ -0,0 +1,189 @@
+/**********************************************************************************
+ *
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.presence.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * The presence of the sessions on this server, indexed by session and by location, with a queue of the presences ordered by when they
+ * expire. Joining, leaving and refreshing don't look at any other presence, expiring only looks at the presences that are due.
+ * </p>
+ * <p>
+ * Refreshing a presence only moves its expiry time, the queue isn't touched. When the queued time comes round the presence goes back in
+ * the queue at its new time if it has been refreshed meanwhile, or is expired if not. Presences that have left are dropped from the queue
+ * when their time comes round.
+ * </p>
+ */
+class PresenceRegistry
+{
+	/** A session present at a location. */
+	static class Entry
+	{
+		/** The usage session id. */
+		final String sessionId;
+
+		/** The sakai session id, its tool session holds the presence for clean up when the session ends. */
+		final String sakaiSessionId;
+
+		final String locationId;
+
+		/** When the presence expires, in milliseconds. */
+		volatile long expireTime;
+
+		/** When the presence is next due in the queue. */
+		long queuedTime;
+
+		Entry(String sessionId, String sakaiSessionId, String locationId, long expireTime)
+		{
+			this.sessionId = sessionId;
+			this.sakaiSessionId = sakaiSessionId;
+			this.locationId = locationId;
+			this.expireTime = expireTime;
+		}
+	}
+
+	/** session id -> location id -> presence */
+	private final Map<String, Map<String, Entry>> bySession = new ConcurrentHashMap<>();
+
+	/** location id -> session id -> presence */
+	private final Map<String, Map<String, Entry>> byLocation = new ConcurrentHashMap<>();
+
+	private final PriorityQueue<Entry> expiryQueue = new PriorityQueue<>((a, b) -> Long.compare(a.queuedTime, b.queuedTime));
+
+	/**
+	 * Add a session's presence at a location, or refresh it if it is already there.
+	 *
+	 * @return true if the session wasn't present at the location
+	 */
+	synchronized boolean join(String sessionId, String sakaiSessionId, String locationId, long expireTime)
+	{
+		Entry entry = get(sessionId, locationId);
+		if (entry != null)
+		{
+			entry.expireTime = expireTime;
+			return false;
+		}
+
+		entry = new Entry(sessionId, sakaiSessionId, locationId, expireTime);
+		bySession.computeIfAbsent(sessionId, k -> new ConcurrentHashMap<>()).put(locationId, entry);
+		byLocation.computeIfAbsent(locationId, k -> new ConcurrentHashMap<>()).put(sessionId, entry);
+		entry.queuedTime = expireTime;
+		expiryQueue.add(entry);
+		return true;
+	}
+
+	/**
+	 * Refresh a session's presence at a location.
+	 *
+	 * @return true if the session is present at the location
+	 */
+	boolean refresh(String sessionId, String locationId, long expireTime)
+	{
+		Entry entry = get(sessionId, locationId);
+		if (entry == null) return false;
+
+		entry.expireTime = expireTime;
+		return true;
+	}
+
+	boolean isPresent(String sessionId, String locationId)
+	{
+		return get(sessionId, locationId) != null;
+	}
+
+	/**
+	 * Remove a session's presence at a location.
+	 *
+	 * @return the presence, or null if the session wasn't present at the location
+	 */
+	synchronized Entry leave(String sessionId, String locationId)
+	{
+		Map<String, Entry> locations = bySession.get(sessionId);
+		Entry entry = (locations != null) ? locations.remove(locationId) : null;
+		if (entry == null) return null;
+
+		if (locations.isEmpty()) bySession.remove(sessionId);
+		Map<String, Entry> sessions = byLocation.get(locationId);
+		if (sessions != null)
+		{
+			sessions.remove(sessionId);
+			if (sessions.isEmpty()) byLocation.remove(locationId);
+		}
+		return entry;
+	}
+
+	/**
+	 * Remove all of a session's presence.
+	 *
+	 * @return the locations the session was present at
+	 */
+	synchronized List<String> leaveAll(String sessionId)
+	{
+		Map<String, Entry> locations = bySession.get(sessionId);
+		if (locations == null) return Collections.emptyList();
+
+		List<String> locationIds = new ArrayList<>(locations.keySet());
+		for (String locationId : locationIds)
+		{
+			leave(sessionId, locationId);
+		}
+		return locationIds;
+	}
+
+	/**
+	 * Remove the presences that have expired.
+	 *
+	 * @return the presences removed
+	 */
+	synchronized List<Entry> expire(long now)
+	{
+		List<Entry> expired = new ArrayList<>();
+		while (!expiryQueue.isEmpty() && expiryQueue.peek().queuedTime <= now)
+		{
+			Entry entry = expiryQueue.poll();
+			if (get(entry.sessionId, entry.locationId) != entry)
+			{
+				// left already
+				continue;
+			}
+			if (entry.expireTime > now)
+			{
+				// refreshed since it was queued
+				entry.queuedTime = entry.expireTime;
+				expiryQueue.add(entry);
+				continue;
+			}
+			leave(entry.sessionId, entry.locationId);
+			expired.add(entry);
+		}
+		return expired;
+	}
+
+	private Entry get(String sessionId, String locationId)
+	{
+		Map<String, Entry> locations = bySession.get(sessionId);
+		return (locations != null) ? locations.get(locationId) : null;
+	}
+}
@@ -0,0 +1,130 @@
+/**********************************************************************************
+ *
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.presence.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>
+ * Joining, refreshing, leaving and expiring the presences of the sessions on a server.
+ * </p>
+ */
+public class PresenceRegistryTest
+{
+	private PresenceRegistry registry;
+
+	@Before
+	public void setUp()
+	{
+		registry = new PresenceRegistry();
+	}
+
+	@Test
+	public void testJoin()
+	{
+		assertTrue(registry.join("s1", "sakai1", "site-a", 1000));
+		assertTrue(registry.isPresent("s1", "site-a"));
+		assertFalse(registry.isPresent("s1", "site-b"));
+		assertFalse(registry.isPresent("s2", "site-a"));
+
+		// joining again only refreshes
+		assertFalse(registry.join("s1", "sakai1", "site-a", 2000));
+		assertTrue(registry.expire(1500).isEmpty());
+		assertTrue(registry.isPresent("s1", "site-a"));
+	}
+
+	@Test
+	public void testRefreshPastTheOldExpiry()
+	{
+		registry.join("s1", "sakai1", "site-a", 1000);
+		assertTrue(registry.refresh("s1", "site-a", 3000));
+		assertFalse(registry.refresh("s1", "site-b", 3000));
+
+		// the old expiry time comes round and the presence is queued again at its new time
+		assertTrue(registry.expire(1000).isEmpty());
+		assertTrue(registry.isPresent("s1", "site-a"));
+		assertTrue(registry.expire(2999).isEmpty());
+
+		List<PresenceRegistry.Entry> expired = registry.expire(3000);
+		assertEquals(1, expired.size());
+		assertEquals("s1", expired.get(0).sessionId);
+		assertEquals("sakai1", expired.get(0).sakaiSessionId);
+		assertFalse(registry.isPresent("s1", "site-a"));
+	}
+
+	@Test
+	public void testLeave()
+	{
+		registry.join("s1", "sakai1", "site-a", 1000);
+		registry.join("s1", "sakai1", "site-b", 1000);
+		registry.join("s2", "sakai2", "site-a", 1000);
+
+		PresenceRegistry.Entry entry = registry.leave("s1", "site-a");
+		assertNotNull(entry);
+		assertEquals("site-a", entry.locationId);
+		assertNull(registry.leave("s1", "site-a"));
+		assertFalse(registry.isPresent("s1", "site-a"));
+		assertTrue(registry.isPresent("s1", "site-b"));
+		assertTrue(registry.isPresent("s2", "site-a"));
+
+		assertEquals(Arrays.asList("site-b"), registry.leaveAll("s1"));
+		assertTrue(registry.leaveAll("s1").isEmpty());
+		assertFalse(registry.isPresent("s1", "site-b"));
+
+		// the presences that left are dropped from the queue, not expired
+		List<PresenceRegistry.Entry> expired = registry.expire(1000);
+		assertEquals(1, expired.size());
+		assertEquals("s2", expired.get(0).sessionId);
+	}
+
+	@Test
+	public void testExpireOnlyWhatIsDue()
+	{
+		registry.join("s1", "sakai1", "site-a", 1000);
+		registry.join("s2", "sakai2", "site-a", 2000);
+		registry.join("s3", "sakai3", "site-b", 3000);
+
+		assertTrue(registry.expire(999).isEmpty());
+
+		List<PresenceRegistry.Entry> expired = registry.expire(2000);
+		assertEquals(2, expired.size());
+		assertEquals(new HashSet<>(Arrays.asList("s1", "s2")), new HashSet<>(Arrays.asList(expired.get(0).sessionId, expired.get(1).sessionId)));
+		assertFalse(registry.isPresent("s1", "site-a"));
+		assertFalse(registry.isPresent("s2", "site-a"));
+		assertTrue(registry.isPresent("s3", "site-b"));
+
+		// a session that rejoins after expiring is a new presence
+		assertTrue(registry.join("s1", "sakai1", "site-a", 5000));
+		expired = registry.expire(5000);
+		assertEquals(2, expired.size());
+		assertEquals("s3", expired.get(0).sessionId);
+		assertEquals("s1", expired.get(1).sessionId);
+	}
+}
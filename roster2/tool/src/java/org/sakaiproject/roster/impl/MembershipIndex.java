@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2010-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.roster.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sakaiproject.roster.api.RosterMember;
+
+/**
+ * The members of a site, or of an enrollment set, sorted once and held in a single array. Each role, group
+ * and enrollment status is a bitmap over the positions in that array, so a selection on any of them is an
+ * intersection of bitmaps rather than another copy of the members.
+ *
+ * IT IS THE CALLER'S RESPONSIBILITY TO FILTER ON AUTHZ RULES.
+ */
+class MembershipIndex {
+
+    private final RosterMember[] members;
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final Map<String, BitSet> roles = new HashMap<>();
+    private final Map<String, BitSet> groups = new HashMap<>();
+    private final Map<String, BitSet> statuses = new HashMap<>();
+
+    MembershipIndex(List<RosterMember> members, Comparator<RosterMember> comparator) {
+
+        this.members = members.toArray(new RosterMember[0]);
+        Arrays.sort(this.members, comparator);
+
+        for (int i = 0; i < this.members.length; i++) {
+            RosterMember member = this.members[i];
+            positions.put(member.getUserId(), i);
+            set(roles, member.getRole(), i);
+            for (String groupId : member.getGroups().keySet()) {
+                set(groups, groupId, i);
+            }
+            set(statuses, member.getEnrollmentStatusId(), i);
+        }
+    }
+
+    private static void set(Map<String, BitSet> index, String key, int position) {
+
+        if (key != null) {
+            index.computeIfAbsent(key, k -> new BitSet()).set(position);
+        }
+    }
+
+    /**
+     * @return the member with the supplied user id, or null if there is no such member
+     */
+    RosterMember get(String userId) {
+
+        Integer position = positions.get(userId);
+        return position == null ? null : members[position];
+    }
+
+    /**
+     * Selects the members in the supplied group, with the supplied role and enrollment status, in sort order. A
+     * null criterion matches every member, an unknown one matches none.
+     */
+    List<RosterMember> select(String groupId, String roleId, String enrollmentStatusId) {
+
+        if (groupId == null && roleId == null && enrollmentStatusId == null) {
+            return Collections.unmodifiableList(Arrays.asList(members));
+        }
+
+        BitSet selected = new BitSet(members.length);
+        selected.set(0, members.length);
+        intersect(selected, groups, groupId);
+        intersect(selected, roles, roleId);
+        intersect(selected, statuses, enrollmentStatusId);
+
+        List<RosterMember> rv = new ArrayList<>(selected.cardinality());
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            rv.add(members[i]);
+        }
+        return rv;
+    }
+
+    private static void intersect(BitSet selected, Map<String, BitSet> index, String key) {
+
+        if (key != null) {
+            BitSet bits = index.get(key);
+            if (bits != null) {
+                selected.and(bits);
+            } else {
+                selected.clear();
+            }
+        }
+    }
+
+    int size() {
+        return members.length;
+    }
+}
@@ -37,6 +37,7 @@ package org.sakaiproject.roster.impl;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -52,6 +53,7 @@ import java.util.Observable;
 import java.util.Observer;
 import java.util.Optional;
 import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -59,7 +61,7 @@ import java.util.stream.Stream;
 import javax.annotation.Resource;
 
 
-import org.apache.commons.collections4.MapUtils;
+import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.StopWatch;
@@ -167,6 +169,8 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
 
     private static final String SAK_PROP_SHOW_PERMS_TO_MAINTAINERS = "roster.showPermsToMaintainers";
     private static final boolean SAK_PROP_SHOW_PERMS_TO_MAINTAINERS_DEFAULT = true;
+    /** Finds the site of a site or group realm reference, /realm//site/SITE_ID[/group/GROUP_ID] */
+    private static final Pattern REALM_SITE_PATTERN = Pattern.compile("/site/([^/]+)");
     private Pattern userPropsRegex;
 	
 	public void init() {
@@ -434,38 +438,31 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
 		}
 
         if (enrollmentSetId != null) {
-            // Get the cache
-            Map<String, List<RosterMember>> membersMap = getAndCacheSortedEnrollmentSet(site, enrollmentSetId);
+            MembershipIndex index = getAndCacheEnrollmentSetIndex(site, enrollmentSetId);
 
-            if (membersMap != null) {
-                List<RosterMember> members = membersMap.get(enrollmentSetId + "#all");
-
-                members = filterMembers(site, getCurrentUserId(), members, groupId);
-
-                if (members != null) {
-                    for (RosterMember member : members) {
-                        if (member.getUserId().equals(userId)) {
-                            return member;
-                        }
-                    }
-                }
-            } else {
+            if (index == null) {
                 log.error("Caching of enrollment set for site '" + siteId + "' and enrollmentset '" + enrollmentSetId + "' failed. Returning null ...");
+                return null;
             }
 
-            return null;
+            return filterMember(site, index.get(userId), groupId);
         } else {
-            // Get the unfiltered memberships
-            List<RosterMember> members = getAndCacheSortedMembership(site, groupId, null);
-            members = filterMembers(site, getCurrentUserId(), members, groupId);
-            for (RosterMember member : members) {
-                if (member.getUserId().equals(userId)) {
-                    return member;
-                }
-            }
+            MembershipIndex index = getAndCacheMembershipIndex(site);
+            return index == null ? null : filterMember(site, index.get(userId), groupId);
+        }
+    }
 
+    /**
+     * Filters a single member on authz rules, rather than the whole membership they were found in.
+     */
+    private RosterMember filterMember(Site site, RosterMember member, String groupId) {
+
+        if (member == null) {
             return null;
         }
+
+        List<RosterMember> members = filterMembers(site, getCurrentUserId(), Collections.singletonList(member), groupId);
+        return CollectionUtils.isEmpty(members) ? null : members.get(0);
     }
 
 	public List<User> getSiteUsers(String siteId) {
@@ -498,9 +495,11 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
         if (site.isType("course") && enrollmentSetId != null) {
             return getEnrollmentMembership(site, enrollmentSetId, enrollmentStatus, currentUserId);
         } else {
-            List<RosterMember> rosterMembers = getAndCacheSortedMembership(site, groupId, roleId);
-            rosterMembers = filterMembers(site, currentUserId, rosterMembers, groupId);
-            return rosterMembers;
+            MembershipIndex index = getAndCacheMembershipIndex(site);
+            if (index == null) {
+                return null;
+            }
+            return filterMembers(site, currentUserId, index.select(groupId, roleId, null), groupId);
         }
 	}
 		
@@ -852,16 +851,10 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
 			return null;
 		}
 
-        Map<String, List<RosterMember>> membersMap = getAndCacheSortedEnrollmentSet(site, enrollmentSetId);
-
-        String key = (enrollmentStatusId == null) ? enrollmentSetId + "#all" : enrollmentSetId + "#" + enrollmentStatusId;
-
-        log.debug("Trying to get members list {} from membersMap ...", key);
+        MembershipIndex index = getAndCacheEnrollmentSetIndex(site, enrollmentSetId);
 
-        List<RosterMember> members = membersMap.get(key);
-
-        if (members != null) {
-            return filterMembers(site, currentUserId, members, null);
+        if (index != null) {
+            return filterMembers(site, currentUserId, index.select(null, null, enrollmentStatusId), null);
         } else {
             log.error("No enrollment set");
             return null;
@@ -869,33 +862,21 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
 	}
 
     /**
-     *  Tries to retrieve the sorted list of members for the supplied site and
-     *  group. If there is no entry, the entire site and group membership is
-     *  cached and the requested list is returned. IT IS THE CALLER'S
-     *  RESPONSIBILITY TO FILTER ON AUTHZ RULES.
+     *  Tries to retrieve the membership index of the supplied site. If there is
+     *  no entry, the entire site membership is sorted and indexed by role and
+     *  group in a single entry. IT IS THE CALLER'S RESPONSIBILITY TO FILTER ON
+     *  AUTHZ RULES.
      */
-    private List<RosterMember> getAndCacheSortedMembership(Site site, String groupId, String roleId) {
+    private MembershipIndex getAndCacheMembershipIndex(Site site) {
 
         String siteId = site.getId();
 
         Cache cache = getCache(MEMBERSHIPS_CACHE);
 
-        String key = siteId;
-
-        if (groupId != null) {
-            key += "#" + groupId;
-        }
-
-        if(roleId != null) {
-            key += "#" + roleId;
-        }
-
-        log.debug("Key: {}", key);
+        MembershipIndex index = (MembershipIndex) cache.get(siteId);
 
-        List<RosterMember> siteMembers = (List<RosterMember>) cache.get(key);
-
-        if (siteMembers == null) {
-            log.debug("Cache miss on '{}'.", key);
+        if (index == null) {
+            log.debug("Cache miss on '{}'.", siteId);
 
             Set<Member> membership = site.getMembers();
 
@@ -911,130 +892,93 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
                 pronunceMap = getPronunciationMap(userMap);
             }
 
-            siteMembers = new ArrayList<>();
+            List<RosterMember> siteMembers = new ArrayList<>();
 
             Collection<Group> groups = site.getGroups();
-            Set<Role> roles = site.getRoles();
-
-            Map<String, List<RosterMember>> cacheMembersMap = new HashMap<>();
-
-            for (Role role : roles) {
-                cacheMembersMap.put(siteId + "#" + role.getId(), new ArrayList<>());
-                groups.forEach(group -> cacheMembersMap.put(siteId + "#" + group.getId() + "#" + role.getId(), new ArrayList<>()));
-            }
-            groups.forEach(group -> cacheMembersMap.put(siteId + "#" + group.getId(), new ArrayList<>()));
 
 			for (Member member : membership) {
 
 				try {
-					RosterMember rosterMember = getRosterMember(userMap, groups, member, site, pronunceMap);
-
-					siteMembers.add(rosterMember);
-					String memberRoleId = rosterMember.getRole();
-
-					for (String memberGroupId : rosterMember.getGroups().keySet()) {
-						cacheMembersMap.get(siteId + "#" + memberGroupId).add(rosterMember);
-						cacheMembersMap.get(siteId + "#" + memberGroupId + "#" + memberRoleId).add(rosterMember);
-					}
-					cacheMembersMap.get(siteId + "#" + memberRoleId).add(rosterMember);
+					siteMembers.add(getRosterMember(userMap, groups, member, site, pronunceMap));
 				} catch (UserNotDefinedException e) {
 					log.warn("user not found: " + e.getId());
 				}
 			}
 
-			cacheMembersMap.put(siteId, siteMembers);
-			log.debug("Caching on '{}' ...", siteId);
-
-			cacheMembersMap.values().forEach(a -> Collections.sort(a, memberComparator));
-			cache.putAll(cacheMembersMap);
-			return (List<RosterMember>) cache.get(key);
+			index = new MembershipIndex(siteMembers, memberComparator);
+			log.debug("Caching {} members on '{}' ...", index.size(), siteId);
+			cache.put(siteId, index);
+			return index;
         }
-		log.debug("Cache hit on '{}'.", key);
-		return siteMembers;
+		log.debug("Cache hit on '{}'.", siteId);
+		return index;
     }
 
     /**
-     *  Tries to retrieve the members map for the supplied site. If there is no
-     *  map yet for the site, it is created. If the members map doesn't contain
-     *  the three lists for the specified enrollment set, #all, #wait, and
-     *  #enrolled, the entire enrollment set is retrieved and cached into those
-     *  three sections, pre-sorted. Finally, the entire site's members map is
-     *  returned and the caller can pull the bits they want. IT IS THE CALLER'S
-     *  RESPONSIBILITY TO FILTER ON AUTHZ RULES.
+     *  Tries to retrieve the membership index of the supplied enrollment set.
+     *  The enrollment sets of a site are cached together, each one sorted and
+     *  indexed by enrollment status when it is first asked for. IT IS THE
+     *  CALLER'S RESPONSIBILITY TO FILTER ON AUTHZ RULES.
      */
-    private Map<String, List<RosterMember>> getAndCacheSortedEnrollmentSet(Site site, String enrollmentSetId) {
+    private MembershipIndex getAndCacheEnrollmentSetIndex(Site site, String enrollmentSetId) {
 
         String siteId = site.getId();
 
         Cache cache = getCache(ENROLLMENTS_CACHE);
 
         log.debug("Trying to get '{}' from enrollments cache ...", siteId);
-        Map<String, List<RosterMember>> membersMap = (Map<String, List<RosterMember>>) cache.get(siteId);
+        Map<String, MembershipIndex> indexes = (Map<String, MembershipIndex>) cache.get(siteId);
 
-        if (membersMap == null) {
-            log.debug("Cache miss. Putting empty membersMap on {} ...", siteId);
-            membersMap = new HashMap<>();
-            cache.put(siteId, membersMap);
+        if (indexes == null) {
+            log.debug("Cache miss. Putting empty indexes map on {} ...", siteId);
+            indexes = new ConcurrentHashMap<>();
+            cache.put(siteId, indexes);
         }
 
-        if (membersMap.containsKey(enrollmentSetId + "#all")
-                && membersMap.containsKey(enrollmentSetId + "#wait")
-                && membersMap.containsKey(enrollmentSetId + "#enrolled")) {
+        MembershipIndex index = indexes.get(enrollmentSetId);
+        if (index != null) {
             log.debug("Cache hit on '{}'", enrollmentSetId);
-            return membersMap;
-        } else {
-            log.debug("Cache miss on '{}'", enrollmentSetId);
-
-            EnrollmentSet enrollmentSet = null;
-            try {
-                enrollmentSet = courseManagementService.getEnrollmentSet(enrollmentSetId);
-            } catch (IdNotFoundException idNotFoundException){
-                // This is okay, let this go, as we're not expecting
-                // the site necessarily to be part of coursemanagement.
-            }
+            return index;
+        }
 
-            if (null == enrollmentSet) {
-                return null;
-            }
+        log.debug("Cache miss on '{}'", enrollmentSetId);
 
-		    Map<String, RosterMember> membership = getMembershipMapped(site, null);
+        EnrollmentSet enrollmentSet = null;
+        try {
+            enrollmentSet = courseManagementService.getEnrollmentSet(enrollmentSetId);
+        } catch (IdNotFoundException idNotFoundException){
+            // This is okay, let this go, as we're not expecting
+            // the site necessarily to be part of coursemanagement.
+        }
 
-            List<RosterMember> members = new ArrayList<>();
-            List<RosterMember> waiting = new ArrayList<>();
-            List<RosterMember> enrolled = new ArrayList<>();
+        if (null == enrollmentSet) {
+            return null;
+        }
 
-            Map<String, String> statusCodes
-                = courseManagementService.getEnrollmentStatusDescriptions(null);
+        Map<String, RosterMember> membership = getMembershipMapped(site, null);
 
-            for (Enrollment enrollment : courseManagementService.getEnrollments(enrollmentSet.getEid())) {
-                RosterMember member = membership.get(enrollment.getUserId());
-                member.setCredits(enrollment.getCredits());
-                String enrollmentStatusId = enrollment.getEnrollmentStatus();
-                member.setEnrollmentStatusId(enrollmentStatusId);
-                member.setEnrollmentStatusText(statusCodes.get(enrollmentStatusId));
+        List<RosterMember> members = new ArrayList<>();
 
-                if (enrollmentStatusId.equals("wait")) {
-                    waiting.add(member);
-                } else if (enrollmentStatusId.equals("enrolled")) {
-                    enrolled.add(member);
-                }
+        Map<String, String> statusCodes
+            = courseManagementService.getEnrollmentStatusDescriptions(null);
 
-                members.add(member);
+        for (Enrollment enrollment : courseManagementService.getEnrollments(enrollmentSet.getEid())) {
+            RosterMember member = membership.get(enrollment.getUserId());
+            if (member == null) {
+                log.debug("Enrolled user {} is not a member of site {}", enrollment.getUserId(), siteId);
+                continue;
             }
-
-            Collections.sort(members, memberComparator);
-            Collections.sort(waiting, memberComparator);
-            Collections.sort(enrolled, memberComparator);
-
-            log.debug("Caching all enrollment set members on '{}#all' ...", enrollmentSetId);
-            membersMap.put(enrollmentSetId + "#all", members);
-            log.debug("Caching watlisted members on '{}#wait' ...", enrollmentSetId);
-            membersMap.put(enrollmentSetId + "#wait", waiting);
-            log.debug("Caching enrolled members on '{}#enrolled' ...", enrollmentSetId);
-            membersMap.put(enrollmentSetId + "#enrolled", enrolled);
-
-            return membersMap;
+            member.setCredits(enrollment.getCredits());
+            String enrollmentStatusId = enrollment.getEnrollmentStatus();
+            member.setEnrollmentStatusId(enrollmentStatusId);
+            member.setEnrollmentStatusText(statusCodes.get(enrollmentStatusId));
+            members.add(member);
         }
+
+        index = new MembershipIndex(members, memberComparator);
+        log.debug("Caching {} enrollment set members on '{}' ...", index.size(), enrollmentSetId);
+        indexes.put(enrollmentSetId, index);
+        return index;
     }
 	
 	/**
@@ -1287,23 +1231,10 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
     public Map<String, String> getSearchIndex(String siteId, String userId, String groupId, String roleId, String enrollmentSetId, String enrollmentStatus) {
 
         try {
-            // Try and load the sorted memberships from the cache
-            Cache cache = memoryService.getCache(SEARCH_INDEX_CACHE);
-
-            if (cache == null) {
-                cache = memoryService.createCache(SEARCH_INDEX_CACHE, new SimpleConfiguration(0));
-            }
-
-            Map<String, String> index = (Map<String, String>) cache.get(siteId+groupId);
-
-            if (MapUtils.isEmpty(index)) {
-                final List<RosterMember> membership = getMembership(userId, siteId, groupId, roleId, enrollmentSetId, enrollmentStatus);
-                index = Optional.ofNullable(membership).map(Collection::stream).orElseGet(Stream::empty)
-                        .collect(Collectors.toMap(RosterMember::getUserId, RosterMember::getDisplayName));
-                cache.put(siteId+groupId, index);
-            }
-		
-		    return index;
+            // The membership comes from the cached index, so there is nothing worth caching here
+            final List<RosterMember> membership = getMembership(userId, siteId, groupId, roleId, enrollmentSetId, enrollmentStatus);
+            return Optional.ofNullable(membership).map(Collection::stream).orElseGet(Stream::empty)
+                    .collect(Collectors.toMap(RosterMember::getUserId, RosterMember::getDisplayName));
         } catch (Exception e) {
             log.error("Exception whilst retrieving search index for site '" + siteId + "'. Returning null ...", e);
             return null;
@@ -1376,38 +1307,32 @@ public class SakaiProxyImpl implements SakaiProxy, Observer {
 
             if (SiteService.SECURE_UPDATE_SITE_MEMBERSHIP.equals(eventName)
                     || SiteService.SECURE_UPDATE_GROUP_MEMBERSHIP.equals(eventName)
+                    || AuthzGroupService.SECURE_UPDATE_AUTHZ_GROUP.equals(eventName)
                     || AuthzGroupService.SECURE_REMOVE_AUTHZ_GROUP.equals(eventName)) {
-                log.debug("Site membership or groups updated. Clearing caches ...");
-                String siteId = event.getContext();
+                // The realm changed may be the site's or one of its groups', either way it is the site's index
+                String siteId = getRealmSiteId(event);
+                log.debug("Realm {} updated. Clearing caches of site {} ...", event.getResource(), siteId);
                 this.removeSiteRosterCache(siteId);
             }
         }
     }
 
+    /**
+     * @return the id of the site whose realm, or whose group's realm, an event is about
+     */
+    private String getRealmSiteId(Event event) {
+
+        Matcher matcher = REALM_SITE_PATTERN.matcher(StringUtils.defaultString(event.getResource()));
+        return matcher.find() ? matcher.group(1) : event.getContext();
+    }
+
     private void removeSiteRosterCache(String siteId){
         if (siteId == null) {
             log.debug("siteId was null, skipping");
             return;
         }
 
-        Cache enrollmentsCache = getCache(ENROLLMENTS_CACHE);
-        enrollmentsCache.remove(siteId);
-
-        Cache searchIndexCache = memoryService.getCache(SEARCH_INDEX_CACHE);
-        searchIndexCache.remove(siteId);
-
-        Cache membershipsCache = getCache(MEMBERSHIPS_CACHE);
-
-        synchronized(this) {
-            membershipsCache.remove(siteId);
-            Site site = getSite(siteId);
-            if (site != null) {
-                Set<Role> roles = site.getRoles();
-                site.getGroups().stream().map(Group::getId).forEach(gId -> {
-                    membershipsCache.remove(siteId + "#" + gId);
-                    roles.forEach(r -> membershipsCache.remove(siteId + "#" + gId + "#" + r.getId()));
-                });
-            }
-        }
+        getCache(ENROLLMENTS_CACHE).remove(siteId);
+        getCache(MEMBERSHIPS_CACHE).remove(siteId);
     }
 }
@@ -21,13 +21,17 @@
 
 package org.sakaiproject.tool.assessment.ui.bean.qti;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.StringTokenizer;
 
 import javax.faces.bean.ManagedBean;
 import javax.faces.bean.ManagedProperty;
 import javax.faces.bean.SessionScoped;
+import javax.faces.context.FacesContext;
+import javax.servlet.http.HttpServletResponse;
 
 import lombok.extern.slf4j.Slf4j;
 import org.w3c.dom.Document;
@@ -99,7 +103,11 @@ public class XMLController implements Serializable {
 
   public String displayItemBankXml()
   {
-    this.itemBank();
+    if (this.itemBank())
+    {
+      // the item bank has been written to the response
+      return null;
+    }
     return "xmlDisplay";
   }
 
@@ -290,9 +298,10 @@ public class XMLController implements Serializable {
   }
 
   /**
-   * read in XML from item list (comma separated id string)
+   * write XML from item list (comma separated id string) straight to the response
+   * @return true if the response has been written
    */
-  private void itemBank()
+  private boolean itemBank()
   {
     xmlBean.setId(id); // this will be an item list
     if (id != null && id.length() > 0)
@@ -305,15 +314,35 @@ public class XMLController implements Serializable {
       {
         ids[i] = st.nextToken();
       }
-      Document doc = qtiService.getExportedItemBank(ids, qtiVersion);
       xmlBean.setDescription(
         "Exported QTI XML produced by Sakai's Tests and Quizzes tool (Samigo)");
       xmlBean.setName("object bank for items " + id); // get from document later
-      setUpXmlNoDecl(XmlUtil.getDOMString(doc));
+
+      // the items are serialized one at a time to the client, the bank is never held in memory
+      FacesContext faces = FacesContext.getCurrentInstance();
+      HttpServletResponse response = (HttpServletResponse) faces.getExternalContext().getResponse();
+      response.reset();
+      response.setContentType("text/xml;charset=utf-8");
+      response.setHeader("Cache-Control", "private");
+      response.setHeader("Pragma", "cache");
+      response.setHeader("Content-Disposition", "attachment; filename=exportAssessment.xml");
+      try
+      {
+        OutputStream out = response.getOutputStream();
+        qtiService.writeExportedItemBank(ids, qtiVersion, out);
+        out.flush();
+      }
+      catch (IOException e)
+      {
+        log.error("Could not write the item bank for items {}: {}", id, e.toString());
+      }
+      faces.responseComplete();
+      return true;
     }
     else
     {
       log.debug("object bank empty");
+      return false;
     }
   }
 
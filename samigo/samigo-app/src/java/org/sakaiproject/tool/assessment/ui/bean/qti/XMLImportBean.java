@@ -22,8 +22,10 @@
 package org.sakaiproject.tool.assessment.ui.bean.qti;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -514,15 +516,20 @@ public class XMLImportBean implements Serializable {
    */
   private QuestionPoolFacade createImportedQuestionPool(String fullFileName, int qti) throws Exception
   {
-    //trim = true so that xml processing instruction at top line, even if not.
-    Document document;
-	try {
-		document = XmlUtil.readDocument(fullFileName, true);
-	} catch (Exception e) {
-		throw(e);
-	}
     QTIService qtiService = new QTIService();
-    return qtiService.createImportedQuestionPool(document, qti);
+    // the file is checked against the QTI schema first, so nothing is saved from an invalid one
+    try (InputStream inputStream = new FileInputStream(fullFileName))
+    {
+      if (!qtiService.isValidImportXml(inputStream, qti))
+      {
+        throw new RuntimeException("Invalid QTI XML format.");
+      }
+    }
+    // pools can hold thousands of items, so the file is read one item at a time
+    try (InputStream inputStream = new FileInputStream(fullFileName))
+    {
+      return qtiService.createImportedQuestionPool(inputStream, qti);
+    }
   }  
   
   public QuestionPoolBean getQuestionPoolBean()
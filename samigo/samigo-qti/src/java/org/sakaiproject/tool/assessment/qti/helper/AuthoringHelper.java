@@ -23,6 +23,7 @@ package org.sakaiproject.tool.assessment.qti.helper;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -31,11 +32,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.*;
 
@@ -44,8 +48,12 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.helpers.XMLFilterImpl;
 import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.event.cover.EventTrackingService;
 import org.sakaiproject.samigo.util.SamigoConstants;
 import org.sakaiproject.tool.assessment.data.dao.assessment.AssessmentAccessControl;
@@ -76,6 +84,8 @@ import org.sakaiproject.tool.assessment.qti.exception.RespondusMatchingException
 import org.sakaiproject.tool.assessment.qti.helper.assessment.AssessmentHelperIfc;
 import org.sakaiproject.tool.assessment.qti.helper.item.ItemHelperIfc;
 import org.sakaiproject.tool.assessment.qti.helper.section.SectionHelperIfc;
+import org.sakaiproject.tool.assessment.qti.util.QTIItemStreamReader;
+import org.sakaiproject.tool.assessment.qti.util.QTIItemStreamWriter;
 import org.sakaiproject.tool.assessment.qti.util.XmlStringBuffer;
 import org.sakaiproject.tool.assessment.qti.util.XmlUtil;
 import org.sakaiproject.tool.assessment.services.ItemService;
@@ -103,6 +113,10 @@ public class AuthoringHelper
 
   private int qtiVersion;
   private static final String VALIDATE_XSD_PATH ="xml/xsd/";
+  // the default namespace removeDefaultNamespaceFromQTI.xsl takes off before the xml is validated
+  private static final String QTI_NAMESPACE = "http://www.imsglobal.org/xsd/ims_qtiasiv1p2";
+  private static final String IMPORT_BATCH_SIZE_PROPERTY = "samigo.import.batchSize";
+  private static final int IMPORT_BATCH_SIZE = 100;
 
 
   private AuthoringHelper()
@@ -516,24 +530,12 @@ public class AuthoringHelper
   }
 
   private boolean validateImportXml(Document doc) throws SAXException, IOException{
-      // 1. Lookup a factory for the W3C XML Schema language
-      SchemaFactory factory =
-          SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
-
-      // 2. Compile the schema.
-      // Here the schema is loaded from a java.io.File, but you could use
-      // a java.net.URL or a javax.xml.transform.Source instead.
-      String schemaFile = VALIDATE_XSD_PATH + "qtiv1p2.xsd";
-      log.debug("schemaFile = " + schemaFile);
-      Schema schema = factory.newSchema(new StreamSource(AuthoringHelper.class.getClassLoader().getResourceAsStream(schemaFile)));
-
-      // 3. Get a validator from the schema.
-      Validator validator = schema.newValidator();
+      Validator validator = newImportValidator();
 
-      // 4. Parse the document you want to check.
+      // Parse the document you want to check.
       Source source = new DOMSource(doc);
 
-      // 5. Check the document
+      // Check the document
       try {
           validator.validate(source);
           log.debug("The xml is valid.");
@@ -545,6 +547,67 @@ public class AuthoringHelper
       return false;
   }
 
+  /**
+   * Check a QTI XML stream against the QTI schema as it is read, without building a document.
+   * The QTI default namespace is dropped on the way, as the DOM import does before validating.
+   * @param inputStream the QTI XML, leading blank lines are ignored
+   * @return true if the xml is valid QTI
+   */
+  public boolean validateImportXml(InputStream inputStream) throws SAXException, IOException, ParserConfigurationException{
+      SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+      parserFactory.setNamespaceAware(true);
+      parserFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+      parserFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+      parserFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+
+      XMLFilter removeNamespace = new XMLFilterImpl(parserFactory.newSAXParser().getXMLReader()) {
+          @Override
+          public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+              if (QTI_NAMESPACE.equals(uri)) {
+                  super.startElement("", localName, localName, atts);
+              } else {
+                  super.startElement(uri, localName, qName, atts);
+              }
+          }
+
+          @Override
+          public void endElement(String uri, String localName, String qName) throws SAXException {
+              if (QTI_NAMESPACE.equals(uri)) {
+                  super.endElement("", localName, localName);
+              } else {
+                  super.endElement(uri, localName, qName);
+              }
+          }
+      };
+
+      try {
+          Source source = new SAXSource(removeNamespace, new InputSource(QTIItemStreamReader.skipLeadingWhitespace(inputStream)));
+          newImportValidator().validate(source);
+          log.debug("The xml is valid.");
+          return true;
+      }
+      catch (SAXException ex) {
+          log.debug("The xml is not valid QTI format.", ex);
+      }
+      return false;
+  }
+
+  private Validator newImportValidator() throws SAXException{
+      // 1. Lookup a factory for the W3C XML Schema language
+      SchemaFactory factory =
+          SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
+
+      // 2. Compile the schema.
+      // Here the schema is loaded from a java.io.File, but you could use
+      // a java.net.URL or a javax.xml.transform.Source instead.
+      String schemaFile = VALIDATE_XSD_PATH + "qtiv1p2.xsd";
+      log.debug("schemaFile = " + schemaFile);
+      Schema schema = factory.newSchema(new StreamSource(AuthoringHelper.class.getClassLoader().getResourceAsStream(schemaFile)));
+
+      // 3. Get a validator from the schema.
+      return schema.newValidator();
+  }
+
   protected String getAgentString(){
 	  return AgentFacade.getAgentString();
   }
@@ -792,27 +855,7 @@ public class AuthoringHelper
       exHelper.updateQuestionPool(questionpool, assessmentMap);
  	  
  	  // now make sure we have a unique name for the question pool
-      String baseId = questionpool.getQuestionPoolId().toString();
- 	  boolean isUnique=questionPoolService.poolIsUnique(baseId,title,"0", me);
-   
- 	  // if the title is not unique, increment with a number per renameDuplicate()
- 	  if (!isUnique) {
- 		  synchronized (title)
- 	        {
- 	          log.debug("Questionpool "+ title + " is not unique.");
- 	          int count = 0; // alternate exit condition
-
- 	          while (!isUnique)
- 	          {
- 	        	title = AssessmentService.renameDuplicate(title);
- 	            log.debug("renameDuplicate(title): " + title);
- 	            questionpool.setTitle(title);
- 	            //recheck to confirm that new title is not a dplicate too
- 	            isUnique = questionPoolService.poolIsUnique(baseId,title,"0", me);	      	  
- 	            if (count++ > 99) break;// exit condition in case bug is introduced
- 	          }
- 	      }		  
- 	  }
+ 	  makePoolTitleUnique(questionpool, title, me);
  	  
  	  
       // process each section and each item within assessment each section
@@ -869,6 +912,183 @@ public class AuthoringHelper
    }
  
 
+  /**
+   * Import a QTI assessment or object bank as a question pool, reading it one item at a time.
+   * Unlike {@link #createImportedQuestionPool(Document)} the whole document is never in memory,
+   * items are extracted as they are read and saved in batches of {@link #IMPORT_BATCH_SIZE}.
+   * The stream is only checked to be well formed, check it with {@link #validateImportXml(InputStream)} first.
+   * @param inputStream the QTI XML, closed when the import is done
+   * @return a persisted question pool
+   */
+  public QuestionPoolFacade createImportedQuestionPool(InputStream inputStream)
+  {
+    QuestionPoolFacade questionpool = new QuestionPoolFacade();
+    QuestionPoolService questionPoolService = new QuestionPoolService();
+    ItemService itemService = new ItemService();
+    // the items already saved, they are only tied to the pool when it is saved at the end
+    List<Long> savedItemIds = new ArrayList<>();
+
+    try (QTIItemStreamReader reader = new QTIItemStreamReader(inputStream))
+    {
+      String me = AgentFacade.getAgentString();
+      ExtractionHelper exHelper = new ExtractionHelper(this.qtiVersion);
+
+      // the shell holds the assessment element and its metadata, but no items
+      Assessment assessmentXml = new Assessment(reader.getShellDocument());
+      Map assessmentMap = exHelper.mapAssessment(assessmentXml);
+      String title = (String) assessmentMap.get("title");
+
+      questionpool.setOwnerId(me);
+      questionpool.setTitle(title);
+      questionpool.setLastModifiedById(me);
+      questionpool.setAccessTypeId(QuestionPoolFacade.ACCESS_DENIED); // set as default
+      questionpool = questionPoolService.savePool(questionpool);
+      exHelper.updateQuestionPool(questionpool, assessmentMap);
+      makePoolTitleUnique(questionpool, title, me);
+
+      questionpool.setQuestionPoolItems(new HashSet());
+      int batchSize = ServerConfigurationService.getInt(IMPORT_BATCH_SIZE_PROPERTY, IMPORT_BATCH_SIZE);
+      List<ItemFacade> batch = new ArrayList<>(batchSize);
+      Document itemDoc;
+      while ((itemDoc = reader.nextItem()) != null)
+      {
+        Item itemXml = new Item(itemDoc, this.qtiVersion);
+        ItemFacade item = new ItemFacade();
+        exHelper.updateItem(item, itemXml);
+        item.setCreatedBy(me);
+        item.setCreatedDate(questionpool.getLastModified());
+        item.setLastModifiedBy(me);
+        item.setLastModifiedDate(questionpool.getLastModified());
+        item.setStatus(ItemDataIfc.ACTIVE_STATUS);
+        batch.add(item);
+        if (batch.size() >= batchSize)
+        {
+          saveImportedPoolItems(questionpool, batch, itemService, savedItemIds);
+        }
+      }
+      saveImportedPoolItems(questionpool, batch, itemService, savedItemIds);
+      log.debug("Imported {} items into question pool {}", reader.getItemCount(), questionpool.getQuestionPoolId());
+
+      questionPoolService.savePool(questionpool);
+      return questionpool;
+    }
+    catch (Exception e)
+    {
+      log.error(e.getMessage(), e);
+      deleteImportedPoolItems(savedItemIds, itemService, AgentFacade.getAgentString());
+      if (questionpool.getQuestionPoolId() != null)
+      {
+        questionPoolService.deletePool(questionpool.getQuestionPoolId(), AgentFacade.getAgentString(), null);
+      }
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Write an object bank of items, building and serializing one item at a time.
+   * @param itemIds array of the item ids
+   * @param outputStream where the object bank is written, it is left open
+   */
+  public void writeItemBank(String[] itemIds, OutputStream outputStream)
+  {
+    try (QTIItemStreamWriter writer = new QTIItemStreamWriter(outputStream, "object" + Math.random()))
+    {
+      for (String itemId : itemIds)
+      {
+        writer.writeItem(getItem(itemId));
+      }
+    }
+    catch (Exception e)
+    {
+      log.error(e.getMessage(), e);
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Saves a batch of imported items in a single transaction and adds them to the pool, then clears the batch.
+   * The ids of the saved items are added to savedItemIds so a failed import can remove them.
+   * @throws IllegalStateException if the batch could not be saved
+   */
+  void saveImportedPoolItems(QuestionPoolFacade questionpool, List<ItemFacade> batch, ItemService itemService, List<Long> savedItemIds)
+  {
+    if (batch.isEmpty())
+    {
+      return;
+    }
+    // saveItems logs a failure and hands back the items unsaved, or none of them
+    List<ItemFacade> saved = itemService.saveItems(batch);
+    for (ItemFacade item : batch)
+    {
+      if (item.getItemId() != null)
+      {
+        savedItemIds.add(item.getItemId());
+      }
+    }
+    if (saved.size() != batch.size() || saved.stream().anyMatch(item -> item.getItemId() == null))
+    {
+      throw new IllegalStateException("Could not save a batch of " + batch.size() + " imported items");
+    }
+
+    for (ItemFacade item : saved)
+    {
+      EventTrackingService.post(EventTrackingService.newEvent(SamigoConstants.EVENT_ASSESSMENT_SAVEITEM, "/sam/" + AgentFacade.getCurrentSiteId() + "/saved itemId=" + item.getItemId().toString(), true));
+
+      QuestionPoolItemData questionPoolItem = new QuestionPoolItemData();
+      questionPoolItem.setQuestionPoolId(questionpool.getQuestionPoolId());
+      questionPoolItem.setItemId(item.getItemId());
+      questionpool.addQuestionPoolItem((QuestionPoolItemIfc) questionPoolItem);
+    }
+    batch.clear();
+  }
+
+  /**
+   * Removes the items of a failed import, deleting the pool does not reach them before the pool is saved with them
+   */
+  void deleteImportedPoolItems(List<Long> savedItemIds, ItemService itemService, String me)
+  {
+    for (Long itemId : savedItemIds)
+    {
+      try
+      {
+        itemService.deleteItem(itemId, me);
+      }
+      catch (Exception e)
+      {
+        log.warn("Could not remove item {} of a failed pool import: {}", itemId, e.toString());
+      }
+    }
+    savedItemIds.clear();
+  }
+
+  /**
+   * If the title is not unique, increment it with a number per renameDuplicate()
+   */
+  private void makePoolTitleUnique(QuestionPoolFacade questionpool, String title, String me)
+  {
+    QuestionPoolService questionPoolService = new QuestionPoolService();
+    String baseId = questionpool.getQuestionPoolId().toString();
+    boolean isUnique = questionPoolService.poolIsUnique(baseId, title, "0", me);
+
+    if (!isUnique) {
+      synchronized (title)
+      {
+        log.debug("Questionpool "+ title + " is not unique.");
+        int count = 0; // alternate exit condition
+
+        while (!isUnique)
+        {
+          title = AssessmentService.renameDuplicate(title);
+          log.debug("renameDuplicate(title): " + title);
+          questionpool.setTitle(title);
+          //recheck to confirm that new title is not a dplicate too
+          isUnique = questionPoolService.poolIsUnique(baseId, title, "0", me);
+          if (count++ > 99) break;// exit condition in case bug is introduced
+        }
+      }
+    }
+  }
+
   /**
    * @deprecated
    * Import an item XML document in QTI format, extract & persist the data.
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2005-2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.tool.assessment.qti.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads a QTI 1.2 document one item at a time.
+ * <p>Instead of building a DOM of the whole file, each &lt;item&gt; is returned as
+ * its own small Document (the same shape ExtractionHelper.getItemXmlList produces),
+ * so memory use depends on the largest item and not on the size of the pool.
+ * Everything outside of the items (questestinterop, assessment, section and metadata
+ * elements) is kept in a separate shell document, see {@link #getShellDocument()}.
+ * <p>Namespaces are dropped while reading, which is what the
+ * removeDefaultNamespaceFromQTI.xsl transform does for the DOM import.
+ */
+@Slf4j
+public class QTIItemStreamReader implements AutoCloseable
+{
+  private static final String ITEM = "item";
+
+  private final InputStream inputStream;
+  private final XMLStreamReader reader;
+  private final Document shell;
+  private Node shellCursor;
+  private int itemCount = 0;
+
+  /**
+   * Opens the stream and reads everything up to the first item, so the
+   * assessment title and metadata are available before any item is read.
+   * @param inputStream the QTI XML, leading blank lines are ignored
+   */
+  public QTIItemStreamReader(InputStream inputStream) throws IOException, XMLStreamException
+  {
+    this.inputStream = skipLeadingWhitespace(inputStream);
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+    this.reader = factory.createXMLStreamReader(this.inputStream);
+    this.shell = XmlUtil.createDocument();
+    this.shellCursor = shell;
+    advanceToItem();
+  }
+
+  /**
+   * @return a document with all the non item content read so far
+   */
+  public Document getShellDocument()
+  {
+    return shell;
+  }
+
+  /**
+   * @return the title attribute of the assessment element, or null if there is none
+   */
+  public String getAssessmentTitle()
+  {
+    Element root = shell.getDocumentElement();
+    if (root == null) {
+      return null;
+    }
+    Node assessment = root.getElementsByTagName("assessment").item(0);
+    return assessment != null ? ((Element) assessment).getAttribute("title") : null;
+  }
+
+  /**
+   * @return the number of items returned so far
+   */
+  public int getItemCount()
+  {
+    return itemCount;
+  }
+
+  /**
+   * Read the next item.
+   * @return a document with the item as root element, or null when there are no more items
+   */
+  public Document nextItem() throws XMLStreamException
+  {
+    if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+      return null;
+    }
+    Document itemDoc = XmlUtil.createDocument();
+    copyElement(itemDoc);
+    itemCount++;
+    advanceToItem();
+    return itemDoc;
+  }
+
+  @Override
+  public void close()
+  {
+    try {
+      reader.close();
+    } catch (XMLStreamException e) {
+      log.debug("Could not close QTI stream reader: {}", e.toString());
+    }
+    try {
+      inputStream.close();
+    } catch (IOException e) {
+      log.debug("Could not close QTI stream: {}", e.toString());
+    }
+  }
+
+  /**
+   * Moves the reader to the start of the next item, copying everything in between into the shell
+   */
+  private void advanceToItem() throws XMLStreamException
+  {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      switch (event) {
+        case XMLStreamConstants.START_ELEMENT:
+          if (ITEM.equals(reader.getLocalName())) {
+            return;
+          }
+          Element element = createElement(shell);
+          shellCursor.appendChild(element);
+          shellCursor = element;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          if (shellCursor.getParentNode() != null) {
+            shellCursor = shellCursor.getParentNode();
+          }
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+          if (shellCursor != shell) {
+            appendText(shell, shellCursor, event);
+          }
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Copies the element the reader is positioned on, and all its children, as the root of the document
+   */
+  private void copyElement(Document document) throws XMLStreamException
+  {
+    Node cursor = document;
+    int depth = 0;
+    do {
+      int event = reader.getEventType();
+      switch (event) {
+        case XMLStreamConstants.START_ELEMENT:
+          Element element = createElement(document);
+          cursor.appendChild(element);
+          cursor = element;
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          cursor = cursor.getParentNode();
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.SPACE:
+        case XMLStreamConstants.CDATA:
+          appendText(document, cursor, event);
+          break;
+        default:
+          break;
+      }
+      if (depth > 0) {
+        reader.next();
+      }
+    } while (depth > 0);
+  }
+
+  private Element createElement(Document document)
+  {
+    Element element = document.createElement(reader.getLocalName());
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      String prefix = reader.getAttributePrefix(i);
+      // namespace declarations are not reported as attributes, but xsi: and friends are
+      if (prefix == null || prefix.isEmpty()) {
+        element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+      }
+    }
+    return element;
+  }
+
+  private void appendText(Document document, Node parent, int event)
+  {
+    String text = reader.getText();
+    if (event == XMLStreamConstants.CDATA) {
+      parent.appendChild(document.createCDATASection(text));
+    } else {
+      parent.appendChild(document.createTextNode(text));
+    }
+  }
+
+  /**
+   * Same as XmlUtil.readDocument(path, true), a document with blank lines before the
+   * xml declaration should still be readable.
+   */
+  public static InputStream skipLeadingWhitespace(InputStream inputStream) throws IOException
+  {
+    BufferedInputStream buffered = new BufferedInputStream(inputStream);
+    int c;
+    do {
+      buffered.mark(1);
+      c = buffered.read();
+    } while (c != -1 && Character.isWhitespace(c));
+    buffered.reset();
+    return buffered;
+  }
+}
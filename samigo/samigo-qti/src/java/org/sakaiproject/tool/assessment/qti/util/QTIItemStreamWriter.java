@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2005-2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.tool.assessment.qti.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.w3c.dom.Document;
+
+/**
+ * Writes a QTI 1.2 object bank one item at a time.
+ * <p>AuthoringHelper.getItemBank imports every item into a single DOM before it is
+ * serialized, this writer serializes each item document as soon as it is built so
+ * only one item is held in memory.
+ */
+public class QTIItemStreamWriter implements AutoCloseable
+{
+  private final Writer writer;
+  private final Transformer transformer;
+  private boolean closed = false;
+
+  /**
+   * Writes the questestinterop and objectbank start tags
+   * @param outputStream where the object bank goes, it is not closed by this writer
+   * @param objectBankIdent the ident attribute of the object bank
+   */
+  public QTIItemStreamWriter(OutputStream outputStream, String objectBankIdent) throws IOException, TransformerException
+  {
+    this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    TransformerFactory factory = TransformerFactory.newInstance();
+    this.transformer = factory.newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    transformer.setOutputProperty(OutputKeys.ENCODING, StandardCharsets.UTF_8.name());
+
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    writer.write("<questestinterop><objectbank ident=\"");
+    writer.write(StringEscapeUtils.escapeXml10(objectBankIdent));
+    writer.write("\">\n");
+  }
+
+  /**
+   * Serialize an item document into the object bank
+   * @param itemDoc a document with an item as its root element, null documents are skipped
+   */
+  public void writeItem(Document itemDoc) throws TransformerException, IOException
+  {
+    if (itemDoc == null || itemDoc.getDocumentElement() == null) {
+      return;
+    }
+    transformer.transform(new DOMSource(itemDoc.getDocumentElement()), new StreamResult(writer));
+    writer.write("\n");
+  }
+
+  /**
+   * Writes the end tags and flushes, the underlying stream stays open
+   */
+  @Override
+  public void close() throws IOException
+  {
+    if (!closed) {
+      closed = true;
+      writer.write("</objectbank></questestinterop>\n");
+      writer.flush();
+    }
+  }
+}
@@ -21,6 +21,8 @@
 
 package org.sakaiproject.tool.assessment.services.qti;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -156,6 +158,51 @@ public class QTIService implements QTIServiceAPI
   } 
   
 
+  /**
+   * Check an assessment or object bank XML stream against the QTI schema, reading it
+   * as a stream instead of building the whole document.
+   * @param inputStream the XML stream in QTI format, it is left open
+   * @param qtiVersion QTIVersion.VERSION_1_2;
+   * @return true if the XML is valid QTI
+   */
+  public boolean isValidImportXml(InputStream inputStream, int qtiVersion)
+  {
+	  testQtiVersion(qtiVersion);
+
+	  try
+	  {
+		  AuthoringHelper helper = new AuthoringHelper(qtiVersion);
+		  return helper.validateImportXml(inputStream);
+	  }
+	  catch (Exception ex)
+	  {
+		  throw new QTIServiceException(ex);
+	  }
+  }
+
+  /**
+   * Import an assessment or object bank XML stream in QTI format as a question pool,
+   * reading and saving one item at a time instead of building the whole document.
+   * The stream is not validated, see {@link #isValidImportXml(InputStream, int)}.
+   * @param inputStream the XML stream in QTI format, closed when done
+   * @param qtiVersion QTIVersion.VERSION_1_2;
+   * @return a persisted question pool
+   */
+  public QuestionPoolFacade createImportedQuestionPool(InputStream inputStream, int qtiVersion)
+  {
+	  testQtiVersion(qtiVersion);
+
+	  try
+	  {
+		  AuthoringHelper helper = new AuthoringHelper(qtiVersion);
+		  return helper.createImportedQuestionPool(inputStream);
+	  }
+	  catch (Exception ex)
+	  {
+		  throw new QTIServiceException(ex);
+	  }
+  }
+
   /**
    * Import an item XML document in QTI format, extract & persist the data.
    * @param document the item XML document in QTI format
@@ -266,6 +313,30 @@ public class QTIService implements QTIServiceAPI
     }
   }
 
+  /**
+   * Write an item bank in QTI format to a stream, one item at a time.
+   *
+   * Note:  this service requires a Faces context.
+   *
+   * @param itemIds an array of item ids
+   * @param qtiVersion either QTIVersion.VERSION_1_2 or QTIVersion.VERSION_2_0;
+   * @param outputStream where the item bank is written, it is left open
+   */
+  public void writeExportedItemBank(String itemIds[], int qtiVersion, OutputStream outputStream)
+  {
+    testQtiVersion(qtiVersion);
+
+    try
+    {
+      AuthoringHelper helper = new AuthoringHelper(qtiVersion);
+      helper.writeItemBank(itemIds, outputStream);
+    }
+    catch (Exception ex)
+    {
+      throw new QTIServiceException(ex);
+    }
+  }
+
   /**
    * utility method
    * @param qtiVersion
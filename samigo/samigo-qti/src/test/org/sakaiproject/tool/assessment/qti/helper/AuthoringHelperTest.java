@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2003-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.tool.assessment.qti.helper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.tool.assessment.facade.ItemFacade;
+import org.sakaiproject.tool.assessment.facade.QuestionPoolFacade;
+import org.sakaiproject.tool.assessment.qti.constants.QTIVersion;
+import org.sakaiproject.tool.assessment.services.ItemService;
+
+public class AuthoringHelperTest {
+
+	private AuthoringHelper helper;
+	private ItemService itemService;
+	private QuestionPoolFacade questionpool;
+
+	@Before
+	public void setUp() {
+		helper = new AuthoringHelper(QTIVersion.VERSION_1_2);
+		itemService = mock(ItemService.class);
+		questionpool = mock(QuestionPoolFacade.class);
+	}
+
+	private ItemFacade item(Long itemId) {
+		ItemFacade item = mock(ItemFacade.class);
+		when(item.getItemId()).thenReturn(itemId);
+		return item;
+	}
+
+	@Test
+	public void testUnsavedBatchFailsTheImport() {
+		List<ItemFacade> batch = new ArrayList<>(Arrays.asList(item(null), item(null)));
+		// saveItems logs the failure and hands the batch back unsaved
+		when(itemService.saveItems(batch)).thenReturn(batch);
+		List<Long> savedItemIds = new ArrayList<>();
+
+		try {
+			helper.saveImportedPoolItems(questionpool, batch, itemService, savedItemIds);
+			fail("Expected the unsaved batch to fail the import");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertTrue(savedItemIds.isEmpty());
+		verify(questionpool, never()).addQuestionPoolItem(any());
+	}
+
+	@Test
+	public void testPartlySavedBatchRemoved() {
+		// an earlier batch made it, this one failed after its first item
+		List<Long> savedItemIds = new ArrayList<>(Arrays.asList(1L, 2L));
+		List<ItemFacade> batch = new ArrayList<>(Arrays.asList(item(3L), item(null)));
+		when(itemService.saveItems(batch)).thenReturn(Collections.emptyList());
+
+		try {
+			helper.saveImportedPoolItems(questionpool, batch, itemService, savedItemIds);
+			fail("Expected the failed batch to fail the import");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals(Arrays.asList(1L, 2L, 3L), savedItemIds);
+		verify(questionpool, never()).addQuestionPoolItem(any());
+
+		// one item that can not be removed does not keep the others
+		doThrow(new RuntimeException("gone")).when(itemService).deleteItem(2L, "admin");
+		helper.deleteImportedPoolItems(savedItemIds, itemService, "admin");
+		verify(itemService).deleteItem(1L, "admin");
+		verify(itemService).deleteItem(2L, "admin");
+		verify(itemService).deleteItem(3L, "admin");
+		assertTrue(savedItemIds.isEmpty());
+	}
+}
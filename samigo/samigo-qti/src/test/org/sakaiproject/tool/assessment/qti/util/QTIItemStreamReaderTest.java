@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2005-2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.tool.assessment.qti.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class QTIItemStreamReaderTest {
+
+	private static final String POOL =
+			"\n\n<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<questestinterop xmlns=\"http://www.imsglobal.org/xsd/ims_qtiasiv1p2\">"
+			+ "<assessment ident=\"a1\" title=\"Chapter 1\">"
+			+ "<qticomment>pool comment</qticomment>"
+			+ "<section ident=\"s1\">"
+			+ "<item ident=\"i1\" title=\"one\"><presentation><material><mattext><![CDATA[<b>first</b>]]></mattext></material></presentation></item>"
+			+ "<item ident=\"i2\" title=\"two\"><presentation><material><mattext>second</mattext></material></presentation></item>"
+			+ "</section></assessment></questestinterop>";
+
+	@Test
+	public void testReadItemsOneAtATime() throws Exception {
+		try (QTIItemStreamReader reader = new QTIItemStreamReader(stream(POOL))) {
+			assertEquals("Chapter 1", reader.getAssessmentTitle());
+			// the shell keeps the assessment but none of the items
+			assertEquals(0, reader.getShellDocument().getElementsByTagName("item").getLength());
+			assertEquals(1, reader.getShellDocument().getElementsByTagName("qticomment").getLength());
+
+			Document first = reader.nextItem();
+			assertNotNull(first);
+			assertEquals("item", first.getDocumentElement().getTagName());
+			assertEquals("i1", first.getDocumentElement().getAttribute("ident"));
+			assertNull(first.getDocumentElement().getNamespaceURI());
+			assertEquals("<b>first</b>", first.getElementsByTagName("mattext").item(0).getTextContent());
+
+			Document second = reader.nextItem();
+			assertNotNull(second);
+			assertEquals("i2", second.getDocumentElement().getAttribute("ident"));
+			assertEquals("second", second.getElementsByTagName("mattext").item(0).getTextContent());
+
+			assertNull(reader.nextItem());
+			assertEquals(2, reader.getItemCount());
+		}
+	}
+
+	@Test
+	public void testWriteThenReadItemBank() throws Exception {
+		Document item;
+		try (QTIItemStreamReader reader = new QTIItemStreamReader(stream(POOL))) {
+			item = reader.nextItem();
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (QTIItemStreamWriter writer = new QTIItemStreamWriter(out, "bank")) {
+			writer.writeItem(item);
+			writer.writeItem(null);
+			writer.writeItem(item);
+		}
+		String xml = out.toString(StandardCharsets.UTF_8.name());
+		assertTrue(xml.contains("<objectbank ident=\"bank\">"));
+
+		try (QTIItemStreamReader reader = new QTIItemStreamReader(stream(xml))) {
+			assertEquals("i1", reader.nextItem().getDocumentElement().getAttribute("ident"));
+			assertEquals("i1", reader.nextItem().getDocumentElement().getAttribute("ident"));
+			assertNull(reader.nextItem());
+		}
+	}
+
+	private InputStream stream(String xml) {
+		return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+	}
+}
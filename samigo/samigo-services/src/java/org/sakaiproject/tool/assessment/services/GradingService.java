@@ -88,6 +88,7 @@ import org.sakaiproject.tool.assessment.integration.context.IntegrationContextFa
 import org.sakaiproject.tool.assessment.integration.helper.ifc.GradebookServiceHelper;
 import org.sakaiproject.tool.assessment.services.assessment.EventLogService;
 import org.sakaiproject.tool.assessment.services.assessment.PublishedAssessmentService;
+import org.sakaiproject.tool.assessment.util.CalculatedQuestionExpression;
 import org.sakaiproject.tool.assessment.util.ExtendedTimeDeliveryService;
 import org.sakaiproject.tool.assessment.util.SamigoExpressionError;
 import org.sakaiproject.tool.assessment.util.SamigoExpressionParser;
@@ -3032,8 +3033,7 @@ Here are the definition and 12 cases I came up with (lydia, 01/2006):
           String answerData = getAnswerData(longFormula); // returns just tolerance and precision
           int decimalPlaces = getAnswerDecimalPlaces(answerData);
           
-          String substitutedFormula = replaceMappedVariablesWithNumbers(formula,variables);
-          String formulaValue = processFormulaIntoValue(substitutedFormula, decimalPlaces);
+          String formulaValue = processFormulaIntoValue(item.getItemId(), formula, variables, decimalPlaces);
           values.put(i + 1, formulaValue + answerData); // later answerData will be used for scoring
       }
       return values;
@@ -3308,6 +3308,39 @@ Here are the definition and 12 cases I came up with (lydia, 01/2006):
       return value;
   }
 
+  /**
+   * CALCULATED_QUESTION
+   * Process a single formula with variables into a final string representing the calculated value of the formula.
+   * The formula is compiled once per item and then evaluated with the given variable values, formulas which
+   * cannot be compiled go through the variable substitution in {@link #replaceMappedVariablesWithNumbers(String, Map)}
+   *
+   * @param itemId the item the formula belongs to
+   * @param formula the formula to process (e.g. {a} * 2 + {b})
+   * @param variables variable values, key is the variable name
+   * @param decimalPlaces number of decimals to include in the final output
+   * @return the value of the formula OR empty string if there is nothing to process
+   * @throws IllegalStateException if the formula value cannot be calculated (typically caused by 0 divisors and the like)
+   * @throws SamigoExpressionError if the formula cannot be parsed
+   */
+  public String processFormulaIntoValue(Long itemId, String formula, Map<String, String> variables, int decimalPlaces) throws SamigoExpressionError {
+      if (StringUtils.isEmpty(formula) || variables == null) {
+          return processFormulaIntoValue(replaceMappedVariablesWithNumbers(formula, variables), decimalPlaces);
+      }
+      CalculatedQuestionExpression compiled = CalculatedQuestionExpression.compile(itemId, checkExpression(cleanFormula(formula)), variables.keySet());
+      if (compiled == null) {
+          return processFormulaIntoValue(replaceMappedVariablesWithNumbers(formula, variables), decimalPlaces);
+      }
+
+      if (decimalPlaces < 0) {
+          decimalPlaces = 0;
+      }
+      String numericString = compiled.evaluate(variables, decimalPlaces + 1);
+      if (!this.isAnswerValid(numericString)) {
+          throw new IllegalStateException("Invalid calculation formula ("+compiled.getTemplate()+") result ("+numericString+"), result could not be calculated");
+      }
+      return toScientificNotation(numericString, decimalPlaces);
+  }
+
   /**
    * Cleans up formula text so that whitespaces are normalized or removed
    * @param formula formula with variables or without
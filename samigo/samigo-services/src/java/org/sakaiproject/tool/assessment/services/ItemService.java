@@ -53,6 +53,7 @@ import org.sakaiproject.tool.assessment.facade.BackfillItemHashResult;
 import org.sakaiproject.tool.assessment.facade.ItemFacade;
 import org.sakaiproject.tool.assessment.integration.helper.ifc.TagServiceHelper;
 import org.sakaiproject.tool.assessment.services.assessment.AssessmentService;
+import org.sakaiproject.tool.assessment.util.CalculatedQuestionExpression;
 
 /**
  * The ItemService calls persistent service locator to reach the
@@ -110,6 +111,7 @@ public class ItemService
 	  
       // do not check for owner, anyone who has maintain role can modify items see SAK-2214
       PersistenceService.getInstance().getItemFacadeQueries().deleteItem(itemId, agentId);
+      CalculatedQuestionExpression.invalidate(itemId);
 	  
     } catch(Exception e) {
       log.error(e.getMessage(), e);
@@ -181,6 +183,7 @@ public class ItemService
   {
     try
     {
+      CalculatedQuestionExpression.invalidate(item.getItemId());
       return PersistenceService.getInstance().getItemFacadeQueries().saveItem(item);
     }
     catch(Exception e)
@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2005-2017 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sakaiproject.tool.assessment.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mariuszgromada.math.mxparser.Argument;
+import org.mariuszgromada.math.mxparser.Expression;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * CALCULATED_QUESTION
+ * A calculated question formula compiled once into an mxParser expression tree,
+ * where every variable such as {x} is an argument slot instead of text that has
+ * to be substituted and re-parsed for every student and every variable set.
+ * <p>Compiled formulas are cached per published item, see {@link #compile(Long, String, Collection)}.
+ */
+@Slf4j
+public class CalculatedQuestionExpression
+{
+  private static final String SLOT_PREFIX = "calcqslot";
+  private static final String FACTORIAL = "factorial";
+  private static final int MAX_CACHED_ITEMS = 5000;
+
+  // itemId -> (formula and variable names -> compiled formula)
+  private static final Map<Long, Map<String, CalculatedQuestionExpression>> CACHE = new ConcurrentHashMap<>();
+
+  private final String template;
+  private final Expression expression;
+  private final Map<String, Argument> slots;
+  private final boolean scientific;
+
+  private CalculatedQuestionExpression(String template, Expression expression, Map<String, Argument> slots)
+  {
+    this.template = template;
+    this.expression = expression;
+    this.slots = slots;
+    this.scientific = template.contains("E");
+  }
+
+  /**
+   * Get the compiled form of a formula for a published item, compiling it on first use.
+   * @param itemId the item the formula belongs to, null to skip caching
+   * @param formula the cleaned formula, i.e. {x}*2+{y}
+   * @param variableNames the names of the variables of the item
+   * @return the compiled formula, or null if the formula cannot be compiled
+   * (in which case the caller should use the string substitution path, which will
+   * report the error or handle the unsupported syntax)
+   */
+  public static CalculatedQuestionExpression compile(Long itemId, String formula, Collection<String> variableNames)
+  {
+    if (itemId == null) {
+      return build(formula, variableNames);
+    }
+    Map<String, CalculatedQuestionExpression> itemFormulas = CACHE.get(itemId);
+    if (itemFormulas == null) {
+      if (CACHE.size() >= MAX_CACHED_ITEMS) {
+        CACHE.clear();
+      }
+      itemFormulas = CACHE.computeIfAbsent(itemId, k -> new ConcurrentHashMap<>());
+    }
+    // the variable names are part of the key, they decide which {names} become slots
+    String key = formula + '\u0000' + new TreeSet<>(variableNames);
+    CalculatedQuestionExpression compiled = itemFormulas.get(key);
+    if (compiled == null) {
+      compiled = build(formula, variableNames);
+      itemFormulas.put(key, compiled != null ? compiled : UNCOMPILABLE);
+    }
+    return compiled == UNCOMPILABLE ? null : compiled;
+  }
+
+  /**
+   * Drop the compiled formulas of an item, must be called when the item is edited or regraded
+   * @param itemId the item
+   */
+  public static void invalidate(Long itemId)
+  {
+    if (itemId != null) {
+      CACHE.remove(itemId);
+    }
+  }
+
+  /**
+   * Evaluate the formula with a set of variable values
+   * @param variables the variable values, key is the variable name
+   * @param decimals number of decimals to include in the result
+   * @return the value of the formula, formatted as {@link SamigoExpressionParser#parse(String, int)} does
+   * @throws SamigoExpressionError if the formula cannot be calculated with these values
+   */
+  public String evaluate(Map<String, String> variables, int decimals) throws SamigoExpressionError
+  {
+    boolean scientificValues = scientific;
+    synchronized (expression) {
+      for (Map.Entry<String, Argument> slot : slots.entrySet()) {
+        String value = variables.get(slot.getKey());
+        if (value == null) {
+          throw new SamigoExpressionError(401, "No value for variable " + slot.getKey() + " in " + template);
+        }
+        scientificValues |= value.contains("E");
+        slot.getValue().setArgumentValue(Double.parseDouble(value));
+      }
+      return SamigoExpressionParser.evaluate(expression, template, scientificValues, decimals);
+    }
+  }
+
+  public String getTemplate()
+  {
+    return template;
+  }
+
+  /**
+   * Turns {x} into argument slots, following the same implicit multiplication rules as
+   * GradingService.replaceMappedVariablesWithNumbers, e.g. 5{x} is 5*x and {x}(1+2) is x*(1+2)
+   */
+  private static CalculatedQuestionExpression build(String formula, Collection<String> variableNames)
+  {
+    if (formula == null || formula.isEmpty()) {
+      return null;
+    }
+    // FACTORIAL(n) is rewritten as text, it can't be applied to a variable slot
+    if (formula.toLowerCase().contains(FACTORIAL)) {
+      return null;
+    }
+
+    Map<String, Argument> slots = new ConcurrentHashMap<>();
+    List<Argument> arguments = new ArrayList<>();
+    StringBuilder template = new StringBuilder(formula.length() + 16);
+    int index = 0;
+    while (index < formula.length()) {
+      char c = formula.charAt(index);
+      int close = c == '{' ? formula.indexOf('}', index) : -1;
+      String name = close > -1 ? formula.substring(index + 1, close) : null;
+      if (name == null || !variableNames.contains(name)) {
+        template.append(c);
+        index++;
+        continue;
+      }
+
+      Argument argument = slots.get(name);
+      if (argument == null) {
+        argument = new Argument(SLOT_PREFIX + slots.size(), 0);
+        slots.put(name, argument);
+        arguments.add(argument);
+      }
+      // slot names end with a digit, so a preceding slot also counts as a number here
+      if (template.length() > 0) {
+        char previous = template.charAt(template.length() - 1);
+        if (Character.isDigit(previous) || previous == ')') {
+          template.append('*');
+        }
+      }
+      template.append(argument.getArgumentName());
+      index = close + 1;
+      if (index < formula.length() && (Character.isDigit(formula.charAt(index)) || formula.charAt(index) == '(')) {
+        template.append('*');
+      }
+    }
+
+    String normalized = SamigoExpressionParser.normalize(template.toString());
+    Expression expression = new Expression(normalized, arguments.toArray(new Argument[0]));
+    if (!expression.checkSyntax()) {
+      log.debug("Calculated question formula {} could not be compiled: {}", formula, expression.getErrorMessage());
+      return null;
+    }
+    return new CalculatedQuestionExpression(normalized, expression, Collections.unmodifiableMap(slots));
+  }
+
+  // marker for formulas which are known not to compile, so they are not retried
+  private static final CalculatedQuestionExpression UNCOMPILABLE =
+      new CalculatedQuestionExpression("", new Expression(""), Collections.emptyMap());
+}
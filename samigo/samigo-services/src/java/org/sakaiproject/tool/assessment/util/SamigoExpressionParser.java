@@ -20,6 +20,7 @@ import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.mariuszgromada.math.mxparser.Expression;
 import org.mariuszgromada.math.mxparser.mXparser;
@@ -40,6 +41,18 @@ public class SamigoExpressionParser
   public static final String OLD_FACTORIAL_PATTERN = "(?i)factorial\\((\\d+)\\)";
   public static final String NEW_FACTORIAL_PATTERN = "($1!)";
 
+  // The rewrites above are applied to every formula, compile the patterns only once
+  private static final Pattern[] OLD_SAMIGO_PARSER_VAR_PATTERNS = new Pattern[oldSamigoParserVars.length];
+  private static final Pattern OLD_FACTORIAL = Pattern.compile(OLD_FACTORIAL_PATTERN);
+  static {
+    for (int i = 0; i < oldSamigoParserVars.length; i++) {
+      // Only match whole words, e.g., don't do a PI/pi replace on a variable called "applePies"
+      OLD_SAMIGO_PARSER_VAR_PATTERNS[i] = Pattern.compile("\\b" + oldSamigoParserVars[i] + "\\b");
+    }
+    // The epsilon is global mxParser state, expressions evaluated statically need it set before any parser is made
+    mXparser.setEpsilon(1.0E-99);
+  }
+
   /**
    * finalructor.
    * Initializes all data with zeros and empty strings
@@ -66,43 +79,8 @@ public class SamigoExpressionParser
   {
     try
     {
-      expr = new_expr.trim();
-      // mxParser doesn't understand log(e) they do understand ln(e)
-      // mxParser wants "pi" not "PI"
-      final int cnt = oldSamigoParserVars.length;
-      for (int i = 0; i < cnt; i++) {
-    	  // Only match whole words, e.g., don't do a PI/pi replace on a variable called "applePies"
-    	  expr = expr.replaceAll("\\b" + oldSamigoParserVars[i] + "\\b", newSamigoParserVars[i]);
-      }
-
-      // Also look for the factorial pattern
-      expr = expr.replaceAll(OLD_FACTORIAL_PATTERN, NEW_FACTORIAL_PATTERN);
-
-      ans = BigDecimal.valueOf(0.0);
-
-      Expression e = null;
-      try {
-          e = new Expression(expr);
-          if (expr.contains("E")) {
-              mXparser.disableCanonicalRounding();
-              mXparser.disableUlpRounding();
-              mXparser.disableAlmostIntRounding();
-          }
-          double d = e.calculate();
-          ans = new BigDecimal(d, MathContext.DECIMAL64);
-      }
-      catch (NumberFormatException nfe) {
-          String errorMessage = e != null ? e.getErrorMessage() : expr;
-          throw new SamigoExpressionError(401, errorMessage);
-      }
-      finally {
-          mXparser.enableCanonicalRounding();
-          mXparser.enableUlpRounding();
-          mXparser.enableAlmostIntRounding();
-      }
-
-      GradingService service = new GradingService();
-      ans_str = service.toScientificNotation(ans.toPlainString(), decimals);
+      expr = normalize(new_expr);
+      ans_str = evaluate(new Expression(expr), expr, expr.contains("E"), decimals);
 
       // add the answer to memory as variable "Ans"
       user_var.put("ANS", new BigDecimal(ans_str));
@@ -116,9 +94,61 @@ public class SamigoExpressionParser
     return ans_str;
   }
 
+  /**
+   * Rewrites the legacy Samigo function and constant names into the ones
+   * understood by mxParser (e.g. PI to pi, LOG to ln, FACTORIAL(4) to (4!))
+   */
+  public static String normalize(final String new_expr)
+  {
+    // mxParser doesn't understand log(e) they do understand ln(e)
+    // mxParser wants "pi" not "PI"
+    String normalized = new_expr.trim();
+    for (int i = 0; i < OLD_SAMIGO_PARSER_VAR_PATTERNS.length; i++) {
+      normalized = OLD_SAMIGO_PARSER_VAR_PATTERNS[i].matcher(normalized).replaceAll(newSamigoParserVars[i]);
+    }
+
+    // Also look for the factorial pattern
+    return OLD_FACTORIAL.matcher(normalized).replaceAll(NEW_FACTORIAL_PATTERN);
+  }
+
+  /**
+   * Calculates an already built mxParser expression and formats the result
+   * the same way {@link #parse(String, int)} does.
+   * Callers sharing an expression between threads must synchronize on it.
+   * @param e the expression, with any arguments already set
+   * @param exprText the text of the expression, used in the error message
+   * @param scientific true when the expression or its arguments use E notation,
+   * in which case mxParser rounding must be disabled for the calculation
+   * @param decimals number of decimals to include in the result
+   */
+  public static String evaluate(final Expression e, final String exprText, final boolean scientific, final int decimals) throws SamigoExpressionError
+  {
+    BigDecimal result;
+    try {
+      if (scientific) {
+        mXparser.disableCanonicalRounding();
+        mXparser.disableUlpRounding();
+        mXparser.disableAlmostIntRounding();
+      }
+      double d = e.calculate();
+      result = new BigDecimal(d, MathContext.DECIMAL64);
+    }
+    catch (NumberFormatException nfe) {
+      String errorMessage = e != null ? e.getErrorMessage() : exprText;
+      throw new SamigoExpressionError(401, errorMessage);
+    }
+    finally {
+      mXparser.enableCanonicalRounding();
+      mXparser.enableUlpRounding();
+      mXparser.enableAlmostIntRounding();
+    }
+
+    GradingService service = new GradingService();
+    return service.toScientificNotation(result.toPlainString(), decimals);
+  }
+
 /// private data
   private String expr;          /// holds the expression
-  private BigDecimal ans;           /// holds the result of the expression
   private String ans_str;       /// holds a string containing the result
                                 /// of the expression
 
@@ -709,6 +709,41 @@ public class GradingServiceTest {
         Assert.assertEquals("9.5E-7", formulaResult);
     }
 
+    @Test
+    public void testCompiledFormulaMatchesSubstitution() throws SamigoExpressionError {
+        String[] formulas = {
+            sampleSolutionFormula,
+            "{A}-{B}",
+            "{A}^{B}",
+            "2{A}(1+{B})",
+            "{A}{B}",
+            "sqrt({A}*{A}) + PI * {C}",
+            "({A} + {B}) / {C}"
+        };
+        Map<String, String> map = new HashMap<String, String>() {{
+            put("A", "4");
+            put("B", "-10");
+            put("C", "2.5");
+        }};
+        for (String formula : formulas) {
+            String expected = gradingService.processFormulaIntoValue(gradingService.replaceMappedVariablesWithNumbers(formula, map), 3);
+            Assert.assertEquals(formula, expected, gradingService.processFormulaIntoValue(1L, formula, map, 3));
+            // second evaluation comes from the compiled cache, with other values bound
+            Map<String, String> other = new HashMap<>(map);
+            other.put("A", "7");
+            expected = gradingService.processFormulaIntoValue(gradingService.replaceMappedVariablesWithNumbers(formula, other), 3);
+            Assert.assertEquals(formula, expected, gradingService.processFormulaIntoValue(1L, formula, other, 3));
+        }
+    }
+
+    @Test(expected = SamigoExpressionError.class)
+    public void testCompiledFormulaBadFunction() throws SamigoExpressionError {
+        Map<String, String> map = new HashMap<String, String>() {{
+            put("x", "4");
+        }};
+        gradingService.processFormulaIntoValue(2L, "[phil] * {x}", map, 1);
+    }
+
     @Test
     public void testApplyPrecisionToNumberString() {
         String result;
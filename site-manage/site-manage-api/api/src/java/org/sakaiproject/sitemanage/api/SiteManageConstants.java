@@ -18,6 +18,7 @@ package org.sakaiproject.sitemanage.api;
 public class SiteManageConstants {
 
     public static final String SAK_PROP_IMPORT_NOTIFICATION = "site.setup.import.notification";
+    public static final String SAK_PROP_IMPORT_SERIAL_TOOLS = "site.setup.import.serialtools";
     public static final String SITE_INFO_TOOL_ID = "sakai.iframe.site";
     public static final String RESOURCES_TOOL_ID = "sakai.resources";
     public static final String GRADEBOOK_TOOL_ID = "sakai.gradebookng";
@@ -28,9 +28,12 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -81,6 +84,13 @@ import org.tsugi.lti13.LTICustomVars;
 @Slf4j
 public class SiteManageServiceImpl implements SiteManageService {
 
+    /**
+     * Tools imported one at a time after the others, they save the site (which would overwrite the other
+     * tools changes) or they link to content the other tools import
+     */
+    private static final String[] DEFAULT_SERIAL_IMPORT_TOOLS = {
+            "sakai.assignment", "sakai.assignment.grades", "sakai.chat", "sakai.iframe", "sakai.lessonbuildertool" };
+
     @Setter private ContentHostingService contentHostingService;
     @Setter private EntityManager entityManager;
     @Setter private EventTrackingService eventTrackingService;
@@ -98,8 +108,10 @@ public class SiteManageServiceImpl implements SiteManageService {
     @Setter private UserNotificationProvider userNotificationProvider;
 
     @Setter private Integer siteImportThreadCount;
+    @Setter private Integer toolImportThreadCount;
 
     private ExecutorService executorService;
+    private ExecutorService toolImportExecutorService;
     private Set<String> currentSiteImports;
 
     public void init() {
@@ -108,6 +120,10 @@ public class SiteManageServiceImpl implements SiteManageService {
         // which is a really low percentage
         currentSiteImports = new ConcurrentSkipListSet<>();
         executorService = Executors.newFixedThreadPool(siteImportThreadCount);
+        // the tools of an import are imported at the same time on their own pool, a site import waits for its tools
+        if (toolImportThreadCount != null && toolImportThreadCount > 1) {
+            toolImportExecutorService = Executors.newFixedThreadPool(toolImportThreadCount);
+        }
     }
 
     public void destroy() {
@@ -120,6 +136,9 @@ public class SiteManageServiceImpl implements SiteManageService {
             if (!executorService.isTerminated()) {
                 executorService.shutdownNow();
             }
+            if (toolImportExecutorService != null) {
+                toolImportExecutorService.shutdownNow();
+            }
         }
     }
 
@@ -427,12 +446,15 @@ public class SiteManageServiceImpl implements SiteManageService {
             Set<String> siteIds = new LinkedHashSet<String>();
             Map<String, String> transversalMap = new HashMap<>();
             final String toSiteId = site.getId();
+            long start = System.currentTimeMillis();
+            Map<String, Long> toolTimes = new ConcurrentHashMap<>();
 
             // import resources first
             boolean resourcesImported = false;
             for (int i = 0; i < toolIds.size() && !resourcesImported; i++) {
                 String toolId = toolIds.get(i);
                 if (StringUtils.equalsIgnoreCase(toolId, SiteManageConstants.RESOURCES_TOOL_ID) && importTools.containsKey(toolId)) {
+                    long toolStart = System.currentTimeMillis();
                     for (String fromSiteId : importTools.get(toolId)) {
                         String fromSiteCollectionId = contentHostingService.getSiteCollection(fromSiteId);
                         String toSiteCollectionId = contentHostingService.getSiteCollection(toSiteId);
@@ -441,6 +463,7 @@ public class SiteManageServiceImpl implements SiteManageService {
                         siteIds.add(fromSiteId);
                         resourcesImported = true;
                     }
+                    toolTimes.put(toolId, System.currentTimeMillis() - toolStart);
                 }
             }
 
@@ -449,42 +472,59 @@ public class SiteManageServiceImpl implements SiteManageService {
             // out all the items imported by the other tools, like Assignments.
             for (String toolId : toolIds) {
                 if (StringUtils.equalsIgnoreCase(toolId, SiteManageConstants.GRADEBOOK_TOOL_ID) && importTools.containsKey(toolId)) {
-                    for (String fromSiteId : importTools.get(toolId)) {
-                        transversalMap.putAll(transferCopyEntities(toolId, fromSiteId, toSiteId, toolOptions, cleanup));
-                        transversalMap.putAll(getDirectToolUrlEntityReferences(toolId, fromSiteId, toSiteId));
-                        siteIds.add(fromSiteId);
-                    }
+                    transversalMap.putAll(importTool(toolId, importTools.get(toolId), toSiteId, toolOptions, cleanup, toolTimes));
+                    siteIds.addAll(importTools.get(toolId));
                 }
             }
 
             // Now calendar. Same reason as gradebook.
             for (String toolId : toolIds) {
                 if (StringUtils.equalsIgnoreCase(toolId, SiteManageConstants.CALENDAR_TOOL_ID) && importTools.containsKey(toolId)) {
-                    for (String fromSiteId : importTools.get(toolId)) {
-                        transversalMap.putAll(transferCopyEntities(toolId, fromSiteId, toSiteId, toolOptions, cleanup));
-                        transversalMap.putAll(getDirectToolUrlEntityReferences(toolId, fromSiteId, toSiteId));
-                        siteIds.add(fromSiteId);
-                    }
+                    transversalMap.putAll(importTool(toolId, importTools.get(toolId), toSiteId, toolOptions, cleanup, toolTimes));
+                    siteIds.addAll(importTools.get(toolId));
                 }
             }
 
-            // Now import the rest of the tools
+            // Now import the rest of the tools. They do not depend on each other so they are imported at the same
+            // time, except the ones that change the site or link to the other tools content which go one by one after.
+            // Security advisors are not carried over to other threads so imports running with one go one by one too.
+            boolean parallel = toolImportExecutorService != null && !securityService.hasAdvisors();
+            Set<String> serialTools = getSerialImportTools();
+            List<Future<Map<String, String>>> toolImports = new ArrayList<>();
+            List<String> serialToolIds = new ArrayList<>();
             for (String toolId : toolIds) {
                 if (!StringUtils.equalsIgnoreCase(toolId, SiteManageConstants.RESOURCES_TOOL_ID)
                         && !StringUtils.equalsIgnoreCase(toolId, SiteManageConstants.GRADEBOOK_TOOL_ID)
                         && !StringUtils.equalsIgnoreCase(toolId, SiteManageConstants.CALENDAR_TOOL_ID)
                         && importTools.containsKey(toolId)) {
-                    for (String fromSiteId : importTools.get(toolId)) {
-                        if (SiteManageConstants.SITE_INFO_TOOL_ID.equals(toolId)) {
+                    if (SiteManageConstants.SITE_INFO_TOOL_ID.equals(toolId)) {
+                        for (String fromSiteId : importTools.get(toolId)) {
                             site = copySiteInformation(fromSiteId, toSiteId);
-                        } else {
-                            transversalMap.putAll(transferCopyEntities(toolId, fromSiteId, toSiteId, toolOptions, cleanup));
-                            transversalMap.putAll(getDirectToolUrlEntityReferences(toolId, fromSiteId, toSiteId));
                         }
-                        siteIds.add(fromSiteId);
+                    } else if (parallel && !serialTools.contains(toolId)) {
+                        toolImports.add(submitToolImport(toolId, importTools.get(toolId), toSiteId, toolOptions, cleanup, toolTimes));
+                    } else {
+                        serialToolIds.add(toolId);
                     }
+                    siteIds.addAll(importTools.get(toolId));
                 }
             }
+            for (Future<Map<String, String>> toolImport : toolImports) {
+                try {
+                    transversalMap.putAll(toolImport.get());
+                } catch (ExecutionException ee) {
+                    log.warn("Tool import into site {} failed, {}", toSiteId, ee.getCause().toString());
+                } catch (InterruptedException ie) {
+                    log.warn("Interrupted while waiting for the tool imports into site {}", toSiteId);
+                    toolImports.forEach(f -> f.cancel(true));
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            for (String toolId : serialToolIds) {
+                transversalMap.putAll(importTool(toolId, importTools.get(toolId), toSiteId, toolOptions, cleanup, toolTimes));
+            }
+            log.info("Imported {} tools into site {} in {} ms, time per tool (ms): {}", toolTimes.size(), toSiteId, System.currentTimeMillis() - start, toolTimes);
 
             // Update entity references
             for (String toolId : toolIds) {
@@ -498,6 +538,49 @@ public class SiteManageServiceImpl implements SiteManageService {
         }
     }
 
+    /**
+     * Transfer a copy of a tool's entities from each of the sites into the site, recording how long it took.
+     *
+     * @param toolId      the tool id
+     * @param fromSiteIds the sites to import from, in order
+     * @param toSiteId    the site to import into
+     * @param toolTimes   the time taken per tool, in ms
+     * @return the references of the entities copied, old reference to new reference
+     */
+    private Map<String, String> importTool(String toolId, List<String> fromSiteIds, String toSiteId, Map<String, List<String>> toolOptions, boolean cleanup, Map<String, Long> toolTimes) {
+        long start = System.currentTimeMillis();
+        Map<String, String> transversalMap = new HashMap<>();
+        for (String fromSiteId : fromSiteIds) {
+            transversalMap.putAll(transferCopyEntities(toolId, fromSiteId, toSiteId, toolOptions, cleanup));
+            transversalMap.putAll(getDirectToolUrlEntityReferences(toolId, fromSiteId, toSiteId));
+        }
+        toolTimes.merge(toolId, System.currentTimeMillis() - start, Long::sum);
+        return transversalMap;
+    }
+
+    /**
+     * Start a tool import on the tool import pool, as the current user.
+     */
+    private Future<Map<String, String>> submitToolImport(String toolId, List<String> fromSiteIds, String toSiteId, Map<String, List<String>> toolOptions, boolean cleanup, Map<String, Long> toolTimes) {
+        final Session session = sessionManager.getCurrentSession();
+        final ToolSession toolSession = sessionManager.getCurrentToolSession();
+        return toolImportExecutorService.submit(() -> {
+            sessionManager.setCurrentSession(session);
+            sessionManager.setCurrentToolSession(toolSession);
+            try {
+                return importTool(toolId, fromSiteIds, toSiteId, toolOptions, cleanup, toolTimes);
+            } finally {
+                // clear any sakai related state from the thread before returning it
+                threadLocalManager.clear();
+            }
+        });
+    }
+
+    private Set<String> getSerialImportTools() {
+        String[] tools = serverConfigurationService.getStrings(SiteManageConstants.SAK_PROP_IMPORT_SERIAL_TOOLS);
+        return new HashSet<>(Arrays.asList(tools != null ? tools : DEFAULT_SERIAL_IMPORT_TOOLS));
+    }
+
     /**
      * Compute the Context.id.history for the new site and insert it
      *
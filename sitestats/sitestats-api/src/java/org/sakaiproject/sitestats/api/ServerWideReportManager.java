@@ -122,5 +122,10 @@ public interface ServerWideReportManager
     public List<ServerWideStatsRecord> getToolCount ();    
     
     public byte[] generateReportChart(String reportType, int width, int height);
+
+    /**
+     * Drop the cached server-wide statistics, they are read again from the database on the next request.
+     */
+    public void clearReportCache();
 	
 }
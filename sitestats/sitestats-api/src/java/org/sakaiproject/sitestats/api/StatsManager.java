@@ -298,6 +298,47 @@ public interface StatsManager {
 			final List<String> userIds,
 			final boolean inverseUserSelection,
 			final List<String> totalsBy);
+
+	/**
+	 * Get event statistics, optionally read from the monthly rollup of the events instead of the daily totals.
+	 * The rollup only has totals by month so it can only answer reports without {@link #T_DATE} or {@link #T_LASTDATE}
+	 * totals whose dates cover whole months, and only for sites where {@link #isMonthlyEventRollupAvailable(String)}.
+	 * @see #getEventStats(String, List, Date, Date, List, boolean, PagingPosition, List, String, boolean, int)
+	 * @param monthlyRollup Read from the monthly rollup? The initial date is taken back to the start of its month.
+	 */
+	public List<Stat> getEventStats(
+			final String siteId,
+			final List<String> events, 
+			final Date iDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final PagingPosition page, 
+			final List<String> totalsBy,
+			final String sortBy,
+			final boolean sortAscending,
+			final int maxResults,
+			final boolean monthlyRollup);
+
+	/**
+	 * Get row count for event statistics, optionally read from the monthly rollup.
+	 * @see #getEventStats(String, List, Date, Date, List, boolean, PagingPosition, List, String, boolean, int, boolean)
+	 */
+	public int getEventStatsRowCount(
+			final String siteId,
+			final List<String> events, 
+			final Date iDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final List<String> totalsBy,
+			final boolean monthlyRollup);
+
+	/**
+	 * Are all the event statistics of a site in the monthly rollup? Sites are rolled up by the
+	 * rollup job, after which the rollup is kept up to date as events are collected.
+	 * @param siteId The site ID
+	 * @return false for a null site
+	 */
+	public boolean isMonthlyEventRollupAvailable(String siteId);
 	
 	/**
 	 * Get presence statistics (totals by user/event/date).
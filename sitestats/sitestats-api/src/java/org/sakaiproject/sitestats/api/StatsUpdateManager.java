@@ -98,6 +98,22 @@ public interface StatsUpdateManager {
 	 */
 	public long collectPastSiteEvents(String siteId, Date initialDate, Date finalDate);
 	
+	/**
+	 * Get sites with event stats that are not yet in the monthly event rollup. Events of these sites
+	 * are added to the rollup as they are collected, but reports only read it once the site has been
+	 * rolled up with {@link #rollupSiteEvents(String)}.
+	 * @param max The maximum number of sites to return
+	 * @return A list of site ids
+	 */
+	public List<String> getSitesWithoutEventRollup(int max);
+	
+	/**
+	 * Rebuild the monthly event rollup of a site from its event stats and mark the site as rolled up.
+	 * @param siteId The site id
+	 * @return True if the site was successfully rolled up.
+	 */
+	public boolean rollupSiteEvents(String siteId);
+	
 	/**
 	 * Construct a new Event object using specified arguments. Useful for building Events read from SAKAI_EVENT and SAKAI_SESSION table.
 	 * @param date The SAKAI_EVENT.EVENT_DATE field
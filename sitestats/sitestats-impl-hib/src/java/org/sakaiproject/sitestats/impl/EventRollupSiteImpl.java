@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2006-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.sitestats.impl;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Marks a site whose monthly event rollup ({@link EventStatMonthImpl}) holds all of its event stats,
+ * either because it was rebuilt from SST_EVENTS or because the site had no stats before the rollup
+ * was kept up to date.
+ */
+public class EventRollupSiteImpl implements Serializable {
+	private static final long	serialVersionUID	= 1L;
+	private String	siteId;
+	private Date	rollupDate;
+
+	public EventRollupSiteImpl() {
+	}
+
+	public EventRollupSiteImpl(String siteId, Date rollupDate) {
+		this.siteId = siteId;
+		this.rollupDate = rollupDate;
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public void setSiteId(String siteId) {
+		this.siteId = siteId;
+	}
+
+	/** @return when the site was marked as rolled up */
+	public Date getRollupDate() {
+		return rollupDate;
+	}
+
+	public void setRollupDate(Date rollupDate) {
+		this.rollupDate = rollupDate;
+	}
+}
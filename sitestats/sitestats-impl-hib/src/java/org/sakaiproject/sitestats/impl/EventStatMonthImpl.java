@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2006-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.sitestats.impl;
+
+/**
+ * An {@link EventStatImpl} rolled up by month: the total for a user, site and event over a month,
+ * dated the first day of the month. Mapped with explicit polymorphism so queries for
+ * {@link EventStatImpl} never return these.
+ */
+public class EventStatMonthImpl extends EventStatImpl {
+	private static final long	serialVersionUID	= 1L;
+
+	public EventStatMonthImpl() {
+	}
+}
@@ -38,6 +38,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Supplier;
 
 import javax.imageio.ImageIO;
 
@@ -80,6 +81,8 @@ import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.db.api.SqlReader;
 import org.sakaiproject.db.api.SqlService;
 import org.sakaiproject.event.api.UsageSessionService;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
 import org.sakaiproject.sitestats.api.ServerWideReportManager;
 import org.sakaiproject.sitestats.api.ServerWideStatsRecord;
 import org.sakaiproject.sitestats.api.StatsManager;
@@ -119,6 +122,11 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 	@Setter
 	private ServerConfigurationService serverConfigurationService;
 
+	@Setter
+	private MemoryService memoryService;
+
+	private Cache<String, List<ServerWideStatsRecord>> reportCache;
+
 	private String dbVendor;
 	private String externalDbName;
 
@@ -134,17 +142,44 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 		} else {
 			log.info("ServerWideReportManagerImpl will query for Sitestats data in the main Sakai database");
 		}
-		
+
+		reportCache = memoryService.getCache(ServerWideReportManager.class.getName());
 	}
 
 	public void destroy (){}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.ServerWideReportManager#clearReportCache()
+	 */
+	public void clearReportCache() {
+		reportCache.clear();
+	}
+
+	/**
+	 * The server-wide reports read all the stats ever collected, keep the records until the cache expires
+	 * or the report rollups are next built.
+	 */
+	private List<ServerWideStatsRecord> cached(String key, Supplier<List<ServerWideStatsRecord>> query) {
+		List<ServerWideStatsRecord> records = reportCache.get(key);
+		if (records == null) {
+			records = query.get();
+			reportCache.put(key, records);
+		}
+		// charts and callers are free to change the list they get
+		return new ArrayList<>(records);
+	}
+
 	
 	/*
 	 * (non-Javadoc)
 	 * @see org.sakaiproject.sitestats.api.ServerWideReportManager#getMonthlyTotalLogins()
 	 */
 	public List<ServerWideStatsRecord> getMonthlyTotalLogins() {
+		return cached("getMonthlyTotalLogins", this::queryMonthlyTotalLogins);
+	}
+
+	private List<ServerWideStatsRecord> queryMonthlyTotalLogins() {
 		
 		String mysql = "select STR_TO_DATE(date_format(ACTIVITY_DATE, '%Y-%m-01'),'%Y-%m-%d') as period," +
 				" sum(ACTIVITY_COUNT) as user_logins" +
@@ -187,6 +222,10 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 	 * @see org.sakaiproject.sitestats.api.ServerWideReportManager#getMonthlyUniqueLogins()
 	 */
 	public List<ServerWideStatsRecord> getMonthlyUniqueLogins() {
+		return cached("getMonthlyUniqueLogins", this::queryMonthlyUniqueLogins);
+	}
+
+	private List<ServerWideStatsRecord> queryMonthlyUniqueLogins() {
 		
 		String mysql = "select STR_TO_DATE(date_format(LOGIN_DATE, '%Y-%m-01'),'%Y-%m-%d') as period," +
 				" count(distinct user_id) as unique_users" +
@@ -225,6 +264,10 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 	 * @see org.sakaiproject.sitestats.api.ServerWideReportManager#getWeeklyTotalLogins()
 	 */
 	public List<ServerWideStatsRecord> getWeeklyTotalLogins() {
+		return cached("getWeeklyTotalLogins", this::queryWeeklyTotalLogins);
+	}
+
+	private List<ServerWideStatsRecord> queryWeeklyTotalLogins() {
 		
 		
 		String mysql = "select STR_TO_DATE(concat(date_format(ACTIVITY_DATE, '%x-%v'), ' Monday'),'%x-%v %W') as week_start," +
@@ -266,6 +309,10 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 	 * @see org.sakaiproject.sitestats.api.ServerWideReportManager#getWeeklyUniqueLogins()
 	 */
 	public List<ServerWideStatsRecord> getWeeklyUniqueLogins() {
+		return cached("getWeeklyUniqueLogins", this::queryWeeklyUniqueLogins);
+	}
+
+	private List<ServerWideStatsRecord> queryWeeklyUniqueLogins() {
 		
 		String mysql = "select STR_TO_DATE(concat(date_format(LOGIN_DATE, '%x-%v'), ' Monday'),'%x-%v %W') as week_start," +
 				" count(distinct user_id) as unique_users" +
@@ -304,6 +351,10 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 	 * @see org.sakaiproject.sitestats.api.ServerWideReportManager#getDailyTotalLogins()
 	 */
 	public List<ServerWideStatsRecord> getDailyTotalLogins() {
+		return cached("getDailyTotalLogins", this::queryDailyTotalLogins);
+	}
+
+	private List<ServerWideStatsRecord> queryDailyTotalLogins() {
 		
 		String mysql = "select date(ACTIVITY_DATE) as session_date, " +
 				" ACTIVITY_COUNT as user_logins" +
@@ -348,6 +399,10 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 	 * @see org.sakaiproject.sitestats.api.ServerWideReportManager#getDailyUniqueLogins()
 	 */
 	public List<ServerWideStatsRecord> getDailyUniqueLogins() {
+		return cached("getDailyUniqueLogins", this::queryDailyUniqueLogins);
+	}
+
+	private List<ServerWideStatsRecord> queryDailyUniqueLogins() {
 		
 		String mysql = "select date(LOGIN_DATE) as session_date, " +
 				" count(distinct user_id) as unique_users" +
@@ -386,6 +441,10 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 	}
 
 	public List<ServerWideStatsRecord> getSiteCreatedDeletedStats(String period) {
+		return cached("getSiteCreatedDeletedStats." + period, () -> querySiteCreatedDeletedStats(period));
+	}
+
+	private List<ServerWideStatsRecord> querySiteCreatedDeletedStats(String period) {
 		String mysqlPeriod = "";
 		if (period.equals ("daily")) {
 			mysqlPeriod = "date(ACTIVITY_DATE) as event_period";
@@ -452,7 +511,11 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 		return result;
 	}
 
-	public List<ServerWideStatsRecord> getNewUserStats(String period)
+	public List<ServerWideStatsRecord> getNewUserStats(String period) {
+		return cached("getNewUserStats." + period, () -> queryNewUserStats(period));
+	}
+
+	private List<ServerWideStatsRecord> queryNewUserStats(String period)
 	{
 		String mysqlPeriod = "";
 		if (period.equals ("daily")) {
@@ -518,7 +581,11 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 		return result;
 	}
 
-	public List<ServerWideStatsRecord> getTop20Activities()
+	public List<ServerWideStatsRecord> getTop20Activities() {
+		return cached("getTop20Activities", this::queryTop20Activities);
+	}
+
+	private List<ServerWideStatsRecord> queryTop20Activities()
 	{
 		String mysql = "SELECT event_id, "
 				+ "sum(if(event_date > DATE_SUB(CURDATE(), INTERVAL 7 DAY),1,0))/7 as last7, "
@@ -564,7 +631,11 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 		return result;
 	}
 
-	public List<ServerWideStatsRecord> getWeeklyRegularUsers ()
+	public List<ServerWideStatsRecord> getWeeklyRegularUsers() {
+		return cached("getWeeklyRegularUsers", this::queryWeeklyRegularUsers);
+	}
+
+	private List<ServerWideStatsRecord> queryWeeklyRegularUsers()
 	{
 		String mysql = "select s.week_start, sum(if(s.user_logins >= 5,1,0)) as five_plus, "
 				+ "sum(if(s.user_logins = 4,1,0)) as four, "
@@ -616,9 +687,13 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 		return result;
 	}
 
+	public List<ServerWideStatsRecord> getHourlyUsagePattern() {
+		return cached("getHourlyUsagePattern", this::queryHourlyUsagePattern);
+	}
+
 	// this has not been reimplemented in STAT-299 because the data is not tracked at an hourly level
 	// in any case, the data is only shown for a 30 day period so you could think about retaining the data for 30 days, perhaps.
-	public List<ServerWideStatsRecord> getHourlyUsagePattern ()
+	private List<ServerWideStatsRecord> queryHourlyUsagePattern()
 	{
 		String mysql = "select date(SESSION_START) as session_date, "
 				+ "hour(session_start) as hour_start, "
@@ -655,7 +730,11 @@ public class ServerWideReportManagerImpl implements ServerWideReportManager
 		return result;
 	}
 
-	public List<ServerWideStatsRecord> getToolCount ()
+	public List<ServerWideStatsRecord> getToolCount() {
+		return cached("getToolCount", this::queryToolCount);
+	}
+
+	private List<ServerWideStatsRecord> queryToolCount()
 	{
 		String mysql = "SELECT registration, count(*) as site_count " +
 				"FROM SAKAI_SITE_TOOL " +
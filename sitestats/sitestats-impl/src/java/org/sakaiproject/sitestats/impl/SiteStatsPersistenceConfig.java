@@ -98,6 +98,8 @@ public class SiteStatsPersistenceConfig {
         return new String[] {
                 "org/sakaiproject/sitestats/impl/hbm/PrefsImpl.hbm.xml",
                 "org/sakaiproject/sitestats/impl/hbm/EventStatImpl.hbm.xml",
+                "org/sakaiproject/sitestats/impl/hbm/EventStatMonthImpl.hbm.xml",
+                "org/sakaiproject/sitestats/impl/hbm/EventRollupSiteImpl.hbm.xml",
                 "org/sakaiproject/sitestats/impl/hbm/DetailedEventImpl.hbm.xml",
                 "org/sakaiproject/sitestats/impl/hbm/LessonBuilderStatImpl.hbm.xml",
                 "org/sakaiproject/sitestats/impl/hbm/ResourceStatImpl.hbm.xml",
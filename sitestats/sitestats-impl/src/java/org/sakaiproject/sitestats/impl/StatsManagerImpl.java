@@ -33,6 +33,7 @@ import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.digester.Digester;
 import org.apache.commons.lang3.BooleanUtils;
@@ -146,6 +147,8 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 	
 	/** Caching */
 	private Cache<String, PrefsData> cachePrefsData = null;
+	/** Sites whose events are all in the monthly rollup, a site never leaves it */
+	private final Set<String> monthlyRollupSites = ConcurrentHashMap.newKeySet();
 
 	// ################################################################
 	// Spring init/destroy methods
@@ -1116,12 +1119,32 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final String sortBy, 
 			boolean sortAscending,
 			final int maxResults) {
+		return getEventStats(siteId, events, iDate, fDate, userIds, inverseUserSelection, page, totalsBy, sortBy, sortAscending, maxResults, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsManager#getEventStats(java.lang.String, java.util.List, java.util.Date, java.util.Date, java.util.List, boolean, org.sakaiproject.javax.PagingPosition, java.util.List, java.lang.String, boolean, int, boolean)
+	 */
+	public List<Stat> getEventStats(
+			final String siteId,
+			final List<String> events,
+			final Date rDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final PagingPosition page, 
+			final List<String> totalsBy, 
+			final String sortBy, 
+			boolean sortAscending,
+			final int maxResults,
+			final boolean monthlyRollup) {
 		
+		final Date iDate = monthlyRollup ? getFirstDayOfMonth(rDate) : rDate;
 		final Set<String> anonymousEvents = eventRegistryService.getAnonymousEventIds();
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
 				Q_TYPE_EVENT, totalsBy, siteId, 
 				events, anonymousEvents, showAnonymousAccessEvents, null, null, 
 				iDate, fDate, userIds, inverseUserSelection, sortBy, sortAscending);
+		sqlBuilder.setMonthlyRollup(monthlyRollup);
 		final String hql = sqlBuilder.getHQL();
 		final Map<Integer,Integer> columnMap = sqlBuilder.getHQLColumnMap();
 		
@@ -1339,12 +1362,28 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 			final List<String> userIds,
 			final boolean inverseUserSelection,
 			final List<String> totalsBy) {
+		return getEventStatsRowCount(siteId, events, iDate, fDate, userIds, inverseUserSelection, totalsBy, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsManager#getEventStatsRowCount(java.lang.String, java.util.List, java.util.Date, java.util.Date, java.util.List, boolean, java.util.List, boolean)
+	 */
+	public int getEventStatsRowCount(
+			final String siteId,
+			final List<String> events,
+			final Date rDate, final Date fDate,
+			final List<String> userIds,
+			final boolean inverseUserSelection,
+			final List<String> totalsBy,
+			final boolean monthlyRollup) {
 		
+		final Date iDate = monthlyRollup ? getFirstDayOfMonth(rDate) : rDate;
 		final Set<String> anonymousEvents = eventRegistryService.getAnonymousEventIds();
 		StatsSqlBuilder sqlBuilder = new StatsSqlBuilder(getDbVendor(),
 				Q_TYPE_EVENT, totalsBy,
 				siteId, events, anonymousEvents, showAnonymousAccessEvents, null, null, 
 				iDate, fDate, userIds, inverseUserSelection, null, true);
+		sqlBuilder.setMonthlyRollup(monthlyRollup);
 		final String hql = sqlBuilder.getHQL();
 		final Map<Integer,Integer> columnMap = sqlBuilder.getHQLColumnMap();
 
@@ -1397,6 +1436,36 @@ public class StatsManagerImpl extends HibernateDaoSupport implements StatsManage
 		return getHibernateTemplate().execute(hcb);
 	}
 	
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsManager#isMonthlyEventRollupAvailable(java.lang.String)
+	 */
+	public boolean isMonthlyEventRollupAvailable(final String siteId) {
+		if(siteId == null) {
+			return false;
+		}
+		if(monthlyRollupSites.contains(siteId)) {
+			return true;
+		}
+		EventRollupSiteImpl rollupSite = getHibernateTemplate().execute(session -> session.get(EventRollupSiteImpl.class, siteId));
+		if(rollupSite == null) {
+			return false;
+		}
+		monthlyRollupSites.add(siteId);
+		return true;
+	}
+
+	private Date getFirstDayOfMonth(Date date) {
+		if(date == null) return null;
+		Calendar c = Calendar.getInstance();
+		c.setTime(date);
+		c.set(Calendar.DAY_OF_MONTH, 1);
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTime();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.sitestats.api.StatsManager#getEventStats(java.lang.String, java.util.List, java.util.Date, java.util.Date, java.util.List, boolean, org.sakaiproject.javax.PagingPosition, java.lang.String, java.lang.String, boolean)
 	 */
@@ -2362,6 +2431,7 @@ if (log.isDebugEnabled()) {
 		private boolean					inverseUserSelection;
 		private String					sortBy;
 		private boolean					sortAscending;	
+		private boolean					monthlyRollup;
 		
 		public StatsSqlBuilder(
 				final String dbVendor,
@@ -2436,6 +2506,11 @@ if (log.isDebugEnabled()) {
 					sortAscending);
 		}
 		
+		/** Read event stats from the monthly rollup instead of the daily totals */
+		public void setMonthlyRollup(boolean monthlyRollup) {
+			this.monthlyRollup = monthlyRollup;
+		}
+
 		public String getHQL() {
 			StringBuilder hql = new StringBuilder();
 			hql.append(getSelectClause());
@@ -2582,7 +2657,7 @@ if (log.isDebugEnabled()) {
 		
 		private String getFromClause() {
 			if(queryType == Q_TYPE_EVENT) {
-				return "from EventStatImpl as s ";
+				return monthlyRollup ? "from EventStatMonthImpl as s " : "from EventStatImpl as s ";
 			}else if(queryType == Q_TYPE_RESOURCE){
 				return "from ResourceStatImpl as s ";
 			}else if(queryType == Q_TYPE_VISITSTOTALS){
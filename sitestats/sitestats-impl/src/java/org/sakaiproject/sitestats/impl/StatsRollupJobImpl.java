@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2006-2023 The Apereo Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://opensource.org/licenses/ecl2
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.sitestats.impl;
+
+import java.util.List;
+
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.StatefulJob;
+
+import org.sakaiproject.sitestats.api.ServerWideReportManager;
+import org.sakaiproject.sitestats.api.StatsUpdateManager;
+
+/**
+ * Builds the monthly event rollup of the sites collected before it existed, a batch of sites per run, and
+ * drops the cached server-wide reports. Events collected since are added to the rollup as they are collected,
+ * so once every site is rolled up a run only refreshes the server-wide reports.
+ */
+@Slf4j
+public class StatsRollupJobImpl implements StatefulJob {
+
+	@Setter private StatsUpdateManager			statsUpdateManager;
+	@Setter private ServerWideReportManager		serverWideReportManager;
+
+	/** Maximum number of sites rolled up on each run */
+	@Setter private int							sitesPerRun				= 500;
+
+	public void execute(JobExecutionContext context) throws JobExecutionException {
+		long start = System.currentTimeMillis();
+		List<String> siteIds = statsUpdateManager.getSitesWithoutEventRollup(sitesPerRun);
+		int rolledUp = 0;
+		for(String siteId : siteIds) {
+			if(statsUpdateManager.rollupSiteEvents(siteId)) {
+				rolledUp++;
+			}
+		}
+		serverWideReportManager.clearReportCache();
+		log.info("SiteStats report rollups: rolled up {} of {} sites in {} ms", rolledUp, siteIds.size(), System.currentTimeMillis() - start);
+	}
+}
@@ -21,16 +21,30 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
@@ -99,25 +113,30 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	@Setter private EventTrackingService	eventTrackingService;
 
 	/** Collect Thread and Semaphore */
-	private List<Event>	collectThreadQueue		= new ArrayList<>();
+	@Getter @Setter private int	collectThreadQueueCapacity	= 100000;
+	private BlockingQueue<Event>	collectThreadQueue		= new LinkedBlockingQueue<>(collectThreadQueueCapacity);
 	private Object		collectThreadSemaphore	= new Object();
 	private boolean		collectThreadRunning	= false;
 
-	/** Collect thread queue maps */
-	private Map<String, EventStat>					eventStatMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, ResourceStat>				resourceStatMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, LessonBuilderStat>			lessonBuilderStatMap	= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, SiteActivity>				activityMap				= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, SiteVisits>					visitsMap				= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, SitePresenceConsolidation>	presencesMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<UniqueVisitsKey, Integer>			uniqueVisitsMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, ServerStat>					serverStatMap			= Collections.synchronizedMap(new HashMap<>());
-	private Map<String, UserStat>					userStatMap				= Collections.synchronizedMap(new HashMap<>());
+	/** Events taken off the queue at a time by the collect thread */
+	private static final int	DRAIN_BATCH_SIZE		= 1000;
+	/** Rows looked up at a time when merging the consolidated stats with the db */
+	private static final int	UPSERT_BATCH_SIZE		= 500;
 
-	private Map<String, String>	lessonPageCreateEventMap	= new HashMap<>();
-	private List<DetailedEvent>	detailedEvents				= Collections.synchronizedList(new ArrayList<>());
+	/**
+	 * Collect thread consolidation, one shard per site. A shard is only ever touched inside compute() or remove() on
+	 * this map, so events for different sites never wait on each other and a shard removed for the db update can't
+	 * be written to afterwards.
+	 */
+	private final ConcurrentMap<String, SiteConsolidation>	siteConsolidations	= new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ServerStat>			serverStatMap		= new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, UserStat>			userStatMap			= new ConcurrentHashMap<>();
+
+	private final Map<String, String>	lessonPageCreateEventMap	= new ConcurrentHashMap<>();
+	private final Queue<DetailedEvent>	detailedEvents				= new ConcurrentLinkedQueue<>();
 
 	private boolean				initialized	= false;
+	/** Serializes the db updates only, consolidating events never waits on it */
 	private final ReentrantLock	lock		= new ReentrantLock();
 
 	/** Metrics */
@@ -125,6 +144,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	@Getter private long	totalEventsProcessed		= 0;
 	@Getter private long	totalTimeInEventProcessing	= 0;
 	@Getter private long	resetTime					= System.currentTimeMillis();
+	private final AtomicLong	totalEventsDropped		= new AtomicLong();
 
 	// ################################################################
 	// Spring related methods
@@ -160,8 +180,10 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		buff.append(", collect administrator events: ").append(collectAdminEvents);
 		buff.append(", collect events only for sites with SiteStats: ").append(collectEventsForSiteWithToolOnly);
 		buff.append(", collect detailed events: ").append(collectDetailedEvents);
+		buff.append(", event queue capacity: ").append(collectThreadQueueCapacity);
 		logger.info(buff.toString());
 		
+		collectThreadQueue = new LinkedBlockingQueue<>(collectThreadQueueCapacity);
 		initialized = true;
 		setCollectThreadEnabled(collectThreadEnabled);
 	}
@@ -324,9 +346,15 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	public void resetMetrics() {
 		totalEventsProcessed = 0;
 		totalTimeInEventProcessing = 0;
+		totalEventsDropped.set(0);
 		resetTime = System.currentTimeMillis();
 	}
 
+	/** @return the number of events dropped since reset because the event queue was full */
+	public long getTotalEventsDropped() {
+		return totalEventsDropped.get();
+	}
+
 	@Override
 	public long getTotalTimeElapsedSinceReset() {
 		return System.currentTimeMillis() - resetTime;
@@ -372,6 +400,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("\t\tNumber of events genereated in Sakai per sec: ").append(getNumberOfEventsGeneratedPerSec()).append("\n");
 			sb.append("\t\tAverage time spent in event processing per event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms\n");
 			sb.append("\t\tEvent queue size: ").append(getQueueSize()).append("\n");
+			sb.append("\t\tNumber of events dropped (queue full): ").append(getTotalEventsDropped()).append("\n");
 			sb.append("\t\tIdle: ").append(isIdle());
 		}else{
 			sb.append("#Events processed: ").append(getTotalEventsProcessed()).append(", ");
@@ -380,6 +409,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 			sb.append("#Events processed/sec: ").append(getNumberOfEventsProcessedPerSec()).append(", ");
 			sb.append("Avg. Time/event: ").append(getAverageTimeInEventProcessingPerEvent()).append(" ms, ");
 			sb.append("Event queue size: ").append(getQueueSize()).append(", ");
+			sb.append("#Events dropped: ").append(getTotalEventsDropped()).append(", ");
 			sb.append("Idle: ").append(isIdle());
 		}
 		return sb.toString();
@@ -391,12 +421,16 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################	
 	/** Method called whenever an new event is generated from EventTrackingService: do not call this method! */
 	public void update(Observable obs, Object o) {
-		// At the moment this isn't threadsafe, but as sakai event handling is single threaded this shoudn't be a problem,
-		// but it's not a formal contract.
 		if(o instanceof Event){
 			Event e = (Event) o;
 			Event eventWithPreciseDate = buildEvent(getToday(), e.getEvent(), e.getResource(), e.getContext(), e.getUserId(), e.getSessionId());
-			collectThreadQueue.add(eventWithPreciseDate);
+			if(!collectThreadQueue.offer(eventWithPreciseDate)) {
+				// never hold up the thread delivering events, the statistics are lost instead
+				long dropped = totalEventsDropped.incrementAndGet();
+				if(dropped % 1000 == 1) {
+					log.warn("Statistics event queue is full ({} events), {} event(s) dropped since reset", collectThreadQueueCapacity, dropped);
+				}
+			}
 		}
 	}
 	
@@ -408,14 +442,15 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				// do update job
 				isIdle = false;
 				long startTime = System.currentTimeMillis();
+				// only take what is queued now so a busy queue can't hold off the db update
 				int eventCount = collectThreadQueue.size();
-				if(eventCount > 0) {
-					//long startTime2 = System.currentTimeMillis();
-					while(collectThreadQueue.size() > 0){
-						preProcessEvent(collectThreadQueue.remove(0));
+				List<Event> batch = new ArrayList<>(Math.min(eventCount, DRAIN_BATCH_SIZE));
+				while(eventCount > 0 && collectThreadQueue.drainTo(batch, Math.min(eventCount, DRAIN_BATCH_SIZE)) > 0){
+					eventCount -= batch.size();
+					for(Event e : batch) {
+						preProcessEvent(e);
 					}
-					//long endTime2 = System.currentTimeMillis();
-					//log.debug("Time spent pre-processing " + eventCount + " event(s): " + (endTime2-startTime2) + " ms");
+					batch.clear();
 				}
 				transactionTemplate.execute(status -> doUpdateConsolidatedEvents());
 				isIdle = true;
@@ -575,20 +610,30 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		// update		
 		if(isRegisteredEvent(eventId) && !StatsManager.SITEVISITEND_EVENTID.equals(eventId)){
 
-			// add to eventStatMap
-			String key = userId+siteId+eventId+date;
-			synchronized(eventStatMap){
-				EventStat e1 = eventStatMap.get(key);
-				if(e1 == null){
-					e1 = new EventStatImpl();
-					e1.setUserId(userId);
-					e1.setSiteId(siteId);
-					e1.setEventId(eventId);
-					e1.setDate(date);
-				}
+			consolidate(siteId, shard -> {
+				// add to eventStats
+				EventStat e1 = shard.eventStats.computeIfAbsent(userId+eventId+date, k -> {
+					EventStat e = new EventStatImpl();
+					e.setUserId(userId);
+					e.setSiteId(siteId);
+					e.setEventId(eventId);
+					e.setDate(date);
+					return e;
+				});
 				e1.setCount(e1.getCount() + 1);
-				eventStatMap.put(key, e1);
-			}
+
+				if(!StatsManager.SITEVISIT_EVENTID.equals(eventId)){
+					// add to activities
+					SiteActivity e2 = shard.activities.computeIfAbsent(eventId+date, k -> {
+						SiteActivity e = new SiteActivityImpl();
+						e.setSiteId(siteId);
+						e.setDate(date);
+						e.setEventId(eventId);
+						return e;
+					});
+					e2.setCount(e2.getCount() + 1);
+				}
+			});
 
 			if (collectDetailedEvents) {
 				DetailedEvent de = new DetailedEventImpl();
@@ -599,46 +644,29 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				de.setEventRef(resourceRef);
 				detailedEvents.add(de);
 			}
-
-			if(!StatsManager.SITEVISIT_EVENTID.equals(eventId)){
-				// add to activityMap
-				String key2 = siteId+date+eventId;
-				synchronized(activityMap){
-					SiteActivity e2 = activityMap.get(key2);
-					if(e2 == null){
-						e2 = new SiteActivityImpl();
-						e2.setSiteId(siteId);
-						e2.setDate(date);
-						e2.setEventId(eventId);
-					}
-					e2.setCount(e2.getCount() + 1);
-					activityMap.put(key2, e2);
-				}
-			}
 		}	
 
 		if(eventId.startsWith(StatsManager.RESOURCE_EVENTID_PREFIX)){
-			// add to resourceStatMap
+			// add to resourceStats
 			String resourceAction = null;
 			try{
 				resourceAction = eventId.split("\\.")[1];
 			}catch(ArrayIndexOutOfBoundsException ex){
 				resourceAction = eventId;
 			}
-			String key = userId+siteId+resourceRef+resourceAction+date;
-			synchronized(resourceStatMap){
-				ResourceStat e1 = resourceStatMap.get(key);
-				if(e1 == null){
-					e1 = new ResourceStatImpl();
-					e1.setUserId(userId);
-					e1.setSiteId(siteId);
-					e1.setResourceRef(resourceRef);
-					e1.setResourceAction(resourceAction);
-					e1.setDate(date);
-				}
+			final String action = resourceAction;
+			consolidate(siteId, shard -> {
+				ResourceStat e1 = shard.resourceStats.computeIfAbsent(userId+resourceRef+action+date, k -> {
+					ResourceStat e = new ResourceStatImpl();
+					e.setUserId(userId);
+					e.setSiteId(siteId);
+					e.setResourceRef(resourceRef);
+					e.setResourceAction(action);
+					e.setDate(date);
+					return e;
+				});
 				e1.setCount(e1.getCount() + 1);
-				resourceStatMap.put(key, e1);
-			}
+			});
 		} else if (eventId.startsWith(StatsManager.LESSONS_EVENTID_PREFIX)) {
 			String[] resourceParts = resourceRef.split("/");
 			if (resourceParts.length > 3) {
@@ -652,7 +680,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					lessonBuilderAction = eventId;
 				}
 
-				String key = userId + siteId + lessonBuilderAction + pageId + date;
+				String key = userId + lessonBuilderAction + pageId + date;
 
 				if ("create".equals(lessonBuilderAction)) {
 					// We cache create events so we can ignore read events from page creators
@@ -704,55 +732,40 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 				}
 			}
 		} else if(StatsManager.SITEVISIT_EVENTID.equals(eventId)){
-			// add to visitsMap
-			String key = siteId+date;
-			lock.lock();
-			try{
-				SiteVisits e1 = visitsMap.get(key);
-				if(e1 == null){
-					e1 = new SiteVisitsImpl();
-					e1.setSiteId(siteId);
-					e1.setDate(date);
-				}
+			consolidate(siteId, shard -> {
+				// add to visits, unique visits are determined when updating to db
+				SiteVisits e1 = shard.visits.computeIfAbsent(String.valueOf(date), k -> {
+					SiteVisits e = new SiteVisitsImpl();
+					e.setSiteId(siteId);
+					e.setDate(date);
+					return e;
+				});
 				e1.setTotalVisits(e1.getTotalVisits() + 1);
-				// unique visits are determined when updating to db:
-				//	 --> e1.setTotalUnique(totalUnique);
-				visitsMap.put(key, e1);
-				// place entry on map so we can update unique visits later
-				UniqueVisitsKey keyUniqueVisits = new UniqueVisitsKey(siteId, date);
-				uniqueVisitsMap.put(keyUniqueVisits, Integer.valueOf(1));
-				
+
 				// site presence started
 				if(statsManager.getEnableSitePresences()) {
-					String pKey = siteId+userId+date;
-					SitePresenceConsolidation spc = presencesMap.get(pKey);
-					if(spc == null) {
+					SitePresenceConsolidation spc = shard.presences.computeIfAbsent(userId+date, k -> {
 						SitePresence sp = new SitePresenceImpl();
 						sp.setSiteId(siteId);
 						sp.setUserId(userId);
 						sp.setDate(date);
-						spc = new SitePresenceConsolidation(sp);
-					}
+						return new SitePresenceConsolidation(sp);
+					});
 					spc.sitePresence.setLastVisitStartTime(dateTime);
-					presencesMap.put(pKey, spc);					
 				}
-			}finally{
-				lock.unlock();
-			}
+			});
 			
 		}else if(StatsManager.SITEVISITEND_EVENTID.equals(eventId) && statsManager.getEnableSitePresences()){
 			// site presence ended
-			String pKey = siteId+userId+date;
-			lock.lock();
-			try{
-				SitePresenceConsolidation spc = presencesMap.get(pKey);
+			consolidate(siteId, shard -> {
+				String pKey = userId+date;
+				SitePresenceConsolidation spc = shard.presences.get(pKey);
 				if(spc == null) {
 					Calendar c = Calendar.getInstance();
 					c.setTime(date);
 					c.add(Calendar.DATE, -1);
 					Date dateOneDayBefore = c.getTime();
-					pKey = siteId+userId+dateOneDayBefore;
-					spc = presencesMap.get(pKey);
+					spc = shard.presences.get(userId+dateOneDayBefore);
 				}
 				if(spc == null) {
 					SitePresence sp = new SitePresenceImpl();
@@ -761,6 +774,7 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					sp.setDate(date);
 					sp.setLastVisitStartTime(null);
 					spc = new SitePresenceConsolidation(sp, dateTime);
+					shard.presences.put(pKey, spc);
 				}
 				if(spc.sitePresence.getLastVisitStartTime() != null) {
 					long existingDuration = spc.sitePresence.getDuration();
@@ -773,30 +787,37 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 					spc.sitePresence.setDuration(existingDuration + additionalDuration);
 					spc.sitePresence.setLastVisitStartTime(null);
 				}
-				presencesMap.put(pKey, spc);
-			}finally{
-				lock.unlock();
-			}
+			});
 		}
 		
 	}
 
 	private void addToLessonBuilderStatMap(String key, String userId, String siteId, String pageRef, long pageId, String action, Date date) {
 
-		synchronized (lessonBuilderStatMap) {
-			LessonBuilderStat e1 = lessonBuilderStatMap.get(key);
-			if (e1 == null) {
-				e1 = new LessonBuilderStatImpl();
-				e1.setUserId(userId);
-				e1.setSiteId(siteId);
-				e1.setPageRef(pageRef);
-				e1.setPageId(pageId);
-				e1.setPageAction(action);
-				e1.setDate(date);
-			}
+		consolidate(siteId, shard -> {
+			LessonBuilderStat e1 = shard.lessonBuilderStats.computeIfAbsent(key, k -> {
+				LessonBuilderStat e = new LessonBuilderStatImpl();
+				e.setUserId(userId);
+				e.setSiteId(siteId);
+				e.setPageRef(pageRef);
+				e.setPageId(pageId);
+				e.setPageAction(action);
+				e.setDate(date);
+				return e;
+			});
 			e1.setCount(e1.getCount() + 1);
-			lessonBuilderStatMap.put(key, e1);
-		}
+		});
+	}
+
+	/** Update the consolidation shard for a site, creating it if the site has none pending */
+	private void consolidate(String siteId, Consumer<SiteConsolidation> update) {
+		siteConsolidations.compute(siteId, (id, shard) -> {
+			if(shard == null) {
+				shard = new SiteConsolidation();
+			}
+			update.accept(shard);
+			return shard;
+		});
 	}
 
 	protected boolean isRegisteredEvent(String eventId) {
@@ -809,17 +830,15 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		Date date = getTruncatedDate(dateTime);
 				
 		// add to serverStatMap
-		String key = eventId+date;
-		synchronized(serverStatMap){
-			ServerStat s = serverStatMap.get(key);
+		serverStatMap.compute(eventId+date, (key, s) -> {
 			if(s == null){
 				s = new ServerStatImpl();
 				s.setEventId(eventId);
 				s.setDate(date);
 			}
 			s.setCount(s.getCount() + 1);
-			serverStatMap.put(key, s);
-		}
+			return s;
+		});
 		
 	}
 	
@@ -829,17 +848,15 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		Date date = getTruncatedDate(dateTime);
 				
 		// add to userStatMap
-		String key = userId+date;
-		synchronized(userStatMap){
-			UserStat s = userStatMap.get(key);
+		userStatMap.compute(userId+date, (key, s) -> {
 			if(s == null){
 				s = new UserStatImpl();
 				s.setUserId(userId);
 				s.setDate(date);
 			}
 			s.setCount(s.getCount() + 1);
-			userStatMap.put(key, s);
-		}
+			return s;
+		});
 		
 	}
 	
@@ -847,173 +864,255 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 	// ################################################################
 	// Db update methods
 	// ################################################################	
-	@SuppressWarnings("unchecked")
-	private synchronized boolean doUpdateConsolidatedEvents() {
+	private boolean doUpdateConsolidatedEvents() {
+		if(siteConsolidations.isEmpty() && serverStatMap.isEmpty() && userStatMap.isEmpty() && detailedEvents.isEmpty()) {
+			return true;
+		}
 		long startTime = System.currentTimeMillis();
-		if(eventStatMap.size() > 0 || resourceStatMap.size() > 0
-				|| activityMap.size() > 0 || uniqueVisitsMap.size() > 0 
-				|| visitsMap.size() > 0 || presencesMap.size() > 0
-				|| serverStatMap.size() > 0 || userStatMap.size() > 0 || detailedEvents.size() > 0) {
-
-		    try {
-				getHibernateTemplate().execute(session -> {
-                    // do: EventStat
-                    if(eventStatMap.size() > 0) {
-                        Collection<EventStat> tmp1 = null;
-                        synchronized(eventStatMap){
-                            tmp1 = eventStatMap.values();
-                            eventStatMap = Collections.synchronizedMap(new HashMap<String, EventStat>());
-                        }
-                        doUpdateEventStatObjects(session, tmp1);
-                    }
-
-                    // do: DetailedEvents
-                    if (detailedEvents.size() > 0) {
-                        List<DetailedEvent> detailedEventsCopy;
-                        synchronized(detailedEvents) {
-                            detailedEventsCopy = detailedEvents;
-                            detailedEvents = Collections.synchronizedList(new ArrayList<>());
-                        }
-                        doSaveDetailedEvents(session, detailedEventsCopy);
-                    }
-
-                    // do: ResourceStat
-                    if(resourceStatMap.size() > 0) {
-                        Collection<ResourceStat> tmp2 = null;
-                        synchronized(resourceStatMap){
-                            tmp2 = resourceStatMap.values();
-                            resourceStatMap = Collections.synchronizedMap(new HashMap<String, ResourceStat>());
-                        }
-                        doUpdateResourceStatObjects(session, tmp2);
-                    }
-
-                    // do: Lessons ResourceStat
-                    if (lessonBuilderStatMap.size() > 0) {
-                        Collection<LessonBuilderStat> tmp3 = null;
-                        synchronized (lessonBuilderStatMap) {
-                            tmp3 = lessonBuilderStatMap.values();
-                            lessonBuilderStatMap = Collections.synchronizedMap(new HashMap<String, LessonBuilderStat>());
-                        }
-                        doUpdateLessonBuilderStatObjects(session, tmp3);
-                    }
-
-                    // do: SiteActivity
-                    if(activityMap.size() > 0) {
-                        Collection<SiteActivity> tmp3 = null;
-                        synchronized(activityMap){
-                            tmp3 = activityMap.values();
-                            activityMap = Collections.synchronizedMap(new HashMap<String, SiteActivity>());
-                        }
-                        doUpdateSiteActivityObjects(session, tmp3);
-                    }
-
-                    // do: SiteVisits
-                    if(uniqueVisitsMap.size() > 0 || visitsMap.size() > 0) {
-                        // determine unique visits for event related sites
-                        Map<UniqueVisitsKey, Integer> tmp4;
-                        synchronized(uniqueVisitsMap){
-                            tmp4 = uniqueVisitsMap;
-                            uniqueVisitsMap = Collections.synchronizedMap(new HashMap<UniqueVisitsKey, Integer>());
-                        }
-                        tmp4 = doGetSiteUniqueVisits(session, tmp4);
-
-                        // do: SiteVisits
-                        if(visitsMap.size() > 0) {
-                            Collection<SiteVisits> tmp5 = null;
-                            synchronized(visitsMap){
-                                tmp5 = visitsMap.values();
-                                visitsMap = Collections.synchronizedMap(new HashMap<String, SiteVisits>());
-                            }
-                            doUpdateSiteVisitsObjects(session, tmp5, tmp4);
-                        }
-                    }
-
-                    // do: SitePresences
-                    if(presencesMap.size() > 0) {
-                        Collection<SitePresenceConsolidation> tmp6 = null;
-                        synchronized(presencesMap){
-                            tmp6 = presencesMap.values();
-                            presencesMap = Collections.synchronizedMap(new HashMap<String, SitePresenceConsolidation>());
-                        }
-                        doUpdateSitePresencesObjects(session, tmp6);
-                    }
-
-                    // do: ServerStats
-                    if(serverStatMap.size() > 0) {
-                        Collection<ServerStat> tmp7 = null;
-                        synchronized(serverStatMap){
-                            tmp7 = serverStatMap.values();
-                            serverStatMap = Collections.synchronizedMap(new HashMap<String, ServerStat>());
-                        }
-                        doUpdateServerStatObjects(session, tmp7);
-                    }
-
-                    // do: UserStats
-                    if(userStatMap.size() > 0) {
-                        Collection<UserStat> tmp8 = null;
-                        synchronized(userStatMap){
-                            tmp8 = userStatMap.values();
-                            userStatMap = Collections.synchronizedMap(new HashMap<String, UserStat>());
-                        }
-                        doUpdateUserStatObjects(session, tmp8);
-                    }
-                    return null;
-            	});
-			} catch(DataAccessException dae) {
-				return false;
-			}
-			long endTime = System.currentTimeMillis();
-			log.debug("Time spent in doUpdateConsolidatedEvents(): " + (endTime-startTime) + " ms");
+		lock.lock();
+		try {
+			getHibernateTemplate().execute(session -> {
+				// sites in a fixed order, like the rows within them, so concurrent updates lock rows in the same order
+				List<String> siteIds = new ArrayList<>(siteConsolidations.keySet());
+				Collections.sort(siteIds);
+				for(String siteId : siteIds) {
+					SiteConsolidation shard = siteConsolidations.remove(siteId);
+					if(shard != null) {
+						doUpdateSiteConsolidation(session, siteId, shard);
+					}
+				}
+
+				// do: DetailedEvents
+				List<DetailedEvent> detailedEventsCopy = new ArrayList<>();
+				DetailedEvent de;
+				while((de = detailedEvents.poll()) != null) {
+					detailedEventsCopy.add(de);
+				}
+				if(!detailedEventsCopy.isEmpty()) {
+					doSaveDetailedEvents(session, detailedEventsCopy);
+				}
+
+				// do: ServerStats
+				if(!serverStatMap.isEmpty()) {
+					doUpdateServerStatObjects(session, drain(serverStatMap));
+				}
+
+				// do: UserStats
+				if(!userStatMap.isEmpty()) {
+					doUpdateUserStatObjects(session, drain(userStatMap));
+				}
+				return null;
+			});
+		} catch(DataAccessException dae) {
+			log.warn("Could not update consolidated events: {}", dae.getMessage());
+			return false;
+		} finally {
+			lock.unlock();
 		}
+		long endTime = System.currentTimeMillis();
+		log.debug("Time spent in doUpdateConsolidatedEvents(): " + (endTime-startTime) + " ms");
 		return true;
 	}
-	
-	private void doUpdateEventStatObjects(Session session, Collection<EventStat> o) {
-		if(o == null) return;
+
+	private void doUpdateSiteConsolidation(Session session, String siteId, SiteConsolidation shard) {
+		// do: EventStat (first, unique visits are counted from them)
+		if(!shard.eventStats.isEmpty()) {
+			doUpdateEventStatObjects(session, siteId, shard.eventStats.values());
+		}
+
+		// do: ResourceStat
+		if(!shard.resourceStats.isEmpty()) {
+			doUpdateResourceStatObjects(session, siteId, shard.resourceStats.values());
+		}
+
+		// do: Lessons ResourceStat
+		if(!shard.lessonBuilderStats.isEmpty()) {
+			doUpdateLessonBuilderStatObjects(session, shard.lessonBuilderStats.values());
+		}
+
+		// do: SiteActivity
+		if(!shard.activities.isEmpty()) {
+			doUpdateSiteActivityObjects(session, shard.activities.values());
+		}
+
+		// do: SiteVisits
+		if(!shard.visits.isEmpty()) {
+			Map<UniqueVisitsKey, Integer> uniqueVisits = new HashMap<>();
+			for(SiteVisits sv : shard.visits.values()) {
+				uniqueVisits.put(new UniqueVisitsKey(siteId, sv.getDate()), 1);
+			}
+			uniqueVisits = doGetSiteUniqueVisits(session, uniqueVisits);
+			doUpdateSiteVisitsObjects(session, siteId, shard.visits.values(), uniqueVisits);
+		}
+
+		// do: SitePresences
+		if(!shard.presences.isEmpty()) {
+			doUpdateSitePresencesObjects(session, shard.presences.values());
+		}
+	}
+
+	/** Empty a consolidation map, leaving anything added meanwhile for the next update */
+	private static <T> List<T> drain(ConcurrentMap<String, T> map) {
+		List<T> values = new ArrayList<>();
+		for(String key : map.keySet()) {
+			T value = map.remove(key);
+			if(value != null) {
+				values.add(value);
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Load the rows already in the db for a batch of consolidated stats, a query per {@link #UPSERT_BATCH_SIZE}
+	 * stats instead of one per stat.
+	 *
+	 * @param restrict adds the restrictions matching the rows of a chunk of the stats
+	 * @param key the key of a stat, the same for a consolidated stat and its row
+	 * @return the existing rows by key, the first one where there is more than one
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> Map<String, T> doGetExistingStats(Session session, Class<?> clazz, List<T> objects, BiConsumer<Criteria, List<T>> restrict, Function<T, String> key) {
+		Map<String, T> existing = new HashMap<>();
+		for(int i = 0; i < objects.size(); i += UPSERT_BATCH_SIZE) {
+			List<T> chunk = objects.subList(i, Math.min(i + UPSERT_BATCH_SIZE, objects.size()));
+			Criteria c = session.createCriteria(clazz);
+			restrict.accept(c, chunk);
+			for(T row : (List<T>) c.list()) {
+				existing.putIfAbsent(key.apply(row), row);
+			}
+		}
+		return existing;
+	}
+
+	private static <T> Set<Object> distinct(List<T> objects, Function<T, Object> property) {
+		Set<Object> values = new HashSet<>();
+		for(T o : objects) {
+			values.add(property.apply(o));
+		}
+		return values;
+	}
+
+	/** The day of a stat date, the same for a date being consolidated and the date read back from the db */
+	private static String day(Date date) {
+		Calendar c = Calendar.getInstance();
+		c.setTime(date);
+		return c.get(Calendar.YEAR) + "-" + c.get(Calendar.DAY_OF_YEAR);
+	}
+
+	private static String eventStatKey(EventStat e) {
+		return e.getUserId() + "|" + e.getEventId() + "|" + day(e.getDate());
+	}
+
+	/** The first day of the month of a stat date, the date of the monthly rollup row it is added to */
+	private static Date month(Date date) {
+		Calendar c = Calendar.getInstance();
+		c.setTime(date);
+		c.set(Calendar.DAY_OF_MONTH, 1);
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTime();
+	}
+
+	/** Group event stats by user, event and month, as rows of the monthly rollup */
+	private static void addToMonthlyRollup(Map<String, EventStat> rollup, String siteId, String userId, String eventId, Date date, long count) {
+		Date month = month(date);
+		rollup.compute(userId + "|" + eventId + "|" + day(month), (k, e) -> {
+			if(e == null) {
+				e = new EventStatMonthImpl();
+				e.setSiteId(siteId);
+				e.setUserId(userId);
+				e.setEventId(eventId);
+				e.setDate(month);
+			}
+			e.setCount(e.getCount() + count);
+			return e;
+		});
+	}
+
+	private void doUpdateEventStatObjects(Session session, String siteId, Collection<EventStat> o) {
 		List<EventStat> objects = new ArrayList<>(o);
+		Map<String, EventStat> monthly = new HashMap<>();
+		for(EventStat e : objects) {
+			addToMonthlyRollup(monthly, siteId, e.getUserId(), e.getEventId(), e.getDate(), e.getCount());
+		}
+		doMergeEventStats(session, EventStatImpl.class, siteId, objects);
+		doMergeEventStats(session, EventStatMonthImpl.class, siteId, new ArrayList<>(monthly.values()));
+	}
+
+	private void doMergeEventStats(Session session, Class<? extends EventStat> clazz, String siteId, List<EventStat> objects) {
 		Collections.sort(objects);
-		Iterator<EventStat> i = objects.iterator();
-		
-		while(i.hasNext()){
-			EventStat eUpdate = i.next();
-			String eExistingSiteId = null;
-			EventStat eExisting = null;
-			try{
-				Criteria c = session.createCriteria(EventStatImpl.class);
-				c.add(Restrictions.eq("siteId", eUpdate.getSiteId()));
-				c.add(Restrictions.eq("eventId", eUpdate.getEventId()));
-				c.add(Restrictions.eq("userId", eUpdate.getUserId()));
-				c.add(Restrictions.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (EventStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							log.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (EventStat) c.list().get(0);
-						}else{
-							log.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
+		Map<String, EventStat> existing = doGetExistingStats(session, clazz, objects, (c, chunk) -> {
+			c.add(Restrictions.eq("siteId", siteId));
+			c.add(Restrictions.in("userId", distinct(chunk, EventStat::getUserId)));
+			c.add(Restrictions.in("eventId", distinct(chunk, EventStat::getEventId)));
+			c.add(Restrictions.in("date", distinct(chunk, EventStat::getDate)));
+		}, StatsUpdateManagerImpl::eventStatKey);
+
+		for(EventStat eUpdate : objects) {
+			EventStat eExisting = existing.get(eventStatKey(eUpdate));
+			if(eExisting == null) {
+				session.save(eUpdate);
+			}else{
+				eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
+				session.update(eExisting);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#getSitesWithoutEventRollup(int)
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getSitesWithoutEventRollup(final int max) {
+		try{
+			return getHibernateTemplate().execute(session -> {
+				Query q = session.createQuery("select distinct s.siteId from EventStatImpl as s "
+						+ "where s.siteId not in (select r.siteId from EventRollupSiteImpl as r)");
+				q.setMaxResults(max);
+				return q.list();
+			});
+		}catch(DataAccessException dae) {
+			log.warn("Unable to get sites without event rollup: {}", dae.getMessage());
+			return Collections.emptyList();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sakaiproject.sitestats.api.StatsUpdateManager#rollupSiteEvents(java.lang.String)
+	 */
+	public boolean rollupSiteEvents(final String siteId) {
+		// hold the flush back, so that no events of the site are added to the rollup while it is rebuilt
+		lock.lock();
+		try{
+			getHibernateTemplate().execute(session -> {
+				session.createQuery("delete from EventStatMonthImpl as s where s.siteId = :siteid")
+					.setParameter("siteid", siteId)
+					.executeUpdate();
+
+				Map<String, EventStat> monthly = new HashMap<>();
+				try(ScrollableResults rows = session.createQuery("select s.userId, s.eventId, s.date, s.count from EventStatImpl as s where s.siteId = :siteid")
+						.setParameter("siteid", siteId)
+						.scroll(ScrollMode.FORWARD_ONLY)) {
+					while(rows.next()) {
+						Object[] row = rows.get();
+						addToMonthlyRollup(monthly, siteId, (String) row[0], (String) row[1], (Date) row[2], ((Number) row[3]).longValue());
 					}
-				}catch(Exception ex2){
-					log.warn("Probably db error when loading data at java object", ex2);
 				}
-				if(eExisting == null) 
-					eExisting = eUpdate;
-				else
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-	
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				//If something happens, skip the event processing
-				log.warn("Failed to event:"+ eUpdate.getEventId(), ex);
-			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
+				for(EventStat e : monthly.values()) {
+					session.save(e);
+				}
+				session.saveOrUpdate(new EventRollupSiteImpl(siteId, new Date()));
+				return null;
+			});
+			return true;
+		}catch(DataAccessException dae) {
+			log.warn("Unable to rollup events of site {}: {}", siteId, dae.getMessage());
+			return false;
+		}finally{
+			lock.unlock();
 		}
 	}
 
@@ -1025,51 +1124,28 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		}
 	}
 
-	private void doUpdateResourceStatObjects(Session session, Collection<ResourceStat> o) {
-		if(o == null) return;
-		List<ResourceStat> objects = new ArrayList<ResourceStat>(o);
+	private static String resourceStatKey(ResourceStat e) {
+		return e.getUserId() + "|" + e.getResourceRef() + "|" + e.getResourceAction() + "|" + day(e.getDate());
+	}
+
+	private void doUpdateResourceStatObjects(Session session, String siteId, Collection<ResourceStat> o) {
+		List<ResourceStat> objects = new ArrayList<>(o);
 		Collections.sort(objects);
-		Iterator<ResourceStat> i = objects.iterator();
-		while(i.hasNext()){
-			ResourceStat eUpdate = i.next();
-			ResourceStat eExisting = null;
-			String eExistingSiteId = null;
-			try{
-				Criteria c = session.createCriteria(ResourceStatImpl.class);
-				c.add(Restrictions.eq("siteId", eUpdate.getSiteId()));
-				c.add(Restrictions.eq("resourceRef", eUpdate.getResourceRef()));
-				c.add(Restrictions.eq("resourceAction", eUpdate.getResourceAction()));
-				c.add(Restrictions.eq("userId", eUpdate.getUserId()));
-				c.add(Restrictions.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (ResourceStat) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							log.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (ResourceStat) c.list().get(0);
-						}else{
-							log.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					log.warn("Probably db error when loading data at java object", ex2);
-				}
-				if(eExisting == null) 
-					eExisting = eUpdate;
-				else
-					eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
-				
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				log.warn("Failed to event:"+ eUpdate.getId(), ex);
+		Map<String, ResourceStat> existing = doGetExistingStats(session, ResourceStatImpl.class, objects, (c, chunk) -> {
+			c.add(Restrictions.eq("siteId", siteId));
+			c.add(Restrictions.in("userId", distinct(chunk, ResourceStat::getUserId)));
+			c.add(Restrictions.in("resourceRef", distinct(chunk, ResourceStat::getResourceRef)));
+			c.add(Restrictions.in("date", distinct(chunk, ResourceStat::getDate)));
+		}, StatsUpdateManagerImpl::resourceStatKey);
+
+		for(ResourceStat eUpdate : objects) {
+			ResourceStat eExisting = existing.get(resourceStatKey(eUpdate));
+			if(eExisting == null) {
+				session.save(eUpdate);
+			}else{
+				eExisting.setCount(eExisting.getCount() + eUpdate.getCount());
+				session.update(eExisting);
 			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
 		}
 	}
 
@@ -1170,51 +1246,24 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		}
 	}
 	
-	private void doUpdateSiteVisitsObjects(Session session, Collection<SiteVisits> o, Map<UniqueVisitsKey, Integer> map) {
-		if(o == null) return;
-		List<SiteVisits> objects = new ArrayList<SiteVisits>(o);
+	private void doUpdateSiteVisitsObjects(Session session, String siteId, Collection<SiteVisits> o, Map<UniqueVisitsKey, Integer> map) {
+		List<SiteVisits> objects = new ArrayList<>(o);
 		Collections.sort(objects);
-		Iterator<SiteVisits> i = objects.iterator();
-		while(i.hasNext()){
-			SiteVisits eUpdate = i.next();
-			SiteVisits eExisting = null;
-			String eExistingSiteId = null;
-			try{
-				Criteria c = session.createCriteria(SiteVisitsImpl.class);
-				c.add(Restrictions.eq("siteId", eUpdate.getSiteId()));
-				c.add(Restrictions.eq("date", eUpdate.getDate()));
-				try{
-					eExisting = (SiteVisits) c.uniqueResult();
-				}catch(HibernateException ex){
-					try{
-						List events = c.list();
-						if ((events!=null) && (events.size()>0)){
-							log.debug("More than 1 result when unique result expected.", ex);
-							eExisting = (SiteVisits) c.list().get(0);
-						}else{
-							log.debug("No result found", ex);
-							eExisting = null;
-						}
-					}catch(Exception ex3){
-						eExisting = null;
-					}
-				}catch(Exception ex2){
-					log.warn("Probably db error when loading data at java object", ex2);
-				}
-				if(eExisting == null){
-					eExisting = eUpdate;
-				}else{
-					eExisting.setTotalVisits(eExisting.getTotalVisits() + eUpdate.getTotalVisits());
-				}
-				Integer mapUV = map.get(new UniqueVisitsKey(eExisting.getSiteId(), eExisting.getDate()));
-				eExisting.setTotalUnique(mapUV == null? 1 : mapUV.longValue());
-	
-				eExistingSiteId = eExisting.getSiteId();
-			}catch(Exception ex){
-				log.warn("Failed to event:"+ eUpdate.getId(), ex);
+		Map<String, SiteVisits> existing = doGetExistingStats(session, SiteVisitsImpl.class, objects, (c, chunk) -> {
+			c.add(Restrictions.eq("siteId", siteId));
+			c.add(Restrictions.in("date", distinct(chunk, SiteVisits::getDate)));
+		}, v -> day(v.getDate()));
+
+		for(SiteVisits eUpdate : objects) {
+			SiteVisits eExisting = existing.get(day(eUpdate.getDate()));
+			if(eExisting == null){
+				eExisting = eUpdate;
+			}else{
+				eExisting.setTotalVisits(eExisting.getTotalVisits() + eUpdate.getTotalVisits());
 			}
-			if ((eExistingSiteId!=null) && (eExistingSiteId.trim().length()>0))
-					session.saveOrUpdate(eExisting);
+			Integer mapUV = map.get(new UniqueVisitsKey(siteId, eUpdate.getDate()));
+			eExisting.setTotalUnique(mapUV == null? 1 : mapUV.longValue());
+			session.saveOrUpdate(eExisting);
 		}
 	}
 
@@ -1654,6 +1703,19 @@ public class StatsUpdateManagerImpl extends HibernateDaoSupport implements Runna
 		return c.getTime();
 	}
 
+	/**
+	 * The stats consolidated for a site since the last db update. Only accessed through
+	 * {@link StatsUpdateManagerImpl#siteConsolidations}, which does the locking.
+	 */
+	private static class SiteConsolidation {
+		final Map<String, EventStat>					eventStats			= new HashMap<>();
+		final Map<String, ResourceStat>					resourceStats		= new HashMap<>();
+		final Map<String, LessonBuilderStat>			lessonBuilderStats	= new HashMap<>();
+		final Map<String, SiteActivity>					activities			= new HashMap<>();
+		final Map<String, SiteVisits>					visits				= new HashMap<>();
+		final Map<String, SitePresenceConsolidation>	presences			= new HashMap<>();
+	}
+
 	private static class UniqueVisitsKey {
 		public String siteId;
 		public Date date;
@@ -215,7 +215,7 @@ public class ReportManagerImpl extends HibernateDaoSupport implements ReportMana
 		if(reportDef.getReportParams().getWhat().equals(ReportManager.WHAT_RESOURCES)){
 			return statsManager.getResourceStatsRowCount(rpp.siteId, rpp.resourceAction, rpp.resourceIds, rpp.iDate, rpp.fDate, rpp.userIds, rpp.inverseUserSelection, rpp.totalsBy);
 		}else{
-			return statsManager.getEventStatsRowCount(rpp.siteId, rpp.events, rpp.iDate, rpp.fDate, rpp.userIds, rpp.inverseUserSelection, rpp.totalsBy);
+			return statsManager.getEventStatsRowCount(rpp.siteId, rpp.events, rpp.iDate, rpp.fDate, rpp.userIds, rpp.inverseUserSelection, rpp.totalsBy, rpp.monthlyRollup);
 		}
 	}
 	
@@ -232,7 +232,7 @@ public class ReportManagerImpl extends HibernateDaoSupport implements ReportMana
 			data = statsManager.getResourceStats(rpp.siteId, rpp.resourceAction, rpp.resourceIds, rpp.iDate, rpp.fDate, rpp.userIds, rpp.inverseUserSelection, pagingPosition, rpp.totalsBy, rpp.sortBy, rpp.sortAscending, rpp.maxResults);
 		} else if(reportDef.getReportParams().getWhat().equals(ReportManager.WHAT_VISITS)
 				|| reportDef.getReportParams().getWhat().equals(ReportManager.WHAT_EVENTS)) {
-			data = statsManager.getEventStats(rpp.siteId, rpp.events, rpp.iDate, rpp.fDate, rpp.userIds, rpp.inverseUserSelection, pagingPosition, rpp.totalsBy, rpp.sortBy, rpp.sortAscending, rpp.maxResults);
+			data = statsManager.getEventStats(rpp.siteId, rpp.events, rpp.iDate, rpp.fDate, rpp.userIds, rpp.inverseUserSelection, pagingPosition, rpp.totalsBy, rpp.sortBy, rpp.sortAscending, rpp.maxResults, rpp.monthlyRollup);
 		} else if(reportDef.getReportParams().getWhat().equals(ReportManager.WHAT_PRESENCES)) {
 			data = statsManager.getPresenceStats(rpp.siteId, rpp.iDate, rpp.fDate, rpp.userIds, rpp.inverseUserSelection, pagingPosition, rpp.totalsBy, rpp.sortBy, rpp.sortAscending, rpp.maxResults);
 		} else if(reportDef.getReportParams().getWhat().equals(ReportManager.WHAT_VISITS_TOTALS)) {
@@ -411,9 +411,56 @@ public class ReportManagerImpl extends HibernateDaoSupport implements ReportMana
 			rpp.maxResults = 0;
 		}
 
+		// rollup
+		rpp.monthlyRollup = canUseMonthlyRollup(params, rpp);
+
 		return rpp;
 	}
 
+	/**
+	 * Event reports can be read from the monthly event rollup, instead of the daily event totals, when
+	 * they don't show anything finer than a month and cover whole months.
+	 */
+	private boolean canUseMonthlyRollup(ReportParams params, ReportProcessedParams rpp) {
+		if(!ReportManager.WHAT_EVENTS.equals(params.getWhat()) && !ReportManager.WHAT_VISITS.equals(params.getWhat())) {
+			return false;
+		}
+		if(rpp.totalsBy != null && (rpp.totalsBy.contains(StatsManager.T_DATE) || rpp.totalsBy.contains(StatsManager.T_LASTDATE))) {
+			return false;
+		}
+		if(StatsManager.T_DATE.equals(rpp.sortBy) || StatsManager.T_LASTDATE.equals(rpp.sortBy)) {
+			return false;
+		}
+		if(!statsManager.isMonthlyEventRollupAvailable(rpp.siteId)) {
+			return false;
+		}
+
+		// the months at both ends are read whole, which is right if there is no activity in the part left out
+		Calendar c = Calendar.getInstance();
+		if(rpp.iDate != null) {
+			c.setTime(rpp.iDate);
+			boolean monthStart = c.get(Calendar.DAY_OF_MONTH) == 1 && c.get(Calendar.HOUR_OF_DAY) == 0
+					&& c.get(Calendar.MINUTE) == 0 && c.get(Calendar.SECOND) == 0;
+			Date initialActivityDate = statsManager.getInitialActivityDate(rpp.siteId);
+			if(!monthStart && (initialActivityDate == null || rpp.iDate.after(initialActivityDate))) {
+				return false;
+			}
+		}
+		if(rpp.fDate != null) {
+			c.setTime(rpp.fDate);
+			boolean monthEnd = c.get(Calendar.DAY_OF_MONTH) == c.getActualMaximum(Calendar.DAY_OF_MONTH);
+			Calendar today = Calendar.getInstance();
+			today.set(Calendar.HOUR_OF_DAY, 0);
+			today.set(Calendar.MINUTE, 0);
+			today.set(Calendar.SECOND, 0);
+			today.set(Calendar.MILLISECOND, 0);
+			if(!monthEnd && rpp.fDate.before(today.getTime())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sakaiproject.sitestats.api.report.ReportManager#getReportFormattedParams()
 	 */
@@ -1235,6 +1282,7 @@ public class ReportManagerImpl extends HibernateDaoSupport implements ReportMana
 		public String			sortBy;
 		public boolean			sortAscending;
 		public int				maxResults;
+		public boolean			monthlyRollup;
 	}
 
 	
@@ -25,7 +25,9 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 
 import org.sakaiproject.sitestats.impl.DetailedEventImpl;
+import org.sakaiproject.sitestats.impl.EventRollupSiteImpl;
 import org.sakaiproject.sitestats.impl.EventStatImpl;
+import org.sakaiproject.sitestats.impl.EventStatMonthImpl;
 import org.sakaiproject.sitestats.impl.LessonBuilderStatImpl;
 import org.sakaiproject.sitestats.impl.ResourceStatImpl;
 import org.sakaiproject.sitestats.impl.ServerStatImpl;
@@ -92,6 +94,8 @@ public class DB extends HibernateDaoSupport {
                 session.createCriteria(SiteVisitsImpl.class).list().forEach(session::delete);
                 session.createCriteria(SiteActivityImpl.class).list().forEach(session::delete);
                 session.createCriteria(EventStatImpl.class).list().forEach(session::delete);
+                session.createCriteria(EventStatMonthImpl.class).list().forEach(session::delete);
+                session.createCriteria(EventRollupSiteImpl.class).list().forEach(session::delete);
                 session.createCriteria(ResourceStatImpl.class).list().forEach(session::delete);
                 session.createCriteria(SitePresenceImpl.class).list().forEach(session::delete);
                 session.createCriteria(SitePresenceTotalImpl.class).list().forEach(session::delete);
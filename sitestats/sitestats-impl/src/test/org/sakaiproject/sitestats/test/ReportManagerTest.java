@@ -28,10 +28,13 @@ import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Resource;
 
@@ -43,7 +46,9 @@ import org.sakaiproject.event.api.Event;
 import org.sakaiproject.javax.PagingPosition;
 import org.sakaiproject.memory.api.MemoryService;
 import org.sakaiproject.site.api.SiteService;
+import org.sakaiproject.sitestats.api.EventStat;
 import org.sakaiproject.sitestats.api.SiteVisits;
+import org.sakaiproject.sitestats.api.Stat;
 import org.sakaiproject.sitestats.api.StatsManager;
 import org.sakaiproject.sitestats.api.StatsUpdateManager;
 import org.sakaiproject.sitestats.api.event.EventRegistryService;
@@ -51,6 +56,7 @@ import org.sakaiproject.sitestats.api.report.Report;
 import org.sakaiproject.sitestats.api.report.ReportDef;
 import org.sakaiproject.sitestats.api.report.ReportManager;
 import org.sakaiproject.sitestats.api.report.ReportParams;
+import org.sakaiproject.sitestats.impl.EventStatImpl;
 import org.sakaiproject.sitestats.impl.StatsManagerImpl;
 import org.sakaiproject.sitestats.impl.report.ReportManagerImpl;
 import org.sakaiproject.sitestats.test.data.FakeData;
@@ -340,6 +346,95 @@ public class ReportManagerTest extends AbstractTransactionalJUnit4SpringContextT
 		assertEquals(0, reportManager.getReportRowCount(rd, true));
 	}
 
+	@Test
+	public void testGetReportFromMonthlyRollup() {
+		// a site of its own, the sites known to be rolled up are kept for the life of the stats manager
+		String siteId = "site-rollup-report";
+		FakeSite site = spy(FakeSite.class).set(siteId, Arrays.asList(StatsManager.SITESTATS_TOOLID, FakeData.TOOL_CHAT, StatsManager.RESOURCES_TOOLID));
+		site.setUsers(new HashSet<>(Arrays.asList(FakeData.USER_A_ID, FakeData.USER_B_ID)));
+		site.setMembers(new HashSet<>(Arrays.asList(FakeData.USER_A_ID, FakeData.USER_B_ID)));
+		when(siteService.getSite(siteId)).thenReturn(site);
+		when(siteService.isUserSite(siteId)).thenReturn(false);
+		when(siteService.isSpecialSite(siteId)).thenReturn(false);
+
+		Date monthStart = getDayOfMonth(-2, 1, 0);
+		Calendar c = Calendar.getInstance();
+		c.setTime(monthStart);
+		Date monthEnd = getDayOfMonth(-2, c.getActualMaximum(Calendar.DAY_OF_MONTH), 0);
+		statsUpdateManager.collectEvents(Arrays.asList(
+				statsUpdateManager.buildEvent(getDayOfMonth(-2, 3, 10), FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_A_ID, "session-id-a"),
+				statsUpdateManager.buildEvent(getDayOfMonth(-2, 3, 11), FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_A_ID, "session-id-a"),
+				statsUpdateManager.buildEvent(getDayOfMonth(-2, 12, 10), FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_A_ID, "session-id-a"),
+				statsUpdateManager.buildEvent(getDayOfMonth(-2, 12, 10), FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_B_ID, "session-id-b"),
+				statsUpdateManager.buildEvent(getDayOfMonth(-2, 20, 10), FakeData.EVENT_CONTENTNEW, "/content/group/"+siteId+"/resource_id", siteId, FakeData.USER_B_ID, "session-id-b"),
+				statsUpdateManager.buildEvent(getDayOfMonth(-1, 2, 10), FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_B_ID, "session-id-b")
+				));
+
+		// a whole month, by user and event
+		ReportDef rd = new ReportDef();
+		rd.setId(0);
+		rd.setSiteId(siteId);
+		ReportParams rp = new ReportParams(siteId);
+		rp.setWhat(ReportManager.WHAT_EVENTS);
+		rp.setWhatEventSelType(ReportManager.WHAT_EVENTS_BYTOOL);
+		rp.setWhatToolIds(Arrays.asList(ReportManager.WHAT_EVENTS_ALLTOOLS));
+		rp.setWhen(ReportManager.WHEN_CUSTOM);
+		rp.setWhenFrom(monthStart);
+		rp.setWhenTo(monthEnd);
+		rp.setWho(ReportManager.WHO_ALL);
+		rp.setHowTotalsBy(Arrays.asList(StatsManager.T_USER, StatsManager.T_EVENT));
+		rp.setHowSort(false);
+		rp.setHowPresentationMode(ReportManager.HOW_PRESENTATION_TABLE);
+		rd.setReportParams(rp);
+		Map<String, Long> rawTotals = getEventTotals(reportManager.getReport(rd, false));
+		assertEquals(3, rawTotals.size());
+		assertEquals(Long.valueOf(3), rawTotals.get(FakeData.USER_A_ID + "|" + FakeData.EVENT_CHATNEW));
+		assertEquals(Long.valueOf(1), rawTotals.get(FakeData.USER_B_ID + "|" + FakeData.EVENT_CHATNEW));
+		assertEquals(Long.valueOf(1), rawTotals.get(FakeData.USER_B_ID + "|" + FakeData.EVENT_CONTENTNEW));
+
+		// the rolled up site gives the same totals
+		assertTrue(statsUpdateManager.rollupSiteEvents(siteId));
+		assertEquals(rawTotals, getEventTotals(reportManager.getReport(rd, false)));
+		assertEquals(rawTotals.size(), reportManager.getReportRowCount(rd, false));
+
+		// a part of a month with activity left out is read from the daily totals
+		rp.setWhenFrom(getDayOfMonth(-2, 4, 0));
+		Map<String, Long> partialTotals = getEventTotals(reportManager.getReport(rd, false));
+		assertEquals(Long.valueOf(1), partialTotals.get(FakeData.USER_A_ID + "|" + FakeData.EVENT_CHATNEW));
+
+		// with the daily totals gone, only the reports read from the rollup still have data
+		db.deleteAllForClass(EventStatImpl.class);
+		rp.setWhenFrom(monthStart);
+		assertEquals(rawTotals, getEventTotals(reportManager.getReport(rd, false)));
+		rp.setHowTotalsBy(Arrays.asList(StatsManager.T_USER, StatsManager.T_EVENT, StatsManager.T_DATE));
+		assertEquals(0, reportManager.getReport(rd, false).getReportData().size());
+		rp.setHowTotalsBy(Arrays.asList(StatsManager.T_USER, StatsManager.T_EVENT));
+		rp.setHowSort(true);
+		rp.setHowSortBy(StatsManager.T_DATE);
+		assertEquals(0, reportManager.getReport(rd, false).getReportData().size());
+	}
+
+	private Map<String, Long> getEventTotals(Report report) {
+		Map<String, Long> totals = new HashMap<>();
+		for(Stat s : report.getReportData()) {
+			EventStat es = (EventStat) s;
+			totals.merge(es.getUserId() + "|" + es.getEventId(), es.getCount(), Long::sum);
+		}
+		return totals;
+	}
+
+	private Date getDayOfMonth(int monthsFromNow, int day, int hour) {
+		Calendar c = Calendar.getInstance();
+		c.set(Calendar.DAY_OF_MONTH, 1);
+		c.add(Calendar.MONTH, monthsFromNow);
+		c.set(Calendar.DAY_OF_MONTH, day);
+		c.set(Calendar.HOUR_OF_DAY, hour);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTime();
+	}
+
 	@Test
 	@Ignore		// TODO JUNIT test is not working on hsqldb need to look into
 	public void testGetMoreReports() {
@@ -31,10 +31,13 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -44,6 +47,7 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.quartz.Job;
 import org.sakaiproject.event.api.Event;
 import org.sakaiproject.event.api.EventTrackingService;
 import org.sakaiproject.memory.api.MemoryService;
@@ -54,11 +58,13 @@ import org.sakaiproject.sitestats.api.JobRun;
 import org.sakaiproject.sitestats.api.SiteActivity;
 import org.sakaiproject.sitestats.api.SitePresence;
 import org.sakaiproject.sitestats.api.SiteVisits;
+import org.sakaiproject.sitestats.api.Stat;
 import org.sakaiproject.sitestats.api.StatsManager;
 import org.sakaiproject.sitestats.api.StatsUpdateManager;
 import org.sakaiproject.sitestats.api.report.ReportManager;
 import org.sakaiproject.sitestats.impl.CustomEventImpl;
 import org.sakaiproject.sitestats.impl.EventStatImpl;
+import org.sakaiproject.sitestats.impl.EventStatMonthImpl;
 import org.sakaiproject.sitestats.impl.JobRunImpl;
 import org.sakaiproject.sitestats.impl.ResourceStatImpl;
 import org.sakaiproject.sitestats.impl.SiteActivityImpl;
@@ -99,6 +105,8 @@ public class StatsUpdateManagerTest extends AbstractTransactionalJUnit4SpringCon
 	private StatsManager statsManager;
 	@Resource(name = "org.sakaiproject.sitestats.api.StatsUpdateManager")
 	private StatsUpdateManager statsUpdateManager;
+	@Resource(name = "org.sakaiproject.sitestats.api.StatsRollupJob")
+	private Job statsRollupJob;
 
 	@Before
 	public void onSetUp() throws Exception {
@@ -781,6 +789,110 @@ public class StatsUpdateManagerTest extends AbstractTransactionalJUnit4SpringCon
 		assertEquals(2, results2.size());
 	}
 	
+	// Test the monthly event rollup
+	@Test
+	public void testMonthlyEventRollup() throws Exception {
+		// a site of its own, the sites known to be rolled up are kept for the life of the stats manager
+		String siteId = "site-rollup";
+		FakeSite site = spy(FakeSite.class).set(siteId, Arrays.asList(StatsManager.SITESTATS_TOOLID, FakeData.TOOL_CHAT, StatsManager.RESOURCES_TOOLID));
+		site.setUsers(new HashSet<>(Arrays.asList(FakeData.USER_A_ID, FakeData.USER_B_ID)));
+		site.setMembers(new HashSet<>(Arrays.asList(FakeData.USER_A_ID, FakeData.USER_B_ID)));
+		when(siteService.getSite(siteId)).thenReturn(site);
+		when(siteService.isUserSite(siteId)).thenReturn(false);
+		when(siteService.isSpecialSite(siteId)).thenReturn(false);
+		Date threeMonthsBefore = getDayOfMonth(-3, 1);
+		Date twoMonthsBefore = getDayOfMonth(-2, 1);
+
+		// events collected before the rollup existed are only in SST_EVENTS
+		insertEventStat(siteId, FakeData.USER_A_ID, FakeData.EVENT_CHATNEW, getDayOfMonth(-3, 3), 2);
+		insertEventStat(siteId, FakeData.USER_A_ID, FakeData.EVENT_CHATNEW, getDayOfMonth(-3, 17), 1);
+		insertEventStat(siteId, FakeData.USER_B_ID, FakeData.EVENT_CHATNEW, getDayOfMonth(-3, 5), 4);
+		insertEventStat(siteId, FakeData.USER_A_ID, FakeData.EVENT_CONTENTNEW, getDayOfMonth(-3, 20), 1);
+		insertEventStat(siteId, FakeData.USER_A_ID, FakeData.EVENT_CHATNEW, getDayOfMonth(-2, 1), 3);
+		insertEventStat(siteId, FakeData.USER_B_ID, FakeData.EVENT_CONTENTNEW, getDayOfMonth(-2, 28), 2);
+		assertEquals(0, db.getResultsForClass(EventStatMonthImpl.class).size());
+		assertTrue(statsUpdateManager.getSitesWithoutEventRollup(100).contains(siteId));
+		assertFalse(statsManager.isMonthlyEventRollupAvailable(siteId));
+
+		// the rollup job rolls the site up
+		statsRollupJob.execute(null);
+		assertFalse(statsUpdateManager.getSitesWithoutEventRollup(100).contains(siteId));
+		assertTrue(statsManager.isMonthlyEventRollupAvailable(siteId));
+		assertEquals(5, db.getResultsForClass(EventStatMonthImpl.class).size());
+
+		// each month has the same totals in the rollup as in SST_EVENTS
+		Map<String, Long> totals = getEventTotals(siteId, threeMonthsBefore, getLastDayOfMonth(threeMonthsBefore), false);
+		assertEquals(3, totals.size());
+		assertEquals(Long.valueOf(3), totals.get(FakeData.USER_A_ID + "|" + FakeData.EVENT_CHATNEW));
+		assertEquals(Long.valueOf(4), totals.get(FakeData.USER_B_ID + "|" + FakeData.EVENT_CHATNEW));
+		assertEquals(Long.valueOf(1), totals.get(FakeData.USER_A_ID + "|" + FakeData.EVENT_CONTENTNEW));
+		assertEquals(totals, getEventTotals(siteId, threeMonthsBefore, getLastDayOfMonth(threeMonthsBefore), true));
+		totals = getEventTotals(siteId, twoMonthsBefore, getLastDayOfMonth(twoMonthsBefore), false);
+		assertEquals(2, totals.size());
+		assertEquals(totals, getEventTotals(siteId, twoMonthsBefore, getLastDayOfMonth(twoMonthsBefore), true));
+		assertEquals(getEventTotals(siteId, threeMonthsBefore, getLastDayOfMonth(twoMonthsBefore), false),
+				getEventTotals(siteId, threeMonthsBefore, getLastDayOfMonth(twoMonthsBefore), true));
+		assertEquals(statsManager.getEventStatsRowCount(siteId, null, threeMonthsBefore, getLastDayOfMonth(twoMonthsBefore), null, false, Arrays.asList(StatsManager.T_USER, StatsManager.T_EVENT), false),
+				statsManager.getEventStatsRowCount(siteId, null, threeMonthsBefore, getLastDayOfMonth(twoMonthsBefore), null, false, Arrays.asList(StatsManager.T_USER, StatsManager.T_EVENT), true));
+
+		// events collected since are added to the rollup as they are collected
+		Date now = new Date();
+		assertTrue(statsUpdateManager.collectEvents(Arrays.asList(
+				statsUpdateManager.buildEvent(now, FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_A_ID, "session-id-a"),
+				statsUpdateManager.buildEvent(now, FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_A_ID, "session-id-a"),
+				statsUpdateManager.buildEvent(now, FakeData.EVENT_CHATNEW, "/chat/msg/"+siteId, siteId, FakeData.USER_B_ID, "session-id-b"))));
+		Date thisMonth = getDayOfMonth(0, 1);
+		totals = getEventTotals(siteId, thisMonth, now, false);
+		assertEquals(Long.valueOf(2), totals.get(FakeData.USER_A_ID + "|" + FakeData.EVENT_CHATNEW));
+		assertEquals(Long.valueOf(1), totals.get(FakeData.USER_B_ID + "|" + FakeData.EVENT_CHATNEW));
+		assertEquals(totals, getEventTotals(siteId, thisMonth, now, true));
+		assertEquals(getEventTotals(siteId, threeMonthsBefore, now, false), getEventTotals(siteId, threeMonthsBefore, now, true));
+
+		// rolling the site up again rebuilds the same rollup
+		assertTrue(statsUpdateManager.rollupSiteEvents(siteId));
+		assertEquals(getEventTotals(siteId, threeMonthsBefore, now, false), getEventTotals(siteId, threeMonthsBefore, now, true));
+	}
+
+	private void insertEventStat(String siteId, String userId, String eventId, Date date, long count) {
+		EventStat e = new EventStatImpl();
+		e.setSiteId(siteId);
+		e.setUserId(userId);
+		e.setEventId(eventId);
+		e.setDate(date);
+		e.setCount(count);
+		db.insertObject(e);
+	}
+
+	private Map<String, Long> getEventTotals(String siteId, Date iDate, Date fDate, boolean monthlyRollup) {
+		List<Stat> stats = statsManager.getEventStats(siteId, null, iDate, fDate, null, false, null,
+				Arrays.asList(StatsManager.T_USER, StatsManager.T_EVENT), null, false, 0, monthlyRollup);
+		Map<String, Long> totals = new HashMap<>();
+		for(Stat s : stats) {
+			EventStat es = (EventStat) s;
+			totals.merge(es.getUserId() + "|" + es.getEventId(), es.getCount(), Long::sum);
+		}
+		return totals;
+	}
+
+	private Date getDayOfMonth(int monthsFromNow, int day) {
+		Calendar c = Calendar.getInstance();
+		c.set(Calendar.DAY_OF_MONTH, 1);
+		c.add(Calendar.MONTH, monthsFromNow);
+		c.set(Calendar.DAY_OF_MONTH, day);
+		c.set(Calendar.HOUR_OF_DAY, 0);
+		c.set(Calendar.MINUTE, 0);
+		c.set(Calendar.SECOND, 0);
+		c.set(Calendar.MILLISECOND, 0);
+		return c.getTime();
+	}
+
+	private Date getLastDayOfMonth(Date date) {
+		Calendar c = Calendar.getInstance();
+		c.setTime(date);
+		c.set(Calendar.DAY_OF_MONTH, c.getActualMaximum(Calendar.DAY_OF_MONTH));
+		return c.getTime();
+	}
+	
 	// Test JobRun related methods
 	@Test
 	public void testJobRunMethods() {
@@ -16,6 +16,7 @@ package org.sakaiproject.webapi.controllers;
 import org.sakaiproject.authz.api.SecurityService;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.entity.api.EntityManager;
+import org.sakaiproject.messaging.api.MessageListener;
 import org.sakaiproject.messaging.api.UserMessagingService;
 import org.sakaiproject.site.api.SiteService;
 import org.sakaiproject.tool.api.Session;
@@ -36,6 +37,7 @@ import javax.annotation.Resource;
 
 import lombok.extern.slf4j.Slf4j;
 
+import reactor.core.publisher.BufferOverflowStrategy;
 import reactor.core.publisher.Flux;
 
 @Slf4j
@@ -74,10 +76,16 @@ public class EventsController extends AbstractSakaiApiController {
             .map(i -> ServerSentEvent.<String>builder().event("ping").build())
             .doFinally(signalType -> log.debug("Ping flux ended with signal {}", signalType));
 
+        // A slow client only gets the latest events, rather than the server holding every event for it
+        int bufferSize = serverConfigurationService.getInt("sse.buffer.size", 256);
+
         return ResponseEntity.ok().header("X-Accel-Buffering", "no")
                 .body(Flux.merge(ping, Flux.<ServerSentEvent<String>>create(emitter -> {
 
-                    userMessagingService.listen("USER#" + session.getUserId(), message -> {
+                    String userTopic = "USER#" + session.getUserId();
+                    String pushTopic = "PUSH#" + session.getUserId();
+
+                    MessageListener userListener = message -> {
 
                         String event = "notifications";
 
@@ -89,9 +97,22 @@ public class EventsController extends AbstractSakaiApiController {
                         } catch (Exception e) {
                             log.error("Failed to emit SSE event", e);
                         }
-                    });
+                    };
 
-                    userMessagingService.listen("GENERAL", message -> {
+                    // Tool events, like new chat messages, named after the event they were pushed with
+                    MessageListener pushListener = message -> {
+
+                        try {
+                            emitter.next(ServerSentEvent.<String>builder()
+                            .event(message.getEvent())
+                            .data(mapper.writeValueAsString(message))
+                            .build());
+                        } catch (Exception e) {
+                            log.error("Failed to emit SSE event", e);
+                        }
+                    };
+
+                    MessageListener generalListener = message -> {
 
                         try {
                             emitter.next(ServerSentEvent.<String> builder()
@@ -100,7 +121,19 @@ public class EventsController extends AbstractSakaiApiController {
                         } catch (Exception e) {
                             log.error("Failed to emit SSE event", e);
                         }
+                    };
+
+                    userMessagingService.listen(userTopic, userListener);
+                    userMessagingService.listen(pushTopic, pushListener);
+                    userMessagingService.listen("GENERAL", generalListener);
+
+                    emitter.onDispose(() -> {
+
+                        userMessagingService.stopListening(userTopic, userListener);
+                        userMessagingService.stopListening(pushTopic, pushListener);
+                        userMessagingService.stopListening("GENERAL", generalListener);
                     });
-                })));
+                }).onBackpressureBuffer(bufferSize, dropped -> log.debug("Dropped SSE event {} for a slow client", dropped.event()),
+                        BufferOverflowStrategy.DROP_OLDEST)));
     }
 }
@@ -1,20 +1,35 @@
+self.registeredEvents = self.registeredEvents || new Set();
+
+const listenFor = event => {
+
+  self.eventSource.addEventListener(event, async message => {
+
+    const stripped = { type: message.type, data: JSON.parse(message.data) };
+    const clients = await self.clients.matchAll({ includeUncontrolled: true });
+    clients && clients.filter(c => c.visibilityState === "visible").forEach(c => c.postMessage(stripped));
+  });
+};
+
 self.addEventListener("message", clientEvent => {
 
   if (clientEvent.data === "close") {
     self.eventSource && self.eventSource.close();
     self.eventSource = undefined;
+    self.registeredEvents.clear();
   } else if (!self.eventSource) {
     self.eventSource = new EventSource("/api/users/me/events");
     self.eventSource.onerror = e => console.debug("events connection failed");
 
     self.eventSource.onopen = e => {
 
-      self.eventSource.addEventListener(clientEvent.data, async message => {
-
-        const stripped = { type: message.type, data: JSON.parse(message.data) };
-        const clients = await self.clients.matchAll({ includeUncontrolled: true });
-        clients && clients.filter(c => c.visibilityState === "visible").forEach(c => c.postMessage(stripped));
-      });
+      if (!self.registeredEvents.has(clientEvent.data)) {
+        self.registeredEvents.add(clientEvent.data);
+        listenFor(clientEvent.data);
+      }
     };
+  } else if (!self.registeredEvents.has(clientEvent.data)) {
+    // Another page, like a chat room, wants a different event from the same stream
+    self.registeredEvents.add(clientEvent.data);
+    listenFor(clientEvent.data);
   }
 });